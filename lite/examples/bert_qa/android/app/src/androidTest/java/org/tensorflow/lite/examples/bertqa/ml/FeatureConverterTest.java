@@ -0,0 +1,117 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.ml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.bertqa.tokenization.Vocabulary;
+
+/** Tests of {@link org.tensorflow.lite.examples.bertqa.ml.FeatureConverter} */
+@RunWith(AndroidJUnit4.class)
+public final class FeatureConverterTest {
+  private static final int MAX_QUERY_LEN = 4;
+  private static final int MAX_SEQ_LEN = 12;
+  private static final int DOC_STRIDE = 4;
+
+  // "[CLS] q [SEP]" before the context.
+  private static final int CONTEXT_START = 3;
+
+  private Vocabulary vocab;
+  private FeatureConverter converter;
+
+  @Before
+  public void setUp() {
+    vocab =
+        new Vocabulary(
+            Arrays.asList(
+                "[PAD]", "[UNK]", "[CLS]", "[SEP]", "q", "w0", "w1", "w2", "w3", "w4", "w5", "w6",
+                "w7", "w8", "w9", "w10", "w11", "w12", "w13"));
+    converter =
+        new FeatureConverter(
+            vocab, /* doLowerCase= */ true, MAX_QUERY_LEN, MAX_SEQ_LEN, DOC_STRIDE);
+  }
+
+  @Test
+  public void convertWindowsShouldMatchConvertForShortContext() {
+    List<Feature> features = new ArrayList<>();
+    assertThat(converter.convertWindows("q", "w0 w1 w2", features)).isEqualTo(1);
+
+    Feature expected = converter.convert("q", "w0 w1 w2");
+    Feature actual = features.get(0);
+    assertThat(actual.inputIds).isEqualTo(expected.inputIds);
+    assertThat(actual.inputMask).isEqualTo(expected.inputMask);
+    assertThat(actual.segmentIds).isEqualTo(expected.segmentIds);
+    assertThat(actual.tokenToOrigIndex).isEqualTo(expected.tokenToOrigIndex);
+    assertThat(actual.tokenIsMaxContext).isEqualTo(expected.tokenIsMaxContext);
+  }
+
+  @Test
+  public void convertWindowsShouldOverlapWindows() {
+    List<Feature> features = new ArrayList<>();
+    String context = "w0 w1 w2 w3 w4 w5 w6 w7 w8 w9 w10 w11 w12 w13";
+
+    // 8 context tokens fit into a window, and windows start 4 tokens apart.
+    assertThat(converter.convertWindows("q", context, features)).isEqualTo(3);
+    assertThat(firstContextWord(features.get(0))).isEqualTo("w0");
+    assertThat(firstContextWord(features.get(1))).isEqualTo("w4");
+    assertThat(firstContextWord(features.get(2))).isEqualTo("w8");
+
+    Feature last = features.get(2);
+    assertThat(last.inputIds[CONTEXT_START + 5]).isEqualTo(vocab.getId("w13"));
+    assertThat(last.inputIds[CONTEXT_START + 6]).isEqualTo(vocab.getId("[SEP]"));
+    assertThat(last.inputMask[CONTEXT_START + 7]).isEqualTo(0);
+
+    // Windows are reused.
+    Feature first = features.get(0);
+    assertThat(converter.convertWindows("q", "w0", features)).isEqualTo(1);
+    assertThat(features.get(0)).isSameInstanceAs(first);
+  }
+
+  @Test
+  public void convertWindowsShouldPickOneMaxContextWindowPerToken() {
+    List<Feature> features = new ArrayList<>();
+    String context = "w0 w1 w2 w3 w4 w5 w6 w7 w8 w9 w10 w11 w12 w13";
+    int numWindows = converter.convertWindows("q", context, features);
+
+    int[] numMaxContexts = new int[14];
+    for (int windowIdx = 0; windowIdx < numWindows; windowIdx++) {
+      Feature feature = features.get(windowIdx);
+      for (int pos = 0; pos < MAX_SEQ_LEN; pos++) {
+        if (feature.tokenIsMaxContext[pos]) {
+          numMaxContexts[windowIdx * DOC_STRIDE + pos - CONTEXT_START]++;
+        }
+      }
+    }
+    for (int count : numMaxContexts) {
+      assertThat(count).isEqualTo(1);
+    }
+
+    // w5 has more context on both sides in the first window, w6 in the second one.
+    assertThat(features.get(0).tokenIsMaxContext[CONTEXT_START + 5]).isTrue();
+    assertThat(features.get(1).tokenIsMaxContext[CONTEXT_START + 2]).isTrue();
+  }
+
+  private static String firstContextWord(Feature feature) {
+    int wordIdx = feature.tokenToOrigIndex[CONTEXT_START];
+    return feature.getOrigText(wordIdx, wordIdx);
+  }
+}
@@ -0,0 +1,103 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.ml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests of {@link org.tensorflow.lite.examples.bertqa.ml.ModelRegistry} */
+@RunWith(AndroidJUnit4.class)
+public final class ModelRegistryTest {
+  private ModelRegistry registry;
+  private int numLoads;
+  private int numCloses;
+
+  @Before
+  public void setUp() {
+    registry = new ModelRegistry(new Handler(Looper.getMainLooper()));
+    numLoads = 0;
+    numCloses = 0;
+  }
+
+  @Test
+  public void acquireShouldLoadOnlyOnMiss() throws IOException {
+    ModelRegistry.Handle<AutoCloseable> first = registry.acquire("model", this::load);
+    ModelRegistry.Handle<AutoCloseable> second = registry.acquire("model", this::load);
+    assertThat(second.get()).isSameInstanceAs(first.get());
+    first.close();
+    second.close();
+
+    // Released values stay warm until the idle timeout.
+    ModelRegistry.Handle<AutoCloseable> third = registry.acquire("model", this::load);
+    assertThat(numLoads).isEqualTo(1);
+    assertThat(numCloses).isEqualTo(0);
+    third.close();
+
+    ModelRegistry.Stats stats = registry.getStats();
+    assertThat(stats.hitCount).isEqualTo(2);
+    assertThat(stats.missCount).isEqualTo(1);
+    assertThat(stats.size).isEqualTo(1);
+  }
+
+  @Test
+  public void trimMemoryShouldEvictOnlyIdleValues() throws IOException {
+    ModelRegistry.Handle<AutoCloseable> held = registry.acquire("held", this::load);
+    registry.acquire("idle", this::load).close();
+
+    // Hiding the UI is not memory pressure.
+    registry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+    assertThat(registry.getStats().size).isEqualTo(2);
+
+    registry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+    assertThat(numCloses).isEqualTo(1);
+    assertThat(registry.getStats().size).isEqualTo(1);
+    assertThat(registry.getStats().evictionCount).isEqualTo(1);
+
+    held.close();
+    registry.evictIdle();
+    assertThat(numCloses).isEqualTo(2);
+    assertThat(registry.getStats().size).isEqualTo(0);
+  }
+
+  @Test
+  public void failedLoadShouldNotBeCached() throws IOException {
+    assertThrows(
+        IOException.class,
+        () ->
+            registry.acquire(
+                "model",
+                () -> {
+                  throw new IOException("Broken model.");
+                }));
+    assertThat(registry.getStats().size).isEqualTo(0);
+
+    registry.acquire("model", this::load).close();
+    assertThat(numLoads).isEqualTo(1);
+  }
+
+  private AutoCloseable load() {
+    numLoads++;
+    return () -> numCloses++;
+  }
+}
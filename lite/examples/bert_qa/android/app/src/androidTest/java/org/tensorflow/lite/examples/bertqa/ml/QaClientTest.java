@@ -19,6 +19,7 @@ import static com.google.common.truth.Truth.assertThat;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
@@ -54,6 +55,64 @@ public final class QaClientTest {
     assertThat(getTexts(predict3)).contains("10 July 1856");
   }
 
+  @Test
+  public void testLongContent() {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 60; i++) {
+      content.append("The weather was mild and the river flowed quietly through the valley. ");
+    }
+    // Answer is far beyond the first window.
+    content.append("Nikola Tesla was born on 10 July 1856 in the village of Smiljan.");
+
+    List<QaAnswer> predict = client.predict("When was Tesla born?", content.toString());
+    assertThat(getTexts(predict)).contains("10 July 1856");
+  }
+
+  @Test
+  public void testPredictBatch() {
+    final String content =
+        "Nikola Tesla (10 July 1856 \u2013 7 January 1943) was a Serbian American inventor best"
+            + " known for his contributions to the modern alternating current (AC) electricity"
+            + " supply system.";
+
+    List<List<QaAnswer>> predicts =
+        client.predictBatch(
+            Arrays.asList(
+                "When was Tesla born?", "What does AC stand for?", "when was  TESLA born?"),
+            content);
+    assertThat(predicts).hasSize(3);
+    assertThat(getTexts(predicts.get(0))).contains("10 July 1856");
+    assertThat(getTexts(predicts.get(1))).contains("alternating current");
+    // Queries differing only in case and whitespace share answers.
+    assertThat(predicts.get(2)).isSameInstanceAs(predicts.get(0));
+    // Repeated questions are answered from the cache.
+    assertThat(client.predict("What does AC stand for?", content))
+        .isSameInstanceAs(predicts.get(1));
+  }
+
+  @Test
+  public void testPredictBatchOfManyWindows() {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 60; i++) {
+      content.append("The weather was mild and the river flowed quietly through the valley. ");
+    }
+    content.append("Nikola Tesla was born on 10 July 1856 in the village of Smiljan.");
+
+    // Every query has several windows, so the batch is run in more than one chunk.
+    List<String> queries =
+        Arrays.asList(
+            "When was Tesla born?",
+            "Where was Tesla born?",
+            "When was Nikola Tesla born?",
+            "In which village was Tesla born?");
+    List<List<QaAnswer>> predicts = client.predictBatch(queries, content.toString());
+    assertThat(predicts).hasSize(4);
+    assertThat(getTexts(predicts.get(0))).contains("10 July 1856");
+    assertThat(getTexts(predicts.get(1))).contains("Smiljan");
+    assertThat(getTexts(predicts.get(2))).contains("10 July 1856");
+    assertThat(getTexts(predicts.get(3))).contains("Smiljan");
+  }
+
   private static List<String> getTexts(List<QaAnswer> answers) {
     List<String> texts = new ArrayList<>();
     for (QaAnswer ans : answers) {
@@ -0,0 +1,191 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.ml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.bertqa.tokenization.Vocabulary;
+
+/**
+ * Compares answer decoding of the sort-based implementation QaClient used to have with {@link
+ * SpanDecoder} on random logits of multi-window contexts. Results are logged as decodes per second.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class SpanDecoderBenchmarkTest {
+  private static final String TAG = "BertBenchmark";
+  private static final int MAX_QUERY_LEN = 64;
+  private static final int MAX_SEQ_LEN = 384;
+  private static final int MAX_ANS_LEN = 32;
+  private static final int N_BEST = 5;
+  private static final int NUM_ANSWERS = 5;
+  private static final int NUM_CONTEXT_WORDS = 800;
+  private static final int NUM_LOGIT_SETS = 16;
+  private static final int WARMUP_ROUNDS = 50;
+  private static final int MEASURED_ROUNDS = 500;
+
+  private final List<Feature> features = new ArrayList<>();
+  private int numWindows;
+  private float[][][] startLogits;
+  private float[][][] endLogits;
+
+  @Before
+  public void setUp() {
+    List<String> tokens = new ArrayList<>(Arrays.asList("[PAD]", "[UNK]", "[CLS]", "[SEP]"));
+    StringBuilder context = new StringBuilder();
+    for (int i = 0; i < NUM_CONTEXT_WORDS; i++) {
+      tokens.add("w" + i);
+      context.append("w").append(i).append(' ');
+    }
+    FeatureConverter converter =
+        new FeatureConverter(
+            new Vocabulary(tokens), /* doLowerCase= */ true, MAX_QUERY_LEN, MAX_SEQ_LEN);
+    numWindows = converter.convertWindows("w1 w2 w3", context.toString(), features);
+    assertThat(numWindows).isGreaterThan(1);
+
+    // Logits are quantized so that ties occur, which both implementations must break alike.
+    Random random = new Random(42);
+    startLogits = new float[NUM_LOGIT_SETS][numWindows][MAX_SEQ_LEN];
+    endLogits = new float[NUM_LOGIT_SETS][numWindows][MAX_SEQ_LEN];
+    for (int set = 0; set < NUM_LOGIT_SETS; set++) {
+      for (int window = 0; window < numWindows; window++) {
+        for (int i = 0; i < MAX_SEQ_LEN; i++) {
+          startLogits[set][window][i] = random.nextInt(200) / 10f;
+          endLogits[set][window][i] = random.nextInt(200) / 10f;
+        }
+        // Plant a short valid answer, so that every set has some spans.
+        int start = 100 + random.nextInt(100);
+        startLogits[set][window][start] = 30;
+        endLogits[set][window][start + random.nextInt(4)] = 30;
+      }
+    }
+  }
+
+  @Test
+  public void spanDecoderBenchmark() {
+    SpanDecoder decoder = new SpanDecoder(MAX_SEQ_LEN, N_BEST, NUM_ANSWERS, MAX_ANS_LEN);
+    for (int set = 0; set < NUM_LOGIT_SETS; set++) {
+      List<int[]> expected = decodeWithSort(startLogits[set], endLogits[set]);
+      decode(decoder, startLogits[set], endLogits[set]);
+      assertThat(decoder.getNumSpans()).isEqualTo(expected.size());
+      assertThat(decoder.getNumSpans()).isGreaterThan(0);
+      for (int i = 0; i < decoder.getNumSpans(); i++) {
+        int[] span = expected.get(i);
+        assertThat(decoder.getWindow(i)).isEqualTo(span[0]);
+        assertThat(decoder.getStart(i)).isEqualTo(span[1]);
+        assertThat(decoder.getEnd(i)).isEqualTo(span[2]);
+      }
+    }
+
+    long sortNanos = 0;
+    long decoderNanos = 0;
+    int numDecodes = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+      int set = round % NUM_LOGIT_SETS;
+      long startNanos = System.nanoTime();
+      decodeWithSort(startLogits[set], endLogits[set]);
+      long midNanos = System.nanoTime();
+      decode(decoder, startLogits[set], endLogits[set]);
+      long endNanos = System.nanoTime();
+
+      if (round >= WARMUP_ROUNDS) {
+        sortNanos += midNanos - startNanos;
+        decoderNanos += endNanos - midNanos;
+        numDecodes++;
+      }
+    }
+
+    Log.i(
+        TAG,
+        String.format(
+            "%d windows. Sort: %.0f decodes/s, span decoder: %.0f decodes/s",
+            numWindows, numDecodes * 1e9 / sortNanos, numDecodes * 1e9 / decoderNanos));
+  }
+
+  private void decode(SpanDecoder decoder, float[][] startLogits, float[][] endLogits) {
+    decoder.reset();
+    for (int window = 0; window < numWindows; window++) {
+      decoder.addWindow(window, features.get(window), startLogits[window], endLogits[window]);
+    }
+    decoder.finish();
+  }
+
+  // Answer decoding as QaClient used to do it, returning {window, start, end} of every answer.
+  private List<int[]> decodeWithSort(float[][] startLogits, float[][] endLogits) {
+    List<Span> spans = new ArrayList<>();
+    for (int window = 0; window < numWindows; window++) {
+      Feature feature = features.get(window);
+      for (int start : getBestIndex(startLogits[window])) {
+        for (int end : getBestIndex(endLogits[window])) {
+          if (feature.tokenToOrigIndex[start] == Feature.NOT_IN_CONTEXT
+              || feature.tokenToOrigIndex[end] == Feature.NOT_IN_CONTEXT
+              || !feature.tokenIsMaxContext[start]
+              || end < start
+              || end - start + 1 > MAX_ANS_LEN) {
+            continue;
+          }
+          float logit = startLogits[window][start] + endLogits[window][end];
+          spans.add(new Span(window, new QaAnswer.Pos(start, end, logit)));
+        }
+      }
+    }
+    Collections.sort(spans);
+
+    List<int[]> answers = new ArrayList<>();
+    for (int i = 0; i < spans.size() && i < NUM_ANSWERS; i++) {
+      Span span = spans.get(i);
+      answers.add(new int[] {span.window, span.pos.start, span.pos.end});
+    }
+    return answers;
+  }
+
+  private static int[] getBestIndex(float[] logits) {
+    List<QaAnswer.Pos> tmpList = new ArrayList<>();
+    for (int i = 0; i < MAX_SEQ_LEN; i++) {
+      tmpList.add(new QaAnswer.Pos(i, i, logits[i]));
+    }
+    Collections.sort(tmpList);
+
+    int[] indexes = new int[N_BEST];
+    for (int i = 0; i < N_BEST; i++) {
+      indexes[i] = tmpList.get(i).start;
+    }
+    return indexes;
+  }
+
+  private static final class Span implements Comparable<Span> {
+    final int window;
+    final QaAnswer.Pos pos;
+
+    Span(int window, QaAnswer.Pos pos) {
+      this.window = window;
+      this.pos = pos;
+    }
+
+    @Override
+    public int compareTo(Span other) {
+      return pos.compareTo(other.pos);
+    }
+  }
+}
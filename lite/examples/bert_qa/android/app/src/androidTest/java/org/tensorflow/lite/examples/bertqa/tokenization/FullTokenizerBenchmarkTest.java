@@ -0,0 +1,106 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.tokenization;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.bertqa.ml.LoadDatasetClient;
+import org.tensorflow.lite.examples.bertqa.ml.ModelHelper;
+import org.tensorflow.lite.support.metadata.MetadataExtractor;
+
+/**
+ * Compares tokenization throughput of the string-based pipeline ({@link FullTokenizer#tokenize}
+ * followed by {@link FullTokenizer#convertTokensToIds}) and {@link FullTokenizer#tokenizeToIds}
+ * on the bundled dataset. Results are logged as tokens per second.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class FullTokenizerBenchmarkTest {
+  private static final String TAG = "BertBenchmark";
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int MEASURED_ROUNDS = 10;
+
+  private Vocabulary dic;
+  private String[] contents;
+
+  @Before
+  public void setUp() throws IOException {
+    Context context = ApplicationProvider.getApplicationContext();
+    ByteBuffer buffer = ModelHelper.loadModelFile(context);
+    dic = ModelHelper.extractDictionary(new MetadataExtractor(buffer));
+    assertThat(dic).isNotNull();
+
+    LoadDatasetClient datasetClient = new LoadDatasetClient(context);
+    contents = new String[datasetClient.getTitles().length];
+    for (int index = 0; index < contents.length; index++) {
+      contents[index] = datasetClient.getContent(index);
+    }
+  }
+
+  @Test
+  public void tokenizeToIdsBenchmark() {
+    FullTokenizer tokenizer = new FullTokenizer(dic, /* doLowerCase= */ true);
+    int maxContentLength = 0;
+    for (String content : contents) {
+      maxContentLength = Math.max(maxContentLength, content.length());
+    }
+    // Every char produces at most one id.
+    int[] ids = new int[maxContentLength];
+
+    for (String content : contents) {
+      List<Integer> expectedIds = tokenizer.convertTokensToIds(tokenizer.tokenize(content));
+      int numIds = tokenizer.tokenizeToIds(content, 0, content.length(), ids, 0, ids.length);
+      assertThat(numIds).isEqualTo(expectedIds.size());
+      for (int index = 0; index < numIds; index++) {
+        assertThat(ids[index]).isEqualTo(expectedIds.get(index));
+      }
+    }
+
+    long numTokens = 0;
+    long stringPipelineNanos = 0;
+    long idPipelineNanos = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+      boolean measured = round >= WARMUP_ROUNDS;
+      for (String content : contents) {
+        long startNanos = System.nanoTime();
+        List<Integer> tokenIds = tokenizer.convertTokensToIds(tokenizer.tokenize(content));
+        long midNanos = System.nanoTime();
+        tokenizer.tokenizeToIds(content, 0, content.length(), ids, 0, ids.length);
+        long endNanos = System.nanoTime();
+
+        if (measured) {
+          numTokens += tokenIds.size();
+          stringPipelineNanos += midNanos - startNanos;
+          idPipelineNanos += endNanos - midNanos;
+        }
+      }
+    }
+
+    Log.i(
+        TAG,
+        String.format(
+            "String pipeline: %.0f tokens/s, id pipeline: %.0f tokens/s",
+            numTokens * 1e9 / stringPipelineNanos, numTokens * 1e9 / idPipelineNanos));
+  }
+}
@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -33,7 +32,7 @@ import org.tensorflow.lite.support.metadata.MetadataExtractor;
 /** Tests of {@link org.tensorflow.lite.examples.bertqa.tokenization.FullTokenizer} */
 @RunWith(AndroidJUnit4.class)
 public final class FullTokenizerTest {
-  private Map<String, Integer> dic;
+  private Vocabulary dic;
 
   @Before
   public void setUp() throws IOException {
@@ -41,7 +40,7 @@ public final class FullTokenizerTest {
     MetadataExtractor metadataExtractor = new MetadataExtractor(buffer);
     dic = ModelHelper.extractDictionary(metadataExtractor);
     assertThat(dic).isNotNull();
-    assertThat(dic).isNotEmpty();
+    assertThat(dic.size()).isGreaterThan(0);
   }
 
   @Test
@@ -65,4 +64,20 @@ public final class FullTokenizerTest {
         .containsExactly(2204, 2851, 1010, 1045, 1005, 1049, 2115, 3836, 1012)
         .inOrder();
   }
+
+  @Test
+  public void tokenizeToIdsTest() throws Exception {
+    FullTokenizer tokenizer = new FullTokenizer(dic, /* doLowerCase= */ true);
+    String text = "> Good morning, I'm your teacher.\n";
+    int[] ids = new int[12];
+
+    assertThat(tokenizer.tokenizeToIds(text, 2, text.length(), ids, 1, 10)).isEqualTo(9);
+    assertThat(Arrays.copyOfRange(ids, 1, 10))
+        .asList()
+        .containsExactly(2204, 2851, 1010, 1045, 1005, 1049, 2115, 3836, 1012)
+        .inOrder();
+
+    // Stops once the maximum number of ids is written.
+    assertThat(tokenizer.tokenizeToIds(text, 2, text.length(), ids, 0, 3)).isEqualTo(3);
+  }
 }
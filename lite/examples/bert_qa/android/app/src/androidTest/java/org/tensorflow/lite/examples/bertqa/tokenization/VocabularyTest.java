@@ -0,0 +1,155 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.tokenization;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests of {@link org.tensorflow.lite.examples.bertqa.tokenization.Vocabulary} */
+@RunWith(AndroidJUnit4.class)
+public final class VocabularyTest {
+  private static final Vocabulary VOCAB =
+      new Vocabulary(
+          Arrays.asList(
+              "[PAD]", "[UNK]", "un", "##aff", "##able", "a", "##a", "able", "##ly", "a"));
+
+  @Test
+  public void getIdTest() throws Exception {
+    assertThat(VOCAB.size()).isEqualTo(10);
+    assertThat(VOCAB.getId("un")).isEqualTo(2);
+    assertThat(VOCAB.getId("##able")).isEqualTo(4);
+    assertThat(VOCAB.getId("able")).isEqualTo(7);
+    // Duplicate tokens map to their last id.
+    assertThat(VOCAB.getId("a")).isEqualTo(9);
+    assertThat(VOCAB.getId("ab")).isEqualTo(Vocabulary.NOT_FOUND);
+    assertThat(VOCAB.getId("")).isEqualTo(Vocabulary.NOT_FOUND);
+    assertThat(VOCAB.getToken(3)).isEqualTo("##aff");
+  }
+
+  @Test
+  public void tokenizeWordTest() throws Exception {
+    WordpieceTokenizer tokenizer = new WordpieceTokenizer(VOCAB);
+    int[] ids = new int[16];
+
+    String text = "xx unaffable";
+    assertThat(tokenizer.tokenizeWord(text, 3, text.length(), ids, 1)).isEqualTo(3);
+    assertThat(Arrays.copyOfRange(ids, 1, 4)).asList().containsExactly(2, 3, 4).inOrder();
+
+    // "##" pieces are only used after the first one.
+    assertThat(tokenizer.tokenizeWord("aable", 0, 5, ids, 0)).isEqualTo(2);
+    assertThat(Arrays.copyOf(ids, 2)).asList().containsExactly(9, 4).inOrder();
+
+    // Unknown remainder turns the whole word into [UNK].
+    assertThat(tokenizer.tokenizeWord("unx", 0, 3, ids, 0)).isEqualTo(1);
+    assertThat(ids[0]).isEqualTo(1);
+  }
+
+  @Test
+  public void tokenizeTest() throws Exception {
+    WordpieceTokenizer tokenizer = new WordpieceTokenizer(VOCAB);
+    assertThat(tokenizer.tokenize("unaffable  ablely xyz"))
+        .containsExactly("un", "##aff", "##able", "able", "##ly", "[UNK]")
+        .inOrder();
+  }
+
+  @Test
+  public void snapshotTest() throws Exception {
+    File file = File.createTempFile("vocab", ".snapshot");
+    try {
+      VocabularySnapshot.write(VOCAB, /* sourceKey= */ 7, /* sourceChecksum= */ 42, file);
+      Vocabulary vocab = VocabularySnapshot.read(file, /* sourceKey= */ 7);
+      assertThat(vocab.size()).isEqualTo(VOCAB.size());
+      for (int id = 0; id < VOCAB.size(); id++) {
+        assertThat(vocab.getToken(id)).isEqualTo(VOCAB.getToken(id));
+      }
+      assertThat(vocab.getId("a")).isEqualTo(9);
+      assertThat(vocab.getId("ab")).isEqualTo(Vocabulary.NOT_FOUND);
+      assertThat(new WordpieceTokenizer(vocab).tokenize("unaffable  ablely xyz"))
+          .containsExactly("un", "##aff", "##able", "able", "##ly", "[UNK]")
+          .inOrder();
+
+      // Snapshots made under another key are ignored, until their checksum is confirmed and the
+      // key replaced.
+      assertThat(VocabularySnapshot.read(file, /* sourceKey= */ 8)).isNull();
+      assertThat(VocabularySnapshot.readSourceChecksum(file)).isEqualTo(42);
+      VocabularySnapshot.writeSourceKey(file, /* sourceKey= */ 8);
+      assertThat(VocabularySnapshot.read(file, /* sourceKey= */ 8).getId("a")).isEqualTo(9);
+
+      try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+        truncated.setLength(truncated.length() / 2);
+      }
+      assertThrows(IOException.class, () -> VocabularySnapshot.read(file, 8));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void corruptSnapshotTest() throws Exception {
+    File file = File.createTempFile("vocab", ".snapshot");
+    try {
+      // A token count beyond the file.
+      VocabularySnapshot.write(VOCAB, /* sourceKey= */ 7, /* sourceChecksum= */ 42, file);
+      writeInt(file, /* offset= */ 24, Integer.MAX_VALUE);
+      assertThrows(IOException.class, () -> VocabularySnapshot.read(file, 7));
+
+      // A token ending before it starts.
+      VocabularySnapshot.write(VOCAB, /* sourceKey= */ 7, /* sourceChecksum= */ 42, file);
+      writeInt(file, /* offset= */ 32, 1000);
+      assertThrows(IOException.class, () -> VocabularySnapshot.read(file, 7));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void corruptTrieTest() throws Exception {
+    PrefixTrie trie = PrefixTrie.build(new String[] {"ab", "ac"}, new int[] {0, 1});
+    ByteBuffer buffer =
+        ByteBuffer.allocate(trie.getSerializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+    trie.write(buffer);
+
+    assertThat(PrefixTrie.read(readable(buffer), 2).get("ac")).isEqualTo(1);
+    // Values beyond the vocabulary.
+    assertThrows(IOException.class, () -> PrefixTrie.read(readable(buffer), 1));
+    // An edge to a node that does not exist, after the counts and the first edges of all nodes.
+    buffer.putInt(4 * (2 + trie.getNumNodes() + 1), trie.getNumNodes());
+    assertThrows(IOException.class, () -> PrefixTrie.read(readable(buffer), 2));
+  }
+
+  private static ByteBuffer readable(ByteBuffer buffer) {
+    ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    view.rewind();
+    return view;
+  }
+
+  private static void writeInt(File file, int offset, int value) throws IOException {
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.seek(offset);
+      // Snapshots are little-endian.
+      out.writeInt(Integer.reverseBytes(value));
+    }
+  }
+}
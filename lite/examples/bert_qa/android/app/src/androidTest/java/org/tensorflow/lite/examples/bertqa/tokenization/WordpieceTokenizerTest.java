@@ -20,7 +20,6 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Map;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -31,7 +30,7 @@ import org.tensorflow.lite.support.metadata.MetadataExtractor;
 /** Tests of {@link org.tensorflow.lite.examples.bertqa.tokenization.WordpieceTokenizer} */
 @RunWith(AndroidJUnit4.class)
 public final class WordpieceTokenizerTest {
-  private Map<String, Integer> dic;
+  private Vocabulary dic;
 
   @Before
   public void setUp() throws IOException {
@@ -39,7 +38,7 @@ public final class WordpieceTokenizerTest {
     MetadataExtractor metadataExtractor = new MetadataExtractor(buffer);
     dic = ModelHelper.extractDictionary(metadataExtractor);
     assertThat(dic).isNotNull();
-    assertThat(dic).isNotEmpty();
+    assertThat(dic.size()).isGreaterThan(0);
   }
 
   @Test
@@ -14,28 +14,113 @@ limitations under the License.
 ==============================================================================*/
 package org.tensorflow.lite.examples.bertqa.ml;
 
-import com.google.common.primitives.Ints;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
-/** Feature to be fed into the Bert model. */
+/**
+ * Feature to be fed into the Bert model.
+ *
+ * <p>All arrays have the length of the model input and can be refilled by {@link
+ * FeatureConverter#convert(String, String, Feature)} or {@link
+ * FeatureConverter#convertWindows(String, String, java.util.List)}, so that a feature can be
+ * reused between queries.
+ */
 public final class Feature {
+  /** Value of {@link #tokenToOrigIndex} for tokens that are not part of the context. */
+  public static final int NOT_IN_CONTEXT = -1;
+
   public final int[] inputIds;
   public final int[] inputMask;
   public final int[] segmentIds;
-  public final List<String> origTokens;
-  public final Map<Integer, Integer> tokenToOrigMap;
-
-  public Feature(
-      List<Integer> inputIds,
-      List<Integer> inputMask,
-      List<Integer> segmentIds,
-      List<String> origTokens,
-      Map<Integer, Integer> tokenToOrigMap) {
-    this.inputIds = Ints.toArray(inputIds);
-    this.inputMask = Ints.toArray(inputMask);
-    this.segmentIds = Ints.toArray(segmentIds);
-    this.origTokens = origTokens;
-    this.tokenToOrigMap = tokenToOrigMap;
+
+  /** Index of the original context word every token comes from, or {@link #NOT_IN_CONTEXT}. */
+  public final int[] tokenToOrigIndex;
+
+  /**
+   * Whether this feature gives a context token its maximum context, i.e. it is the best of all
+   * overlapping windows to predict an answer starting at the token.
+   */
+  public final boolean[] tokenIsMaxContext;
+
+  // Bitmaps of the tokens an answer may start at (context tokens with max context) and end at
+  // (context tokens), 64 tokens per word.
+  final long[] answerStartBits;
+  final long[] answerEndBits;
+
+  private String context = "";
+
+  // Char ranges of the original context words in the context.
+  private int[] origWordStarts;
+  private int[] origWordEnds;
+  private int numOrigWords = 0;
+
+  public Feature(int maxSeqLen) {
+    inputIds = new int[maxSeqLen];
+    inputMask = new int[maxSeqLen];
+    segmentIds = new int[maxSeqLen];
+    tokenToOrigIndex = new int[maxSeqLen];
+    tokenIsMaxContext = new boolean[maxSeqLen];
+    answerStartBits = new long[(maxSeqLen + 63) >>> 6];
+    answerEndBits = new long[(maxSeqLen + 63) >>> 6];
+    origWordStarts = new int[maxSeqLen];
+    origWordEnds = new int[maxSeqLen];
+  }
+
+  /** Returns original context words in the closed interval [startWord, endWord], space-joined. */
+  public String getOrigText(int startWord, int endWord) {
+    StringBuilder text = new StringBuilder();
+    for (int wordIdx = startWord; wordIdx <= endWord; wordIdx++) {
+      if (wordIdx > startWord) {
+        text.append(' ');
+      }
+      text.append(context, origWordStarts[wordIdx], origWordEnds[wordIdx]);
+    }
+    return text.toString();
+  }
+
+  public int getNumOrigWords() {
+    return numOrigWords;
+  }
+
+  void reset(String context) {
+    this.context = context;
+    numOrigWords = 0;
+    Arrays.fill(tokenToOrigIndex, NOT_IN_CONTEXT);
+    Arrays.fill(tokenIsMaxContext, false);
+    Arrays.fill(answerStartBits, 0);
+    Arrays.fill(answerEndBits, 0);
+  }
+
+  /** Whether an answer may start at the token. */
+  boolean isAnswerStart(int token) {
+    return (answerStartBits[token >>> 6] & (1L << token)) != 0;
+  }
+
+  /** Whether an answer may end at the token. */
+  boolean isAnswerEnd(int token) {
+    return (answerEndBits[token >>> 6] & (1L << token)) != 0;
+  }
+
+  /** Fills the answer bitmaps from the context tokens in [contextStart, contextEnd). */
+  void updateAnswerBits(int contextStart, int contextEnd) {
+    for (int token = contextStart; token < contextEnd; token++) {
+      if (tokenToOrigIndex[token] == NOT_IN_CONTEXT) {
+        continue;
+      }
+      answerEndBits[token >>> 6] |= 1L << token;
+      if (tokenIsMaxContext[token]) {
+        answerStartBits[token >>> 6] |= 1L << token;
+      }
+    }
+  }
+
+  /** Records the char range of the next original context word, and returns its index. */
+  int addOrigWord(int start, int end) {
+    if (numOrigWords == origWordStarts.length) {
+      origWordStarts = Arrays.copyOf(origWordStarts, numOrigWords * 2);
+      origWordEnds = Arrays.copyOf(origWordEnds, numOrigWords * 2);
+    }
+    origWordStarts[numOrigWords] = start;
+    origWordEnds[numOrigWords] = end;
+    return numOrigWords++;
   }
 }
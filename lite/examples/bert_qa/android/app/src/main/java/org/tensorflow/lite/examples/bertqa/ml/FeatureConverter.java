@@ -14,92 +14,337 @@ limitations under the License.
 ==============================================================================*/
 package org.tensorflow.lite.examples.bertqa.ml;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import org.tensorflow.lite.examples.bertqa.tokenization.FullTokenizer;
+import org.tensorflow.lite.examples.bertqa.tokenization.Vocabulary;
 
-/** Convert String to features that can be fed into BERT model. */
+/**
+ * Convert String to features that can be fed into BERT model.
+ *
+ * <p>Query and context are tokenized in a single pass straight into the feature arrays, without
+ * creating intermediate strings or boxed ids. Contexts longer than a single feature can be split
+ * into overlapping windows with {@link #convertWindows}. This class is not thread-safe.
+ */
 public final class FeatureConverter {
+  /** Default number of tokens between the starts of consecutive context windows. */
+  public static final int DEFAULT_DOC_STRIDE = 128;
+
+  private static final String CLS_TOKEN = "[CLS]";
+  private static final String SEP_TOKEN = "[SEP]";
+
+  private static final int INITIAL_CONTEXT_CAPACITY = 1024;
+  private static final int INITIAL_WINDOW_CAPACITY = 8;
+
   private final FullTokenizer tokenizer;
   private final int maxQueryLen;
   private final int maxSeqLen;
+  private final int docStride;
+  private final int clsId;
+  private final int sepId;
+
+  // Ids of the last query, which are reused as long as the query does not change.
+  private final int[] queryIds;
+  private int numQueryIds = 0;
+  private String cachedQuery = null;
+
+  // Ids of all context tokens of the last context, and the index of the original word every token
+  // comes from.
+  private String cachedContext = null;
+  private int[] docIds = new int[INITIAL_CONTEXT_CAPACITY];
+  private int[] docTokenToWord = new int[INITIAL_CONTEXT_CAPACITY];
+  private int numDocTokens = 0;
+
+  // Char ranges of the original context words.
+  private int[] docWordStarts = new int[INITIAL_CONTEXT_CAPACITY];
+  private int[] docWordEnds = new int[INITIAL_CONTEXT_CAPACITY];
+  private int numDocWords = 0;
+
+  // Context token ranges covered by the windows.
+  private int[] windowStarts = new int[INITIAL_WINDOW_CAPACITY];
+  private int[] windowLengths = new int[INITIAL_WINDOW_CAPACITY];
+  private int numWindows = 0;
+
+  public FeatureConverter(Vocabulary vocab, boolean doLowerCase, int maxQueryLen, int maxSeqLen) {
+    this(vocab, doLowerCase, maxQueryLen, maxSeqLen, DEFAULT_DOC_STRIDE);
+  }
 
   public FeatureConverter(
-      Map<String, Integer> inputDic, boolean doLowerCase, int maxQueryLen, int maxSeqLen) {
-    this.tokenizer = new FullTokenizer(inputDic, doLowerCase);
+      Vocabulary vocab, boolean doLowerCase, int maxQueryLen, int maxSeqLen, int docStride) {
+    if (maxQueryLen + 3 >= maxSeqLen) {
+      throw new IllegalArgumentException("maxSeqLen leaves no room for the context.");
+    }
+    if (docStride <= 0) {
+      throw new IllegalArgumentException("docStride must be positive.");
+    }
+    this.tokenizer = new FullTokenizer(vocab, doLowerCase);
     this.maxQueryLen = maxQueryLen;
     this.maxSeqLen = maxSeqLen;
+    this.docStride = docStride;
+    this.clsId = vocab.getId(CLS_TOKEN);
+    this.sepId = vocab.getId(SEP_TOKEN);
+    this.queryIds = new int[maxQueryLen];
   }
 
   public Feature convert(String query, String context) {
-    List<String> queryTokens = tokenizer.tokenize(query);
-    if (queryTokens.size() > maxQueryLen) {
-      queryTokens = queryTokens.subList(0, maxQueryLen);
+    Feature feature = new Feature(maxSeqLen);
+    convert(query, context, feature);
+    return feature;
+  }
+
+  /**
+   * Fills an existing feature, so that no memory is allocated. Context that does not fit into the
+   * feature is dropped, see {@link #convertWindows} to keep all of it.
+   *
+   * @param query question to answer.
+   * @param context text to find the answer in.
+   * @param feature feature to fill, created with the same max sequence length.
+   */
+  public void convert(String query, String context, Feature feature) {
+    feature.reset(context);
+    int[] inputIds = feature.inputIds;
+    int numTokens = putQuery(query, feature);
+
+    // For Text Input. -1 leaves room for the ending mark.
+    int contextStart = numTokens;
+    int maxContextEnd = maxSeqLen - 1;
+
+    // Original words are separated by whitespace, after trimming the context like String.trim().
+    int index = 0;
+    int contextEnd = context.length();
+    while (index < contextEnd && context.charAt(index) <= ' ') {
+      index++;
+    }
+    while (contextEnd > index && context.charAt(contextEnd - 1) <= ' ') {
+      contextEnd--;
     }
+    while (index < contextEnd && numTokens < maxContextEnd) {
+      int wordStart = index;
+      while (index < contextEnd && !isSplitChar(context.charAt(index))) {
+        index++;
+      }
+      int wordIdx = feature.addOrigWord(wordStart, index);
+
+      int numWordTokens =
+          tokenizer.tokenizeToIds(
+              context, wordStart, index, inputIds, numTokens, maxContextEnd - numTokens);
+      Arrays.fill(feature.tokenToOrigIndex, numTokens, numTokens + numWordTokens, wordIdx);
+      numTokens += numWordTokens;
 
-    List<String> origTokens = Arrays.asList(context.trim().split("\\s+"));
-    List<Integer> tokenToOrigIndex = new ArrayList<>();
-    List<String> allDocTokens = new ArrayList<>();
-    for (int i = 0; i < origTokens.size(); i++) {
-      String token = origTokens.get(i);
-      List<String> subTokens = tokenizer.tokenize(token);
-      for (String subToken : subTokens) {
-        tokenToOrigIndex.add(i);
-        allDocTokens.add(subToken);
+      while (index < contextEnd && isSplitChar(context.charAt(index))) {
+        index++;
       }
     }
+    // A single window is the max context of all its tokens.
+    Arrays.fill(feature.tokenIsMaxContext, contextStart, numTokens, true);
+
+    putContextEnd(feature, contextStart, numTokens);
+  }
+
+  /**
+   * Splits a context that may be too long for a single feature into overlapping windows, the way
+   * the original BERT implementation does with its doc stride.
+   *
+   * <p>Every window holds the query followed by up to {@code maxSeqLen - queryLength - 3} context
+   * tokens, and starts {@code docStride} tokens after the previous one. The context and the query
+   * are tokenized only once, no matter how many windows there are. Every context token is marked
+   * as max context in exactly one window, which should be used to score answers starting at it.
+   *
+   * @param query question to answer.
+   * @param context text to find the answer in.
+   * @param features features to fill. Features already in the list are reused, and new ones are
+   *     appended if there are not enough of them. Original word indices of every feature are local
+   *     to its window.
+   * @return number of windows, at least one. Only that many features at the start of the list are
+   *     filled.
+   */
+  public int convertWindows(String query, String context, List<Feature> features) {
+    return convertWindows(query, context, features, 0);
+  }
+
+  /**
+   * Same as {@link #convertWindows(String, String, List)}, but fills features starting at the
+   * given index of the list, so that windows of several queries can be put into one batch. The
+   * context is tokenized only once as long as it does not change between calls.
+   *
+   * @param firstFeature index of the feature to fill with the first window, at most the size of
+   *     the list.
+   */
+  public int convertWindows(
+      String query, String context, List<Feature> features, int firstFeature) {
+    tokenizeQuery(query);
+    if (!context.equals(cachedContext)) {
+      tokenizeContext(context);
+      cachedContext = context;
+    }
 
     // -3 accounts for [CLS], [SEP] and [SEP].
-    int maxContextLen = maxSeqLen - queryTokens.size() - 3;
-    if (allDocTokens.size() > maxContextLen) {
-      allDocTokens = allDocTokens.subList(0, maxContextLen);
+    int maxTokensForDoc = maxSeqLen - numQueryIds - 3;
+    numWindows = 0;
+    int windowStart = 0;
+    while (true) {
+      int length = Math.min(numDocTokens - windowStart, maxTokensForDoc);
+      addWindow(windowStart, length);
+      if (windowStart + length >= numDocTokens) {
+        break;
+      }
+      windowStart += Math.min(length, docStride);
     }
 
-    List<String> tokens = new ArrayList<>();
-    List<Integer> segmentIds = new ArrayList<>();
+    for (int windowIdx = 0; windowIdx < numWindows; windowIdx++) {
+      int featureIdx = firstFeature + windowIdx;
+      if (featureIdx == features.size()) {
+        features.add(new Feature(maxSeqLen));
+      }
+      putWindow(query, context, windowIdx, features.get(featureIdx));
+    }
+    return numWindows;
+  }
 
-    // Map token index to original index (in feature.origTokens).
-    Map<Integer, Integer> tokenToOrigMap = new HashMap<>();
+  private void putWindow(String query, String context, int windowIdx, Feature feature) {
+    feature.reset(context);
+    int numTokens = putQuery(query, feature);
+    int contextStart = numTokens;
+
+    int windowStart = windowStarts[windowIdx];
+    int windowEnd = windowStart + windowLengths[windowIdx];
+    if (windowEnd > windowStart) {
+      int firstWord = docTokenToWord[windowStart];
+      int lastWord = docTokenToWord[windowEnd - 1];
+      for (int wordIdx = firstWord; wordIdx <= lastWord; wordIdx++) {
+        feature.addOrigWord(docWordStarts[wordIdx], docWordEnds[wordIdx]);
+      }
+      for (int docToken = windowStart; docToken < windowEnd; docToken++) {
+        feature.inputIds[numTokens] = docIds[docToken];
+        feature.tokenToOrigIndex[numTokens] = docTokenToWord[docToken] - firstWord;
+        feature.tokenIsMaxContext[numTokens] = isMaxContext(windowIdx, docToken);
+        numTokens++;
+      }
+    }
+
+    putContextEnd(feature, contextStart, numTokens);
+  }
+
+  /**
+   * Whether the window gives the most context to a token, scored as in the original BERT code: the
+   * smaller of the left and right context, plus a small bonus for longer windows. The first of
+   * equally scored windows wins.
+   */
+  private boolean isMaxContext(int windowIdx, int docToken) {
+    int bestWindowIdx = windowIdx;
+    float bestScore = -1;
+    for (int idx = 0; idx < numWindows; idx++) {
+      int start = windowStarts[idx];
+      int end = start + windowLengths[idx] - 1;
+      if (docToken < start || docToken > end) {
+        continue;
+      }
+      float score = Math.min(docToken - start, end - docToken) + 0.01f * windowLengths[idx];
+      if (score > bestScore) {
+        bestScore = score;
+        bestWindowIdx = idx;
+      }
+    }
+    return bestWindowIdx == windowIdx;
+  }
+
+  // Writes [CLS] query [SEP] to the start of the feature, and returns the number of tokens.
+  private int putQuery(String query, Feature feature) {
+    tokenizeQuery(query);
+    int[] inputIds = feature.inputIds;
 
     // Start of generating the features.
-    tokens.add("[CLS]");
-    segmentIds.add(0);
+    int numTokens = 0;
+    inputIds[numTokens++] = clsId;
 
     // For query input.
-    for (String queryToken : queryTokens) {
-      tokens.add(queryToken);
-      segmentIds.add(0);
-    }
+    System.arraycopy(queryIds, 0, inputIds, numTokens, numQueryIds);
+    numTokens += numQueryIds;
 
     // For Separation.
-    tokens.add("[SEP]");
-    segmentIds.add(0);
-
-    // For Text Input.
-    for (int i = 0; i < allDocTokens.size(); i++) {
-      String docToken = allDocTokens.get(i);
-      tokens.add(docToken);
-      segmentIds.add(1);
-      tokenToOrigMap.put(tokens.size(), tokenToOrigIndex.get(i));
-    }
+    inputIds[numTokens++] = sepId;
+    Arrays.fill(feature.segmentIds, 0, numTokens, 0);
+    return numTokens;
+  }
+
+  // Writes the ending mark after the context tokens, and pads the rest of the feature.
+  private void putContextEnd(Feature feature, int contextStart, int numTokens) {
+    feature.updateAnswerBits(contextStart, numTokens);
 
     // For ending mark.
-    tokens.add("[SEP]");
-    segmentIds.add(1);
+    feature.inputIds[numTokens++] = sepId;
+    Arrays.fill(feature.segmentIds, contextStart, numTokens, 1);
+
+    Arrays.fill(feature.inputMask, 0, numTokens, 1);
+    Arrays.fill(feature.inputMask, numTokens, maxSeqLen, 0);
+    Arrays.fill(feature.inputIds, numTokens, maxSeqLen, 0);
+    Arrays.fill(feature.segmentIds, numTokens, maxSeqLen, 0);
+  }
 
-    List<Integer> inputIds = tokenizer.convertTokensToIds(tokens);
-    List<Integer> inputMask = new ArrayList<>(Collections.nCopies(inputIds.size(), 1));
+  private void tokenizeQuery(String query) {
+    if (query.equals(cachedQuery)) {
+      return;
+    }
+    numQueryIds = tokenizer.tokenizeToIds(query, 0, query.length(), queryIds, 0, maxQueryLen);
+    cachedQuery = query;
+  }
 
-    while (inputIds.size() < maxSeqLen) {
-      inputIds.add(0);
-      inputMask.add(0);
-      segmentIds.add(0);
+  // Tokenizes the whole context, splitting original words like convert() does.
+  private void tokenizeContext(String context) {
+    numDocTokens = 0;
+    numDocWords = 0;
+
+    int index = 0;
+    int contextEnd = context.length();
+    while (index < contextEnd && context.charAt(index) <= ' ') {
+      index++;
+    }
+    while (contextEnd > index && context.charAt(contextEnd - 1) <= ' ') {
+      contextEnd--;
     }
+    while (index < contextEnd) {
+      int wordStart = index;
+      while (index < contextEnd && !isSplitChar(context.charAt(index))) {
+        index++;
+      }
+      if (numDocWords == docWordStarts.length) {
+        docWordStarts = Arrays.copyOf(docWordStarts, numDocWords * 2);
+        docWordEnds = Arrays.copyOf(docWordEnds, numDocWords * 2);
+      }
+      docWordStarts[numDocWords] = wordStart;
+      docWordEnds[numDocWords] = index;
+
+      // A word never has more tokens than chars.
+      int maxWordTokens = index - wordStart;
+      if (numDocTokens + maxWordTokens > docIds.length) {
+        int capacity = Math.max(docIds.length * 2, numDocTokens + maxWordTokens);
+        docIds = Arrays.copyOf(docIds, capacity);
+        docTokenToWord = Arrays.copyOf(docTokenToWord, capacity);
+      }
+      int numWordTokens =
+          tokenizer.tokenizeToIds(context, wordStart, index, docIds, numDocTokens, maxWordTokens);
+      Arrays.fill(docTokenToWord, numDocTokens, numDocTokens + numWordTokens, numDocWords);
+      numDocTokens += numWordTokens;
+      numDocWords++;
+
+      while (index < contextEnd && isSplitChar(context.charAt(index))) {
+        index++;
+      }
+    }
+  }
+
+  private void addWindow(int start, int length) {
+    if (numWindows == windowStarts.length) {
+      windowStarts = Arrays.copyOf(windowStarts, numWindows * 2);
+      windowLengths = Arrays.copyOf(windowLengths, numWindows * 2);
+    }
+    windowStarts[numWindows] = start;
+    windowLengths[numWindows] = length;
+    numWindows++;
+  }
 
-    return new Feature(inputIds, inputMask, segmentIds, origTokens, tokenToOrigMap);
+  // Same chars as the "\\s" regular expression class.
+  private static boolean isSplitChar(char ch) {
+    return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
   }
 }
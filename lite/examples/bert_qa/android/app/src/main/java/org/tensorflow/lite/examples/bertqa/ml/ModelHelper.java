@@ -17,18 +17,28 @@ package org.tensorflow.lite.examples.bertqa.ml;
 import static com.google.common.base.Verify.verify;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.os.Build;
 import android.util.Log;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.tensorflow.lite.examples.bertqa.tokenization.Vocabulary;
+import org.tensorflow.lite.examples.bertqa.tokenization.VocabularySnapshot;
 import org.tensorflow.lite.support.metadata.MetadataExtractor;
 
 /** Helper to load TfLite model and dictionary. */
@@ -36,6 +46,7 @@ public class ModelHelper {
   private static final String TAG = "BertDemo";
   public static final String MODEL_PATH = "model.tflite";
   public static final String DIC_PATH = "vocab.txt";
+  private static final String DIC_SNAPSHOT_NAME = "vocab.snapshot";
 
   private ModelHelper() {}
 
@@ -56,8 +67,8 @@ public class ModelHelper {
   }
 
   /** Extract dictionary from metadata. */
-  public static Map<String, Integer> extractDictionary(MetadataExtractor metadataExtractor) {
-    Map<String, Integer> dic = null;
+  public static Vocabulary extractDictionary(MetadataExtractor metadataExtractor) {
+    Vocabulary dic = null;
     try {
       verify(metadataExtractor != null, "metadataExtractor can't be null.");
       dic = loadDictionaryFile(metadataExtractor.getAssociatedFile(DIC_PATH));
@@ -68,17 +79,118 @@ public class ModelHelper {
     return dic;
   }
 
-  /** Load dictionary from assets. */
-  public static Map<String, Integer> loadDictionaryFile(InputStream inputStream)
-      throws IOException {
-    Map<String, Integer> dic = new HashMap<>();
+  /**
+   * Extract dictionary from metadata through a {@link VocabularySnapshot} in the cache directory.
+   * The snapshot is created on the first call, and used as long as the dictionary file does not
+   * change.
+   *
+   * <p>The snapshot is keyed by {@link #computeSourceKey}, which does not read the dictionary. Only
+   * when the key changes, the dictionary is read and its checksum decides whether the snapshot is
+   * still up to date.
+   */
+  public static Vocabulary extractDictionary(MetadataExtractor metadataExtractor, Context context) {
+    try {
+      verify(metadataExtractor != null, "metadataExtractor can't be null.");
+      long sourceKey = computeSourceKey(context);
+      File snapshotFile = new File(context.getCacheDir(), DIC_SNAPSHOT_NAME);
+      boolean hasSnapshot = false;
+      if (snapshotFile.exists()) {
+        try {
+          Vocabulary dic = VocabularySnapshot.read(snapshotFile, sourceKey);
+          if (dic != null) {
+            Log.v(TAG, "Dictionary loaded from snapshot.");
+            return dic;
+          }
+          hasSnapshot = true;
+        } catch (IOException ex) {
+          Log.w(TAG, "Ignoring dictionary snapshot.", ex);
+        }
+      }
+
+      byte[] dicBytes = readFully(metadataExtractor.getAssociatedFile(DIC_PATH));
+      CRC32 crc = new CRC32();
+      crc.update(dicBytes, 0, dicBytes.length);
+      long checksum = crc.getValue();
+      if (hasSnapshot) {
+        try {
+          if (VocabularySnapshot.readSourceChecksum(snapshotFile) == checksum) {
+            VocabularySnapshot.writeSourceKey(snapshotFile, sourceKey);
+            Vocabulary dic = VocabularySnapshot.read(snapshotFile, sourceKey);
+            if (dic != null) {
+              Log.v(TAG, "Dictionary loaded from snapshot.");
+              return dic;
+            }
+          }
+        } catch (IOException ex) {
+          Log.w(TAG, "Ignoring dictionary snapshot.", ex);
+        }
+      }
+
+      Vocabulary dic = loadDictionaryFile(new ByteArrayInputStream(dicBytes));
+      Log.v(TAG, "Dictionary loaded.");
+      try {
+        VocabularySnapshot.write(dic, sourceKey, checksum, snapshotFile);
+      } catch (IOException ex) {
+        Log.w(TAG, "Cannot write dictionary snapshot.", ex);
+      }
+      return dic;
+    } catch (IOException ex) {
+      Log.e(TAG, ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Computes a key of the model file, which holds the dictionary, that changes whenever the file
+   * may have changed. Assets only change when the app is installed again, so the key combines the
+   * version code and the install time of the app with the size of the model. Unlike a checksum, it
+   * does not read the model.
+   */
+  static long computeSourceKey(Context context) throws IOException {
+    PackageInfo packageInfo;
+    try {
+      packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+    } catch (PackageManager.NameNotFoundException ex) {
+      throw new IOException("Cannot find the package of the app.", ex);
+    }
+    long modelSize;
+    try (AssetFileDescriptor fileDescriptor = context.getAssets().openFd(MODEL_PATH)) {
+      modelSize = fileDescriptor.getLength();
+    }
+    CRC32 key = new CRC32();
+    ByteBuffer keyBytes = ByteBuffer.allocate(3 * 8);
+    keyBytes.putLong(getVersionCode(packageInfo));
+    keyBytes.putLong(packageInfo.lastUpdateTime);
+    keyBytes.putLong(modelSize);
+    key.update(keyBytes.array());
+    return key.getValue();
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long getVersionCode(PackageInfo packageInfo) {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+        ? packageInfo.getLongVersionCode()
+        : packageInfo.versionCode;
+  }
+
+  private static byte[] readFully(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    int numRead;
+    while ((numRead = inputStream.read(chunk)) != -1) {
+      out.write(chunk, 0, numRead);
+    }
+    return out.toByteArray();
+  }
+
+  /** Load dictionary from assets. Token ids are line numbers. */
+  public static Vocabulary loadDictionaryFile(InputStream inputStream) throws IOException {
+    List<String> tokens = new ArrayList<>();
     try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-      int index = 0;
       while (reader.ready()) {
-        String key = reader.readLine();
-        dic.put(key, index++);
+        tokens.add(reader.readLine());
       }
     }
-    return dic;
+    return new Vocabulary(tokens);
   }
 }
@@ -0,0 +1,282 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.ml;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide cache of loaded interpreters, metadata and vocabularies, keyed by asset path.
+ *
+ * <p>Values are reference counted: {@link #acquire} loads a value on a miss and returns a handle,
+ * and closing the handle releases it. A value nobody holds stays warm for an idle timeout, so that
+ * showing a screen again does not map the model, parse its metadata and build an interpreter
+ * again. Idle values are evicted when the timeout expires, or right away when the system reports
+ * memory pressure. Evicted values that are {@link AutoCloseable} are closed.
+ *
+ * <p>Values are shared by all holders. Interpreters are not thread-safe, so holders that may run
+ * at the same time must synchronize on them.
+ */
+public final class ModelRegistry implements ComponentCallbacks2 {
+  private static final String TAG = "ModelRegistry";
+
+  /** Default time an unused value is kept warm. */
+  public static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+
+  private static ModelRegistry instance;
+
+  /** Loads a value on a cache miss. */
+  public interface Loader<T> {
+    T load() throws IOException;
+  }
+
+  private final Map<String, Entry> entries = new HashMap<>();
+  private final Handler handler;
+  private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+  private int hitCount = 0;
+  private int missCount = 0;
+  private int evictionCount = 0;
+  private long totalLoadNanos = 0;
+
+  ModelRegistry(Handler handler) {
+    this.handler = handler;
+  }
+
+  /** Returns the registry of the process, which is trimmed along with the application. */
+  public static synchronized ModelRegistry getInstance(Context context) {
+    if (instance == null) {
+      instance = new ModelRegistry(new Handler(Looper.getMainLooper()));
+      context.getApplicationContext().registerComponentCallbacks(instance);
+    }
+    return instance;
+  }
+
+  /**
+   * Returns a handle to the value of the key, loading it if it is not in the registry. All
+   * callers of a key must load the same kind of value.
+   */
+  public <T> Handle<T> acquire(String key, Loader<T> loader) throws IOException {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry(key);
+        entries.put(key, entry);
+      }
+      // A held entry is never evicted, so it can be loaded outside of the registry lock.
+      entry.refCount++;
+    }
+
+    // Concurrent callers of the same key wait for the first one to load it.
+    synchronized (entry) {
+      if (entry.value == null) {
+        long startNanos = System.nanoTime();
+        try {
+          entry.value = loader.load();
+        } catch (IOException | RuntimeException ex) {
+          release(entry);
+          throw ex;
+        }
+        entry.loadNanos = System.nanoTime() - startNanos;
+        synchronized (this) {
+          missCount++;
+          totalLoadNanos += entry.loadNanos;
+        }
+        Log.v(TAG, String.format(Locale.US, "Loaded %s in %d ms.", key, entry.loadNanos / 1000000));
+      } else {
+        synchronized (this) {
+          hitCount++;
+        }
+      }
+    }
+    return new Handle<>(this, entry);
+  }
+
+  /** Sets how long unused values are kept warm. */
+  public synchronized void setIdleTimeoutMs(long idleTimeoutMs) {
+    this.idleTimeoutMs = idleTimeoutMs;
+  }
+
+  /** Evicts all values nobody holds, regardless of the idle timeout. */
+  public void evictIdle() {
+    evictIdleSince(Long.MAX_VALUE);
+  }
+
+  public synchronized Stats getStats() {
+    return new Stats(hitCount, missCount, evictionCount, entries.size(), totalLoadNanos / 1000000);
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    // UI_HIDDEN alone is not memory pressure, and keeping values is the point of the registry.
+    if (level == TRIM_MEMORY_RUNNING_LOW
+        || level == TRIM_MEMORY_RUNNING_CRITICAL
+        || level >= TRIM_MEMORY_BACKGROUND) {
+      Log.v(TAG, "Trim memory, level " + level);
+      evictIdle();
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    evictIdle();
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {}
+
+  private void release(Entry entry) {
+    long timeoutMs;
+    synchronized (this) {
+      entry.refCount--;
+      if (entry.refCount > 0) {
+        return;
+      }
+      if (entry.value == null) {
+        // Loading failed, there is nothing to keep.
+        entries.remove(entry.key);
+        return;
+      }
+      entry.idleSinceMs = SystemClock.uptimeMillis();
+      timeoutMs = idleTimeoutMs;
+    }
+    handler.postDelayed(this::evictExpired, timeoutMs);
+  }
+
+  private void evictExpired() {
+    long idleTimeoutMs;
+    synchronized (this) {
+      idleTimeoutMs = this.idleTimeoutMs;
+    }
+    evictIdleSince(SystemClock.uptimeMillis() - idleTimeoutMs);
+  }
+
+  // Evicts entries nobody holds that have been idle since before the given uptime.
+  private void evictIdleSince(long uptimeMs) {
+    List<Entry> evicted = new ArrayList<>();
+    synchronized (this) {
+      Iterator<Entry> it = entries.values().iterator();
+      while (it.hasNext()) {
+        Entry entry = it.next();
+        if (entry.refCount == 0 && entry.idleSinceMs <= uptimeMs) {
+          it.remove();
+          evicted.add(entry);
+        }
+      }
+      evictionCount += evicted.size();
+    }
+    for (Entry entry : evicted) {
+      Log.v(TAG, "Evicted " + entry.key);
+      if (entry.value instanceof AutoCloseable) {
+        try {
+          ((AutoCloseable) entry.value).close();
+        } catch (Exception ex) {
+          Log.e(TAG, "Error closing " + entry.key, ex);
+        }
+      }
+    }
+  }
+
+  /** A reference to a value in the registry, which must be closed when it is no longer needed. */
+  public static final class Handle<T> implements Closeable {
+    private final ModelRegistry registry;
+    private final Entry entry;
+    private boolean closed = false;
+
+    private Handle(ModelRegistry registry, Entry entry) {
+      this.registry = registry;
+      this.entry = entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get() {
+      if (closed) {
+        throw new IllegalStateException("Handle is closed.");
+      }
+      return (T) entry.value;
+    }
+
+    /** Time it took to load the value, in milliseconds. */
+    public long getLoadTimeMs() {
+      return entry.loadNanos / 1000000;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        registry.release(entry);
+      }
+    }
+  }
+
+  /** Counters of the registry. */
+  public static final class Stats {
+    public final int hitCount;
+    public final int missCount;
+    public final int evictionCount;
+    public final int size;
+    /** Total time spent loading values on misses, in milliseconds. */
+    public final long totalLoadTimeMs;
+
+    Stats(int hitCount, int missCount, int evictionCount, int size, long totalLoadTimeMs) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.size = size;
+      this.totalLoadTimeMs = totalLoadTimeMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "hits: %d, misses: %d, evictions: %d, size: %d, load time: %d ms",
+          hitCount,
+          missCount,
+          evictionCount,
+          size,
+          totalLoadTimeMs);
+    }
+  }
+
+  private static final class Entry {
+    final String key;
+    // Guarded by the entry.
+    Object value;
+    long loadNanos;
+    // Guarded by the registry.
+    int refCount = 0;
+    long idleSinceMs = 0;
+
+    Entry(String key) {
+      this.key = key;
+    }
+  }
+}
@@ -19,15 +19,16 @@ import static com.google.common.base.Verify.verify;
 import android.content.Context;
 import android.util.Log;
 import androidx.annotation.WorkerThread;
-import com.google.common.base.Joiner;
+import com.google.common.base.Ascii;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.examples.bertqa.tokenization.Vocabulary;
 import org.tensorflow.lite.support.metadata.MetadataExtractor;
 import org.tensorflow.lite.support.metadata.schema.TensorMetadata;
 
@@ -40,7 +41,15 @@ public class QaClient implements AutoCloseable {
   private static final int MAX_SEQ_LEN = 384;
   private static final boolean DO_LOWER_CASE = true;
   private static final int PREDICT_ANS_NUM = 5;
+  private static final int N_BEST_SIZE = 5;
   private static final int NUM_LITE_THREADS = 4;
+  private static final int ANSWER_CACHE_SIZE = 64;
+  // Maximum number of windows run in a single model invocation. Larger batches are split into
+  // chunks of equal size, so interpreter memory does not grow with the content and query count.
+  private static final int MAX_BATCH_SIZE = 8;
+
+  private static final String METADATA_KEY = ModelHelper.MODEL_PATH + "#metadata";
+  private static final String VOCAB_KEY = ModelHelper.MODEL_PATH + "#" + ModelHelper.DIC_PATH;
 
   private static final String IDS_TENSOR_NAME = "ids";
   private static final String MASK_TENSOR_NAME = "mask";
@@ -48,116 +57,296 @@ public class QaClient implements AutoCloseable {
   private static final String END_LOGITS_TENSOR_NAME = "end_logits";
   private static final String START_LOGITS_TENSOR_NAME = "start_logits";
 
-  // Need to shift 1 for outputs ([CLS]).
-  private static final int OUTPUT_OFFSET = 1;
-
   private final Context context;
-  private final Map<String, Integer> dic = new HashMap<>();
-  private final FeatureConverter featureConverter;
+  private FeatureConverter featureConverter;
+  // Features of all context windows, reused between predictions.
+  private final List<Feature> features = new ArrayList<>();
+  private final SpanDecoder spanDecoder;
   private Interpreter tflite;
   private MetadataExtractor metadataExtractor = null;
-
-  private static final Joiner SPACE_JOINER = Joiner.on(" ");
+  // Handles of the model, its metadata and vocabulary, which are shared through the registry.
+  private final List<ModelRegistry.Handle<?>> modelHandles = new ArrayList<>();
+
+  // Model input and output indices, resolved when the model is loaded.
+  private int idsInputIdx;
+  private int maskInputIdx;
+  private int segmentIdsInputIdx;
+  private int endLogitsIdx;
+  private int startLogitsIdx;
+
+  // Logits of all context windows, reused between predictions.
+  private final List<float[]> startLogits = new ArrayList<>();
+  private final List<float[]> endLogits = new ArrayList<>();
+  // Logits of the windows that pad the last chunk of a batch, which are not used.
+  private final float[] paddingStartLogits = new float[MAX_SEQ_LEN];
+  private final float[] paddingEndLogits = new float[MAX_SEQ_LEN];
+
+  // Model inputs and outputs of a single chunk, reallocated only when the chunk size changes. Their
+  // rows point to the features and logits of the windows in the chunk. The interpreter may be
+  // shared with other clients, so it is resized before every run.
+  private final Object[] inputs = new Object[3];
+  private final Map<Integer, Object> outputs = new HashMap<>();
+  private int[][] inputIds;
+  private int[][] inputMask;
+  private int[][] segmentIds;
+  private float[][] chunkStartLogits;
+  private float[][] chunkEndLogits;
+  private int[] inputShape;
+  // Chunk size the input and output arrays are allocated for, or 0 before the first prediction.
+  private int batchSize = 0;
+
+  // Answers of recent queries, in access order.
+  private final Map<String, List<QaAnswer>> answerCache =
+      new LinkedHashMap<String, List<QaAnswer>>(ANSWER_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<QaAnswer>> eldest) {
+          return size() > ANSWER_CACHE_SIZE;
+        }
+      };
 
   public QaClient(Context context) {
+    this(context, PREDICT_ANS_NUM, N_BEST_SIZE);
+  }
+
+  /**
+   * @param numAnswers maximum number of answers to predict per query.
+   * @param nBestSize number of best start and end tokens of every window combined into answers.
+   */
+  public QaClient(Context context, int numAnswers, int nBestSize) {
     this.context = context;
-    this.featureConverter = new FeatureConverter(dic, DO_LOWER_CASE, MAX_QUERY_LEN, MAX_SEQ_LEN);
+    this.spanDecoder = new SpanDecoder(MAX_SEQ_LEN, nBestSize, numAnswers, MAX_ANS_LEN);
   }
 
+  /**
+   * Loads the model, its metadata and vocabulary. They are kept warm by the {@link ModelRegistry}
+   * after {@link #unload}, so loading them again is cheap.
+   */
   @WorkerThread
   public synchronized void loadModel() {
+    close();
     try {
-      ByteBuffer buffer = ModelHelper.loadModelFile(context);
-      metadataExtractor = new MetadataExtractor(buffer);
-      Map<String, Integer> loadedDic = ModelHelper.extractDictionary(metadataExtractor);
+      ModelRegistry registry = ModelRegistry.getInstance(context);
+      metadataExtractor =
+          acquire(
+              registry,
+              METADATA_KEY,
+              () -> new MetadataExtractor(ModelHelper.loadModelFile(context)));
+      Vocabulary loadedDic =
+          acquire(
+              registry,
+              VOCAB_KEY,
+              () -> ModelHelper.extractDictionary(metadataExtractor, context));
       verify(loadedDic != null, "dic can't be null.");
-      dic.putAll(loadedDic);
-
-      Interpreter.Options opt = new Interpreter.Options();
-      opt.setNumThreads(NUM_LITE_THREADS);
-      tflite = new Interpreter(buffer, opt);
-      Log.v(TAG, "TFLite model loaded.");
+      featureConverter =
+          new FeatureConverter(loadedDic, DO_LOWER_CASE, MAX_QUERY_LEN, MAX_SEQ_LEN);
+
+      tflite =
+          acquire(
+              registry,
+              ModelHelper.MODEL_PATH,
+              () -> {
+                Interpreter.Options opt = new Interpreter.Options();
+                opt.setNumThreads(NUM_LITE_THREADS);
+                return new Interpreter(ModelHelper.loadModelFile(context), opt);
+              });
+      resolveTensorOrder();
+      batchSize = 0;
+      Log.v(TAG, "TFLite model loaded. Registry " + registry.getStats());
     } catch (IOException ex) {
       Log.e(TAG, ex.getMessage());
     }
   }
 
+  private <T> T acquire(ModelRegistry registry, String key, ModelRegistry.Loader<T> loader)
+      throws IOException {
+    ModelRegistry.Handle<T> handle = registry.acquire(key, loader);
+    modelHandles.add(handle);
+    return handle.get();
+  }
+
   @WorkerThread
   public synchronized void unload() {
     close();
   }
 
+  /** Releases the model, which stays warm in the {@link ModelRegistry} for a while. */
   @Override
-  public void close() {
-    if (tflite != null) {
-      tflite.close();
-      tflite = null;
+  public synchronized void close() {
+    for (ModelRegistry.Handle<?> handle : modelHandles) {
+      handle.close();
     }
-    dic.clear();
+    modelHandles.clear();
+    tflite = null;
+    metadataExtractor = null;
+    featureConverter = null;
   }
 
-
   /**
-   * Input: Original content and query for the QA task. Later converted to Feature by
-   * FeatureConverter. Output: A String[] array of answers and a float[] array of corresponding
-   * logits.
+   * Input: Original content and query for the QA task. Later converted to Features by
+   * FeatureConverter. Output: A List of answers with their logits.
+   *
+   * <p>Content that is too long for a single model input is split into overlapping windows, which
+   * are run as a single batch. Answers are cached, see {@link #predictBatch(List, String)}.
    */
   @WorkerThread
   public synchronized List<QaAnswer> predict(String query, String content) {
+    return predictBatch(Collections.singletonList(query), content).get(0);
+  }
+
+  /**
+   * Answers several queries about the same content with as few model invocations as possible.
+   *
+   * <p>The content is tokenized only once, and the windows of all queries are run as one batch.
+   * Batches of more than 8 windows are split into chunks of equal size, padding the last one by
+   * repeating a window, so memory use stays bounded. Answers are kept in an LRU cache keyed on the
+   * normalized query and a hash of the content, so asking a question again about the same content
+   * does not run the model.
+   *
+   * @return answers of every query, in the order of the queries. The lists must not be modified.
+   */
+  @WorkerThread
+  public synchronized List<List<QaAnswer>> predictBatch(List<String> queries, String content) {
     Log.v(TAG, "TFLite model: " + ModelHelper.MODEL_PATH + " running...");
-    Log.v(TAG, "Convert Feature...");
-    Feature feature = featureConverter.convert(query, content);
-
-    Log.v(TAG, "Set inputs...");
-    int[][] inputIds = new int[1][MAX_SEQ_LEN];
-    int[][] inputMask = new int[1][MAX_SEQ_LEN];
-    int[][] segmentIds = new int[1][MAX_SEQ_LEN];
-    float[][] startLogits = new float[1][MAX_SEQ_LEN];
-    float[][] endLogits = new float[1][MAX_SEQ_LEN];
-
-    for (int j = 0; j < MAX_SEQ_LEN; j++) {
-      inputIds[0][j] = feature.inputIds[j];
-      inputMask[0][j] = feature.inputMask[j];
-      segmentIds[0][j] = feature.segmentIds[j];
+    long contentHash = hashContent(content);
+    String[] keys = new String[queries.size()];
+    Map<String, List<QaAnswer>> batchAnswers = new HashMap<>();
+    Map<String, Integer> pendingQueries = new LinkedHashMap<>();
+    for (int i = 0; i < queries.size(); i++) {
+      keys[i] = getCacheKey(queries.get(i), contentHash);
+      List<QaAnswer> cached = answerCache.get(keys[i]);
+      if (cached != null) {
+        batchAnswers.put(keys[i], cached);
+      } else if (!pendingQueries.containsKey(keys[i])) {
+        pendingQueries.put(keys[i], i);
+      }
+    }
+
+    if (!pendingQueries.isEmpty()) {
+      Log.v(TAG, "Convert Feature...");
+      int[] firstWindows = new int[pendingQueries.size()];
+      int[] numQueryWindows = new int[pendingQueries.size()];
+      int numWindows = 0;
+      int pendingIdx = 0;
+      for (int queryIdx : pendingQueries.values()) {
+        firstWindows[pendingIdx] = numWindows;
+        numQueryWindows[pendingIdx] =
+            featureConverter.convertWindows(queries.get(queryIdx), content, features, numWindows);
+        numWindows += numQueryWindows[pendingIdx];
+        pendingIdx++;
+      }
+
+      Log.v(TAG, "Run inference...");
+      int numChunks = (numWindows + MAX_BATCH_SIZE - 1) / MAX_BATCH_SIZE;
+      setBatchSize((numWindows + numChunks - 1) / numChunks);
+      while (startLogits.size() < numWindows) {
+        startLogits.add(new float[MAX_SEQ_LEN]);
+        endLogits.add(new float[MAX_SEQ_LEN]);
+      }
+      for (int chunkStart = 0; chunkStart < numWindows; chunkStart += batchSize) {
+        for (int row = 0; row < batchSize; row++) {
+          int windowIdx = chunkStart + row;
+          boolean isPadding = windowIdx >= numWindows;
+          Feature feature = features.get(isPadding ? numWindows - 1 : windowIdx);
+          inputIds[row] = feature.inputIds;
+          inputMask[row] = feature.inputMask;
+          segmentIds[row] = feature.segmentIds;
+          chunkStartLogits[row] = isPadding ? paddingStartLogits : startLogits.get(windowIdx);
+          chunkEndLogits[row] = isPadding ? paddingEndLogits : endLogits.get(windowIdx);
+        }
+
+        synchronized (tflite) {
+          // Resizing to the current shape is a no-op.
+          for (int i = 0; i < inputs.length; i++) {
+            tflite.resizeInput(i, inputShape);
+          }
+          tflite.runForMultipleInputsOutputs(inputs, outputs);
+        }
+      }
+
+      Log.v(TAG, "Convert answers...");
+      pendingIdx = 0;
+      for (String key : pendingQueries.keySet()) {
+        List<QaAnswer> answers =
+            Collections.unmodifiableList(
+                getBestAnswers(firstWindows[pendingIdx], numQueryWindows[pendingIdx]));
+        batchAnswers.put(key, answers);
+        answerCache.put(key, answers);
+        pendingIdx++;
+      }
     }
 
-    Object[] inputs = new Object[3];
+    List<List<QaAnswer>> results = new ArrayList<>(keys.length);
+    for (String key : keys) {
+      results.add(batchAnswers.get(key));
+    }
+    Log.v(TAG, "Finish.");
+    return results;
+  }
+
+  /** Reallocates the model input and output arrays for the given number of windows per chunk. */
+  private void setBatchSize(int chunkSize) {
+    if (chunkSize == batchSize) {
+      return;
+    }
+    inputIds = new int[chunkSize][];
+    inputMask = new int[chunkSize][];
+    segmentIds = new int[chunkSize][];
+    chunkStartLogits = new float[chunkSize][];
+    chunkEndLogits = new float[chunkSize][];
+    inputShape = new int[] {chunkSize, MAX_SEQ_LEN};
+
+    inputs[idsInputIdx] = inputIds;
+    inputs[maskInputIdx] = inputMask;
+    inputs[segmentIdsInputIdx] = segmentIds;
+    outputs.put(endLogitsIdx, chunkEndLogits);
+    outputs.put(startLogitsIdx, chunkStartLogits);
+    batchSize = chunkSize;
+  }
+
+  /** Resolves the order of the model inputs and outputs. */
+  private void resolveTensorOrder() {
+    // Hard-coded order, maybe changed according to metadata below.
+    idsInputIdx = 0;
+    maskInputIdx = 1;
+    segmentIdsInputIdx = 2;
     boolean useInputMetadata = false;
     if (metadataExtractor != null && metadataExtractor.getInputTensorCount() == 3) {
       // If metadata exists and the size of input tensors in metadata is 3, use metadata to treat
       // the tensor order. Since the order of input tensors can be different for different models,
       // set the inputs according to input tensor names.
       useInputMetadata = true;
+      int[] inputIdxs = new int[3];
       for (int i = 0; i < 3; i++) {
         TensorMetadata inputMetadata = metadataExtractor.getInputTensorMetadata(i);
         switch (inputMetadata.name()) {
           case IDS_TENSOR_NAME:
-            inputs[i] = inputIds;
+            inputIdxs[0] = i;
             break;
           case MASK_TENSOR_NAME:
-            inputs[i] = inputMask;
+            inputIdxs[1] = i;
             break;
           case SEGMENT_IDS_TENSOR_NAME:
-            inputs[i] = segmentIds;
+            inputIdxs[2] = i;
             break;
           default:
             Log.e(TAG, "Input name in metadata doesn't match the default input tensor names.");
             useInputMetadata = false;
         }
       }
+      if (useInputMetadata) {
+        idsInputIdx = inputIdxs[0];
+        maskInputIdx = inputIdxs[1];
+        segmentIdsInputIdx = inputIdxs[2];
+      }
     }
     if (!useInputMetadata) {
       // If metadata doesn't exists or doesn't contain the info, fail back to a hard-coded order.
       Log.v(TAG, "Use hard-coded order of input tensors.");
-      inputs[0] = inputIds;
-      inputs[1] = inputMask;
-      inputs[2] = segmentIds;
     }
 
-    Map<Integer, Object> output = new HashMap<>();
     // Hard-coded idx for output, maybe changed according to metadata below.
-    int endLogitsIdx = 0;
-    int startLogitsIdx = 1;
+    endLogitsIdx = 0;
+    startLogitsIdx = 1;
     boolean useOutputMetadata = false;
     if (metadataExtractor != null && metadataExtractor.getOutputTensorCount() == 2) {
       // If metadata exists and the size of output tensors in metadata is 2, use metadata to treat
@@ -184,92 +373,76 @@ public class QaClient implements AutoCloseable {
       endLogitsIdx = 0;
       startLogitsIdx = 1;
     }
-    output.put(endLogitsIdx, endLogits);
-    output.put(startLogitsIdx, startLogits);
-
-    Log.v(TAG, "Run inference...");
-    tflite.runForMultipleInputsOutputs(inputs, output);
-
-    Log.v(TAG, "Convert answers...");
-    List<QaAnswer> answers = getBestAnswers(startLogits[0], endLogits[0], feature);
-    Log.v(TAG, "Finish.");
-    return answers;
   }
 
-  /** Find the Best N answers & logits from the logits array and input feature. */
-  private synchronized List<QaAnswer> getBestAnswers(
-      float[] startLogits, float[] endLogits, Feature feature) {
-    // Model uses the closed interval [start, end] for indices.
-    int[] startIndexes = getBestIndex(startLogits);
-    int[] endIndexes = getBestIndex(endLogits);
-
-    List<QaAnswer.Pos> origResults = new ArrayList<>();
-    for (int start : startIndexes) {
-      for (int end : endIndexes) {
-        if (!feature.tokenToOrigMap.containsKey(start + OUTPUT_OFFSET)) {
-          continue;
-        }
-        if (!feature.tokenToOrigMap.containsKey(end + OUTPUT_OFFSET)) {
-          continue;
-        }
-        if (end < start) {
-          continue;
-        }
-        int length = end - start + 1;
-        if (length > MAX_ANS_LEN) {
-          continue;
-        }
-        origResults.add(new QaAnswer.Pos(start, end, startLogits[start] + endLogits[end]));
+  /**
+   * Builds the answer cache key. Queries that differ only in case and whitespace are tokenized the
+   * same way, so they share answers.
+   */
+  private static String getCacheKey(String query, long contentHash) {
+    StringBuilder key = new StringBuilder(query.length() + 17);
+    key.append(Long.toHexString(contentHash)).append(':');
+    int queryStart = key.length();
+    boolean pendingSpace = false;
+    for (int i = 0; i < query.length(); i++) {
+      char ch = query.charAt(i);
+      if (Character.isWhitespace(ch)) {
+        pendingSpace = true;
+        continue;
+      }
+      if (pendingSpace && key.length() > queryStart) {
+        key.append(' ');
       }
+      pendingSpace = false;
+      key.append(DO_LOWER_CASE ? Ascii.toLowerCase(ch) : ch);
     }
+    return key.toString();
+  }
 
-    Collections.sort(origResults);
+  /** 64-bit FNV-1a hash of the content, which makes collisions unlikely enough for the cache. */
+  private static long hashContent(String content) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < content.length(); i++) {
+      hash ^= content.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
 
-    List<QaAnswer> answers = new ArrayList<>();
-    for (int i = 0; i < origResults.size(); i++) {
-      if (i >= PREDICT_ANS_NUM) {
-        break;
-      }
+  /**
+   * Find the Best N answers & logits from the logits arrays and input features of all windows.
+   * Answers are only taken from the window that gives their start token the most context.
+   */
+  private synchronized List<QaAnswer> getBestAnswers(int firstWindow, int numWindows) {
+    spanDecoder.reset();
+    for (int windowIdx = firstWindow; windowIdx < firstWindow + numWindows; windowIdx++) {
+      spanDecoder.addWindow(
+          windowIdx, features.get(windowIdx), startLogits.get(windowIdx), endLogits.get(windowIdx));
+    }
+    spanDecoder.finish();
 
+    List<QaAnswer> answers = new ArrayList<>(spanDecoder.getNumSpans());
+    for (int i = 0; i < spanDecoder.getNumSpans(); i++) {
+      int start = spanDecoder.getStart(i);
+      int end = spanDecoder.getEnd(i);
+      Feature feature = features.get(spanDecoder.getWindow(i));
       String convertedText;
-      if (origResults.get(i).start > 0) {
-        convertedText = convertBack(feature, origResults.get(i).start, origResults.get(i).end);
+      if (start > 0) {
+        convertedText = convertBack(feature, start, end);
       } else {
         convertedText = "";
       }
-      QaAnswer ans = new QaAnswer(convertedText, origResults.get(i));
-      answers.add(ans);
+      answers.add(new QaAnswer(convertedText, start, end, spanDecoder.getLogit(i)));
     }
     return answers;
   }
 
-  /** Get the n-best logits from a list of all the logits. */
-  @WorkerThread
-  private synchronized int[] getBestIndex(float[] logits) {
-    List<QaAnswer.Pos> tmpList = new ArrayList<>();
-    for (int i = 0; i < MAX_SEQ_LEN; i++) {
-      tmpList.add(new QaAnswer.Pos(i, i, logits[i]));
-    }
-    Collections.sort(tmpList);
-
-    int[] indexes = new int[PREDICT_ANS_NUM];
-    for (int i = 0; i < PREDICT_ANS_NUM; i++) {
-      indexes[i] = tmpList.get(i).start;
-    }
-
-    return indexes;
-  }
-
   /** Convert the answer back to original text form. */
   @WorkerThread
   private static String convertBack(Feature feature, int start, int end) {
-     // Shifted index is: index of logits + offset.
-    int shiftedStart = start + OUTPUT_OFFSET;
-    int shiftedEnd = end + OUTPUT_OFFSET;
-    int startIndex = feature.tokenToOrigMap.get(shiftedStart);
-    int endIndex = feature.tokenToOrigMap.get(shiftedEnd);
-    // end + 1 for the closed interval.
-    String ans = SPACE_JOINER.join(feature.origTokens.subList(startIndex, endIndex + 1));
-    return ans;
+    // Logits are indexed the same way as input tokens.
+    int startIndex = feature.tokenToOrigIndex[start];
+    int endIndex = feature.tokenToOrigIndex[end];
+    return feature.getOrigText(startIndex, endIndex);
   }
 }
@@ -0,0 +1,264 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.ml;
+
+/**
+ * Finds the best answer spans from the start and end logits of one or more windows.
+ *
+ * <p>As in the original BERT implementation, the n-best start and end tokens of every window are
+ * combined into spans, which are kept if they lie in the context, start at a token the window
+ * gives the max context, and are at most {@code maxAnswerLen} tokens long. The best spans of all
+ * windows are ranked by the sum of their start and end logits.
+ *
+ * <p>The n-best tokens are selected with a bounded heap over the logits, and the best spans with
+ * another one, all stored in arrays allocated up front, so decoding allocates nothing. This class
+ * is not thread-safe.
+ */
+public final class SpanDecoder {
+  private final int maxSeqLen;
+  private final int nBest;
+  private final int numAnswers;
+  private final int maxAnswerLen;
+
+  // N-best token indices of the current window, best first.
+  private final int[] startCandidates;
+  private final int[] endCandidates;
+
+  // Bounded min-heap of the best spans so far, sorted best first by finish().
+  private final int[] spanWindows;
+  private final int[] spanStarts;
+  private final int[] spanEnds;
+  private final float[] spanLogits;
+  // Order in which spans were found, which breaks ties the way a stable sort would.
+  private final int[] spanOrders;
+  private int numSpans = 0;
+  private int nextOrder = 0;
+
+  /**
+   * @param maxSeqLen number of logits of every window.
+   * @param nBest number of start and end tokens of every window to combine into spans.
+   * @param numAnswers maximum number of spans to keep.
+   * @param maxAnswerLen maximum number of tokens of a span.
+   */
+  public SpanDecoder(int maxSeqLen, int nBest, int numAnswers, int maxAnswerLen) {
+    if (nBest <= 0 || nBest > maxSeqLen) {
+      throw new IllegalArgumentException("nBest must be in [1, maxSeqLen].");
+    }
+    if (numAnswers <= 0) {
+      throw new IllegalArgumentException("numAnswers must be positive.");
+    }
+    this.maxSeqLen = maxSeqLen;
+    this.nBest = nBest;
+    this.numAnswers = numAnswers;
+    this.maxAnswerLen = maxAnswerLen;
+    startCandidates = new int[nBest];
+    endCandidates = new int[nBest];
+    spanWindows = new int[numAnswers];
+    spanStarts = new int[numAnswers];
+    spanEnds = new int[numAnswers];
+    spanLogits = new float[numAnswers];
+    spanOrders = new int[numAnswers];
+  }
+
+  /** Drops all spans, so that the decoder can be used for the next query. */
+  public void reset() {
+    numSpans = 0;
+    nextOrder = 0;
+  }
+
+  /**
+   * Adds the spans of a window.
+   *
+   * @param windowIdx index of the window, reported back by {@link #getWindow}.
+   * @param feature feature the logits are predicted for.
+   * @param startLogits start logits of the window, at least {@code maxSeqLen} of them.
+   * @param endLogits end logits of the window, at least {@code maxSeqLen} of them.
+   */
+  public void addWindow(int windowIdx, Feature feature, float[] startLogits, float[] endLogits) {
+    selectTopK(startLogits, maxSeqLen, startCandidates);
+    selectTopK(endLogits, maxSeqLen, endCandidates);
+
+    for (int startIdx = 0; startIdx < nBest; startIdx++) {
+      int start = startCandidates[startIdx];
+      if (!feature.isAnswerStart(start)) {
+        continue;
+      }
+      for (int endIdx = 0; endIdx < nBest; endIdx++) {
+        int end = endCandidates[endIdx];
+        // Model uses the closed interval [start, end] for indices.
+        if (end < start || end - start + 1 > maxAnswerLen || !feature.isAnswerEnd(end)) {
+          continue;
+        }
+        offerSpan(windowIdx, start, end, startLogits[start] + endLogits[end]);
+      }
+    }
+  }
+
+  /** Sorts the spans best first. Must be called after all windows are added. */
+  public void finish() {
+    // Heap sort: moving the worst span to the back leaves the best one at index 0.
+    for (int size = numSpans - 1; size > 0; size--) {
+      swapSpans(0, size);
+      siftDownSpan(0, size);
+    }
+  }
+
+  public int getNumSpans() {
+    return numSpans;
+  }
+
+  public int getWindow(int spanIdx) {
+    return spanWindows[spanIdx];
+  }
+
+  public int getStart(int spanIdx) {
+    return spanStarts[spanIdx];
+  }
+
+  public int getEnd(int spanIdx) {
+    return spanEnds[spanIdx];
+  }
+
+  public float getLogit(int spanIdx) {
+    return spanLogits[spanIdx];
+  }
+
+  /**
+   * Writes the indices of the {@code out.length} largest values in {@code values[0, length)} to
+   * {@code out}, largest first. Equal values are ordered by index.
+   */
+  static void selectTopK(float[] values, int length, int[] out) {
+    int k = out.length;
+    int size = 0;
+    for (int index = 0; index < length; index++) {
+      if (size < k) {
+        // Sift up the new index.
+        int pos = size++;
+        while (pos > 0) {
+          int parent = (pos - 1) >>> 1;
+          if (!isWorse(values, index, out[parent])) {
+            break;
+          }
+          out[pos] = out[parent];
+          pos = parent;
+        }
+        out[pos] = index;
+      } else if (isWorse(values, out[0], index)) {
+        siftDownIndex(values, out, index, 0, k);
+      }
+    }
+    // Heap sort: moving the worst index to the back leaves the best one at index 0.
+    for (int end = size - 1; end > 0; end--) {
+      int last = out[end];
+      out[end] = out[0];
+      siftDownIndex(values, out, last, 0, end);
+    }
+  }
+
+  // Whether values[a] ranks below values[b].
+  private static boolean isWorse(float[] values, int a, int b) {
+    return values[a] < values[b] || (values[a] == values[b] && a > b);
+  }
+
+  // Puts index at pos of the min-heap heap[0, size) and restores the heap order below it.
+  private static void siftDownIndex(float[] values, int[] heap, int index, int pos, int size) {
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && isWorse(values, heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!isWorse(values, heap[child], index)) {
+        break;
+      }
+      heap[pos] = heap[child];
+      pos = child;
+    }
+    heap[pos] = index;
+  }
+
+  private void offerSpan(int windowIdx, int start, int end, float logit) {
+    int order = nextOrder++;
+    int pos;
+    if (numSpans < numAnswers) {
+      pos = numSpans++;
+    } else if (spanLogits[0] < logit) {
+      // Replace the worst span. Spans found later lose ties, so an equal logit is not enough.
+      pos = 0;
+    } else {
+      return;
+    }
+    setSpan(pos, windowIdx, start, end, logit, order);
+    if (pos == 0 && numSpans == numAnswers) {
+      siftDownSpan(0, numSpans);
+    } else {
+      siftUpSpan(pos);
+    }
+  }
+
+  // Whether span a ranks below span b.
+  private boolean isWorseSpan(int a, int b) {
+    return spanLogits[a] < spanLogits[b]
+        || (spanLogits[a] == spanLogits[b] && spanOrders[a] > spanOrders[b]);
+  }
+
+  private void siftUpSpan(int pos) {
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      if (!isWorseSpan(pos, parent)) {
+        break;
+      }
+      swapSpans(pos, parent);
+      pos = parent;
+    }
+  }
+
+  private void siftDownSpan(int pos, int size) {
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && isWorseSpan(child + 1, child)) {
+        child++;
+      }
+      if (!isWorseSpan(child, pos)) {
+        break;
+      }
+      swapSpans(pos, child);
+      pos = child;
+    }
+  }
+
+  private void setSpan(int pos, int windowIdx, int start, int end, float logit, int order) {
+    spanWindows[pos] = windowIdx;
+    spanStarts[pos] = start;
+    spanEnds[pos] = end;
+    spanLogits[pos] = logit;
+    spanOrders[pos] = order;
+  }
+
+  private void swapSpans(int a, int b) {
+    int window = spanWindows[a];
+    int start = spanStarts[a];
+    int end = spanEnds[a];
+    float logit = spanLogits[a];
+    int order = spanOrders[a];
+    setSpan(a, spanWindows[b], spanStarts[b], spanEnds[b], spanLogits[b], spanOrders[b]);
+    setSpan(b, window, start, end, logit, order);
+  }
+}
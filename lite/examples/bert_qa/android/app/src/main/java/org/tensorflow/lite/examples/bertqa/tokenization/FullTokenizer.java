@@ -14,24 +14,38 @@ limitations under the License.
 ==============================================================================*/
 package org.tensorflow.lite.examples.bertqa.tokenization;
 
+import com.google.common.base.Ascii;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A java realization of Bert tokenization. Original python code:
  * https://github.com/google-research/bert/blob/master/tokenization.py runs full tokenization to
  * tokenize a String into split subtokens or ids.
+ *
+ * <p>{@link #tokenizeToIds} is not thread-safe, since it reuses internal buffers.
  */
 public final class FullTokenizer {
+  private static final int INITIAL_WORD_CAPACITY = 64;
+
   private final BasicTokenizer basicTokenizer;
   private final WordpieceTokenizer wordpieceTokenizer;
-  private final Map<String, Integer> dic;
+  private final Vocabulary vocab;
+  private final boolean doLowerCase;
+
+  // Cleaned and lower-cased chars of the current word, viewed as a CharSequence by wordView.
+  private char[] wordChars = new char[INITIAL_WORD_CAPACITY];
+  private CharBuffer wordView = CharBuffer.wrap(wordChars);
 
-  public FullTokenizer(Map<String, Integer> inputDic, boolean doLowerCase) {
-    dic = inputDic;
+  // Word piece ids of the current word, before they are copied to the output.
+  private final int[] pieceIds = new int[WordpieceTokenizer.MAX_INPUTCHARS_PER_WORD];
+
+  public FullTokenizer(Vocabulary vocab, boolean doLowerCase) {
+    this.vocab = vocab;
+    this.doLowerCase = doLowerCase;
     basicTokenizer = new BasicTokenizer(doLowerCase);
-    wordpieceTokenizer = new WordpieceTokenizer(inputDic);
+    wordpieceTokenizer = new WordpieceTokenizer(vocab);
   }
 
   public List<String> tokenize(String text) {
@@ -42,10 +56,82 @@ public final class FullTokenizer {
     return splitTokens;
   }
 
+  /**
+   * Tokenizes a range of text straight into word piece ids.
+   *
+   * <p>Produces the same ids as {@link #tokenize(String)} followed by {@link
+   * #convertTokensToIds(List)}, but in a single pass over the text: basic tokenization is done
+   * char by char into a reusable word buffer, which is then split into word pieces. No strings are
+   * created.
+   *
+   * @param text text to tokenize.
+   * @param start index of the first char to tokenize.
+   * @param end index after the last char to tokenize.
+   * @param outIds where to write the ids.
+   * @param outOffset index in {@code outIds} to write the first id at.
+   * @param maxIds maximum number of ids to write. Tokenization stops once it is reached.
+   * @return number of ids written.
+   */
+  public int tokenizeToIds(
+      CharSequence text, int start, int end, int[] outIds, int outOffset, int maxIds) {
+    if (text == null) {
+      throw new NullPointerException("The input String is null.");
+    }
+
+    int numIds = 0;
+    int wordLength = 0;
+    for (int index = start; index < end && numIds < maxIds; index++) {
+      char ch = text.charAt(index);
+
+      // Skip the characters that cannot be used.
+      if (CharChecker.isInvalid(ch) || CharChecker.isControl(ch)) {
+        continue;
+      }
+
+      if (CharChecker.isWhitespace(ch)) {
+        numIds += flushWord(wordLength, outIds, outOffset + numIds, maxIds - numIds);
+        wordLength = 0;
+      } else if (CharChecker.isPunctuation(ch)) {
+        // Every punctuation char is a word of its own.
+        numIds += flushWord(wordLength, outIds, outOffset + numIds, maxIds - numIds);
+        wordChars[0] = ch;
+        numIds += flushWord(1, outIds, outOffset + numIds, maxIds - numIds);
+        wordLength = 0;
+      } else {
+        if (wordLength == wordChars.length) {
+          growWordBuffer();
+        }
+        wordChars[wordLength++] = doLowerCase ? Ascii.toLowerCase(ch) : ch;
+      }
+    }
+    numIds += flushWord(wordLength, outIds, outOffset + numIds, maxIds - numIds);
+
+    return numIds;
+  }
+
+  // Splits the word in the word buffer into pieces, and writes at most maxIds of their ids.
+  private int flushWord(int wordLength, int[] outIds, int outOffset, int maxIds) {
+    if (wordLength == 0 || maxIds <= 0) {
+      return 0;
+    }
+    int numPieces = wordpieceTokenizer.tokenizeWord(wordView, 0, wordLength, pieceIds, 0);
+    int numIds = Math.min(numPieces, maxIds);
+    System.arraycopy(pieceIds, 0, outIds, outOffset, numIds);
+    return numIds;
+  }
+
+  private void growWordBuffer() {
+    char[] newWordChars = new char[wordChars.length * 2];
+    System.arraycopy(wordChars, 0, newWordChars, 0, wordChars.length);
+    wordChars = newWordChars;
+    wordView = CharBuffer.wrap(wordChars);
+  }
+
+  /** Converts tokens to their ids, or {@link Vocabulary#NOT_FOUND} for unknown tokens. */
   public List<Integer> convertTokensToIds(List<String> tokens) {
     List<Integer> outputIds = new ArrayList<>();
     for (String token : tokens) {
-      outputIds.add(dic.get(token));
+      outputIds.add(vocab.getId(token));
     }
     return outputIds;
   }
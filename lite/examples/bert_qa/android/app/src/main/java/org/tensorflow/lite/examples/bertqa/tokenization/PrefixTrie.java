@@ -0,0 +1,249 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.tokenization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable prefix trie mapping strings to int values, stored in primitive arrays.
+ *
+ * <p>Outgoing edges of every node are stored contiguously and sorted by label, so a child is found
+ * by binary search, and a lookup walks the key one char at a time without allocating.
+ */
+final class PrefixTrie {
+  static final int ROOT = 0;
+  static final int NO_NODE = -1;
+  static final int NO_VALUE = -1;
+
+  // Edges of node i are [firstEdge[i], firstEdge[i + 1]).
+  private final int[] firstEdge;
+  private final char[] edgeLabels;
+  private final int[] edgeTargets;
+  private final int[] values;
+
+  private PrefixTrie(int[] firstEdge, char[] edgeLabels, int[] edgeTargets, int[] values) {
+    this.firstEdge = firstEdge;
+    this.edgeLabels = edgeLabels;
+    this.edgeTargets = edgeTargets;
+    this.values = values;
+  }
+
+  /**
+   * Builds a trie. If a key occurs several times, its last value is kept.
+   *
+   * @param keys keys to insert.
+   * @param keyValues value of every key, must not be {@link #NO_VALUE}.
+   */
+  static PrefixTrie build(String[] keys, int[] keyValues) {
+    return new Builder(keys, keyValues).build();
+  }
+
+  /** Returns the child of a node reached by the given char, or {@link #NO_NODE}. */
+  int child(int node, char label) {
+    int low = firstEdge[node];
+    int high = firstEdge[node + 1] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midLabel = edgeLabels[mid];
+      if (midLabel < label) {
+        low = mid + 1;
+      } else if (midLabel > label) {
+        high = mid - 1;
+      } else {
+        return edgeTargets[mid];
+      }
+    }
+    return NO_NODE;
+  }
+
+  /** Returns the value stored at a node, or {@link #NO_VALUE}. */
+  int value(int node) {
+    return values[node];
+  }
+
+  /** Returns the value of a key, or {@link #NO_VALUE} if the key is not in the trie. */
+  int get(CharSequence key) {
+    int node = ROOT;
+    for (int index = 0; index < key.length() && node != NO_NODE; index++) {
+      node = child(node, key.charAt(index));
+    }
+    return node == NO_NODE ? NO_VALUE : values[node];
+  }
+
+  int getNumNodes() {
+    return values.length;
+  }
+
+  /** Number of bytes {@link #write} puts. */
+  int getSerializedSize() {
+    int numNodes = values.length;
+    int numEdges = edgeLabels.length;
+    // Node and edge counts, then the arrays. Labels are padded to a multiple of 4 bytes.
+    return 4 * (2 + (numNodes + 1) + numEdges + numNodes) + 2 * (numEdges + (numEdges & 1));
+  }
+
+  /** Writes the trie arrays to the buffer, in the buffer's byte order. */
+  void write(ByteBuffer buffer) {
+    buffer.putInt(values.length);
+    buffer.putInt(edgeLabels.length);
+    buffer.asIntBuffer().put(firstEdge).put(edgeTargets).put(values);
+    skip(buffer, 4 * (firstEdge.length + edgeTargets.length + values.length));
+    buffer.asCharBuffer().put(edgeLabels);
+    skip(buffer, 2 * (edgeLabels.length + (edgeLabels.length & 1)));
+  }
+
+  /**
+   * Reads a trie written by {@link #write}, copying its arrays in bulk.
+   *
+   * @param numValues bound of the values the trie may hold.
+   * @throws IOException if the counts do not fit in the buffer or the arrays are not a valid trie.
+   */
+  static PrefixTrie read(ByteBuffer buffer, int numValues) throws IOException {
+    if (buffer.remaining() < 8) {
+      throw new IOException("Truncated trie.");
+    }
+    int numNodes = buffer.getInt();
+    int numEdges = buffer.getInt();
+    if (numNodes <= 0 || numEdges < 0) {
+      throw new IOException("Invalid trie.");
+    }
+    // Check the counts against the buffer before allocating anything from them.
+    long numBytes = 4L * (2L * numNodes + 1 + numEdges) + 2L * (numEdges + (numEdges & 1));
+    if (numBytes > buffer.remaining()) {
+      throw new IOException("Truncated trie.");
+    }
+    int[] firstEdge = new int[numNodes + 1];
+    int[] edgeTargets = new int[numEdges];
+    int[] values = new int[numNodes];
+    char[] edgeLabels = new char[numEdges];
+    buffer.asIntBuffer().get(firstEdge).get(edgeTargets).get(values);
+    skip(buffer, 4 * (firstEdge.length + edgeTargets.length + values.length));
+    buffer.asCharBuffer().get(edgeLabels);
+    skip(buffer, 2 * (numEdges + (numEdges & 1)));
+
+    if (firstEdge[0] != 0 || firstEdge[numNodes] != numEdges) {
+      throw new IOException("Invalid trie.");
+    }
+    for (int node = 0; node < numNodes; node++) {
+      if (firstEdge[node] > firstEdge[node + 1]
+          || values[node] < NO_VALUE
+          || values[node] >= numValues) {
+        throw new IOException("Invalid trie.");
+      }
+    }
+    for (int target : edgeTargets) {
+      if (target <= ROOT || target >= numNodes) {
+        throw new IOException("Invalid trie.");
+      }
+    }
+    return new PrefixTrie(firstEdge, edgeLabels, edgeTargets, values);
+  }
+
+  // Views share the content but not the position of the buffer.
+  private static void skip(ByteBuffer buffer, int numBytes) {
+    buffer.position(buffer.position() + numBytes);
+  }
+
+  /**
+   * Builds the trie depth-first over sorted keys. Every node reserves all its edges before its
+   * children are created, which keeps edges of each node contiguous and ordered by node index.
+   */
+  private static final class Builder {
+    private final String[] keys;
+    private final int[] keyValues;
+    private final Integer[] order;
+
+    private final int[] firstEdge;
+    private final char[] edgeLabels;
+    private final int[] edgeTargets;
+    private final int[] values;
+    private int numNodes = 0;
+    private int numEdges = 0;
+
+    Builder(String[] keys, int[] keyValues) {
+      this.keys = keys;
+      this.keyValues = keyValues;
+
+      // Sorting is stable, so among equal keys the last one ends up last.
+      order = new Integer[keys.length];
+      for (int keyIdx = 0; keyIdx < keys.length; keyIdx++) {
+        order[keyIdx] = keyIdx;
+      }
+      Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+      // Every char of every key adds at most one node.
+      int maxNodes = 1;
+      for (String key : keys) {
+        maxNodes += key.length();
+      }
+      firstEdge = new int[maxNodes + 1];
+      edgeLabels = new char[maxNodes];
+      edgeTargets = new int[maxNodes];
+      values = new int[maxNodes];
+    }
+
+    PrefixTrie build() {
+      addNode(0, keys.length, 0);
+      firstEdge[numNodes] = numEdges;
+      return new PrefixTrie(
+          Arrays.copyOf(firstEdge, numNodes + 1),
+          Arrays.copyOf(edgeLabels, numEdges),
+          Arrays.copyOf(edgeTargets, numEdges),
+          Arrays.copyOf(values, numNodes));
+    }
+
+    // Adds a node for keys order[from, to), which share their first `depth` chars.
+    private int addNode(int from, int to, int depth) {
+      int node = numNodes++;
+      values[node] = NO_VALUE;
+
+      // Keys that end at this node sort first.
+      int index = from;
+      while (index < to && keys[order[index]].length() == depth) {
+        values[node] = keyValues[order[index]];
+        index++;
+      }
+
+      int numChildren = 0;
+      for (int groupStart = index; groupStart < to; groupStart = groupEnd(groupStart, to, depth)) {
+        numChildren++;
+      }
+      int edge = numEdges;
+      firstEdge[node] = edge;
+      numEdges += numChildren;
+
+      for (int groupStart = index; groupStart < to; ) {
+        int groupEnd = groupEnd(groupStart, to, depth);
+        edgeLabels[edge] = keys[order[groupStart]].charAt(depth);
+        edgeTargets[edge] = addNode(groupStart, groupEnd, depth + 1);
+        edge++;
+        groupStart = groupEnd;
+      }
+      return node;
+    }
+
+    // Returns the end of the run of keys with the same char at `depth` as order[from].
+    private int groupEnd(int from, int to, int depth) {
+      char label = keys[order[from]].charAt(depth);
+      int index = from + 1;
+      while (index < to && keys[order[index]].charAt(depth) == label) {
+        index++;
+      }
+      return index;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.tokenization;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Wordpiece vocabulary indexed by prefix tries.
+ *
+ * <p>The root trie holds every token, and is used to match the beginning of a word. The
+ * continuation trie holds tokens starting with "##", with the prefix removed, and is used to match
+ * the rest of the word. Thus the tokenizer can find the longest matching piece in a single walk,
+ * without building candidate strings.
+ *
+ * <p>A vocabulary can be saved to and loaded from a binary {@link VocabularySnapshot}, which
+ * avoids parsing the vocabulary file and building the tries.
+ */
+public final class Vocabulary {
+  /** Returned by {@link #getId(String)} for tokens that are not in the vocabulary. */
+  public static final int NOT_FOUND = PrefixTrie.NO_VALUE;
+
+  static final String CONTINUATION_PREFIX = "##";
+
+  // Tokens by id. Tokens of a vocabulary read from a snapshot are decoded from its UTF-8 pool on
+  // first use, and are null until then.
+  private final String[] tokens;
+  private final ByteBuffer tokenPool;
+  private final int[] tokenOffsets;
+  private final PrefixTrie rootTrie;
+  private final PrefixTrie continuationTrie;
+
+  /**
+   * Creates a vocabulary.
+   *
+   * @param tokens tokens in the order of their ids. If a token occurs several times, the last id
+   *     is used.
+   */
+  public Vocabulary(List<String> tokens) {
+    this.tokens = tokens.toArray(new String[0]);
+    this.tokenPool = null;
+    this.tokenOffsets = null;
+
+    int[] ids = new int[this.tokens.length];
+    int numContinuationTokens = 0;
+    for (int id = 0; id < ids.length; id++) {
+      ids[id] = id;
+      if (this.tokens[id].startsWith(CONTINUATION_PREFIX)) {
+        numContinuationTokens++;
+      }
+    }
+    rootTrie = PrefixTrie.build(this.tokens, ids);
+
+    String[] continuations = new String[numContinuationTokens];
+    int[] continuationIds = new int[numContinuationTokens];
+    int continuationIdx = 0;
+    for (int id = 0; id < ids.length; id++) {
+      if (this.tokens[id].startsWith(CONTINUATION_PREFIX)) {
+        continuations[continuationIdx] = this.tokens[id].substring(CONTINUATION_PREFIX.length());
+        continuationIds[continuationIdx] = id;
+        continuationIdx++;
+      }
+    }
+    continuationTrie = PrefixTrie.build(continuations, continuationIds);
+  }
+
+  /**
+   * Creates a vocabulary from snapshot data.
+   *
+   * @param tokenPool UTF-8 bytes of all tokens in the order of their ids.
+   * @param tokenOffsets offset of every token in the pool, followed by the size of the pool.
+   */
+  Vocabulary(
+      ByteBuffer tokenPool, int[] tokenOffsets, PrefixTrie rootTrie, PrefixTrie continuationTrie) {
+    this.tokens = new String[tokenOffsets.length - 1];
+    this.tokenPool = tokenPool;
+    this.tokenOffsets = tokenOffsets;
+    this.rootTrie = rootTrie;
+    this.continuationTrie = continuationTrie;
+  }
+
+  /** Number of tokens in the vocabulary. */
+  public int size() {
+    return tokens.length;
+  }
+
+  /** Returns the token with the given id. */
+  public String getToken(int id) {
+    String token = tokens[id];
+    if (token == null) {
+      // Concurrent callers may both decode the token, which is harmless.
+      byte[] bytes = new byte[tokenOffsets[id + 1] - tokenOffsets[id]];
+      for (int index = 0; index < bytes.length; index++) {
+        bytes[index] = tokenPool.get(tokenOffsets[id] + index);
+      }
+      token = new String(bytes, UTF_8);
+      tokens[id] = token;
+    }
+    return token;
+  }
+
+  /** Returns the id of a token, or {@link #NOT_FOUND}. */
+  public int getId(String token) {
+    return rootTrie.get(token);
+  }
+
+  /** Trie of all tokens, for matching the first piece of a word. */
+  PrefixTrie getRootTrie() {
+    return rootTrie;
+  }
+
+  /** Trie of "##" tokens without the prefix, for matching the following pieces of a word. */
+  PrefixTrie getContinuationTrie() {
+    return continuationTrie;
+  }
+}
@@ -0,0 +1,195 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.bertqa.tokenization;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary snapshot of a {@link Vocabulary}, so that the vocabulary text does not have to be parsed
+ * and indexed into tries on every launch.
+ *
+ * <p>The snapshot is little-endian and holds a header (magic, version, key and checksum of the
+ * source vocabulary file, number of tokens), the offsets of all tokens in a UTF-8 string pool in id
+ * order, the pool padded to 4 bytes, and the arrays of the root and continuation tries. A snapshot
+ * is memory mapped when read: the token pool stays in the mapping and tokens are decoded on first
+ * use, while the trie arrays are copied in bulk. Lookups never allocate.
+ */
+public final class VocabularySnapshot {
+  private static final int MAGIC = 0x42564f43; // "BVOC"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 28;
+  private static final int SOURCE_KEY_OFFSET = 8;
+  private static final int SOURCE_CHECKSUM_OFFSET = 16;
+
+  private VocabularySnapshot() {}
+
+  /**
+   * Writes the vocabulary to a snapshot file, replacing it atomically.
+   *
+   * @param sourceKey cheap key of the vocabulary file, which changes whenever the file may have
+   *     changed.
+   * @param sourceChecksum checksum of the vocabulary file.
+   */
+  public static void write(Vocabulary vocab, long sourceKey, long sourceChecksum, File file)
+      throws IOException {
+    byte[][] tokenBytes = new byte[vocab.size()][];
+    int poolSize = 0;
+    for (int id = 0; id < tokenBytes.length; id++) {
+      tokenBytes[id] = vocab.getToken(id).getBytes(UTF_8);
+      poolSize += tokenBytes[id].length;
+    }
+    PrefixTrie rootTrie = vocab.getRootTrie();
+    PrefixTrie continuationTrie = vocab.getContinuationTrie();
+    int size =
+        HEADER_SIZE
+            + 4 * (tokenBytes.length + 1)
+            + padded(poolSize)
+            + rootTrie.getSerializedSize()
+            + continuationTrie.getSerializedSize();
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer
+        .putInt(MAGIC)
+        .putInt(VERSION)
+        .putLong(sourceKey)
+        .putLong(sourceChecksum)
+        .putInt(tokenBytes.length);
+    int offset = 0;
+    for (byte[] bytes : tokenBytes) {
+      buffer.putInt(offset);
+      offset += bytes.length;
+    }
+    buffer.putInt(offset);
+    for (byte[] bytes : tokenBytes) {
+      buffer.put(bytes);
+    }
+    buffer.position(buffer.position() + padded(poolSize) - poolSize);
+    rootTrie.write(buffer);
+    continuationTrie.write(buffer);
+    buffer.flip();
+
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+      FileChannel channel = out.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      out.getFD().sync();
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Cannot write vocabulary snapshot " + file);
+    }
+  }
+
+  /**
+   * Reads a snapshot file.
+   *
+   * @param sourceKey key of the vocabulary file the snapshot must be made from.
+   * @return the vocabulary, or null if the snapshot was made under a different key. In that case,
+   *     {@link #readSourceChecksum} tells whether the vocabulary file actually changed.
+   * @throws IOException if the file cannot be read or is not a valid snapshot, in which case it is
+   *     rebuilt from the vocabulary file.
+   */
+  public static Vocabulary read(File file, long sourceKey) throws IOException {
+    ByteBuffer buffer = map(file);
+    try {
+      if (buffer.getLong(SOURCE_KEY_OFFSET) != sourceKey) {
+        return null;
+      }
+      buffer.position(HEADER_SIZE - 4);
+      int numTokens = buffer.getInt();
+      // Check the count against the file size before allocating anything from it.
+      if (numTokens < 0 || numTokens >= buffer.remaining() / 4) {
+        throw new IOException("Truncated vocabulary snapshot: " + file);
+      }
+      int[] tokenOffsets = new int[numTokens + 1];
+      buffer.asIntBuffer().get(tokenOffsets);
+      buffer.position(buffer.position() + 4 * tokenOffsets.length);
+      if (tokenOffsets[0] != 0) {
+        throw new IOException("Invalid vocabulary snapshot: " + file);
+      }
+      for (int id = 0; id < numTokens; id++) {
+        if (tokenOffsets[id] > tokenOffsets[id + 1]) {
+          throw new IOException("Invalid vocabulary snapshot: " + file);
+        }
+      }
+
+      int poolSize = tokenOffsets[numTokens];
+      if (poolSize > buffer.remaining()) {
+        throw new IOException("Truncated vocabulary snapshot: " + file);
+      }
+      ByteBuffer tokenPool = buffer.slice();
+      tokenPool.limit(poolSize);
+      buffer.position(buffer.position() + padded(poolSize));
+
+      PrefixTrie rootTrie = PrefixTrie.read(buffer, numTokens);
+      PrefixTrie continuationTrie = PrefixTrie.read(buffer, numTokens);
+      return new Vocabulary(tokenPool, tokenOffsets, rootTrie, continuationTrie);
+    } catch (RuntimeException ex) {
+      // Truncated or otherwise corrupted snapshot.
+      throw new IOException("Invalid vocabulary snapshot: " + file, ex);
+    }
+  }
+
+  /** Returns the checksum of the vocabulary file a snapshot file was made from. */
+  public static long readSourceChecksum(File file) throws IOException {
+    return map(file).getLong(SOURCE_CHECKSUM_OFFSET);
+  }
+
+  /**
+   * Replaces the source key of a snapshot file in place, after its checksum showed that it is still
+   * up to date. A torn write only makes the key mismatch again, so it needs no atomic replace.
+   */
+  public static void writeSourceKey(File file, long sourceKey) throws IOException {
+    ByteBuffer key = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    key.putLong(sourceKey).flip();
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      FileChannel channel = out.getChannel();
+      while (key.hasRemaining()) {
+        channel.write(key, SOURCE_KEY_OFFSET + key.position());
+      }
+    }
+  }
+
+  // Memory maps a snapshot file and checks its magic and version.
+  private static ByteBuffer map(File file) throws IOException {
+    ByteBuffer buffer;
+    try (FileInputStream in = new FileInputStream(file)) {
+      FileChannel channel = in.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.limit() < HEADER_SIZE
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a vocabulary snapshot: " + file);
+    }
+    return buffer;
+  }
+
+  private static int padded(int numBytes) {
+    return (numBytes + 3) & ~3;
+  }
+}
@@ -16,17 +16,18 @@ package org.tensorflow.lite.examples.bertqa.tokenization;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /** Word piece tokenization to split a piece of text into its word pieces. */
 public final class WordpieceTokenizer {
-  private final Map<String, Integer> dic;
+  private final Vocabulary vocab;
+  private final int unknownId;
 
   private static final String UNKNOWN_TOKEN = "[UNK]"; // For unknown words.
-  private static final int MAX_INPUTCHARS_PER_WORD = 200;
+  static final int MAX_INPUTCHARS_PER_WORD = 200;
 
-  public WordpieceTokenizer(Map<String, Integer> vocab) {
-    dic = vocab;
+  public WordpieceTokenizer(Vocabulary vocab) {
+    this.vocab = vocab;
+    this.unknownId = vocab.getId(UNKNOWN_TOKEN);
   }
 
   /**
@@ -44,51 +45,85 @@ public final class WordpieceTokenizer {
     }
 
     List<String> outputTokens = new ArrayList<>();
-    for (String token : BasicTokenizer.whitespaceTokenize(text)) {
+    int[] pieceIds = new int[MAX_INPUTCHARS_PER_WORD];
+    int wordStart = 0;
+    while (wordStart < text.length()) {
+      int wordEnd = text.indexOf(' ', wordStart);
+      if (wordEnd < 0) {
+        wordEnd = text.length();
+      }
 
-      if (token.length() > MAX_INPUTCHARS_PER_WORD) {
-        outputTokens.add(UNKNOWN_TOKEN);
-        continue;
+      int numPieces = tokenizeWord(text, wordStart, wordEnd, pieceIds, 0);
+      for (int pieceIdx = 0; pieceIdx < numPieces; pieceIdx++) {
+        int id = pieceIds[pieceIdx];
+        outputTokens.add(id == Vocabulary.NOT_FOUND ? UNKNOWN_TOKEN : vocab.getToken(id));
       }
+      wordStart = wordEnd + 1;
+    }
 
-      boolean isBad = false; // Mark if a word cannot be tokenized into known subwords.
-      int start = 0;
-      List<String> subTokens = new ArrayList<>();
-
-      while (start < token.length()) {
-        String curSubStr = "";
-
-        int end = token.length(); // Longer substring matches first.
-        while (start < end) {
-          String subStr =
-              (start == 0) ? token.substring(start, end) : "##" + token.substring(start, end);
-          if (dic.containsKey(subStr)) {
-            curSubStr = subStr;
-            break;
-          }
-          end--;
-        }
+    return outputTokens;
+  }
+
+  /**
+   * Tokenizes a single word into word piece ids, using the same algorithm as {@link
+   * #tokenize(String)}.
+   *
+   * <p>Pieces are matched by walking the vocabulary tries once from left to right, so no strings
+   * are created.
+   *
+   * @param text text containing the word.
+   * @param start index of the first char of the word.
+   * @param end index after the last char of the word.
+   * @param outIds where to write piece ids. Must have room for at least {@code end - start} ids,
+   *     which is the maximum number of pieces. Words that cannot be split into known pieces
+   *     produce a single "[UNK]" id, or {@link Vocabulary#NOT_FOUND} if the vocabulary does not
+   *     have it.
+   * @param outOffset index in {@code outIds} to write the first id at.
+   * @return number of ids written.
+   */
+  public int tokenizeWord(CharSequence text, int start, int end, int[] outIds, int outOffset) {
+    if (start == end) {
+      return 0;
+    }
+    if (end - start > MAX_INPUTCHARS_PER_WORD) {
+      outIds[outOffset] = unknownId;
+      return 1;
+    }
 
-        // The word doesn't contain any known subwords.
-        if ("".equals(curSubStr)) {
-          isBad = true;
+    PrefixTrie trie = vocab.getRootTrie();
+    int numPieces = 0;
+    int pieceStart = start;
+    while (pieceStart < end) {
+      // Find the longest piece in the vocabulary starting at pieceStart.
+      int pieceEnd = -1;
+      int pieceId = PrefixTrie.NO_VALUE;
+      int node = PrefixTrie.ROOT;
+      for (int index = pieceStart; index < end; index++) {
+        node = trie.child(node, text.charAt(index));
+        if (node == PrefixTrie.NO_NODE) {
           break;
         }
-
-        // curSubStr is the longeset subword that can be found.
-        subTokens.add(curSubStr);
-
-        // Proceed to tokenize the resident string.
-        start = end;
+        int id = trie.value(node);
+        if (id != PrefixTrie.NO_VALUE) {
+          pieceEnd = index + 1;
+          pieceId = id;
+        }
       }
 
-      if (isBad) {
-        outputTokens.add(UNKNOWN_TOKEN);
-      } else {
-        outputTokens.addAll(subTokens);
+      // The rest of the word doesn't start with any known subword.
+      if (pieceEnd < 0) {
+        outIds[outOffset] = unknownId;
+        return 1;
       }
+
+      outIds[outOffset + numPieces] = pieceId;
+      numPieces++;
+
+      // Proceed to tokenize the rest of the word with "##" pieces.
+      pieceStart = pieceEnd;
+      trie = vocab.getContinuationTrie();
     }
 
-    return outputTokens;
+    return numPieces;
   }
 }
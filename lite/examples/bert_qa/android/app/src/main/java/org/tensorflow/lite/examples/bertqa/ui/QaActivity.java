@@ -37,6 +37,7 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.textfield.TextInputEditText;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import org.tensorflow.lite.examples.bertqa.R;
@@ -57,6 +58,7 @@ public class QaActivity extends AppCompatActivity {
 
   private boolean questionAnswered = false;
   private String content;
+  private String[] suggestedQuestions;
   private Handler handler;
   private QaClient qaClient;
 
@@ -88,8 +90,8 @@ public class QaActivity extends AppCompatActivity {
 
     // Setup question suggestion list.
     RecyclerView questionSuggestionsView = findViewById(R.id.suggestion_list);
-    QuestionAdapter adapter =
-        new QuestionAdapter(this, datasetClient.getQuestions(datasetPosition));
+    suggestedQuestions = datasetClient.getQuestions(datasetPosition);
+    QuestionAdapter adapter = new QuestionAdapter(this, suggestedQuestions);
     adapter.setOnQuestionSelectListener(question -> answerQuestion(question));
     questionSuggestionsView.setAdapter(adapter);
     LinearLayoutManager layoutManager =
@@ -150,6 +152,17 @@ public class QaActivity extends AppCompatActivity {
     handler.post(
         () -> {
           qaClient.loadModel();
+          // Answer all suggested questions in one batch, so picking one of them is instant.
+          List<String> questions = new ArrayList<>();
+          for (String question : suggestedQuestions) {
+            question = normalizeQuestion(question);
+            if (!question.isEmpty()) {
+              questions.add(question);
+            }
+          }
+          if (!questions.isEmpty()) {
+            qaClient.predictBatch(questions, content);
+          }
         });
 
     textToSpeech =
@@ -176,18 +189,23 @@ public class QaActivity extends AppCompatActivity {
     }
   }
 
-  private void answerQuestion(String question) {
+  /** Trims the question and appends a question mark if it is not empty. */
+  private static String normalizeQuestion(String question) {
     question = question.trim();
-    if (question.isEmpty()) {
-      questionEditText.setText(question);
-      return;
-    }
-
     // Append question mark '?' if not ended with '?'.
     // This aligns with question format that trains the model.
-    if (!question.endsWith("?")) {
+    if (!question.isEmpty() && !question.endsWith("?")) {
       question += '?';
     }
+    return question;
+  }
+
+  private void answerQuestion(String question) {
+    question = normalizeQuestion(question);
+    if (question.isEmpty()) {
+      questionEditText.setText(question);
+      return;
+    }
     final String questionToAsk = question;
     questionEditText.setText(questionToAsk);
 
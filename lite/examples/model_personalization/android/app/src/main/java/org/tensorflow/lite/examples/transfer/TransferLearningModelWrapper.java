@@ -16,10 +16,8 @@ limitations under the License.
 package org.tensorflow.lite.examples.transfer;
 
 import android.content.Context;
-import android.os.ConditionVariable;
 import java.io.Closeable;
 import java.util.Arrays;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import org.tensorflow.lite.examples.transfer.api.AssetModelLoader;
 import org.tensorflow.lite.examples.transfer.api.TransferLearningModel;
@@ -29,34 +27,21 @@ import org.tensorflow.lite.examples.transfer.api.TransferLearningModel.Predictio
 /**
  * App-layer wrapper for {@link TransferLearningModel}.
  *
- * <p>This wrapper allows to run training continuously, using start/stop API, in contrast to
- * run-once API of {@link TransferLearningModel}.
+ * <p>This wrapper runs training continuously, using start/stop API, on top of online training
+ * mode of {@link TransferLearningModel}.
  */
 public class TransferLearningModelWrapper implements Closeable {
   public static final int IMAGE_SIZE = 224;
 
-  private final TransferLearningModel model;
+  // Fraction of time the training thread may be busy, leaving room for camera and inference.
+  private static final float TRAINING_CPU_BUDGET = 0.75f;
 
-  private final ConditionVariable shouldTrain = new ConditionVariable();
-  private volatile LossConsumer lossConsumer;
+  private final TransferLearningModel model;
 
   TransferLearningModelWrapper(Context context) {
     model =
         new TransferLearningModel(
             new AssetModelLoader(context, "model"), Arrays.asList("1", "2", "3", "4"));
-
-    new Thread(() -> {
-      while (!Thread.interrupted()) {
-        shouldTrain.block();
-        try {
-          model.train(1, lossConsumer).get();
-        } catch (ExecutionException e) {
-          throw new RuntimeException("Exception occurred during model training", e.getCause());
-        } catch (InterruptedException e) {
-          // no-op
-        }
-      }
-    }).start();
   }
 
   // This method is thread-safe.
@@ -77,18 +62,18 @@ public class TransferLearningModelWrapper implements Closeable {
    * Start training the model continuously until {@link #disableTraining() disableTraining} is
    * called.
    *
-   * @param lossConsumer callback that the loss values will be passed to.
+   * @param lossConsumer callback that the moving average of the loss will be passed to.
    */
   public void enableTraining(LossConsumer lossConsumer) {
-    this.lossConsumer = lossConsumer;
-    shouldTrain.open();
+    model.stopOnlineTraining();
+    model.startOnlineTraining(TRAINING_CPU_BUDGET, lossConsumer);
   }
 
   /**
    * Stops training the model.
    */
   public void disableTraining() {
-    shouldTrain.close();
+    model.stopOnlineTraining();
   }
 
   /** Frees all model resources and shuts down all background threads. */
@@ -0,0 +1,85 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.benchmark;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.lite.examples.transfer.api.TransferLearningModel;
+
+/**
+ * Measures how many training samples per second can be added, one by one and in batches.
+ *
+ * <p>Every iteration starts with an empty model, so that sample storage growth is comparable
+ * between runs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddSampleBenchmark {
+  private static final int NUM_IMAGES = 64;
+
+  private float[][] images;
+  private String[] classNames;
+  private int nextImageIdx;
+
+  private TransferLearningModel model;
+
+  @Setup(Level.Trial)
+  public void createImages() {
+    images = BenchmarkModels.randomImages(NUM_IMAGES);
+    classNames = BenchmarkModels.classNames(NUM_IMAGES);
+  }
+
+  @Setup(Level.Iteration)
+  public void createModel() {
+    model = BenchmarkModels.createModel();
+    nextImageIdx = 0;
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeModel() {
+    model.close();
+  }
+
+  @Benchmark
+  public void addSample() throws ExecutionException, InterruptedException {
+    int imageIdx = nextImageIdx;
+    nextImageIdx = (nextImageIdx + 1) % NUM_IMAGES;
+    model.addSample(images[imageIdx], classNames[imageIdx]).get();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_IMAGES)
+  public void addSamples() throws ExecutionException, InterruptedException {
+    model.addSamples(images, classNames).get();
+  }
+}
@@ -0,0 +1,73 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.benchmark;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import org.tensorflow.lite.examples.transfer.api.FileModelLoader;
+import org.tensorflow.lite.examples.transfer.api.TransferLearningModel;
+
+/** Creates models and inputs shared by all benchmarks. */
+final class BenchmarkModels {
+  static final int IMAGE_SIZE = 224;
+  static final int NUM_IMAGE_CHANNELS = 3;
+
+  static final List<String> CLASSES = Arrays.asList("1", "2", "3", "4");
+
+  // Fixed seed, so that every run sees the same inputs.
+  private static final long SEED = 32;
+
+  private BenchmarkModels() {}
+
+  /** Loads the model from the directory given by the "modelDir" system property. */
+  static TransferLearningModel createModel() {
+    String modelDir = System.getProperty("modelDir");
+    if (modelDir == null) {
+      throw new IllegalStateException("Model directory must be set with -DmodelDir=<path>");
+    }
+    return new TransferLearningModel(new FileModelLoader(new File(modelDir)), CLASSES);
+  }
+
+  /** Generates images filled with random RGB data. */
+  static float[][] randomImages(int numImages) {
+    Random random = new Random(SEED);
+    float[][] images = new float[numImages][IMAGE_SIZE * IMAGE_SIZE * NUM_IMAGE_CHANNELS];
+    for (float[] image : images) {
+      for (int idx = 0; idx < image.length; idx++) {
+        image[idx] = random.nextFloat();
+      }
+    }
+    return images;
+  }
+
+  /** Assigns classes to images in round-robin order. */
+  static String[] classNames(int numImages) {
+    String[] classNames = new String[numImages];
+    for (int imageIdx = 0; imageIdx < numImages; imageIdx++) {
+      classNames[imageIdx] = CLASSES.get(imageIdx % CLASSES.size());
+    }
+    return classNames;
+  }
+
+  /** Adds the given number of random training samples and waits until they are stored. */
+  static void addRandomSamples(TransferLearningModel model, int numSamples)
+      throws ExecutionException, InterruptedException {
+    model.addSamples(randomImages(numSamples), classNames(numSamples)).get();
+  }
+}
@@ -0,0 +1,68 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.lite.examples.transfer.api.TransferLearningModel;
+import org.tensorflow.lite.examples.transfer.api.TransferLearningModel.Prediction;
+
+/**
+ * Measures prediction latency. Sampling mode reports its distribution, including the p50, p90,
+ * p99 and p99.9 percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PredictBenchmark {
+  private TransferLearningModel model;
+  private float[] image;
+
+  @Setup(Level.Trial)
+  public void createModel() {
+    model = BenchmarkModels.createModel();
+    image = BenchmarkModels.randomImages(1)[0];
+  }
+
+  @TearDown(Level.Trial)
+  public void closeModel() {
+    model.close();
+  }
+
+  @Benchmark
+  public Prediction[] predict() {
+    return model.predict(image);
+  }
+
+  @Benchmark
+  public Prediction[] predictTop1() {
+    return model.predict(image, 1);
+  }
+}
@@ -15,12 +15,14 @@ limitations under the License.
 
 package org.tensorflow.lite.examples.transfer.api;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -34,6 +36,8 @@ public class LiteBottleneckModelTest {
   private static final int NUM_IMAGE_CHANNELS = 3;
   private static final float IMAGE_FILL = 0.3f;
   private static final float EPS = 1e-8f;
+  private static final float BATCH_EPS = 1e-4f;
+  private static final int BATCH_SIZE = 3;
 
   @Test
   public void shouldGenerateSaneBottlenecks() throws IOException {
@@ -60,4 +64,44 @@ public class LiteBottleneckModelTest {
     }
     assertTrue(nonZeroCount > 0);
   }
+
+  @Test
+  public void batchedBottlenecksShouldMatchSingleOnes() throws IOException {
+    LiteBottleneckModel model =
+        new LiteBottleneckModel(
+            new AssetModelLoader(InstrumentationRegistry.getInstrumentation().getContext(), "model")
+                .loadBaseModel());
+
+    int imageNumFloats = IMAGE_SIZE * IMAGE_SIZE * NUM_IMAGE_CHANNELS;
+    ByteBuffer images = ByteBuffer.allocateDirect(BATCH_SIZE * imageNumFloats * FLOAT_BYTES);
+    images.order(ByteOrder.nativeOrder());
+    for (int imageIdx = 0; imageIdx < BATCH_SIZE; imageIdx++) {
+      for (int idx = 0; idx < imageNumFloats; idx++) {
+        images.putFloat(IMAGE_FILL * (imageIdx + 1));
+      }
+    }
+    images.rewind();
+
+    ByteBuffer bottlenecks =
+        ByteBuffer.allocateDirect(BATCH_SIZE * NUM_BOTTLENECK_FEATURES * FLOAT_BYTES);
+    bottlenecks.order(ByteOrder.nativeOrder());
+    model.generateBottlenecks(images, BATCH_SIZE, bottlenecks);
+
+    for (int imageIdx = 0; imageIdx < BATCH_SIZE; imageIdx++) {
+      ByteBuffer image = ByteBuffer.allocateDirect(imageNumFloats * FLOAT_BYTES);
+      image.order(ByteOrder.nativeOrder());
+      for (int idx = 0; idx < imageNumFloats; idx++) {
+        image.putFloat(IMAGE_FILL * (imageIdx + 1));
+      }
+      image.rewind();
+
+      ByteBuffer bottleneck = model.generateBottleneck(image, null);
+      bottleneck.order(ByteOrder.nativeOrder());
+      for (int idx = 0; idx < NUM_BOTTLENECK_FEATURES; idx++) {
+        float batchedFeature =
+            bottlenecks.getFloat((imageIdx * NUM_BOTTLENECK_FEATURES + idx) * FLOAT_BYTES);
+        assertEquals(bottleneck.getFloat(idx * FLOAT_BYTES), batchedFeature, BATCH_EPS);
+      }
+    }
+  }
 }
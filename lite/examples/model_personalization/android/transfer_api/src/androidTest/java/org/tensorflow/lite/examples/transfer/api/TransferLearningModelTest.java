@@ -22,7 +22,13 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -30,6 +36,11 @@ import org.junit.runner.RunWith;
 /** Unit tests for {@link TransferLearningModel}. */
 @RunWith(AndroidJUnit4.class)
 public class TransferLearningModelTest {
+  private static final int IMAGE_SIZE = 224;
+  private static final int NUM_IMAGE_CHANNELS = 3;
+  // Fewer steps than online training waits for before it pauses on a plateau.
+  private static final int ONLINE_STEPS = 50;
+  private static final long TIMEOUT_SECONDS = 30;
 
   @Test
   public void saveAndLoadShouldPreserveParameters() throws IOException {
@@ -67,4 +78,223 @@ public class TransferLearningModelTest {
 
     Files.delete(tempFilePath);
   }
+
+  @Test
+  public void checkpointShouldPreserveParametersAndSamples() throws Exception {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+
+    float[] image = new float[IMAGE_SIZE * IMAGE_SIZE * NUM_IMAGE_CHANNELS];
+    for (int sampleIdx = 0; sampleIdx < model.getTrainBatchSize(); sampleIdx++) {
+      Arrays.fill(image, sampleIdx / (float) model.getTrainBatchSize());
+      model.addSample(image, String.valueOf(sampleIdx % 5 + 1)).get();
+    }
+    model.train(1, null).get();
+
+    Path checkpointPath = Files.createTempFile("tflite-tl-test", ".ckpt");
+    Path parametersPath = Files.createTempFile("tflite-tl-test", ".bin");
+
+    model.saveCheckpoint(FileChannel.open(checkpointPath, StandardOpenOption.WRITE), true);
+    model.saveParameters(FileChannel.open(parametersPath, StandardOpenOption.WRITE));
+    byte[] firstContents = Files.readAllBytes(parametersPath);
+
+    model.close();
+    model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+
+    model.loadCheckpoint(FileChannel.open(checkpointPath, StandardOpenOption.READ));
+    model.saveParameters(FileChannel.open(parametersPath, StandardOpenOption.WRITE));
+    byte[] secondContents = Files.readAllBytes(parametersPath);
+
+    Assert.assertArrayEquals(firstContents, secondContents);
+
+    // Samples were restored as well, so training can continue right away.
+    model.train(1, null).get();
+    model.close();
+
+    Files.delete(checkpointPath);
+    Files.delete(parametersPath);
+  }
+
+  @Test(expected = IOException.class)
+  public void checkpointShouldNotLoadWithDifferentClasses() throws IOException {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+
+    Path checkpointPath = Files.createTempFile("tflite-tl-test", ".ckpt");
+    model.saveCheckpoint(FileChannel.open(checkpointPath, StandardOpenOption.WRITE), false);
+    model.close();
+
+    model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("5", "4", "3", "2", "1"));
+    try {
+      model.loadCheckpoint(FileChannel.open(checkpointPath, StandardOpenOption.READ));
+    } finally {
+      model.close();
+      Files.delete(checkpointPath);
+    }
+  }
+
+  @Test
+  public void predictShouldClampTopKToNumberOfClasses() {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+
+    float[] image = new float[IMAGE_SIZE * IMAGE_SIZE * NUM_IMAGE_CHANNELS];
+    try {
+      Assert.assertEquals(5, model.predict(image, 10).length);
+      Assert.assertEquals(2, model.predict(image, 2).length);
+    } finally {
+      model.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void predictShouldRejectNonPositiveTopK() {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+
+    try {
+      model.predict(new float[IMAGE_SIZE * IMAGE_SIZE * NUM_IMAGE_CHANNELS], 0);
+    } finally {
+      model.close();
+    }
+  }
+
+  @Test
+  public void pipelinedTrainingShouldMatchSequentialTraining() throws Exception {
+    List<Float> sequentialLosses = new ArrayList<>();
+    byte[] sequentialParameters = trainWithSeed(/* pipelined= */ false, sequentialLosses);
+    List<Float> pipelinedLosses = new ArrayList<>();
+    byte[] pipelinedParameters = trainWithSeed(/* pipelined= */ true, pipelinedLosses);
+
+    Assert.assertFalse(sequentialLosses.isEmpty());
+    Assert.assertEquals(sequentialLosses, pipelinedLosses);
+    Assert.assertArrayEquals(sequentialParameters, pipelinedParameters);
+  }
+
+  @Test
+  public void onlineTrainingShouldReduceLossUntilStopped() throws Exception {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+    List<Float> losses = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch stepsDone = new CountDownLatch(ONLINE_STEPS);
+
+    try {
+      Future<Void> training =
+          model.startOnlineTraining(
+              1.0f,
+              (step, loss) -> {
+                losses.add(loss);
+                stepsDone.countDown();
+              });
+      addClassImages(model);
+
+      Assert.assertTrue(stepsDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      Assert.assertTrue(losses.get(losses.size() - 1) < losses.get(0));
+
+      model.stopOnlineTraining();
+      Assert.assertTrue(training.isDone());
+      assertNoMoreSteps(losses);
+    } finally {
+      model.close();
+    }
+  }
+
+  @Test
+  public void closeShouldEndOnlineTraining() throws Exception {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+    List<Float> losses = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch firstStep = new CountDownLatch(1);
+
+    Future<Void> training =
+        model.startOnlineTraining(
+            1.0f,
+            (step, loss) -> {
+              losses.add(loss);
+              firstStep.countDown();
+            });
+    addClassImages(model);
+    Assert.assertTrue(firstStep.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    model.close();
+
+    Assert.assertTrue(training.isDone());
+    assertNoMoreSteps(losses);
+  }
+
+  // Trains a new model for a few epochs on fixed samples in a fixed order, and returns its
+  // parameters.
+  private static byte[] trainWithSeed(boolean pipelined, List<Float> losses) throws Exception {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+    Path parametersPath = Files.createTempFile("tflite-tl-test", ".bin");
+    try {
+      model.setShuffleSeed(42);
+      // One task adds all samples, so they are stored in the same order every time.
+      int numSamples = 3 * model.getTrainBatchSize();
+      float[][] classImages = new float[5][IMAGE_SIZE * IMAGE_SIZE * NUM_IMAGE_CHANNELS];
+      float[][] images = new float[numSamples][];
+      String[] classNames = new String[numSamples];
+      for (int sampleIdx = 0; sampleIdx < numSamples; sampleIdx++) {
+        int classIdx = sampleIdx % 5;
+        Arrays.fill(classImages[classIdx], classIdx / 5.0f);
+        images[sampleIdx] = classImages[classIdx];
+        classNames[sampleIdx] = String.valueOf(classIdx + 1);
+      }
+      model.addSamples(images, classNames).get();
+
+      model.train(3, (epoch, loss) -> losses.add(loss), null, pipelined).get();
+      model.saveParameters(FileChannel.open(parametersPath, StandardOpenOption.WRITE));
+      return Files.readAllBytes(parametersPath);
+    } finally {
+      model.close();
+      Files.delete(parametersPath);
+    }
+  }
+
+  // Adds one image per class, each filled with a value of its own, so that classes are learnable.
+  private static void addClassImages(TransferLearningModel model) throws Exception {
+    float[] image = new float[IMAGE_SIZE * IMAGE_SIZE * NUM_IMAGE_CHANNELS];
+    for (int classIdx = 0; classIdx < 5; classIdx++) {
+      Arrays.fill(image, classIdx / 5.0f);
+      model.addSample(image, String.valueOf(classIdx + 1)).get();
+    }
+  }
+
+  // Checks that no training step reports a loss any more, once the current one had time to end.
+  private static void assertNoMoreSteps(List<Float> losses) throws InterruptedException {
+    Thread.sleep(500);
+    int numLosses = losses.size();
+    Thread.sleep(500);
+    Assert.assertEquals(numLosses, losses.size());
+  }
 }
@@ -0,0 +1,409 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Contiguous storage for training sample bottlenecks.
+ *
+ * <p>Bottlenecks are kept as fixed-stride float records in a single slab, and their class indices
+ * in a separate int column. The slab lives in direct memory until it would outgrow the configured
+ * budget; after that its contents are moved to a memory-mapped file, which keeps growing as more
+ * samples are added.
+ *
+ * <p>Since all records are adjacent, a batch of consecutive records can be passed to the
+ * interpreter as a view of the slab, without copying. Sample order is randomized by permuting the
+ * records in place, see {@link #shuffle(Random)}.
+ *
+ * <p>This class is not thread-safe.
+ */
+class BottleneckStore implements Closeable {
+  private static final int FLOAT_BYTES = 4;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int recordBytes;
+  private final long memoryBudgetBytes;
+  private final File spillDirectory;
+
+  private ByteBuffer slab;
+  private int[] classIndices;
+  private int capacity = 0;
+  private int size = 0;
+
+  // Incremented every time existing records are reordered or removed.
+  private int generation = 0;
+
+  // Reusable views of the slab, used to move records around.
+  private ByteBuffer readView;
+  private ByteBuffer writeView;
+
+  // Holds a single record while a permutation cycle is being applied.
+  private final ByteBuffer scratchRecord;
+
+  private RandomAccessFile spillFile;
+  private File spillPath;
+
+  /**
+   * Creates an empty store.
+   *
+   * @param numFeatures number of float values in every record.
+   * @param memoryBudgetBytes maximum size of the in-memory slab. Once exceeded, records are moved
+   *     to a memory-mapped file.
+   * @param spillDirectory where to create the memory-mapped file. If null, the default temporary
+   *     file directory is used.
+   */
+  BottleneckStore(int numFeatures, long memoryBudgetBytes, File spillDirectory) {
+    this.recordBytes = numFeatures * FLOAT_BYTES;
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.spillDirectory = spillDirectory;
+
+    classIndices = new int[0];
+    scratchRecord = allocateBuffer(recordBytes);
+  }
+
+  /** Number of records currently in the store. */
+  int size() {
+    return size;
+  }
+
+  /** Size of a single record in bytes. */
+  int getRecordBytes() {
+    return recordBytes;
+  }
+
+  /**
+   * Number of times existing records have been reordered or removed. Record indices obtained
+   * before a change of this value no longer refer to the same records. Appending records does not
+   * change it.
+   */
+  int getGeneration() {
+    return generation;
+  }
+
+  /** Whether the records have been moved to a memory-mapped file. */
+  boolean isSpilled() {
+    return spillFile != null;
+  }
+
+  /**
+   * Appends a record to the store.
+   *
+   * @param bottleneck record data. Exactly {@link #getRecordBytes()} bytes are read starting at
+   *     its current position, which is left unchanged.
+   * @param classIdx class index of the record.
+   * @throws IOException if the records could not be moved to the memory-mapped file.
+   */
+  void add(ByteBuffer bottleneck, int classIdx) throws IOException {
+    ensureCapacity(size + 1);
+
+    int position = bottleneck.position();
+    ByteBuffer source = bottleneck.duplicate();
+    source.limit(position + recordBytes);
+
+    writeView.clear();
+    writeView.position(size * recordBytes);
+    writeView.put(source);
+
+    classIndices[size] = classIdx;
+    size++;
+  }
+
+  /**
+   * Appends several consecutive records to the store with a single bulk copy.
+   *
+   * @param bottlenecks data of {@code numRecords} records laid out one after another, starting at
+   *     the current position, which is left unchanged.
+   * @param recordClasses class indices of the records.
+   * @param numRecords number of records to append.
+   * @throws IOException if the records could not be moved to the memory-mapped file.
+   */
+  void addAll(ByteBuffer bottlenecks, int[] recordClasses, int numRecords) throws IOException {
+    ensureCapacity(size + numRecords);
+
+    int position = bottlenecks.position();
+    ByteBuffer source = bottlenecks.duplicate();
+    source.limit(position + numRecords * recordBytes);
+
+    writeView.clear();
+    writeView.position(size * recordBytes);
+    writeView.put(source);
+
+    System.arraycopy(recordClasses, 0, classIndices, size, numRecords);
+    size += numRecords;
+  }
+
+  /**
+   * Replaces all records with the given ones. Storage is reserved before any record is removed, so
+   * if this throws, the store is left unchanged.
+   *
+   * @param bottlenecks data of {@code numRecords} records laid out one after another, starting at
+   *     the current position, which is left unchanged.
+   * @param recordClasses class indices of the records.
+   * @param numRecords number of records in the store afterwards.
+   * @throws IOException if the records could not be moved to the memory-mapped file.
+   */
+  void replaceAll(ByteBuffer bottlenecks, int[] recordClasses, int numRecords)
+      throws IOException {
+    ensureCapacity(numRecords);
+    clear();
+    addAll(bottlenecks, recordClasses, numRecords);
+  }
+
+  /**
+   * Returns a view of consecutive records.
+   *
+   * <p>The view shares its contents with the store, and is only valid until the next call to
+   * {@link #add(ByteBuffer, int)}, {@link #shuffle(Random)} or {@link #close()}. For records that
+   * are not adjacent, see {@link #copyRecord(int, ByteBuffer, int)}.
+   *
+   * @param fromIdx index of the first record.
+   * @param numRecords number of records in the view.
+   * @return buffer with position 0 and capacity of exactly {@code numRecords} records.
+   */
+  ByteBuffer records(int fromIdx, int numRecords) {
+    if (fromIdx < 0 || numRecords < 0 || fromIdx + numRecords > size) {
+      throw new IndexOutOfBoundsException(String.format(
+          "Records [%d, %d) are out of range for store of size %d",
+          fromIdx, fromIdx + numRecords, size));
+    }
+
+    ByteBuffer view = slab.duplicate();
+    view.position(fromIdx * recordBytes);
+    view.limit((fromIdx + numRecords) * recordBytes);
+
+    ByteBuffer result = view.slice();
+    result.order(ByteOrder.nativeOrder());
+    return result;
+  }
+
+  /**
+   * Copies a single record into a buffer.
+   *
+   * @param recordIdx index of the record to copy.
+   * @param dest where to copy the record. Its position and limit are not modified.
+   * @param destRecordIdx index of the record-sized slot in {@code dest} to copy it into.
+   */
+  void copyRecord(int recordIdx, ByteBuffer dest, int destRecordIdx) {
+    if (recordIdx < 0 || recordIdx >= size) {
+      throw new IndexOutOfBoundsException(String.format(
+          "Record %d is out of range for store of size %d", recordIdx, size));
+    }
+
+    readView.clear();
+    readView.position(recordIdx * recordBytes);
+    readView.limit((recordIdx + 1) * recordBytes);
+
+    ByteBuffer destView = dest.duplicate();
+    destView.clear();
+    destView.position(destRecordIdx * recordBytes);
+    destView.put(readView);
+  }
+
+  /**
+   * Returns the class index column. Only the first {@link #size()} elements are meaningful.
+   *
+   * <p>The array is owned by the store and must not be modified. It is only valid until the next
+   * call to any method that changes the store.
+   */
+  int[] getClassIndices() {
+    return classIndices;
+  }
+
+  /** Removes all records, keeping the allocated storage. */
+  void clear() {
+    size = 0;
+    generation++;
+  }
+
+  /** Class index of the record at a given position. */
+  int getClassIndex(int recordIdx) {
+    if (recordIdx < 0 || recordIdx >= size) {
+      throw new IndexOutOfBoundsException(String.format(
+          "Record %d is out of range for store of size %d", recordIdx, size));
+    }
+    return classIndices[recordIdx];
+  }
+
+  /**
+   * Randomly permutes the records in place.
+   *
+   * <p>The permutation is applied cycle by cycle, so every record is moved exactly once, with one
+   * extra move per cycle.
+   */
+  void shuffle(Random random) {
+    generation++;
+
+    int[] permutation = new int[size];
+    for (int idx = 0; idx < size; idx++) {
+      permutation[idx] = idx;
+    }
+    for (int idx = size - 1; idx > 0; idx--) {
+      int swapIdx = random.nextInt(idx + 1);
+      int tmp = permutation[idx];
+      permutation[idx] = permutation[swapIdx];
+      permutation[swapIdx] = tmp;
+    }
+
+    // After this loop, record at position i is the one previously at position permutation[i].
+    for (int cycleStart = 0; cycleStart < size; cycleStart++) {
+      if (permutation[cycleStart] == cycleStart) {
+        continue;
+      }
+      if (permutation[cycleStart] < 0) {
+        // Already visited as part of an earlier cycle.
+        continue;
+      }
+
+      copyRecordOut(cycleStart, scratchRecord);
+      int cycleStartClass = classIndices[cycleStart];
+
+      int destIdx = cycleStart;
+      while (true) {
+        int sourceIdx = permutation[destIdx];
+        permutation[destIdx] = -1;
+        if (sourceIdx == cycleStart) {
+          copyRecordIn(scratchRecord, destIdx);
+          classIndices[destIdx] = cycleStartClass;
+          break;
+        }
+
+        moveRecord(sourceIdx, destIdx);
+        classIndices[destIdx] = classIndices[sourceIdx];
+        destIdx = sourceIdx;
+      }
+    }
+  }
+
+  /** Releases the slab and deletes the memory-mapped file, if any. */
+  @Override
+  public void close() throws IOException {
+    slab = null;
+    readView = null;
+    writeView = null;
+    size = 0;
+    capacity = 0;
+
+    if (spillFile != null) {
+      try {
+        spillFile.close();
+      } finally {
+        spillFile = null;
+        if (!spillPath.delete()) {
+          spillPath.deleteOnExit();
+        }
+      }
+    }
+  }
+
+  private void ensureCapacity(int minCapacity) throws IOException {
+    if (minCapacity <= capacity) {
+      return;
+    }
+
+    int maxCapacity = Integer.MAX_VALUE / recordBytes;
+    if (minCapacity > maxCapacity) {
+      throw new IllegalStateException(String.format(
+          "Bottleneck store cannot hold more than %d samples", maxCapacity));
+    }
+
+    int newCapacity = (int) Math.min(Math.max((long) capacity * 2, INITIAL_CAPACITY), maxCapacity);
+    newCapacity = Math.max(newCapacity, minCapacity);
+
+    ByteBuffer newSlab;
+    if (spillFile == null) {
+      long budgetCapacity = memoryBudgetBytes / recordBytes;
+      if (newCapacity > budgetCapacity && minCapacity <= budgetCapacity) {
+        // Use up the remaining budget before spilling.
+        newCapacity = (int) budgetCapacity;
+      }
+
+      if ((long) newCapacity * recordBytes <= memoryBudgetBytes) {
+        newSlab = allocateBuffer(newCapacity * recordBytes);
+      } else {
+        spillPath = File.createTempFile("bottlenecks", ".bin", spillDirectory);
+        spillFile = new RandomAccessFile(spillPath, "rw");
+        newSlab = mapSpillFile(newCapacity);
+      }
+
+      if (slab != null) {
+        ByteBuffer oldContents = slab.duplicate();
+        oldContents.position(0);
+        oldContents.limit(size * recordBytes);
+        newSlab.put(oldContents);
+        newSlab.clear();
+      }
+    } else {
+      // The new mapping already contains the old records.
+      newSlab = mapSpillFile(newCapacity);
+    }
+
+    slab = newSlab;
+    readView = slab.duplicate();
+    writeView = slab.duplicate();
+    classIndices = Arrays.copyOf(classIndices, newCapacity);
+    capacity = newCapacity;
+  }
+
+  private ByteBuffer mapSpillFile(int numRecords) throws IOException {
+    FileChannel channel = spillFile.getChannel();
+    ByteBuffer result = channel.map(MapMode.READ_WRITE, 0, (long) numRecords * recordBytes);
+    result.order(ByteOrder.nativeOrder());
+    return result;
+  }
+
+  private void moveRecord(int sourceIdx, int destIdx) {
+    readView.clear();
+    readView.position(sourceIdx * recordBytes);
+    readView.limit((sourceIdx + 1) * recordBytes);
+
+    writeView.clear();
+    writeView.position(destIdx * recordBytes);
+    writeView.put(readView);
+  }
+
+  private void copyRecordOut(int recordIdx, ByteBuffer dest) {
+    readView.clear();
+    readView.position(recordIdx * recordBytes);
+    readView.limit((recordIdx + 1) * recordBytes);
+
+    dest.clear();
+    dest.put(readView);
+    dest.rewind();
+  }
+
+  private void copyRecordIn(ByteBuffer source, int recordIdx) {
+    writeView.clear();
+    writeView.position(recordIdx * recordBytes);
+    writeView.put(source);
+    source.rewind();
+  }
+
+  private static ByteBuffer allocateBuffer(int capacity) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+}
@@ -0,0 +1,357 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes checkpoints of {@link TransferLearningModel} state.
+ *
+ * <p>A checkpoint consists of a header followed by a payload. The header holds the format
+ * version, parameter shapes, optimizer state sizes, class names, the number of stored samples and
+ * CRC32 checksums of both the header and the payload. The payload holds raw parameter values,
+ * optimizer state, and optionally training sample bottlenecks and their class indices, in this
+ * order and with no padding in between.
+ *
+ * <p>Payload values are written in the native byte order, which is recorded in the header, so
+ * that they can be used directly from a memory-mapped file.
+ */
+final class CheckpointFormat {
+  private static final int FLOAT_BYTES = 4;
+  private static final int INT_BYTES = 4;
+
+  private static final int MAGIC = 0x544c434b; // "TLCK"
+  private static final int VERSION = 1;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Size of the chunks used to checksum direct buffers.
+  private static final int CRC_CHUNK_BYTES = 64 * 1024;
+
+  /** Checkpoint header contents. */
+  static final class Header {
+    int[][] parameterShapes;
+    int[] optimizerStateSizes;
+    String[] classes;
+    int numSamples;
+    int sampleRecordBytes;
+
+    // Where the payload starts in the file.
+    int payloadOffset;
+    long payloadBytes;
+    int payloadCrc;
+  }
+
+  private CheckpointFormat() {}
+
+  /**
+   * Writes a checkpoint with a single gathering write.
+   *
+   * @param channel where to write the checkpoint, starting at its current position.
+   * @param header header contents. Payload offset and size are filled in by this method.
+   * @param parameters model parameter values.
+   * @param optimizerState optimizer state values.
+   * @param sampleRecords bottlenecks of {@code header.numSamples} samples, may be null if there are
+   *     no samples.
+   * @param sampleClasses class indices of the samples.
+   * @throws IOException if an I/O error occurs.
+   */
+  static void write(
+      FileChannel channel,
+      Header header,
+      ByteBuffer[] parameters,
+      ByteBuffer[] optimizerState,
+      ByteBuffer sampleRecords,
+      int[] sampleClasses)
+      throws IOException {
+    ByteBuffer classIndices =
+        ByteBuffer.allocateDirect(header.numSamples * INT_BYTES).order(ByteOrder.nativeOrder());
+    classIndices.asIntBuffer().put(sampleClasses, 0, header.numSamples);
+
+    int numSampleBuffers = header.numSamples > 0 ? 2 : 0;
+    ByteBuffer[] buffers = new ByteBuffer[1 + parameters.length + optimizerState.length
+        + numSampleBuffers];
+
+    int bufferIdx = 1;
+    for (ByteBuffer buffer : parameters) {
+      buffers[bufferIdx++] = duplicateFromStart(buffer);
+    }
+    for (ByteBuffer buffer : optimizerState) {
+      buffers[bufferIdx++] = duplicateFromStart(buffer);
+    }
+    if (numSampleBuffers > 0) {
+      buffers[bufferIdx++] = duplicateFromStart(sampleRecords);
+      buffers[bufferIdx] = classIndices;
+    }
+
+    CRC32 payloadCrc = new CRC32();
+    long payloadBytes = 0;
+    for (int idx = 1; idx < buffers.length; idx++) {
+      updateCrc(payloadCrc, buffers[idx]);
+      payloadBytes += buffers[idx].remaining();
+    }
+
+    header.payloadBytes = payloadBytes;
+    buffers[0] = encodeHeader(header, (int) payloadCrc.getValue());
+
+    long totalBytes = 0;
+    for (ByteBuffer buffer : buffers) {
+      totalBytes += buffer.remaining();
+    }
+    long written = 0;
+    while (written < totalBytes) {
+      written += channel.write(buffers);
+    }
+  }
+
+  /**
+   * Parses and validates a checkpoint.
+   *
+   * @param checkpoint checkpoint contents, usually memory-mapped. Its position is not modified.
+   * @return parsed header. Payload sections can be located with {@link #payloadSection}.
+   * @throws IOException if the checkpoint is malformed, corrupted or has an unsupported version.
+   */
+  static Header read(ByteBuffer checkpoint) throws IOException {
+    int start = checkpoint.position();
+    ByteBuffer input = checkpoint.duplicate();
+    input.order(ByteOrder.BIG_ENDIAN);
+
+    Header header = new Header();
+    try {
+      if (input.getInt() != MAGIC) {
+        throw new IOException("Not a transfer learning model checkpoint");
+      }
+      int version = input.getInt();
+      if (version != VERSION) {
+        throw new IOException(
+            String.format("Unsupported checkpoint version %d, expected %d", version, VERSION));
+      }
+      boolean littleEndian = input.get() != 0;
+      if (littleEndian != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)) {
+        throw new IOException("Checkpoint was written with a different byte order");
+      }
+
+      header.parameterShapes = new int[checkCount(input, input.getInt())][];
+      for (int paramIdx = 0; paramIdx < header.parameterShapes.length; paramIdx++) {
+        int[] shape = new int[checkCount(input, input.getInt())];
+        for (int dimIdx = 0; dimIdx < shape.length; dimIdx++) {
+          shape[dimIdx] = input.getInt();
+        }
+        header.parameterShapes[paramIdx] = shape;
+      }
+
+      header.optimizerStateSizes = new int[checkCount(input, input.getInt())];
+      for (int elemIdx = 0; elemIdx < header.optimizerStateSizes.length; elemIdx++) {
+        header.optimizerStateSizes[elemIdx] = input.getInt();
+      }
+
+      header.classes = new String[checkCount(input, input.getInt())];
+      for (int classIdx = 0; classIdx < header.classes.length; classIdx++) {
+        byte[] nameBytes = new byte[checkCount(input, input.getInt())];
+        input.get(nameBytes);
+        header.classes[classIdx] = new String(nameBytes, UTF_8);
+      }
+
+      header.numSamples = input.getInt();
+      header.sampleRecordBytes = input.getInt();
+      if (header.numSamples < 0 || header.sampleRecordBytes < 0) {
+        throw new IOException("Checkpoint header is corrupted");
+      }
+      header.payloadBytes = input.getLong();
+      header.payloadCrc = input.getInt();
+
+      CRC32 headerCrc = new CRC32();
+      ByteBuffer headerBytes = checkpoint.duplicate();
+      headerBytes.limit(input.position());
+      updateCrc(headerCrc, headerBytes);
+      if (input.getInt() != (int) headerCrc.getValue()) {
+        throw new IOException("Checkpoint header is corrupted");
+      }
+
+      long expectedPayloadBytes =
+          stateBytes(header) + (long) header.numSamples * (header.sampleRecordBytes + INT_BYTES);
+      if (header.payloadBytes != expectedPayloadBytes) {
+        throw new IOException(
+            String.format(
+                "Checkpoint payload has %d bytes, but its header describes %d",
+                header.payloadBytes, expectedPayloadBytes));
+      }
+
+      header.payloadOffset = input.position() - start;
+      if (input.remaining() < header.payloadBytes) {
+        throw new IOException("Checkpoint is truncated");
+      }
+
+      ByteBuffer payload = input.duplicate();
+      payload.limit((int) (payload.position() + header.payloadBytes));
+      CRC32 actualPayloadCrc = new CRC32();
+      updateCrc(actualPayloadCrc, payload);
+      if (header.payloadCrc != (int) actualPayloadCrc.getValue()) {
+        throw new IOException("Checkpoint payload is corrupted");
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Checkpoint is truncated", e);
+    }
+
+    return header;
+  }
+
+  /**
+   * Checks payload contents that were copied out of a checkpoint against its checksum.
+   *
+   * @param header header returned by {@link #read(ByteBuffer)}.
+   * @param sections copies of all payload sections in order, each with position 0 and capacity of
+   *     exactly the section size.
+   * @throws IOException if the sections do not match the checksum.
+   */
+  static void verifyPayload(Header header, ByteBuffer... sections) throws IOException {
+    CRC32 crc = new CRC32();
+    for (ByteBuffer section : sections) {
+      updateCrc(crc, duplicateFromStart(section));
+    }
+    if (header.payloadCrc != (int) crc.getValue()) {
+      throw new IOException("Checkpoint payload changed while it was being read");
+    }
+  }
+
+  /**
+   * Returns a view of a payload section.
+   *
+   * @param checkpoint checkpoint contents, as passed to {@link #read(ByteBuffer)}.
+   * @param offset section offset relative to the payload start.
+   * @param numBytes section size.
+   * @return native-order buffer with position 0 and capacity of exactly {@code numBytes}.
+   */
+  static ByteBuffer payloadSection(
+      ByteBuffer checkpoint, Header header, long offset, long numBytes) {
+    ByteBuffer view = checkpoint.duplicate();
+    int start = (int) (checkpoint.position() + header.payloadOffset + offset);
+    view.position(start);
+    view.limit((int) (start + numBytes));
+
+    ByteBuffer result = view.slice();
+    result.order(ByteOrder.nativeOrder());
+    return result;
+  }
+
+  /** Number of elements in a tensor of the given shape. */
+  static int numElements(int[] shape) {
+    int result = 1;
+    for (int size : shape) {
+      result *= size;
+    }
+    return result;
+  }
+
+  /** Size in bytes of all the parameters and optimizer state, which open the payload. */
+  static long stateBytes(Header header) {
+    long result = 0;
+    for (int[] shape : header.parameterShapes) {
+      result += (long) numElements(shape) * FLOAT_BYTES;
+    }
+    for (int size : header.optimizerStateSizes) {
+      result += (long) size * FLOAT_BYTES;
+    }
+    return result;
+  }
+
+  private static ByteBuffer encodeHeader(Header header, int payloadCrc) {
+    byte[][] classNames = new byte[header.classes.length][];
+    int headerBytes = 5 * INT_BYTES + 1;
+    for (int[] shape : header.parameterShapes) {
+      headerBytes += INT_BYTES * (1 + shape.length);
+    }
+    headerBytes += INT_BYTES * header.optimizerStateSizes.length;
+    for (int classIdx = 0; classIdx < header.classes.length; classIdx++) {
+      classNames[classIdx] = header.classes[classIdx].getBytes(UTF_8);
+      headerBytes += INT_BYTES + classNames[classIdx].length;
+    }
+    headerBytes += 2 * INT_BYTES + 8 + 2 * INT_BYTES;
+
+    ByteBuffer result = ByteBuffer.allocate(headerBytes);
+    result.putInt(MAGIC);
+    result.putInt(VERSION);
+    result.put((byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+
+    result.putInt(header.parameterShapes.length);
+    for (int[] shape : header.parameterShapes) {
+      result.putInt(shape.length);
+      for (int size : shape) {
+        result.putInt(size);
+      }
+    }
+
+    result.putInt(header.optimizerStateSizes.length);
+    for (int size : header.optimizerStateSizes) {
+      result.putInt(size);
+    }
+
+    result.putInt(classNames.length);
+    for (byte[] name : classNames) {
+      result.putInt(name.length);
+      result.put(name);
+    }
+
+    result.putInt(header.numSamples);
+    result.putInt(header.sampleRecordBytes);
+    result.putLong(header.payloadBytes);
+    result.putInt(payloadCrc);
+
+    CRC32 headerCrc = new CRC32();
+    headerCrc.update(result.array(), 0, result.position());
+    result.putInt((int) headerCrc.getValue());
+
+    header.payloadOffset = result.position();
+    result.flip();
+    return result;
+  }
+
+  private static ByteBuffer duplicateFromStart(ByteBuffer buffer) {
+    ByteBuffer result = buffer.duplicate();
+    result.clear();
+    return result;
+  }
+
+  // Updates the checksum with the remaining bytes of a buffer, without changing its position.
+  private static void updateCrc(CRC32 crc, ByteBuffer buffer) {
+    ByteBuffer input = buffer.duplicate();
+    if (input.hasArray()) {
+      crc.update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+      return;
+    }
+
+    byte[] chunk = new byte[Math.min(CRC_CHUNK_BYTES, input.remaining())];
+    while (input.hasRemaining()) {
+      int chunkBytes = Math.min(chunk.length, input.remaining());
+      input.get(chunk, 0, chunkBytes);
+      crc.update(chunk, 0, chunkBytes);
+    }
+  }
+
+  // Guards against huge allocations when reading a corrupted header, before its checksum is known.
+  private static int checkCount(ByteBuffer input, int count) throws IOException {
+    if (count < 0 || count > input.remaining()) {
+      throw new IOException("Checkpoint header is corrupted");
+    }
+    return count;
+  }
+}
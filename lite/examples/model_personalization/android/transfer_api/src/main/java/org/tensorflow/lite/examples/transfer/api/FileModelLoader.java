@@ -0,0 +1,75 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Handles loading various parts of the model stored as a directory in the file system.
+ *
+ * <p>Unlike {@link AssetModelLoader}, this loader does not depend on Android, so it can also be
+ * used on desktop, e.g. in benchmarks.
+ */
+public class FileModelLoader implements ModelLoader {
+  private final File directory;
+
+  /**
+   * Create a loader for a transfer learning model under given directory.
+   *
+   * @param directory path to model directory.
+   */
+  public FileModelLoader(File directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public LiteModelWrapper loadInitializeModel() throws IOException {
+    return new LiteModelWrapper(loadMappedFile("initialize.tflite"));
+  }
+
+  @Override
+  public LiteModelWrapper loadBaseModel() throws IOException {
+    return new LiteModelWrapper(loadMappedFile("bottleneck.tflite"));
+  }
+
+  @Override
+  public LiteModelWrapper loadTrainModel() throws IOException {
+    return new LiteModelWrapper(loadMappedFile("train_head.tflite"));
+  }
+
+  @Override
+  public LiteModelWrapper loadInferenceModel() throws IOException {
+    return new LiteModelWrapper(loadMappedFile("inference.tflite"));
+  }
+
+  @Override
+  public LiteModelWrapper loadOptimizerModel() throws IOException {
+    return new LiteModelWrapper(loadMappedFile("optimizer.tflite"));
+  }
+
+  protected MappedByteBuffer loadMappedFile(String filePath) throws IOException {
+    // The mapping stays valid after the file is closed.
+    try (RandomAccessFile file = new RandomAccessFile(new File(directory, filePath), "r")) {
+      FileChannel fileChannel = file.getChannel();
+      return fileChannel.map(MapMode.READ_ONLY, 0, fileChannel.size());
+    }
+  }
+}
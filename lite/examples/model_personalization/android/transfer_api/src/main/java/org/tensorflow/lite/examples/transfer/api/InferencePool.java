@@ -0,0 +1,168 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed set of independent interpreters for the bottleneck and inference models.
+ *
+ * <p>Every worker owns its own interpreters and input/output buffers, so up to
+ * {@link #getNumWorkers()} images can be processed concurrently without any shared locks.
+ */
+class InferencePool implements Closeable {
+  private static final int FLOAT_BYTES = 4;
+
+  /** Interpreters and buffers used by a single inference at a time. */
+  static final class Worker {
+    private final LiteBottleneckModel bottleneckModel;
+    private final LiteInferenceModel inferenceModel;
+
+    private final ByteBuffer image;
+    private final ByteBuffer bottleneck;
+    private final ByteBuffer[] parameterViews;
+    private final float[] confidences;
+
+    // Class indices sorted by confidence, used by top-K selection.
+    final int[] rankedClasses;
+
+    private Worker(ModelLoader modelLoader, int numClasses, int numParameters)
+        throws IOException {
+      bottleneckModel = new LiteBottleneckModel(modelLoader.loadBaseModel());
+      inferenceModel = new LiteInferenceModel(modelLoader.loadInferenceModel(), numClasses);
+
+      image = allocateBuffer(bottleneckModel.getNumImageFeatures() * FLOAT_BYTES);
+      bottleneck = allocateBuffer(bottleneckModel.getNumBottleneckFeatures() * FLOAT_BYTES);
+      parameterViews = new ByteBuffer[numParameters];
+      confidences = new float[numClasses];
+      rankedClasses = new int[numClasses];
+    }
+
+    /**
+     * Runs both models on a single image.
+     *
+     * @param imageData image RGB data.
+     * @param modelParameters trainable parameter values. Positions are not modified, so these may
+     *     be shared with other workers.
+     * @return confidence of every class. The array is owned by the worker and is overwritten by
+     *     the next call.
+     */
+    float[] run(float[] imageData, ByteBuffer[] modelParameters) {
+      image.asFloatBuffer().put(imageData);
+      bottleneckModel.generateBottleneck(image, bottleneck);
+
+      for (int parameterIdx = 0; parameterIdx < modelParameters.length; parameterIdx++) {
+        parameterViews[parameterIdx] = modelParameters[parameterIdx].duplicate();
+        parameterViews[parameterIdx].order(ByteOrder.nativeOrder());
+      }
+      inferenceModel.runInference(bottleneck, parameterViews, confidences);
+      return confidences;
+    }
+
+    private void close() {
+      bottleneckModel.close();
+      inferenceModel.close();
+    }
+  }
+
+  private final Worker[] workers;
+  private final BlockingQueue<Worker> idleWorkers;
+
+  /**
+   * Loads interpreters for every worker.
+   *
+   * @param modelLoader loader for the underlying models. Its base and inference models are loaded
+   *     once per worker.
+   * @param numWorkers how many images can be processed concurrently.
+   * @param numClasses number of classes recognized by the model.
+   * @param numParameters number of trainable parameter tensors.
+   */
+  InferencePool(ModelLoader modelLoader, int numWorkers, int numClasses, int numParameters)
+      throws IOException {
+    if (numWorkers < 1) {
+      throw new IllegalArgumentException(
+          String.format("Need at least one inference worker, got %d", numWorkers));
+    }
+
+    workers = new Worker[numWorkers];
+    idleWorkers = new ArrayBlockingQueue<>(numWorkers);
+    for (int workerIdx = 0; workerIdx < numWorkers; workerIdx++) {
+      workers[workerIdx] = new Worker(modelLoader, numClasses, numParameters);
+      idleWorkers.add(workers[workerIdx]);
+    }
+  }
+
+  int getNumWorkers() {
+    return workers.length;
+  }
+
+  /**
+   * Takes an idle worker, waiting for one if all are busy. Every call must be paired with
+   * {@link #release(Worker)}.
+   */
+  Worker acquire() {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return idleWorkers.take();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  void release(Worker worker) {
+    idleWorkers.add(worker);
+  }
+
+  /**
+   * Waits for all running inferences to finish and closes the interpreters.
+   *
+   * <p>Workers are returned to the pool afterwards, so that threads blocked in {@link #acquire()}
+   * do not hang. Callers must check for termination before using an acquired worker.
+   */
+  @Override
+  public void close() {
+    Worker[] drained = new Worker[workers.length];
+    for (int workerIdx = 0; workerIdx < workers.length; workerIdx++) {
+      drained[workerIdx] = acquire();
+    }
+
+    for (Worker worker : drained) {
+      worker.close();
+    }
+    for (Worker worker : drained) {
+      release(worker);
+    }
+  }
+
+  private static ByteBuffer allocateBuffer(int capacity) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+}
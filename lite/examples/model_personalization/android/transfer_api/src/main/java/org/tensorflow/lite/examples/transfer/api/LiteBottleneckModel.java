@@ -17,6 +17,7 @@ package org.tensorflow.lite.examples.transfer.api;
 
 import java.io.Closeable;
 import java.nio.ByteBuffer;
+import org.tensorflow.lite.Interpreter;
 
 /**
  * A wrapper for TFLite model that generates bottlenecks from images.
@@ -26,8 +27,22 @@ class LiteBottleneckModel implements Closeable {
 
   private final LiteModelWrapper modelWrapper;
 
+  // Shapes of a single image and its bottleneck, as declared by the model.
+  private final int[] imageShape;
+  private final int[] bottleneckShape;
+  private final int numBottleneckFeatures;
+
+  // Batch size the interpreter input is currently resized to.
+  private int currentBatchSize;
+
   LiteBottleneckModel(LiteModelWrapper modelWrapper) {
     this.modelWrapper = modelWrapper;
+
+    Interpreter interpreter = modelWrapper.getInterpreter();
+    imageShape = interpreter.getInputTensor(0).shape();
+    bottleneckShape = interpreter.getOutputTensor(0).shape();
+    numBottleneckFeatures = interpreter.getOutputTensor(0).numElements();
+    currentBatchSize = imageShape[0];
   }
 
   /**
@@ -41,6 +56,7 @@ class LiteBottleneckModel implements Closeable {
       outBottleneck = ByteBuffer.allocateDirect(getNumBottleneckFeatures() * FLOAT_BYTES);
     }
 
+    resizeBatch(1);
     modelWrapper.getInterpreter().run(image, outBottleneck);
     image.rewind();
     outBottleneck.rewind();
@@ -48,16 +64,55 @@ class LiteBottleneckModel implements Closeable {
     return outBottleneck;
   }
 
+  /**
+   * Passes a batch of images through the bottleneck model in a single interpreter invocation.
+   *
+   * <p>The interpreter input is resized to the batch size if it differs from the previous call.
+   *
+   * @param images RGB data of {@code batchSize} images, laid out one after another. Buffer
+   *     capacity must match the batch exactly.
+   * @param batchSize number of images in the batch.
+   * @param outBottlenecks where to store the bottlenecks, laid out one after another. Buffer
+   *     capacity must match the batch exactly.
+   */
+  synchronized void generateBottlenecks(
+      ByteBuffer images, int batchSize, ByteBuffer outBottlenecks) {
+    resizeBatch(batchSize);
+    modelWrapper.getInterpreter().run(images, outBottlenecks);
+    images.rewind();
+    outBottlenecks.rewind();
+  }
+
+  /** Number of float values in a single image. */
+  int getNumImageFeatures() {
+    int result = 1;
+    for (int dimIdx = 1; dimIdx < imageShape.length; dimIdx++) {
+      result *= imageShape[dimIdx];
+    }
+    return result;
+  }
+
   int getNumBottleneckFeatures() {
-    return modelWrapper.getInterpreter().getOutputTensor(0).numElements();
+    return numBottleneckFeatures;
   }
 
   int[] getBottleneckShape() {
-    return modelWrapper.getInterpreter().getOutputTensor(0).shape();
+    return bottleneckShape.clone();
   }
 
   @Override
   public void close() {
     modelWrapper.close();
   }
+
+  private void resizeBatch(int batchSize) {
+    if (batchSize == currentBatchSize) {
+      return;
+    }
+
+    int[] batchShape = imageShape.clone();
+    batchShape[0] = batchSize;
+    modelWrapper.getInterpreter().resizeInput(0, batchShape);
+    currentBatchSize = batchSize;
+  }
 }
@@ -21,25 +21,46 @@ import java.nio.ByteOrder;
 import java.util.Map;
 import java.util.TreeMap;
 
+/**
+ * A wrapper for TFLite model that runs inference on bottlenecks.
+ *
+ * <p>Interpreter inputs and outputs are kept between calls, so this class is not thread-safe.
+ */
 class LiteInferenceModel implements Closeable {
   private static final int FLOAT_BYTES = 4;
 
   private final LiteModelWrapper modelWrapper;
   private final int numClasses;
 
+  // Reused across calls to avoid allocating on every inference.
+  private final ByteBuffer predictionsBuffer;
+  private final Map<Integer, Object> outputs = new TreeMap<>();
+  private final Object[] inputs;
+
   LiteInferenceModel(LiteModelWrapper modelWrapper, int numClasses) {
     this.modelWrapper = modelWrapper;
     this.numClasses = numClasses;
-  }
 
-  float[] runInference(ByteBuffer bottleneck, ByteBuffer[] modelParameters) {
-    ByteBuffer predictionsBuffer = ByteBuffer.allocateDirect(numClasses * FLOAT_BYTES);
+    predictionsBuffer = ByteBuffer.allocateDirect(numClasses * FLOAT_BYTES);
     predictionsBuffer.order(ByteOrder.nativeOrder());
-
-    Map<Integer, Object> outputs = new TreeMap<>();
     outputs.put(0, predictionsBuffer);
+    inputs = new Object[modelWrapper.getInterpreter().getInputTensorCount()];
+  }
+
+  float[] runInference(ByteBuffer bottleneck, ByteBuffer[] modelParameters) {
+    float[] predictions = new float[numClasses];
+    runInference(bottleneck, modelParameters, predictions);
+    return predictions;
+  }
 
-    Object[] inputs = new Object[modelParameters.length + 1];
+  /**
+   * Runs inference on a single bottleneck.
+   *
+   * @param bottleneck bottleneck data.
+   * @param modelParameters current model trainable parameter values.
+   * @param outPredictions where to store the confidence of every class.
+   */
+  void runInference(ByteBuffer bottleneck, ByteBuffer[] modelParameters, float[] outPredictions) {
     inputs[0] = bottleneck;
     System.arraycopy(modelParameters, 0, inputs, 1, modelParameters.length);
 
@@ -50,12 +71,7 @@ class LiteInferenceModel implements Closeable {
     }
     predictionsBuffer.rewind();
 
-    float[] predictions = new float[numClasses];
-    for (int classIdx = 0; classIdx < numClasses; classIdx++) {
-      predictions[classIdx] = predictionsBuffer.getFloat();
-    }
-
-    return predictions;
+    predictionsBuffer.asFloatBuffer().get(outPredictions, 0, numClasses);
   }
 
   @Override
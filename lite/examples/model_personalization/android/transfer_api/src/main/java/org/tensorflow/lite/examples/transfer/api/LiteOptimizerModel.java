@@ -20,15 +20,24 @@ import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 
-/** A wrapper for TFLite optimizer model. */
+/**
+ * A wrapper for TFLite optimizer model.
+ *
+ * <p>Interpreter inputs and outputs are kept between calls, so this class is not thread-safe.
+ */
 public class LiteOptimizerModel implements Closeable {
 
   private static final int FLOAT_BYTES = 4;
 
   private final LiteModelWrapper modelWrapper;
 
+  // Reused across calls to avoid allocating on every training step.
+  private final Map<Integer, Object> outputs = new TreeMap<>();
+  private final Object[] inputs;
+
   LiteOptimizerModel(LiteModelWrapper modelWrapper) {
     this.modelWrapper = modelWrapper;
+    inputs = new Object[modelWrapper.getInterpreter().getInputTensorCount()];
   }
 
   /**
@@ -46,14 +55,21 @@ public class LiteOptimizerModel implements Closeable {
       ByteBuffer[] optimizerState,
       ByteBuffer[] newParams,
       ByteBuffer[] newOptimizerState) {
-    Object[] inputs = new Object[currentParams.length + gradients.length];
     System.arraycopy(currentParams, 0, inputs, 0, currentParams.length);
     System.arraycopy(gradients, 0, inputs, currentParams.length, gradients.length);
+    System.arraycopy(
+        optimizerState,
+        0,
+        inputs,
+        currentParams.length + gradients.length,
+        optimizerState.length);
 
-    Map<Integer, Object> outputs = new TreeMap<>();
     for (int paramIdx = 0; paramIdx < newParams.length; paramIdx++) {
       outputs.put(paramIdx, newParams[paramIdx]);
     }
+    for (int elemIdx = 0; elemIdx < newOptimizerState.length; elemIdx++) {
+      outputs.put(newParams.length + elemIdx, newOptimizerState[elemIdx]);
+    }
 
     modelWrapper.getInterpreter().runForMultipleInputsOutputs(inputs, outputs);
     for (ByteBuffer buffer : currentParams) {
@@ -65,6 +81,12 @@ public class LiteOptimizerModel implements Closeable {
     for (ByteBuffer buffer : newParams) {
       buffer.rewind();
     }
+    for (ByteBuffer buffer : optimizerState) {
+      buffer.rewind();
+    }
+    for (ByteBuffer buffer : newOptimizerState) {
+      buffer.rewind();
+    }
   }
 
   /**
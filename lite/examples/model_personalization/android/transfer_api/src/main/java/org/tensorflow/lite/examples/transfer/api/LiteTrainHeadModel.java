@@ -25,14 +25,25 @@ import org.tensorflow.lite.Tensor;
 
 /**
  * A wrapper for TFLite model that calculates the gradients of trainable layers.
+ *
+ * <p>Interpreter inputs and outputs are kept between calls, so this class is not thread-safe.
  */
 class LiteTrainHeadModel implements Closeable {
   private static final int FLOAT_BYTES = 4;
 
   private LiteModelWrapper modelWrapper;
 
+  // Reused across calls to avoid allocating on every training step.
+  private final ByteBuffer lossBuffer;
+  private final Map<Integer, Object> outputs = new TreeMap<>();
+  private final Object[] inputs;
+
   LiteTrainHeadModel(LiteModelWrapper modelWrapper) {
     this.modelWrapper = modelWrapper;
+
+    lossBuffer = ByteBuffer.allocateDirect(FLOAT_BYTES);
+    lossBuffer.order(ByteOrder.nativeOrder());
+    inputs = new Object[modelWrapper.getInterpreter().getInputTensorCount()];
   }
 
   /**
@@ -62,10 +73,6 @@ class LiteTrainHeadModel implements Closeable {
           modelParameters.length));
     }
 
-    ByteBuffer lossBuffer = ByteBuffer.allocateDirect(FLOAT_BYTES);
-    lossBuffer.order(ByteOrder.nativeOrder());
-
-    Map<Integer, Object> outputs = new TreeMap<>();
     outputs.put(0, lossBuffer);
     for (int outputIndex = 1;
         outputIndex < modelWrapper.getInterpreter().getOutputTensorCount();
@@ -73,7 +80,6 @@ class LiteTrainHeadModel implements Closeable {
       outputs.put(outputIndex, modelGradients[outputIndex - 1]);
     }
 
-    Object[] inputs = new Object[modelParameters.length + 2];
     inputs[0] = bottleneckBatch;
     inputs[1] = classBatch;
     System.arraycopy(modelParameters, 0, inputs, 2, modelParameters.length);
@@ -0,0 +1,85 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+/**
+ * Tracks an exponential moving average of the training loss and detects when it stops improving.
+ *
+ * <p>This class is not thread-safe.
+ */
+class LossPlateauDetector {
+  private final float smoothing;
+  private final float minImprovement;
+  private final int patience;
+
+  private float movingAverage = Float.NaN;
+  private float bestAverage = Float.POSITIVE_INFINITY;
+  private int stepsWithoutImprovement = 0;
+
+  /**
+   * @param smoothing weight of a new loss value in the moving average, in (0, 1].
+   * @param minImprovement relative decrease of the moving average that counts as an improvement.
+   * @param patience after how many steps without improvement the loss is considered to plateau.
+   */
+  LossPlateauDetector(float smoothing, float minImprovement, int patience) {
+    if (smoothing <= 0 || smoothing > 1) {
+      throw new IllegalArgumentException(
+          String.format("Smoothing must be in (0, 1], got %f", smoothing));
+    }
+    this.smoothing = smoothing;
+    this.minImprovement = minImprovement;
+    this.patience = patience;
+  }
+
+  /**
+   * Records a loss value.
+   *
+   * @return updated moving average.
+   */
+  float addLoss(float loss) {
+    if (Float.isNaN(movingAverage)) {
+      movingAverage = loss;
+    } else {
+      movingAverage += smoothing * (loss - movingAverage);
+    }
+
+    if (movingAverage < bestAverage * (1 - minImprovement)) {
+      bestAverage = movingAverage;
+      stepsWithoutImprovement = 0;
+    } else {
+      stepsWithoutImprovement++;
+    }
+    return movingAverage;
+  }
+
+  /** Whether the moving average has not improved for the configured number of steps. */
+  boolean hasPlateaued() {
+    return stepsWithoutImprovement >= patience;
+  }
+
+  /**
+   * Gives the loss another chance to improve, e.g. after new samples were added. The moving
+   * average itself is kept.
+   */
+  void resetPatience() {
+    bestAverage = Float.isNaN(movingAverage) ? Float.POSITIVE_INFINITY : movingAverage;
+    stepsWithoutImprovement = 0;
+  }
+
+  float getMovingAverage() {
+    return movingAverage;
+  }
+}
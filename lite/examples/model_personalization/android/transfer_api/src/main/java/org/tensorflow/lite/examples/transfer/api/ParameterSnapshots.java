@@ -0,0 +1,138 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes read-only copies of model parameters to readers without locking.
+ *
+ * <p>The writer copies parameters into a snapshot and swaps it in as the current one. Readers pin
+ * the current snapshot with a reference count, which keeps it from being recycled while they use
+ * it. Snapshots that are no longer current and have no readers go back to a free list, so after
+ * warm-up publishing does not allocate.
+ */
+class ParameterSnapshots {
+
+  /** An immutable copy of model parameters. */
+  static final class Snapshot {
+    private final ByteBuffer[] parameters;
+
+    // Number of readers, plus one while the snapshot is current. Zero means it is free.
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    private long version;
+
+    private Snapshot(int[] parameterSizes) {
+      parameters = new ByteBuffer[parameterSizes.length];
+      for (int parameterIdx = 0; parameterIdx < parameterSizes.length; parameterIdx++) {
+        parameters[parameterIdx] = ByteBuffer.allocateDirect(parameterSizes[parameterIdx]);
+        parameters[parameterIdx].order(ByteOrder.nativeOrder());
+      }
+    }
+
+    /** Parameter buffers. Must not be modified, including their positions. */
+    ByteBuffer[] getParameters() {
+      return parameters;
+    }
+
+    /** Number of times parameters had been published before this snapshot. */
+    long getVersion() {
+      return version;
+    }
+
+    private boolean tryRetain() {
+      while (true) {
+        int count = refCount.get();
+        if (count == 0) {
+          return false;
+        }
+        if (refCount.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  private final int[] parameterBytes;
+  private final Queue<Snapshot> freeSnapshots = new ConcurrentLinkedQueue<>();
+
+  private volatile Snapshot current;
+  private long nextVersion = 0;
+
+  /** @param parameterBytes size of every parameter buffer in bytes. */
+  ParameterSnapshots(int[] parameterBytes) {
+    this.parameterBytes = parameterBytes.clone();
+  }
+
+  /**
+   * Copies the parameters into a new snapshot and makes it current.
+   *
+   * <p>Only one thread may publish at a time.
+   */
+  void publish(ByteBuffer[] parameters) {
+    Snapshot snapshot = freeSnapshots.poll();
+    if (snapshot == null) {
+      snapshot = new Snapshot(parameterBytes);
+    }
+
+    for (int parameterIdx = 0; parameterIdx < parameters.length; parameterIdx++) {
+      ByteBuffer source = parameters[parameterIdx].duplicate();
+      source.clear();
+      ByteBuffer dest = snapshot.parameters[parameterIdx];
+      dest.clear();
+      dest.put(source);
+      dest.rewind();
+    }
+    snapshot.version = nextVersion++;
+    snapshot.refCount.set(1);
+
+    Snapshot previous = current;
+    current = snapshot;
+    if (previous != null) {
+      release(previous);
+    }
+  }
+
+  /**
+   * Pins the current snapshot. Every call must be paired with {@link #release(Snapshot)}.
+   *
+   * @return current snapshot, or null if nothing has been published yet.
+   */
+  Snapshot acquire() {
+    while (true) {
+      Snapshot snapshot = current;
+      if (snapshot == null) {
+        return null;
+      }
+      if (snapshot.tryRetain()) {
+        return snapshot;
+      }
+      // The snapshot was replaced and recycled in the meantime, try the new current one.
+    }
+  }
+
+  /** Unpins a snapshot previously returned by {@link #acquire()}. */
+  void release(Snapshot snapshot) {
+    if (snapshot.refCount.decrementAndGet() == 0) {
+      freeSnapshots.add(snapshot);
+    }
+  }
+}
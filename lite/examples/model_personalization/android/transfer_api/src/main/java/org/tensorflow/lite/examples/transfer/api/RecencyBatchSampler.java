@@ -0,0 +1,79 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import java.util.Random;
+
+/**
+ * Chooses training samples for online training steps.
+ *
+ * <p>Samples that were added since the previous step are always included first, up to half of
+ * the batch, so that the model adapts to new data quickly. The rest of the batch is drawn
+ * uniformly at random, with replacement, from all the samples, which keeps older samples from
+ * being forgotten and allows training to start with fewer samples than the batch size.
+ *
+ * <p>This class is not thread-safe.
+ */
+class RecencyBatchSampler {
+  private final Random random;
+
+  // Number of samples that had been added by the time of the previous batch.
+  private int numSeenSamples = 0;
+
+  RecencyBatchSampler(Random random) {
+    this.random = random;
+  }
+
+  /** Whether samples were added since the previous batch. */
+  boolean hasUnseenSamples(int numSamples) {
+    return numSamples > numSeenSamples;
+  }
+
+  /**
+   * Forgets which samples were seen, e.g. after the samples have been reordered. Afterwards, all
+   * samples are treated as seen.
+   */
+  void reset(int numSamples) {
+    numSeenSamples = numSamples;
+  }
+
+  /**
+   * Fills a batch with sample indices.
+   *
+   * @param numSamples total number of samples, must be positive. Samples are assumed to be
+   *     appended at the end, so that new ones have the highest indices.
+   * @param outIndices where to store the chosen indices. Its length is the batch size.
+   */
+  void sample(int numSamples, int[] outIndices) {
+    if (numSamples <= 0) {
+      throw new IllegalArgumentException("Cannot sample a batch from no samples");
+    }
+    if (numSamples < numSeenSamples) {
+      // Samples were removed.
+      numSeenSamples = numSamples;
+    }
+
+    int numRecent = Math.min(outIndices.length / 2, numSamples - numSeenSamples);
+    for (int idx = 0; idx < numRecent; idx++) {
+      outIndices[idx] = numSeenSamples + idx;
+    }
+    for (int idx = numRecent; idx < outIndices.length; idx++) {
+      outIndices[idx] = random.nextInt(numSamples);
+    }
+
+    numSeenSamples += numRecent;
+  }
+}
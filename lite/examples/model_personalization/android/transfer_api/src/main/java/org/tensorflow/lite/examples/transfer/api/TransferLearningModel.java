@@ -16,23 +16,30 @@ limitations under the License.
 package org.tensorflow.lite.examples.transfer.api;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -65,13 +72,23 @@ public final class TransferLearningModel implements Closeable {
     }
   }
 
-  private static class TrainingSample {
-    ByteBuffer bottleneck;
-    String className;
+  /** Writes a single image of a batch into the interpreter input. */
+  private interface ImageWriter {
+    void write(int imageIdx, FloatBuffer dest);
+  }
 
-    TrainingSample(ByteBuffer bottleneck, String className) {
-      this.bottleneck = bottleneck;
-      this.className = className;
+  /** Reusable buffers for bottleneck generation. */
+  private static class SampleBatchBuffers {
+    final int batchSize;
+    final ByteBuffer images;
+    final ByteBuffer bottlenecks;
+    final int[] classIndices;
+
+    SampleBatchBuffers(int batchSize, int numImageFeatures, int numBottleneckFeatures) {
+      this.batchSize = batchSize;
+      images = allocateBuffer(batchSize * numImageFeatures * FLOAT_BYTES);
+      bottlenecks = allocateBuffer(batchSize * numBottleneckFeatures * FLOAT_BYTES);
+      classIndices = new int[batchSize];
     }
   }
 
@@ -82,10 +99,96 @@ public final class TransferLearningModel implements Closeable {
     void onLoss(int epoch, float loss);
   }
 
+  /**
+   * Time spent in different stages of a single training epoch.
+   */
+  public static class EpochStats {
+    private final int numBatches;
+    private final long totalNanos;
+    private final long shuffleNanos;
+    private final long batchAssemblyNanos;
+    private final long gradientNanos;
+    private final long optimizerNanos;
+
+    EpochStats(
+        int numBatches,
+        long totalNanos,
+        long shuffleNanos,
+        long batchAssemblyNanos,
+        long gradientNanos,
+        long optimizerNanos) {
+      this.numBatches = numBatches;
+      this.totalNanos = totalNanos;
+      this.shuffleNanos = shuffleNanos;
+      this.batchAssemblyNanos = batchAssemblyNanos;
+      this.gradientNanos = gradientNanos;
+      this.optimizerNanos = optimizerNanos;
+    }
+
+    public int getNumBatches() {
+      return numBatches;
+    }
+
+    /** Wall time of the whole epoch. */
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    /** Time spent shuffling the training samples. */
+    public long getShuffleNanos() {
+      return shuffleNanos;
+    }
+
+    /**
+     * Time the training thread spent on batch assembly. In pipelined mode, this is only the time
+     * it had to wait for the producer.
+     */
+    public long getBatchAssemblyNanos() {
+      return batchAssemblyNanos;
+    }
+
+    /** Time spent in the train head model. */
+    public long getGradientNanos() {
+      return gradientNanos;
+    }
+
+    /** Time spent in the optimizer model, including parameter swapping. */
+    public long getOptimizerNanos() {
+      return optimizerNanos;
+    }
+  }
+
+  /**
+   * Consumer interface for per-epoch training stage timings.
+   */
+  public interface EpochStatsConsumer {
+    void onEpochStats(int epoch, EpochStats stats);
+  }
+
   private static final int FLOAT_BYTES = 4;
 
-  // Setting this to a higher value allows to calculate bottlenecks for more samples while
-  // adding them to the bottleneck collection is blocked by an active training thread.
+  // How much direct memory training sample bottlenecks may occupy before they are moved to a
+  // memory-mapped file.
+  private static final long DEFAULT_SAMPLE_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+  // How many images can be classified concurrently by default. Every additional worker holds
+  // its own copy of the base model interpreter, so this is kept small.
+  private static final int DEFAULT_NUM_INFERENCE_WORKERS =
+      Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+
+  // How many images are passed through the bottleneck model at once by addSamples.
+  private static final int SAMPLE_BATCH_SIZE = 16;
+
+  // Online training keeps an exponential moving average of the loss with this smoothing factor,
+  // and pauses once the average has not decreased by at least ONLINE_MIN_IMPROVEMENT (relative)
+  // for ONLINE_PATIENCE_STEPS steps in a row. It resumes when new samples are added.
+  private static final float ONLINE_LOSS_SMOOTHING = 0.05f;
+  private static final float ONLINE_MIN_IMPROVEMENT = 0.01f;
+  private static final int ONLINE_PATIENCE_STEPS = 100;
+
+  // Number of background threads, which calculate bottlenecks and train. Every sample task has
+  // its own buffers, so while training blocks some tasks from adding their bottlenecks to the
+  // collection, the remaining threads keep calculating bottlenecks.
   private static final int NUM_THREADS =
       Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
@@ -97,10 +200,14 @@ public final class TransferLearningModel implements Closeable {
   private final LiteInitializeModel initializeModel;
   private final LiteBottleneckModel bottleneckModel;
   private final LiteTrainHeadModel trainHeadModel;
-  private final LiteInferenceModel inferenceModel;
+  private final InferencePool inferencePool;
   private final LiteOptimizerModel optimizerModel;
 
-  private final List<TrainingSample> trainingSamples = new ArrayList<>();
+  // Bottlenecks and class indices of all training samples.
+  private final BottleneckStore bottleneckStore;
+
+  // Used to shuffle training samples before every epoch.
+  private final Random shuffleRandom = new Random();
 
   private ByteBuffer[] modelParameters;
 
@@ -112,9 +219,10 @@ public final class TransferLearningModel implements Closeable {
   // Where to store the updated optimizer state.
   private ByteBuffer[] nextOptimizerState;
 
-  // Where to store training inputs.
-  private final ByteBuffer trainingBatchBottlenecks;
-  private final ByteBuffer trainingBatchClasses;
+  // Training inputs. There are two sets, so that the next batch can be assembled while the
+  // current one is being processed. Bottlenecks are views of the bottleneck store.
+  private final ByteBuffer[] trainingBatchBottlenecks = new ByteBuffer[2];
+  private final ByteBuffer[] trainingBatchClasses = new ByteBuffer[2];
 
   // A zero-filled buffer of the same size as `trainingBatchClasses`.
   private final ByteBuffer zeroBatchClasses;
@@ -122,27 +230,96 @@ public final class TransferLearningModel implements Closeable {
   // Where to store calculated gradients.
   private final ByteBuffer[] modelGradients;
 
-  // Where to store bottlenecks produced during inference.
-  private ByteBuffer inferenceBottleneck;
+  // Where background threads store sample images and bottlenecks before they are added to the
+  // store. A task takes a set from this pool and puts it back once its bottlenecks are stored, so
+  // a task waiting for training never holds up the others. At most NUM_THREADS tasks run at once,
+  // which bounds the number of sets. Sets are allocated on first use, for no more images than
+  // needed, and grow up to SAMPLE_BATCH_SIZE images.
+  private final BlockingQueue<SampleBatchBuffers> freeSampleBuffers =
+      new ArrayBlockingQueue<>(NUM_THREADS);
 
   // Used to spawn background threads.
   private final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
 
-  // This lock guarantees that only one thread is performing training at any point in time.
-  // It also protects the sample collection from being modified while in use by a training
-  // thread.
+  // Assembles training batches in pipelined mode. This is separate from [executor], since all of
+  // its threads may be busy, including the one running the training itself.
+  private final ExecutorService batchAssemblyExecutor = Executors.newSingleThreadExecutor();
+
+  // Runs online training steps, see [startOnlineTraining].
+  private final ExecutorService onlineTrainingExecutor = Executors.newSingleThreadExecutor();
+
+  // Active online training task, or null. Guarded by [this].
+  private Future<Void> onlineTraining;
+
+  // This lock protects the sample collection from being modified while in use by a training
+  // thread. Epoch training holds it for the whole run, while online training only takes it to
+  // copy a batch of samples.
   private final Lock trainingLock = new ReentrantLock();
 
-  // This lock guards access to trainable parameters.
+  // Signalled when samples are added or replaced. Waited on by idle online training.
+  private final Condition samplesChanged = trainingLock.newCondition();
+
+  // This lock guarantees that only one thread is updating trainable parameters and optimizer
+  // state at any point in time. When both are needed, it is taken before [trainingLock].
+  private final Lock stepLock = new ReentrantLock();
+
+  // This lock guards access to trainable parameters. Inference does not take it, and reads
+  // published snapshots instead.
   private final ReadWriteLock parameterLock = new ReentrantReadWriteLock();
 
-  // This lock allows [close] method to assure that no threads are performing inference.
-  private final Lock inferenceLock = new ReentrantLock();
+  // Copies of trainable parameters used for inference. A new snapshot is published every time
+  // the parameters change.
+  private final ParameterSnapshots parameterSnapshots;
 
   // Set to true when [close] has been called.
   private volatile boolean isTerminating = false;
 
   public TransferLearningModel(ModelLoader modelLoader, Collection<String> classes) {
+    this(modelLoader, classes, DEFAULT_SAMPLE_MEMORY_BUDGET_BYTES, null);
+  }
+
+  /**
+   * Creates a model with custom storage settings for training samples.
+   *
+   * @param modelLoader loader for the underlying models.
+   * @param classes names of the classes recognized by the model.
+   * @param sampleMemoryBudgetBytes how much direct memory training sample bottlenecks may occupy.
+   *     Once exceeded, samples are moved to a memory-mapped file.
+   * @param sampleSpillDirectory where to create the memory-mapped file. If null, the default
+   *     temporary file directory is used.
+   */
+  public TransferLearningModel(
+      ModelLoader modelLoader,
+      Collection<String> classes,
+      long sampleMemoryBudgetBytes,
+      File sampleSpillDirectory) {
+    this(
+        modelLoader,
+        classes,
+        sampleMemoryBudgetBytes,
+        sampleSpillDirectory,
+        DEFAULT_NUM_INFERENCE_WORKERS);
+  }
+
+  /**
+   * Creates a model with custom storage settings for training samples and a custom number of
+   * inference workers.
+   *
+   * @param modelLoader loader for the underlying models.
+   * @param classes names of the classes recognized by the model.
+   * @param sampleMemoryBudgetBytes how much direct memory training sample bottlenecks may occupy.
+   *     Once exceeded, samples are moved to a memory-mapped file.
+   * @param sampleSpillDirectory where to create the memory-mapped file. If null, the default
+   *     temporary file directory is used.
+   * @param numInferenceWorkers how many images {@link #predict(float[])} can process
+   *     concurrently. Every worker loads its own base and inference model interpreters.
+   */
+  public TransferLearningModel(
+      ModelLoader modelLoader,
+      Collection<String> classes,
+      long sampleMemoryBudgetBytes,
+      File sampleSpillDirectory,
+      int numInferenceWorkers) {
     classesByIdx = classes.toArray(new String[0]);
     this.classes = new TreeMap<>();
     for (int classIdx = 0; classIdx < classes.size(); classIdx++) {
@@ -153,8 +330,13 @@ public final class TransferLearningModel implements Closeable {
       initializeModel = new LiteInitializeModel(modelLoader.loadInitializeModel());
       bottleneckModel = new LiteBottleneckModel(modelLoader.loadBaseModel());
       trainHeadModel = new LiteTrainHeadModel(modelLoader.loadTrainModel());
-      inferenceModel = new LiteInferenceModel(modelLoader.loadInferenceModel(), classes.size());
       optimizerModel = new LiteOptimizerModel(modelLoader.loadOptimizerModel());
+      inferencePool =
+          new InferencePool(
+              modelLoader,
+              numInferenceWorkers,
+              classes.size(),
+              trainHeadModel.getParameterSizes().length);
     } catch (IOException e) {
       throw new RuntimeException("Couldn't read underlying models for TransferLearningModel", e);
     }
@@ -174,6 +356,13 @@ public final class TransferLearningModel implements Closeable {
     }
     initializeModel.initializeParameters(modelParameters);
 
+    int[] modelParameterBytes = new int[modelParameterSizes.length];
+    for (int parameterIndex = 0; parameterIndex < modelParameterSizes.length; parameterIndex++) {
+      modelParameterBytes[parameterIndex] = modelParameterSizes[parameterIndex] * FLOAT_BYTES;
+    }
+    parameterSnapshots = new ParameterSnapshots(modelParameterBytes);
+    parameterSnapshots.publish(modelParameters);
+
     int[] optimizerStateElementSizes = optimizerModel.stateElementSizes();
     optimizerState = new ByteBuffer[optimizerStateElementSizes.length];
     nextOptimizerState = new ByteBuffer[optimizerStateElementSizes.length];
@@ -185,18 +374,18 @@ public final class TransferLearningModel implements Closeable {
       fillBufferWithZeros(optimizerState[elemIdx]);
     }
 
-    trainingBatchBottlenecks =
-        allocateBuffer(getTrainBatchSize() * numBottleneckFeatures() * FLOAT_BYTES);
+    bottleneckStore =
+        new BottleneckStore(numBottleneckFeatures(), sampleMemoryBudgetBytes, sampleSpillDirectory);
 
     int batchClassesNumElements = getTrainBatchSize() * classes.size();
-    trainingBatchClasses = allocateBuffer(batchClassesNumElements * FLOAT_BYTES);
+    for (int bufferIdx = 0; bufferIdx < trainingBatchClasses.length; bufferIdx++) {
+      trainingBatchClasses[bufferIdx] = allocateBuffer(batchClassesNumElements * FLOAT_BYTES);
+    }
     zeroBatchClasses = allocateBuffer(batchClassesNumElements * FLOAT_BYTES);
     for (int idx = 0; idx < batchClassesNumElements; idx++) {
       zeroBatchClasses.putFloat(0);
     }
     zeroBatchClasses.rewind();
-
-    inferenceBottleneck = allocateBuffer(numBottleneckFeatures() * FLOAT_BYTES);
   }
 
   /**
@@ -217,28 +406,139 @@ public final class TransferLearningModel implements Closeable {
     }
 
     return executor.submit(() -> {
-      ByteBuffer imageBuffer = allocateBuffer(image.length * FLOAT_BYTES);
-      for (float f : image) {
-        imageBuffer.putFloat(f);
-      }
-      imageBuffer.rewind();
-
       if (Thread.interrupted()) {
         return null;
       }
-      ByteBuffer bottleneck = bottleneckModel.generateBottleneck(imageBuffer, null);
 
-      trainingLock.lockInterruptibly();
+      SampleBatchBuffers buffers = acquireSampleBuffers(1);
       try {
-        trainingSamples.add(new TrainingSample(bottleneck, className));
+        ByteBuffer imageBuffer = sliceBuffer(buffers.images, image.length * FLOAT_BYTES);
+        imageBuffer.asFloatBuffer().put(image);
+
+        ByteBuffer bottleneck =
+            bottleneckModel.generateBottleneck(
+                imageBuffer,
+                sliceBuffer(
+                    buffers.bottlenecks, bottleneckModel.getNumBottleneckFeatures() * FLOAT_BYTES));
+
+        trainingLock.lockInterruptibly();
+        try {
+          bottleneckStore.add(bottleneck, classes.get(className));
+          samplesChanged.signalAll();
+        } finally {
+          trainingLock.unlock();
+        }
       } finally {
-        trainingLock.unlock();
+        freeSampleBuffers.offer(buffers);
+      }
+
+      return null;
+    });
+  }
+
+  /**
+   * Adds several new samples for training.
+   *
+   * <p>Images are passed through the bottleneck model in batches, which is considerably faster
+   * than adding them one by one. The returned Future is resolved when all the bottlenecks are
+   * added to training samples.
+   *
+   * @param images RGB data of every image.
+   * @param classNames ground truth label for every image.
+   */
+  public Future<Void> addSamples(float[][] images, String[] classNames) {
+    return addSamples(images.length, classNames, (imageIdx, dest) -> dest.put(images[imageIdx]));
+  }
+
+  /**
+   * Adds several new samples for training.
+   *
+   * <p>Same as {@link #addSamples(float[][], String[])}, but reads image data from buffers. Buffer
+   * positions are not modified.
+   *
+   * @param images RGB data of every image.
+   * @param classNames ground truth label for every image.
+   */
+  public Future<Void> addSamples(FloatBuffer[] images, String[] classNames) {
+    return addSamples(
+        images.length, classNames, (imageIdx, dest) -> dest.put(images[imageIdx].duplicate()));
+  }
+
+  private Future<Void> addSamples(int numImages, String[] classNames, ImageWriter imageWriter) {
+    checkNotTerminating();
+
+    if (numImages != classNames.length) {
+      throw new IllegalArgumentException(String.format(
+          "Got %d images, but %d class names", numImages, classNames.length));
+    }
+    int[] classIndices = new int[numImages];
+    for (int imageIdx = 0; imageIdx < numImages; imageIdx++) {
+      Integer classIdx = classes.get(classNames[imageIdx]);
+      if (classIdx == null) {
+        throw new IllegalArgumentException(String.format(
+            "Class \"%s\" is not one of the classes recognized by the model",
+            classNames[imageIdx]));
+      }
+      classIndices[imageIdx] = classIdx;
+    }
+
+    return executor.submit(() -> {
+      int imageBytes = bottleneckModel.getNumImageFeatures() * FLOAT_BYTES;
+      int bottleneckBytes = bottleneckModel.getNumBottleneckFeatures() * FLOAT_BYTES;
+
+      for (int batchStart = 0; batchStart < numImages; batchStart += SAMPLE_BATCH_SIZE) {
+        if (Thread.interrupted()) {
+          return null;
+        }
+        int batchSize = Math.min(SAMPLE_BATCH_SIZE, numImages - batchStart);
+
+        SampleBatchBuffers buffers = acquireSampleBuffers(batchSize);
+        try {
+          // Interpreter expects buffer capacity to match the batch exactly.
+          ByteBuffer imageBatch = sliceBuffer(buffers.images, batchSize * imageBytes);
+          ByteBuffer bottleneckBatch =
+              sliceBuffer(buffers.bottlenecks, batchSize * bottleneckBytes);
+
+          FloatBuffer imageFloats = imageBatch.asFloatBuffer();
+          for (int imageIdx = 0; imageIdx < batchSize; imageIdx++) {
+            imageWriter.write(batchStart + imageIdx, imageFloats);
+          }
+          System.arraycopy(classIndices, batchStart, buffers.classIndices, 0, batchSize);
+
+          bottleneckModel.generateBottlenecks(imageBatch, batchSize, bottleneckBatch);
+
+          trainingLock.lockInterruptibly();
+          try {
+            bottleneckStore.addAll(bottleneckBatch, buffers.classIndices, batchSize);
+            samplesChanged.signalAll();
+          } finally {
+            trainingLock.unlock();
+          }
+        } finally {
+          freeSampleBuffers.offer(buffers);
+        }
       }
 
       return null;
     });
   }
 
+  /**
+   * Takes sample buffers from the pool, reallocated if they cannot hold {@code batchSize} images.
+   * The caller must put them back into [freeSampleBuffers].
+   */
+  private SampleBatchBuffers acquireSampleBuffers(int batchSize) {
+    SampleBatchBuffers buffers = freeSampleBuffers.poll();
+    if (buffers == null || buffers.batchSize < batchSize) {
+      buffers =
+          new SampleBatchBuffers(
+              batchSize,
+              bottleneckModel.getNumImageFeatures(),
+              bottleneckModel.getNumBottleneckFeatures());
+    }
+    return buffers;
+  }
+
   /**
    * Trains the model on the previously added data samples.
    *
@@ -247,131 +547,466 @@ public final class TransferLearningModel implements Closeable {
    * @return future that is resolved when training is finished.
    */
   public Future<Void> train(int numEpochs, LossConsumer lossConsumer) {
+    return train(numEpochs, lossConsumer, null, false);
+  }
+
+  /**
+   * Trains the model on the previously added data samples.
+   *
+   * <p>In pipelined mode, the next batch is assembled on a separate thread while the current one
+   * is being processed by the model.
+   *
+   * @param numEpochs number of epochs to train for.
+   * @param lossConsumer callback to receive loss values, may be null.
+   * @param statsConsumer callback to receive per-epoch stage timings, may be null.
+   * @param pipelined whether to assemble batches in parallel with training.
+   * @return future that is resolved when training is finished.
+   */
+  public Future<Void> train(
+      int numEpochs,
+      LossConsumer lossConsumer,
+      EpochStatsConsumer statsConsumer,
+      boolean pipelined) {
     checkNotTerminating();
 
-    if (trainingSamples.size() < getTrainBatchSize()) {
+    if (bottleneckStore.size() < getTrainBatchSize()) {
       throw new RuntimeException(
           String.format(
               "Too few samples to start training: need %d, got %d",
-              getTrainBatchSize(), trainingSamples.size()));
+              getTrainBatchSize(), bottleneckStore.size()));
     }
 
     return executor.submit(
         () -> {
+          stepLock.lock();
           trainingLock.lock();
           try {
-            epochLoop:
             for (int epoch = 0; epoch < numEpochs; epoch++) {
-              float totalLoss = 0;
-              int numBatchesProcessed = 0;
-
-              for (List<TrainingSample> batch : trainingBatches()) {
-                if (Thread.interrupted()) {
-                  break epochLoop;
-                }
-
-                trainingBatchClasses.put(zeroBatchClasses);
-                trainingBatchClasses.rewind();
-                zeroBatchClasses.rewind();
-
-                for (int sampleIdx = 0; sampleIdx < batch.size(); sampleIdx++) {
-                  TrainingSample sample = batch.get(sampleIdx);
-                  trainingBatchBottlenecks.put(sample.bottleneck);
-                  sample.bottleneck.rewind();
-
-                  // Fill trainingBatchClasses with one-hot.
-                  int position =
-                      (sampleIdx * classes.size() + classes.get(sample.className)) * FLOAT_BYTES;
-                  trainingBatchClasses.putFloat(position, 1);
-                }
-                trainingBatchBottlenecks.rewind();
-
-                float loss =
-                    trainHeadModel.calculateGradients(
-                        trainingBatchBottlenecks,
-                        trainingBatchClasses,
-                        modelParameters,
-                        modelGradients);
-                totalLoss += loss;
-                numBatchesProcessed++;
-
-                optimizerModel.performStep(
-                    modelParameters,
-                    modelGradients,
-                    optimizerState,
-                    nextModelParameters,
-                    nextOptimizerState);
-
-                ByteBuffer[] swapBufferArray;
-
-                // Swap optimizer state with its next version.
-                swapBufferArray = optimizerState;
-                optimizerState = nextOptimizerState;
-                nextOptimizerState = swapBufferArray;
-
-                // Swap model parameters with their next versions.
-                parameterLock.writeLock().lock();
-                try {
-                  swapBufferArray = modelParameters;
-                  modelParameters = nextModelParameters;
-                  nextModelParameters = swapBufferArray;
-                } finally {
-                  parameterLock.writeLock().unlock();
-                }
-              }
-
-              float avgLoss = totalLoss / numBatchesProcessed;
-              if (lossConsumer != null) {
-                lossConsumer.onLoss(epoch, avgLoss);
+              if (!trainEpoch(epoch, lossConsumer, statsConsumer, pipelined)) {
+                break;
               }
             }
 
             return null;
           } finally {
             trainingLock.unlock();
+            stepLock.unlock();
           }
         });
   }
 
+  /**
+   * Starts training the model continuously in the background.
+   *
+   * <p>Every step trains on a single batch. Samples added since the previous step go into the
+   * batch first, up to half of it, and the rest is drawn at random from all samples, with
+   * replacement. Thus training starts as soon as the first sample is added, and adapts to new
+   * samples quickly without forgetting the older ones.
+   *
+   * <p>Once the moving average of the loss stops decreasing, training pauses until more samples
+   * are added. Samples are only locked while a batch is copied, so {@link #addSample} and
+   * {@link #predict} are not blocked by training.
+   *
+   * <p>Online training can be active together with {@link #train}, but it pauses while
+   * {@link #train} runs, since that keeps the model for all of its epochs, and resumes afterwards.
+   *
+   * @param cpuBudget fraction of time the training thread is allowed to be busy, in (0, 1]. After
+   *     every step, the thread sleeps long enough to stay within the budget.
+   * @param lossConsumer callback to receive the step number and the moving average of the loss
+   *     after every step, may be null.
+   * @return future that is resolved when online training is stopped.
+   * @throws IllegalStateException if online training is already active.
+   */
+  public synchronized Future<Void> startOnlineTraining(
+      float cpuBudget, LossConsumer lossConsumer) {
+    checkNotTerminating();
+
+    if (!(cpuBudget > 0 && cpuBudget <= 1)) {
+      throw new IllegalArgumentException(
+          String.format("CPU budget must be in (0, 1], got %f", cpuBudget));
+    }
+    if (onlineTraining != null && !onlineTraining.isDone()) {
+      throw new IllegalStateException("Online training is already active");
+    }
+
+    onlineTraining =
+        onlineTrainingExecutor.submit(
+            () -> {
+              try {
+                trainOnline(cpuBudget, lossConsumer);
+              } catch (InterruptedException e) {
+                // Stopped.
+              }
+              return null;
+            });
+    return onlineTraining;
+  }
+
+  /**
+   * Stops online training started by {@link #startOnlineTraining}. Does nothing if it is not
+   * active. The current step, if any, is finished in the background.
+   */
+  public synchronized void stopOnlineTraining() {
+    if (onlineTraining != null) {
+      onlineTraining.cancel(true);
+      onlineTraining = null;
+    }
+  }
+
+  /** Runs online training steps until interrupted. */
+  private void trainOnline(float cpuBudget, LossConsumer lossConsumer)
+      throws InterruptedException {
+    int batchSize = getTrainBatchSize();
+    ByteBuffer batchBottlenecks = allocateBuffer(batchSize * bottleneckStore.getRecordBytes());
+    ByteBuffer batchClasses = allocateBuffer(zeroBatchClasses.capacity());
+    int[] batchSamples = new int[batchSize];
+
+    RecencyBatchSampler sampler = new RecencyBatchSampler(new Random());
+    LossPlateauDetector plateauDetector =
+        new LossPlateauDetector(
+            ONLINE_LOSS_SMOOTHING, ONLINE_MIN_IMPROVEMENT, ONLINE_PATIENCE_STEPS);
+    int storeGeneration = -1;
+
+    for (int step = 0; ; step++) {
+      long stepStartNanos;
+
+      trainingLock.lockInterruptibly();
+      try {
+        int numSamples;
+        while (true) {
+          numSamples = bottleneckStore.size();
+          if (bottleneckStore.getGeneration() != storeGeneration) {
+            // Samples were reordered or replaced, so it is unknown which ones are new.
+            storeGeneration = bottleneckStore.getGeneration();
+            sampler.reset(numSamples);
+            plateauDetector.resetPatience();
+          } else if (sampler.hasUnseenSamples(numSamples)) {
+            plateauDetector.resetPatience();
+          }
+
+          if (numSamples > 0 && !plateauDetector.hasPlateaued()) {
+            break;
+          }
+          samplesChanged.await();
+        }
+
+        stepStartNanos = System.nanoTime();
+        sampler.sample(numSamples, batchSamples);
+
+        batchClasses.put(zeroBatchClasses.duplicate());
+        batchClasses.rewind();
+        for (int sampleIdx = 0; sampleIdx < batchSize; sampleIdx++) {
+          bottleneckStore.copyRecord(batchSamples[sampleIdx], batchBottlenecks, sampleIdx);
+
+          int classIdx = bottleneckStore.getClassIndex(batchSamples[sampleIdx]);
+          batchClasses.putFloat((sampleIdx * classes.size() + classIdx) * FLOAT_BYTES, 1);
+        }
+      } finally {
+        trainingLock.unlock();
+      }
+
+      float loss;
+      stepLock.lockInterruptibly();
+      try {
+        loss =
+            trainHeadModel.calculateGradients(
+                batchBottlenecks, batchClasses, modelParameters, modelGradients);
+        applyGradients();
+      } finally {
+        stepLock.unlock();
+      }
+
+      float avgLoss = plateauDetector.addLoss(loss);
+      if (lossConsumer != null) {
+        lossConsumer.onLoss(step, avgLoss);
+      }
+
+      if (cpuBudget < 1) {
+        long busyNanos = System.nanoTime() - stepStartNanos;
+        TimeUnit.NANOSECONDS.sleep((long) (busyNanos * (1 - cpuBudget) / cpuBudget));
+      }
+    }
+  }
+
+  /**
+   * Runs a single training epoch. Must be called with the step and training locks held.
+   *
+   * @return false if the epoch was interrupted.
+   */
+  private boolean trainEpoch(
+      int epoch,
+      LossConsumer lossConsumer,
+      EpochStatsConsumer statsConsumer,
+      boolean pipelined)
+      throws ExecutionException {
+    long epochStartNanos = System.nanoTime();
+
+    int[] batchStarts = trainingBatches();
+    long shuffleNanos = System.nanoTime() - epochStartNanos;
+
+    long batchAssemblyNanos = 0;
+    long gradientNanos = 0;
+    long optimizerNanos = 0;
+
+    long stageStartNanos = System.nanoTime();
+    assembleBatch(batchStarts[0], 0);
+    batchAssemblyNanos += System.nanoTime() - stageStartNanos;
+
+    float totalLoss = 0;
+    int numBatchesProcessed = 0;
+
+    BatchProducer producer = null;
+    Future<?> producerFuture = null;
+    if (pipelined && batchStarts.length > 1) {
+      producer = new BatchProducer(batchStarts);
+      producerFuture = batchAssemblyExecutor.submit(producer);
+    }
+
+    try {
+      for (int batchIdx = 0; batchIdx < batchStarts.length; batchIdx++) {
+        if (Thread.interrupted()) {
+          return false;
+        }
+
+        int bufferIdx = batchIdx % 2;
+        int nextBatchIdx = batchIdx + 1;
+
+        stageStartNanos = System.nanoTime();
+        float loss =
+            trainHeadModel.calculateGradients(
+                trainingBatchBottlenecks[bufferIdx],
+                trainingBatchClasses[bufferIdx],
+                modelParameters,
+                modelGradients);
+        totalLoss += loss;
+        numBatchesProcessed++;
+        gradientNanos += System.nanoTime() - stageStartNanos;
+
+        stageStartNanos = System.nanoTime();
+        applyGradients();
+        optimizerNanos += System.nanoTime() - stageStartNanos;
+
+        if (nextBatchIdx < batchStarts.length) {
+          // In pipelined mode, this only measures how long training is stalled by the producer.
+          stageStartNanos = System.nanoTime();
+          if (producer != null) {
+            producer.freeBuffers.release();
+            try {
+              producer.assembledBatches.acquire();
+              if (producer.failed) {
+                // Rethrows the failure.
+                producerFuture.get();
+              }
+            } catch (InterruptedException e) {
+              return false;
+            }
+          } else {
+            assembleBatch(batchStarts[nextBatchIdx], 1 - bufferIdx);
+          }
+          batchAssemblyNanos += System.nanoTime() - stageStartNanos;
+        }
+      }
+    } finally {
+      if (producer != null) {
+        // Do not leave a producer writing to the batch buffers after returning.
+        producer.stop();
+        awaitUninterruptibly(producerFuture);
+      }
+    }
+
+    float avgLoss = totalLoss / numBatchesProcessed;
+    if (lossConsumer != null) {
+      lossConsumer.onLoss(epoch, avgLoss);
+    }
+    if (statsConsumer != null) {
+      statsConsumer.onEpochStats(
+          epoch,
+          new EpochStats(
+              numBatchesProcessed,
+              System.nanoTime() - epochStartNanos,
+              shuffleNanos,
+              batchAssemblyNanos,
+              gradientNanos,
+              optimizerNanos));
+    }
+    return true;
+  }
+
+  /**
+   * Assembles all batches of an epoch but the first one, which is assembled by the training
+   * thread. Every batch goes into the buffer set training is not using, so the producer stays at
+   * most one batch ahead of training.
+   */
+  private class BatchProducer implements Runnable {
+    private final int[] batchStarts;
+
+    // Released by training when it is done with a buffer set. Initially, training only uses the
+    // first one.
+    final Semaphore freeBuffers = new Semaphore(1);
+
+    // Released when a batch is assembled, and also when the producer finishes.
+    final Semaphore assembledBatches = new Semaphore(0);
+
+    // Set before waking up training if assembly threw an exception.
+    volatile boolean failed = false;
+
+    private volatile boolean stopped = false;
+
+    BatchProducer(int[] batchStarts) {
+      this.batchStarts = batchStarts;
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (int batchIdx = 1; batchIdx < batchStarts.length; batchIdx++) {
+          freeBuffers.acquireUninterruptibly();
+          if (stopped) {
+            return;
+          }
+          assembleBatch(batchStarts[batchIdx], batchIdx % 2);
+          assembledBatches.release();
+        }
+      } catch (RuntimeException | Error e) {
+        failed = true;
+        throw e;
+      } finally {
+        // Wakes up training if assembly failed.
+        assembledBatches.release();
+      }
+    }
+
+    /** Makes the producer return without assembling any more batches. */
+    void stop() {
+      stopped = true;
+      freeBuffers.release();
+    }
+  }
+
+  /**
+   * Updates model parameters with the calculated gradients, and publishes them for inference.
+   * Must be called with the step lock held.
+   */
+  private void applyGradients() {
+    optimizerModel.performStep(
+        modelParameters,
+        modelGradients,
+        optimizerState,
+        nextModelParameters,
+        nextOptimizerState);
+
+    ByteBuffer[] swapBufferArray;
+
+    // Swap optimizer state with its next version.
+    swapBufferArray = optimizerState;
+    optimizerState = nextOptimizerState;
+    nextOptimizerState = swapBufferArray;
+
+    // Swap model parameters with their next versions.
+    parameterLock.writeLock().lock();
+    try {
+      swapBufferArray = modelParameters;
+      modelParameters = nextModelParameters;
+      nextModelParameters = swapBufferArray;
+    } finally {
+      parameterLock.writeLock().unlock();
+    }
+    parameterSnapshots.publish(modelParameters);
+  }
+
+  /**
+   * Fills one of the batch buffer sets with training inputs.
+   *
+   * @param batchStart index of the first sample of the batch in the bottleneck store.
+   * @param bufferIdx which buffer set to fill.
+   */
+  private void assembleBatch(int batchStart, int bufferIdx) {
+    ByteBuffer batchClasses = trainingBatchClasses[bufferIdx];
+    batchClasses.put(zeroBatchClasses.duplicate());
+    batchClasses.rewind();
+
+    for (int sampleIdx = 0; sampleIdx < getTrainBatchSize(); sampleIdx++) {
+      // Fill batchClasses with one-hot.
+      int classIdx = bottleneckStore.getClassIndex(batchStart + sampleIdx);
+      int position = (sampleIdx * classes.size() + classIdx) * FLOAT_BYTES;
+      batchClasses.putFloat(position, 1);
+    }
+
+    trainingBatchBottlenecks[bufferIdx] = bottleneckStore.records(batchStart, getTrainBatchSize());
+  }
+
   /**
    * Runs model inference on a given image.
+   *
+   * <p>This method is thread-safe. Up to the configured number of inference workers can run
+   * concurrently, and training does not block it.
+   *
    * @param image image RGB data.
    * @return predictions sorted by confidence decreasing. Can be null if model is terminating.
    */
   public Prediction[] predict(float[] image) {
+    return predict(image, classesByIdx.length);
+  }
+
+  /**
+   * Runs model inference on a given image, keeping only the most confident predictions.
+   *
+   * @param image image RGB data.
+   * @param topK maximum number of predictions to return. Values above the number of classes are
+   *     treated as the number of classes.
+   * @return at most {@code topK} predictions sorted by confidence decreasing. Can be null if
+   *     model is terminating.
+   * @throws IllegalArgumentException if {@code topK} is not positive.
+   */
+  public Prediction[] predict(float[] image, int topK) {
     checkNotTerminating();
-    inferenceLock.lock();
 
+    if (topK <= 0) {
+      throw new IllegalArgumentException(
+          String.format("Number of predictions must be positive, got %d", topK));
+    }
+    int numRanked = Math.min(topK, classesByIdx.length);
+
+    InferencePool.Worker worker = inferencePool.acquire();
     try {
       if (isTerminating) {
         return null;
       }
 
-      ByteBuffer imageBuffer = allocateBuffer(image.length * FLOAT_BYTES);
-      for (float f : image) {
-        imageBuffer.putFloat(f);
-      }
-      imageBuffer.rewind();
-
-      ByteBuffer bottleneck = bottleneckModel.generateBottleneck(imageBuffer, inferenceBottleneck);
-
       float[] confidences;
-      parameterLock.readLock().lock();
+      ParameterSnapshots.Snapshot snapshot = parameterSnapshots.acquire();
       try {
-        confidences = inferenceModel.runInference(bottleneck, modelParameters);
+        confidences = worker.run(image, snapshot.getParameters());
       } finally {
-        parameterLock.readLock().unlock();
+        parameterSnapshots.release(snapshot);
       }
 
-      Prediction[] predictions = new Prediction[classes.size()];
-      for (int classIdx = 0; classIdx < classes.size(); classIdx++) {
-        predictions[classIdx] = new Prediction(classesByIdx[classIdx], confidences[classIdx]);
+      // Partial insertion sort: only the first numRanked positions are kept ordered.
+      int[] rankedClasses = worker.rankedClasses;
+      int rankedCount = 0;
+      for (int classIdx = 0; classIdx < confidences.length; classIdx++) {
+        float confidence = confidences[classIdx];
+        if (rankedCount == numRanked && confidence <= confidences[rankedClasses[numRanked - 1]]) {
+          continue;
+        }
+
+        int insertPos = Math.min(rankedCount, numRanked - 1);
+        while (insertPos > 0 && confidences[rankedClasses[insertPos - 1]] < confidence) {
+          rankedClasses[insertPos] = rankedClasses[insertPos - 1];
+          insertPos--;
+        }
+        rankedClasses[insertPos] = classIdx;
+        rankedCount = Math.min(rankedCount + 1, numRanked);
       }
 
-      Arrays.sort(predictions, (a, b) -> -Float.compare(a.confidence, b.confidence));
+      Prediction[] predictions = new Prediction[rankedCount];
+      for (int rank = 0; rank < rankedCount; rank++) {
+        int classIdx = rankedClasses[rank];
+        predictions[rank] = new Prediction(classesByIdx[classIdx], confidences[classIdx]);
+      }
       return predictions;
     } finally {
-      inferenceLock.unlock();
+      inferencePool.release(worker);
     }
   }
 
@@ -406,57 +1041,208 @@ public final class TransferLearningModel implements Closeable {
    * @throws IOException if an I/O error occurs.
    */
   public void loadParameters(ScatteringByteChannel inputChannel) throws IOException {
+    stepLock.lock();
     parameterLock.writeLock().lock();
     try {
       inputChannel.read(modelParameters);
       for (ByteBuffer buffer : modelParameters) {
         buffer.rewind();
       }
+      parameterSnapshots.publish(modelParameters);
     } finally {
       parameterLock.writeLock().unlock();
+      stepLock.unlock();
+    }
+  }
+
+  /**
+   * Writes a checkpoint of the model state to a file.
+   *
+   * <p>Unlike {@link #saveParameters(GatheringByteChannel)}, the checkpoint also holds optimizer
+   * state and, optionally, all training samples, and records parameter shapes, class names and
+   * checksums, so that it can be validated when loaded. Waits for active training to finish.
+   *
+   * @param outputChannel where to write the checkpoint, starting at its current position.
+   * @param includeSamples whether to store training sample bottlenecks as well.
+   * @throws IOException if an I/O error occurs.
+   */
+  public void saveCheckpoint(FileChannel outputChannel, boolean includeSamples)
+      throws IOException {
+    stepLock.lock();
+    trainingLock.lock();
+    try {
+      CheckpointFormat.Header header = new CheckpointFormat.Header();
+      header.parameterShapes = trainHeadModel.getParameterShapes();
+      header.optimizerStateSizes = optimizerModel.stateElementSizes();
+      header.classes = classesByIdx;
+      header.numSamples = includeSamples ? bottleneckStore.size() : 0;
+      header.sampleRecordBytes = bottleneckStore.getRecordBytes();
+
+      ByteBuffer sampleRecords =
+          header.numSamples > 0 ? bottleneckStore.records(0, header.numSamples) : null;
+
+      parameterLock.readLock().lock();
+      try {
+        CheckpointFormat.write(
+            outputChannel,
+            header,
+            modelParameters,
+            optimizerState,
+            sampleRecords,
+            bottleneckStore.getClassIndices());
+      } finally {
+        parameterLock.readLock().unlock();
+      }
+    } finally {
+      trainingLock.unlock();
+      stepLock.unlock();
     }
   }
 
+  /**
+   * Restores the model state from a checkpoint written by
+   * {@link #saveCheckpoint(FileChannel, boolean)}.
+   *
+   * <p>The checkpoint is memory-mapped, validated, and read into staging buffers before any state
+   * is changed, so a checkpoint that fails to load leaves the model as it was. If it holds
+   * training samples, they replace the current ones; otherwise current samples are kept. Waits for
+   * active training to finish.
+   *
+   * @param inputChannel where to read the checkpoint from, starting at its current position.
+   * @throws IOException if an I/O error occurs, the checkpoint is corrupted, or it was written for
+   *     a different model or class list.
+   */
+  public void loadCheckpoint(FileChannel inputChannel) throws IOException {
+    ByteBuffer checkpoint =
+        inputChannel.map(
+            MapMode.READ_ONLY,
+            inputChannel.position(),
+            inputChannel.size() - inputChannel.position());
+    CheckpointFormat.Header header = CheckpointFormat.read(checkpoint);
+
+    if (!Arrays.deepEquals(header.parameterShapes, trainHeadModel.getParameterShapes())
+        || !Arrays.equals(header.optimizerStateSizes, optimizerModel.stateElementSizes())) {
+      throw new IOException("Checkpoint was written for a different model");
+    }
+    if (!Arrays.equals(header.classes, classesByIdx)) {
+      throw new IOException(
+          String.format(
+              "Checkpoint was written for classes %s, but model has %s",
+              Arrays.toString(header.classes), Arrays.toString(classesByIdx)));
+    }
+    if (header.numSamples > 0 && header.sampleRecordBytes != bottleneckStore.getRecordBytes()) {
+      throw new IOException("Checkpoint samples were generated by a different base model");
+    }
+
+    long stateBytes = CheckpointFormat.stateBytes(header);
+    long recordsBytes = (long) header.numSamples * header.sampleRecordBytes;
+    ByteBuffer records =
+        CheckpointFormat.payloadSection(checkpoint, header, stateBytes, recordsBytes);
+    ByteBuffer classIndices =
+        CheckpointFormat.payloadSection(
+            checkpoint, header, stateBytes + recordsBytes, header.numSamples * 4L);
+    int[] sampleClasses = new int[header.numSamples];
+    classIndices.asIntBuffer().get(sampleClasses);
+    for (int classIdx : sampleClasses) {
+      if (classIdx < 0 || classIdx >= classesByIdx.length) {
+        throw new IOException("Checkpoint sample has an invalid class index");
+      }
+    }
+
+    stepLock.lock();
+    trainingLock.lock();
+    try {
+      // Parameters and optimizer state are staged in the buffers that receive optimizer outputs,
+      // which are free while the step lock is held. They are checked against the payload
+      // checksum once more, in case the file changed after it was validated, and only swapped in
+      // if the whole checkpoint was read back intact.
+      long offset = 0;
+      for (ByteBuffer buffer : nextModelParameters) {
+        buffer.put(CheckpointFormat.payloadSection(checkpoint, header, offset, buffer.capacity()));
+        buffer.rewind();
+        offset += buffer.capacity();
+      }
+      for (ByteBuffer buffer : nextOptimizerState) {
+        buffer.put(CheckpointFormat.payloadSection(checkpoint, header, offset, buffer.capacity()));
+        buffer.rewind();
+        offset += buffer.capacity();
+      }
+
+      ByteBuffer[] payloadSections =
+          new ByteBuffer[nextModelParameters.length + nextOptimizerState.length + 2];
+      System.arraycopy(nextModelParameters, 0, payloadSections, 0, nextModelParameters.length);
+      System.arraycopy(
+          nextOptimizerState,
+          0,
+          payloadSections,
+          nextModelParameters.length,
+          nextOptimizerState.length);
+      payloadSections[payloadSections.length - 2] = records;
+      payloadSections[payloadSections.length - 1] = classIndices;
+      CheckpointFormat.verifyPayload(header, payloadSections);
+
+      // Leaves the samples unchanged if it throws.
+      if (header.numSamples > 0) {
+        bottleneckStore.replaceAll(records, sampleClasses, header.numSamples);
+        samplesChanged.signalAll();
+      }
+
+      ByteBuffer[] swapBufferArray;
+
+      swapBufferArray = optimizerState;
+      optimizerState = nextOptimizerState;
+      nextOptimizerState = swapBufferArray;
+
+      parameterLock.writeLock().lock();
+      try {
+        swapBufferArray = modelParameters;
+        modelParameters = nextModelParameters;
+        nextModelParameters = swapBufferArray;
+      } finally {
+        parameterLock.writeLock().unlock();
+      }
+      parameterSnapshots.publish(modelParameters);
+    } finally {
+      trainingLock.unlock();
+      stepLock.unlock();
+    }
+  }
+
+  /** Seeds the shuffling of samples before every epoch, so that training is repeatable. */
+  void setShuffleSeed(long seed) {
+    shuffleRandom.setSeed(seed);
+  }
+
   /** Training model expected batch size. */
   public int getTrainBatchSize() {
     return trainHeadModel.getBatchSize();
   }
 
   /**
-   * Constructs an iterator that iterates over training sample batches.
-   * @return iterator over batches.
+   * Shuffles the training samples and splits them into batches.
+   *
+   * <p>Every batch is a range of consecutive samples in the bottleneck store, so it can be passed
+   * to the model without copying.
+   *
+   * @return index of the first sample of every batch.
    */
-  private Iterable<List<TrainingSample>> trainingBatches() {
+  private int[] trainingBatches() {
     if (!trainingLock.tryLock()) {
       throw new RuntimeException("Thread calling trainingBatches() must hold the training lock");
     }
     trainingLock.unlock();
 
-    Collections.shuffle(trainingSamples);
-    return () ->
-        new Iterator<List<TrainingSample>>() {
-          private int nextIndex = 0;
-
-          @Override
-          public boolean hasNext() {
-            return nextIndex < trainingSamples.size();
-          }
+    bottleneckStore.shuffle(shuffleRandom);
 
-          @Override
-          public List<TrainingSample> next() {
-            int fromIndex = nextIndex;
-            int toIndex = nextIndex + getTrainBatchSize();
-            nextIndex = toIndex;
-            if (toIndex >= trainingSamples.size()) {
-              // To keep batch size consistent, last batch may include some elements from the
-              // next-to-last batch.
-              return trainingSamples.subList(
-                  trainingSamples.size() - getTrainBatchSize(), trainingSamples.size());
-            } else {
-              return trainingSamples.subList(fromIndex, toIndex);
-            }
-          }
-        };
+    int numSamples = bottleneckStore.size();
+    int batchSize = getTrainBatchSize();
+    int[] batchStarts = new int[(numSamples + batchSize - 1) / batchSize];
+    for (int batchIdx = 0; batchIdx < batchStarts.length; batchIdx++) {
+      // To keep batch size consistent, last batch may include some elements from the
+      // next-to-last batch.
+      batchStarts[batchIdx] = Math.min(batchIdx * batchSize, numSamples - batchSize);
+    }
+    return batchStarts;
   }
 
   private void checkNotTerminating() {
@@ -484,12 +1270,14 @@ public final class TransferLearningModel implements Closeable {
   public void close() {
     isTerminating = true;
     executor.shutdownNow();
-
-    // Make sure that all threads doing inference are finished.
-    inferenceLock.lock();
+    batchAssemblyExecutor.shutdownNow();
+    onlineTrainingExecutor.shutdownNow();
 
     try {
-      boolean ok = executor.awaitTermination(5, TimeUnit.SECONDS);
+      boolean ok =
+          executor.awaitTermination(5, TimeUnit.SECONDS)
+              && batchAssemblyExecutor.awaitTermination(5, TimeUnit.SECONDS)
+              && onlineTrainingExecutor.awaitTermination(5, TimeUnit.SECONDS);
       if (!ok) {
         throw new RuntimeException("Model thread pool failed to terminate");
       }
@@ -497,12 +1285,15 @@ public final class TransferLearningModel implements Closeable {
       initializeModel.close();
       bottleneckModel.close();
       trainHeadModel.close();
-      inferenceModel.close();
       optimizerModel.close();
+      bottleneckStore.close();
+
+      // Makes sure that all threads doing inference are finished.
+      inferencePool.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't release training sample storage", e);
     } catch (InterruptedException e) {
       // no-op
-    } finally {
-      inferenceLock.unlock();
     }
   }
 
@@ -512,6 +1303,34 @@ public final class TransferLearningModel implements Closeable {
     return buffer;
   }
 
+  private static ByteBuffer sliceBuffer(ByteBuffer buffer, int capacity) {
+    ByteBuffer view = buffer.duplicate();
+    view.clear();
+    view.limit(capacity);
+
+    ByteBuffer result = view.slice();
+    result.order(ByteOrder.nativeOrder());
+    return result;
+  }
+
+  private static void awaitUninterruptibly(Future<?> future) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        future.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException | CancellationException e) {
+        break;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private static void fillBufferWithZeros(ByteBuffer buffer) {
     int bufSize = buffer.capacity();
     int chunkSize = Math.min(1024, bufSize);
@@ -528,5 +1347,6 @@ public final class TransferLearningModel implements Closeable {
     for (int idx = 0; idx < bufSize % chunkSize; idx++) {
       buffer.put((byte) 0);
     }
+    buffer.rewind();
   }
 }
@@ -0,0 +1,126 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BottleneckStore}. */
+@RunWith(JUnit4.class)
+public class BottleneckStoreTest {
+  private static final int FLOAT_BYTES = 4;
+
+  private static final int NUM_FEATURES = 10;
+  private static final int NUM_RECORDS = 100;
+
+  @Test
+  public void shouldKeepRecordsInMemoryWithinBudget() throws IOException {
+    BottleneckStore store =
+        new BottleneckStore(NUM_FEATURES, NUM_RECORDS * NUM_FEATURES * FLOAT_BYTES, null);
+    fillStore(store);
+
+    assertFalse(store.isSpilled());
+    assertRecordsMatchClasses(store);
+    store.close();
+  }
+
+  @Test
+  public void shouldSpillToFileWhenBudgetExceeded() throws IOException {
+    BottleneckStore store = new BottleneckStore(NUM_FEATURES, 5 * NUM_FEATURES * FLOAT_BYTES, null);
+    fillStore(store);
+
+    assertTrue(store.isSpilled());
+    assertRecordsMatchClasses(store);
+    store.close();
+  }
+
+  @Test
+  public void shuffleShouldKeepRecordsWithTheirClasses() throws IOException {
+    BottleneckStore store = new BottleneckStore(NUM_FEATURES, 5 * NUM_FEATURES * FLOAT_BYTES, null);
+    fillStore(store);
+
+    store.shuffle(new Random(32));
+
+    boolean[] seen = new boolean[NUM_RECORDS];
+    for (int recordIdx = 0; recordIdx < NUM_RECORDS; recordIdx++) {
+      seen[store.getClassIndex(recordIdx)] = true;
+    }
+    for (boolean recordSeen : seen) {
+      assertTrue(recordSeen);
+    }
+    assertRecordsMatchClasses(store);
+    store.close();
+  }
+
+  @Test
+  public void copyRecordShouldGatherRecords() throws IOException {
+    BottleneckStore store = new BottleneckStore(NUM_FEATURES, 5 * NUM_FEATURES * FLOAT_BYTES, null);
+    fillStore(store);
+
+    int[] recordIndices = {42, 7, 99};
+    ByteBuffer batch = ByteBuffer.allocateDirect(recordIndices.length * NUM_FEATURES * FLOAT_BYTES);
+    batch.order(ByteOrder.nativeOrder());
+    for (int batchIdx = 0; batchIdx < recordIndices.length; batchIdx++) {
+      store.copyRecord(recordIndices[batchIdx], batch, batchIdx);
+    }
+
+    assertEquals(0, batch.position());
+    for (int batchIdx = 0; batchIdx < recordIndices.length; batchIdx++) {
+      for (int featureIdx = 0; featureIdx < NUM_FEATURES; featureIdx++) {
+        float value = batch.getFloat((batchIdx * NUM_FEATURES + featureIdx) * FLOAT_BYTES);
+        assertEquals(recordIndices[batchIdx] * NUM_FEATURES + featureIdx, value, 0.f);
+      }
+    }
+    store.close();
+  }
+
+  private static void fillStore(BottleneckStore store) throws IOException {
+    ByteBuffer record = ByteBuffer.allocateDirect(NUM_FEATURES * FLOAT_BYTES);
+    record.order(ByteOrder.nativeOrder());
+
+    for (int recordIdx = 0; recordIdx < NUM_RECORDS; recordIdx++) {
+      for (int featureIdx = 0; featureIdx < NUM_FEATURES; featureIdx++) {
+        record.putFloat(featureIdx * FLOAT_BYTES, recordIdx * NUM_FEATURES + featureIdx);
+      }
+      store.add(record, recordIdx);
+    }
+    assertEquals(NUM_RECORDS, store.size());
+  }
+
+  // Every record is filled with values derived from its original index, which is also used as
+  // its class index.
+  private static void assertRecordsMatchClasses(BottleneckStore store) {
+    ByteBuffer records = store.records(0, NUM_RECORDS);
+    assertEquals(NUM_RECORDS * NUM_FEATURES * FLOAT_BYTES, records.capacity());
+
+    for (int recordIdx = 0; recordIdx < NUM_RECORDS; recordIdx++) {
+      int originalIdx = store.getClassIndex(recordIdx);
+      for (int featureIdx = 0; featureIdx < NUM_FEATURES; featureIdx++) {
+        float value = records.getFloat((recordIdx * NUM_FEATURES + featureIdx) * FLOAT_BYTES);
+        assertEquals(originalIdx * NUM_FEATURES + featureIdx, value, 0.f);
+      }
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CheckpointFormat}. */
+@RunWith(JUnit4.class)
+public class CheckpointFormatTest {
+  private static final int FLOAT_BYTES = 4;
+
+  private static final int[][] PARAMETER_SHAPES = {{3, 2}, {2}};
+  private static final int[] OPTIMIZER_STATE_SIZES = {1};
+  private static final String[] CLASSES = {"1", "2"};
+  private static final int NUM_SAMPLES = 3;
+  private static final int RECORD_BYTES = 2 * FLOAT_BYTES;
+
+  @Test
+  public void shouldRoundTripHeaderAndPayload() throws IOException {
+    Path path = writeCheckpoint();
+
+    ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(path));
+    CheckpointFormat.Header header = CheckpointFormat.read(checkpoint);
+
+    assertEquals(PARAMETER_SHAPES.length, header.parameterShapes.length);
+    for (int paramIdx = 0; paramIdx < PARAMETER_SHAPES.length; paramIdx++) {
+      assertArrayEquals(PARAMETER_SHAPES[paramIdx], header.parameterShapes[paramIdx]);
+    }
+    assertArrayEquals(OPTIMIZER_STATE_SIZES, header.optimizerStateSizes);
+    assertArrayEquals(CLASSES, header.classes);
+    assertEquals(NUM_SAMPLES, header.numSamples);
+    assertEquals(RECORD_BYTES, header.sampleRecordBytes);
+
+    // Values are written in sequence across all payload sections.
+    int numFloats = (int) (header.payloadBytes / FLOAT_BYTES) - NUM_SAMPLES;
+    ByteBuffer floats = CheckpointFormat.payloadSection(checkpoint, header, 0, numFloats * 4L);
+    for (int idx = 0; idx < numFloats; idx++) {
+      assertEquals(idx, floats.getFloat(idx * FLOAT_BYTES), 0.f);
+    }
+
+    Files.delete(path);
+  }
+
+  @Test
+  public void shouldRejectCorruptedPayload() throws IOException {
+    Path path = writeCheckpoint();
+
+    byte[] contents = Files.readAllBytes(path);
+    contents[contents.length - 1] ^= 1;
+    try {
+      CheckpointFormat.read(ByteBuffer.wrap(contents));
+      fail("Corrupted checkpoint was accepted");
+    } catch (IOException e) {
+      // expected
+    }
+
+    Files.delete(path);
+  }
+
+  @Test
+  public void shouldRejectTruncatedCheckpoint() throws IOException {
+    Path path = writeCheckpoint();
+
+    byte[] contents = Files.readAllBytes(path);
+    ByteBuffer truncated = ByteBuffer.wrap(contents, 0, contents.length / 2).slice();
+    try {
+      CheckpointFormat.read(truncated);
+      fail("Truncated checkpoint was accepted");
+    } catch (IOException e) {
+      // expected
+    }
+
+    Files.delete(path);
+  }
+
+  @Test
+  public void shouldRejectPayloadThatDoesNotMatchHeader() throws IOException {
+    // Checksums are valid, but the payload holds one more sample record than the header.
+    Path path = writeCheckpoint(NUM_SAMPLES + 1);
+
+    try {
+      CheckpointFormat.read(ByteBuffer.wrap(Files.readAllBytes(path)));
+      fail("Checkpoint with a mismatched payload was accepted");
+    } catch (IOException e) {
+      // expected
+    }
+
+    Files.delete(path);
+  }
+
+  @Test
+  public void shouldVerifyCopiedPayloadSections() throws IOException {
+    Path path = writeCheckpoint();
+
+    ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(path));
+    CheckpointFormat.Header header = CheckpointFormat.read(checkpoint);
+
+    long stateBytes = CheckpointFormat.stateBytes(header);
+    ByteBuffer state = copyOf(CheckpointFormat.payloadSection(checkpoint, header, 0, stateBytes));
+    ByteBuffer samples =
+        copyOf(
+            CheckpointFormat.payloadSection(
+                checkpoint, header, stateBytes, header.payloadBytes - stateBytes));
+    CheckpointFormat.verifyPayload(header, state, samples);
+
+    state.put(0, (byte) (state.get(0) ^ 1));
+    try {
+      CheckpointFormat.verifyPayload(header, state, samples);
+      fail("Changed payload was accepted");
+    } catch (IOException e) {
+      // expected
+    }
+
+    Files.delete(path);
+  }
+
+  private static Path writeCheckpoint() throws IOException {
+    return writeCheckpoint(NUM_SAMPLES);
+  }
+
+  // Writes a checkpoint of NUM_SAMPLES samples, with the given number of sample records.
+  private static Path writeCheckpoint(int numRecords) throws IOException {
+    float nextValue = 0;
+
+    ByteBuffer[] parameters = new ByteBuffer[PARAMETER_SHAPES.length];
+    for (int paramIdx = 0; paramIdx < parameters.length; paramIdx++) {
+      parameters[paramIdx] =
+          allocateBuffer(CheckpointFormat.numElements(PARAMETER_SHAPES[paramIdx]));
+      nextValue = fill(parameters[paramIdx], nextValue);
+    }
+    ByteBuffer[] optimizerState = new ByteBuffer[OPTIMIZER_STATE_SIZES.length];
+    for (int elemIdx = 0; elemIdx < optimizerState.length; elemIdx++) {
+      optimizerState[elemIdx] = allocateBuffer(OPTIMIZER_STATE_SIZES[elemIdx]);
+      nextValue = fill(optimizerState[elemIdx], nextValue);
+    }
+    ByteBuffer records = allocateBuffer(numRecords * RECORD_BYTES / FLOAT_BYTES);
+    fill(records, nextValue);
+
+    CheckpointFormat.Header header = new CheckpointFormat.Header();
+    header.parameterShapes = PARAMETER_SHAPES;
+    header.optimizerStateSizes = OPTIMIZER_STATE_SIZES;
+    header.classes = CLASSES;
+    header.numSamples = NUM_SAMPLES;
+    header.sampleRecordBytes = RECORD_BYTES;
+
+    Path path = Files.createTempFile("tflite-tl-checkpoint-test", ".bin");
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      CheckpointFormat.write(
+          channel, header, parameters, optimizerState, records, new int[] {0, 1, 0});
+    }
+    return path;
+  }
+
+  private static ByteBuffer allocateBuffer(int numFloats) {
+    ByteBuffer result = ByteBuffer.allocateDirect(numFloats * FLOAT_BYTES);
+    result.order(ByteOrder.nativeOrder());
+    return result;
+  }
+
+  private static ByteBuffer copyOf(ByteBuffer buffer) {
+    ByteBuffer result = ByteBuffer.allocateDirect(buffer.capacity());
+    result.order(ByteOrder.nativeOrder());
+    result.put(buffer.duplicate());
+    result.rewind();
+    return result;
+  }
+
+  private static float fill(ByteBuffer buffer, float firstValue) {
+    float value = firstValue;
+    for (int idx = 0; idx < buffer.capacity() / FLOAT_BYTES; idx++) {
+      buffer.putFloat(idx * FLOAT_BYTES, value++);
+    }
+    return value;
+  }
+}
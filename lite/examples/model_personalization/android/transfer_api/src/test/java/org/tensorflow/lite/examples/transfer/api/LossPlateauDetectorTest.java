@@ -0,0 +1,58 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LossPlateauDetector}. */
+@RunWith(JUnit4.class)
+public class LossPlateauDetectorTest {
+  private static final int PATIENCE = 5;
+
+  @Test
+  public void shouldNotPlateauWhileLossDecreases() {
+    LossPlateauDetector detector = new LossPlateauDetector(0.5f, 0.01f, PATIENCE);
+
+    float loss = 10.f;
+    for (int step = 0; step < 10 * PATIENCE; step++) {
+      detector.addLoss(loss);
+      loss *= 0.9f;
+      assertFalse(detector.hasPlateaued());
+    }
+  }
+
+  @Test
+  public void shouldPlateauWhenLossStaysTheSame() {
+    LossPlateauDetector detector = new LossPlateauDetector(0.5f, 0.01f, PATIENCE);
+
+    assertEquals(2.f, detector.addLoss(2.f), 0.f);
+    for (int step = 0; step < PATIENCE; step++) {
+      assertFalse(detector.hasPlateaued());
+      assertEquals(2.f, detector.addLoss(2.f), 0.f);
+    }
+    assertTrue(detector.hasPlateaued());
+
+    detector.resetPatience();
+    assertFalse(detector.hasPlateaued());
+    assertEquals(2.f, detector.getMovingAverage(), 0.f);
+  }
+}
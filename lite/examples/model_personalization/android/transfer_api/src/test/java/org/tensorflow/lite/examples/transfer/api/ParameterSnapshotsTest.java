@@ -0,0 +1,77 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ParameterSnapshots}. */
+@RunWith(JUnit4.class)
+public class ParameterSnapshotsTest {
+  private static final int FLOAT_BYTES = 4;
+
+  @Test
+  public void pinnedSnapshotShouldNotBeRecycled() {
+    ParameterSnapshots snapshots = new ParameterSnapshots(new int[] {FLOAT_BYTES});
+    ByteBuffer[] parameters = {ByteBuffer.allocateDirect(FLOAT_BYTES)};
+    parameters[0].order(ByteOrder.nativeOrder());
+
+    parameters[0].putFloat(0, 1.f);
+    snapshots.publish(parameters);
+    ParameterSnapshots.Snapshot pinned = snapshots.acquire();
+
+    parameters[0].putFloat(0, 2.f);
+    snapshots.publish(parameters);
+    parameters[0].putFloat(0, 3.f);
+    snapshots.publish(parameters);
+
+    assertEquals(1.f, pinned.getParameters()[0].getFloat(0), 0.f);
+    assertEquals(0, pinned.getVersion());
+
+    ParameterSnapshots.Snapshot latest = snapshots.acquire();
+    assertNotSame(pinned, latest);
+    assertEquals(3.f, latest.getParameters()[0].getFloat(0), 0.f);
+    assertEquals(2, latest.getVersion());
+
+    snapshots.release(latest);
+    snapshots.release(pinned);
+  }
+
+  @Test
+  public void releasedSnapshotsShouldBeReused() {
+    ParameterSnapshots snapshots = new ParameterSnapshots(new int[] {FLOAT_BYTES});
+    ByteBuffer[] parameters = {ByteBuffer.allocateDirect(FLOAT_BYTES)};
+    parameters[0].order(ByteOrder.nativeOrder());
+
+    snapshots.publish(parameters);
+    ParameterSnapshots.Snapshot first = snapshots.acquire();
+    snapshots.release(first);
+
+    // The first snapshot is freed once it is no longer current, and gets reused after that.
+    snapshots.publish(parameters);
+    snapshots.publish(parameters);
+    ParameterSnapshots.Snapshot third = snapshots.acquire();
+    assertSame(first, third);
+    snapshots.release(third);
+  }
+}
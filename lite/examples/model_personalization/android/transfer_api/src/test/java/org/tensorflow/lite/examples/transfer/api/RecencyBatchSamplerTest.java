@@ -0,0 +1,71 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RecencyBatchSampler}. */
+@RunWith(JUnit4.class)
+public class RecencyBatchSamplerTest {
+  private static final int BATCH_SIZE = 8;
+
+  @Test
+  public void shouldPutNewSamplesFirst() {
+    RecencyBatchSampler sampler = new RecencyBatchSampler(new Random(32));
+    sampler.reset(10);
+    int[] batch = new int[BATCH_SIZE];
+
+    assertTrue(sampler.hasUnseenSamples(16));
+    sampler.sample(16, batch);
+
+    // At most half of the batch is taken by new samples.
+    for (int idx = 0; idx < BATCH_SIZE / 2; idx++) {
+      assertEquals(10 + idx, batch[idx]);
+    }
+    assertRecordsInRange(batch, 16);
+
+    sampler.sample(16, batch);
+    assertEquals(14, batch[0]);
+    assertEquals(15, batch[1]);
+    assertFalse(sampler.hasUnseenSamples(16));
+  }
+
+  @Test
+  public void shouldSampleFewerSamplesThanBatchSize() {
+    RecencyBatchSampler sampler = new RecencyBatchSampler(new Random(32));
+    int[] batch = new int[BATCH_SIZE];
+
+    sampler.sample(1, batch);
+
+    for (int sampleIdx : batch) {
+      assertEquals(0, sampleIdx);
+    }
+    assertFalse(sampler.hasUnseenSamples(1));
+  }
+
+  private static void assertRecordsInRange(int[] batch, int numSamples) {
+    for (int sampleIdx : batch) {
+      assertTrue(sampleIdx >= 0 && sampleIdx < numSamples);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+import org.tensorflow.lite.examples.detection.tflite.Detector.Recognition;
+import org.tensorflow.lite.examples.detection.tflite.DetectorPool;
+import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+import org.tensorflow.lite.examples.detection.tflite.YuvPreprocessor;
+
+/**
+ * Measures the throughput of detector pools that split the same number of threads differently
+ * between interpreters, from a single interpreter with all threads to one thread per interpreter.
+ * Results are logged as frames per second.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectorPoolBenchmarkTest {
+  private static final String TAG = "DetectorPoolBenchmark";
+
+  private static final int MODEL_INPUT_SIZE = 300;
+  private static final boolean IS_MODEL_QUANTIZED = true;
+  private static final String MODEL_FILE = "detect.tflite";
+  private static final String LABELS_FILE = "labelmap.txt";
+  private static final int TOTAL_THREADS = 4;
+  private static final int WARMUP_FRAMES = 10;
+  private static final int MEASURED_FRAMES = 100;
+
+  @Test
+  public void throughputByPoolSize() throws Exception {
+    final Context context = InstrumentationRegistry.getInstrumentation().getContext();
+    final byte[] pixels = loadInput(context, "table.jpg");
+    final String expectedTitle = detectTopTitle(context, pixels);
+    for (int size = 1; size <= TOTAL_THREADS; size *= 2) {
+      final DetectorPool pool =
+          new DetectorPool(
+              options ->
+                  TFLiteObjectDetectionAPIModel.create(
+                      context,
+                      MODEL_FILE,
+                      LABELS_FILE,
+                      MODEL_INPUT_SIZE,
+                      IS_MODEL_QUANTIZED,
+                      options),
+              size,
+              new DetectorPool.MemberOptions(
+                  TOTAL_THREADS / size, /* useXnnpack= */ true, /* useNNAPI= */ false),
+              DetectorPool.Dispatch.ROUND_ROBIN);
+      try {
+        runFrames(pool, pixels, WARMUP_FRAMES, expectedTitle);
+        final long startNanos = System.nanoTime();
+        final int numMatching = runFrames(pool, pixels, MEASURED_FRAMES, expectedTitle);
+        final double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        // Every member detects what a single interpreter detects.
+        assertThat(numMatching).isEqualTo(MEASURED_FRAMES);
+        Log.i(
+            TAG,
+            String.format(
+                Locale.US,
+                "%d x %d threads: %.1f frames/s (%s)",
+                size,
+                TOTAL_THREADS / size,
+                MEASURED_FRAMES / seconds,
+                pool.getStatString()));
+      } finally {
+        pool.close();
+      }
+    }
+  }
+
+  // Runs the frames with one frame in flight per member, like the infer stage of the app, and
+  // returns the number of frames whose most confident detection has the expected title.
+  private static int runFrames(
+      DetectorPool pool, byte[] pixels, int numFrames, String expectedTitle)
+      throws InterruptedException {
+    // Results are delivered in order and at most one input per member is in flight, so every
+    // input is delivered before its buffer comes around again.
+    final YuvPreprocessor preprocessor =
+        pool.createPreprocessor(MODEL_INPUT_SIZE, MODEL_INPUT_SIZE, 0, false);
+    final ByteBuffer[] inputs = new ByteBuffer[pool.size()];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = preprocessor.allocateInput();
+      inputs[i].put(pixels);
+      inputs[i].rewind();
+    }
+    final Semaphore slots = new Semaphore(pool.size());
+    final AtomicInteger numMatching = new AtomicInteger();
+    final DetectorPool.Callback<Object> callback =
+        (tag, results) -> {
+          if (expectedTitle.equals(topTitle(results))) {
+            numMatching.incrementAndGet();
+          }
+          slots.release();
+        };
+    for (int i = 0; i < numFrames; i++) {
+      slots.acquire();
+      pool.submit(inputs[i % inputs.length], null, callback);
+    }
+    slots.acquire(pool.size());
+    return numMatching.get();
+  }
+
+  // Returns the title of the most confident detection of a single interpreter with every thread.
+  private static String detectTopTitle(Context context, byte[] pixels) throws Exception {
+    final Detector detector =
+        TFLiteObjectDetectionAPIModel.create(
+            context,
+            MODEL_FILE,
+            LABELS_FILE,
+            MODEL_INPUT_SIZE,
+            IS_MODEL_QUANTIZED,
+            new DetectorPool.MemberOptions(
+                TOTAL_THREADS, /* useXnnpack= */ true, /* useNNAPI= */ false));
+    try {
+      final ByteBuffer input =
+          detector
+              .createPreprocessor(MODEL_INPUT_SIZE, MODEL_INPUT_SIZE, 0, false)
+              .allocateInput();
+      input.put(pixels);
+      input.rewind();
+      final String title = topTitle(detector.recognizeImage(input));
+      assertThat(title).isNotNull();
+      return title;
+    } finally {
+      detector.close();
+    }
+  }
+
+  private static String topTitle(List<Recognition> results) {
+    Recognition top = null;
+    for (Recognition result : results) {
+      if (top == null || result.getConfidence() > top.getConfidence()) {
+        top = result;
+      }
+    }
+    return top != null ? top.getTitle() : null;
+  }
+
+  // Returns the RGB bytes of the image, resized to the model input.
+  private static byte[] loadInput(Context context, String fileName) throws Exception {
+    final Bitmap bitmap;
+    try (InputStream inputStream = context.getAssets().open(fileName)) {
+      bitmap =
+          Bitmap.createScaledBitmap(
+              BitmapFactory.decodeStream(inputStream), MODEL_INPUT_SIZE, MODEL_INPUT_SIZE, true);
+    }
+    final int[] argb = new int[MODEL_INPUT_SIZE * MODEL_INPUT_SIZE];
+    bitmap.getPixels(argb, 0, MODEL_INPUT_SIZE, 0, 0, MODEL_INPUT_SIZE, MODEL_INPUT_SIZE);
+    final byte[] pixels = new byte[argb.length * 3];
+    for (int i = 0; i < argb.length; i++) {
+      pixels[i * 3] = (byte) ((argb[i] >> 16) & 0xFF);
+      pixels[i * 3 + 1] = (byte) ((argb[i] >> 8) & 0xFF);
+      pixels[i * 3 + 2] = (byte) (argb[i] & 0xFF);
+    }
+    return pixels;
+  }
+}
@@ -52,6 +52,7 @@ import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.nio.ByteBuffer;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener,
@@ -73,6 +74,10 @@ public abstract class CameraActivity extends AppCompatActivity
   private byte[][] yuvBytes = new byte[3][];
   private int[] rgbBytes = null;
   private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+  // Whether the current frame comes from the legacy camera API, in a single NV21 array.
+  private boolean isNv21Frame;
   private Runnable postInferenceCallback;
   private Runnable imageConverter;
 
@@ -174,6 +179,15 @@ public abstract class CameraActivity extends AppCompatActivity
     return rgbBytes;
   }
 
+  /** Copies the current frame, so that it can be processed after {@link #readyForNextImage}. */
+  protected void copyFrame(final YuvFrame frame) {
+    if (isNv21Frame) {
+      frame.copyNv21(yuvBytes[0]);
+    } else {
+      frame.copyPlanes(yuvBytes, yRowStride, uvRowStride, uvPixelStride);
+    }
+  }
+
   protected int getLuminanceStride() {
     return yRowStride;
   }
@@ -207,6 +221,7 @@ public abstract class CameraActivity extends AppCompatActivity
     isProcessingFrame = true;
     yuvBytes[0] = bytes;
     yRowStride = previewWidth;
+    isNv21Frame = true;
 
     imageConverter =
         new Runnable() {
@@ -253,8 +268,9 @@ public abstract class CameraActivity extends AppCompatActivity
       final Plane[] planes = image.getPlanes();
       fillBytes(planes, yuvBytes);
       yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
+      uvRowStride = planes[1].getRowStride();
+      uvPixelStride = planes[1].getPixelStride();
+      isNv21Frame = false;
 
       imageConverter =
           new Runnable() {
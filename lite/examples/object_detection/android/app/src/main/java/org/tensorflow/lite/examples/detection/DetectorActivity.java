@@ -19,11 +19,7 @@ package org.tensorflow.lite.examples.detection;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Paint.Style;
-import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.SystemClock;
@@ -31,6 +27,7 @@ import android.util.Size;
 import android.util.TypedValue;
 import android.widget.Toast;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.tensorflow.lite.examples.detection.customview.OverlayView;
@@ -38,8 +35,13 @@ import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallbac
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.pipeline.FramePipeline;
+import org.tensorflow.lite.examples.detection.tflite.DetectionBatch;
 import org.tensorflow.lite.examples.detection.tflite.Detector;
+import org.tensorflow.lite.examples.detection.tflite.DetectorPool;
 import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+import org.tensorflow.lite.examples.detection.tflite.YuvPreprocessor;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
 
 /**
@@ -61,17 +63,28 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
   private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
   private static final boolean SAVE_PREVIEW_BITMAP = false;
   private static final float TEXT_SIZE_DIP = 10;
+  // Interpreters that detect consecutive frames at once, and the threads of each one. Running
+  // frames in parallel keeps more cores busy than adding threads to a single interpreter.
+  private static final int NUM_DETECTORS = 2;
+  private static final int NUM_THREADS_PER_DETECTOR = 2;
+  // Frames in flight in the pipeline: one per stage and detector, and the latest ones waiting for a
+  // stage.
+  private static final int NUM_PIPELINE_FRAMES = NUM_DETECTORS + 5;
+  // Camera frames per detected frame. The tracker predicts the boxes on the frames in between.
+  private static final int DETECTION_INTERVAL = 2;
   OverlayView trackingOverlay;
   private Integer sensorOrientation;
 
-  private Detector detector;
+  private DetectorPool detector;
 
-  private long lastProcessingTimeMs;
+  // Only used to save the preview bitmap, as frames are converted straight into detector inputs.
   private Bitmap rgbFrameBitmap = null;
   private Bitmap croppedBitmap = null;
-  private Bitmap cropCopyBitmap = null;
 
-  private boolean computingDetection = false;
+  // Only used by the convert stage of the pipeline.
+  private YuvPreprocessor preprocessor;
+  private FramePipeline<DetectionFrame> pipeline;
+  private final DetectorPool.Callback<DetectionFrame> detectionCallback = this::onDetected;
 
   private long timestamp = 0;
 
@@ -84,6 +97,17 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   @Override
   public void onPreviewSizeChosen(final Size size, final int rotation) {
+    // The stages of a previous camera session use the fields reassigned below.
+    if (pipeline != null) {
+      pipeline.stop();
+    }
+    if (detector != null) {
+      // Delivers the frames in flight to the stopped pipeline, which frees them.
+      detector.close();
+      detector = null;
+    }
+    pipeline = null;
+
     final float textSizePx =
         TypedValue.applyDimension(
             TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
@@ -96,12 +120,19 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     try {
       detector =
-          TFLiteObjectDetectionAPIModel.create(
-              this,
-              TF_OD_API_MODEL_FILE,
-              TF_OD_API_LABELS_FILE,
-              TF_OD_API_INPUT_SIZE,
-              TF_OD_API_IS_QUANTIZED);
+          new DetectorPool(
+              options ->
+                  TFLiteObjectDetectionAPIModel.create(
+                      this,
+                      TF_OD_API_MODEL_FILE,
+                      TF_OD_API_LABELS_FILE,
+                      TF_OD_API_INPUT_SIZE,
+                      TF_OD_API_IS_QUANTIZED,
+                      options),
+              NUM_DETECTORS,
+              new DetectorPool.MemberOptions(
+                  NUM_THREADS_PER_DETECTOR, /* useXnnpack= */ true, /* useNNAPI= */ false),
+              DetectorPool.Dispatch.LEAST_LOADED);
       cropSize = TF_OD_API_INPUT_SIZE;
     } catch (final IOException e) {
       e.printStackTrace();
@@ -120,8 +151,10 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-    rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-    croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+    if (SAVE_PREVIEW_BITMAP) {
+      rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+      croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+    }
 
     frameToCropTransform =
         ImageUtils.getTransformationMatrix(
@@ -145,87 +178,140 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         });
 
     tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+    if (detector != null) {
+      preprocessor =
+          detector.createPreprocessor(
+              previewWidth, previewHeight, sensorOrientation, MAINTAIN_ASPECT);
+      createPipeline();
+    }
+  }
+
+  private void createPipeline() {
+    final List<DetectionFrame> frames = new ArrayList<>(NUM_PIPELINE_FRAMES);
+    for (int i = 0; i < NUM_PIPELINE_FRAMES; i++) {
+      frames.add(new DetectionFrame(preprocessor.allocateInput()));
+    }
+    pipeline =
+        new FramePipeline<>(
+            frames, this::convertFrame, this::dispatchFrame, detector.size(), this::trackFrame);
+    pipeline.start();
+  }
+
+  @Override
+  public synchronized void onResume() {
+    super.onResume();
+    if (pipeline != null) {
+      pipeline.start();
+    }
+  }
+
+  @Override
+  public synchronized void onPause() {
+    if (pipeline != null) {
+      pipeline.stop();
+    }
+    super.onPause();
+  }
+
+  @Override
+  public synchronized void onDestroy() {
+    if (pipeline != null) {
+      pipeline.stop();
+    }
+    if (detector != null) {
+      // Delivers the frames in flight to the stopped pipeline, then frees the interpreters.
+      detector.close();
+      detector = null;
+    }
+    pipeline = null;
+    super.onDestroy();
   }
 
   @Override
   protected void processImage() {
     ++timestamp;
     final long currTimestamp = timestamp;
+    tracker.predict(currTimestamp);
     trackingOverlay.postInvalidate();
 
-    // No mutex needed as this method is not reentrant.
-    if (computingDetection) {
+    if (currTimestamp % DETECTION_INTERVAL != 0) {
       readyForNextImage();
       return;
     }
-    computingDetection = true;
-    LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
 
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-
-    readyForNextImage();
+    // The pipeline keeps the latest frames, and drops frames when all of its frames are in flight.
+    final DetectionFrame frame = pipeline != null ? pipeline.acquire() : null;
+    if (frame == null) {
+      readyForNextImage();
+      return;
+    }
+    LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
 
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
     // For examining the actual TF input.
     if (SAVE_PREVIEW_BITMAP) {
+      rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+      final Canvas canvas = new Canvas(croppedBitmap);
+      canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
       ImageUtils.saveBitmap(croppedBitmap);
     }
 
-    runInBackground(
-        new Runnable() {
-          @Override
-          public void run() {
-            LOGGER.i("Running detection on image " + currTimestamp);
-            final long startTime = SystemClock.uptimeMillis();
-            final List<Detector.Recognition> results = detector.recognizeImage(croppedBitmap);
-            lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-            final Canvas canvas = new Canvas(cropCopyBitmap);
-            final Paint paint = new Paint();
-            paint.setColor(Color.RED);
-            paint.setStyle(Style.STROKE);
-            paint.setStrokeWidth(2.0f);
-
-            float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-            switch (MODE) {
-              case TF_OD_API:
-                minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                break;
-            }
-
-            final List<Detector.Recognition> mappedRecognitions =
-                new ArrayList<Detector.Recognition>();
+    frame.timestamp = currTimestamp;
+    copyFrame(frame.yuvFrame);
+    readyForNextImage();
+    pipeline.submit(frame);
+  }
 
-            for (final Detector.Recognition result : results) {
-              final RectF location = result.getLocation();
-              if (location != null && result.getConfidence() >= minimumConfidence) {
-                canvas.drawRect(location, paint);
+  /** Convert stage: crops, rotates, resizes and normalizes the frame in a single pass. */
+  private boolean convertFrame(final DetectionFrame frame) {
+    frame.yuvFrame.convert(preprocessor, frame.input);
+    return true;
+  }
 
-                cropToFrameTransform.mapRect(location);
+  /**
+   * Infer stage, which hands the frame to the next interpreter of the pool. The detections of the
+   * frame are decoded into its batch, already filtered by confidence.
+   */
+  private void dispatchFrame(final DetectionFrame frame) {
+    float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+    switch (MODE) {
+      case TF_OD_API:
+        minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+        break;
+    }
 
-                result.setLocation(location);
-                mappedRecognitions.add(result);
-              }
-            }
+    LOGGER.i("Running detection on image " + frame.timestamp);
+    frame.startTime = SystemClock.uptimeMillis();
+    detector.submit(frame.input, minimumConfidence, frame.detections, frame, detectionCallback);
+  }
 
-            tracker.trackResults(mappedRecognitions, currTimestamp);
-            trackingOverlay.postInvalidate();
+  /** Completes the infer stage, on a thread of the pool, in the order frames were dispatched. */
+  private void onDetected(final DetectionFrame frame, final List<Detector.Recognition> results) {
+    frame.processingTimeMs = SystemClock.uptimeMillis() - frame.startTime;
+    pipeline.complete(frame, true);
+  }
 
-            computingDetection = false;
+  /** Track stage. */
+  private boolean trackFrame(final DetectionFrame frame) {
+    frame.detections.mapLocations(cropToFrameTransform);
+    tracker.trackResults(frame.detections.getRecognitions(), frame.timestamp);
+    trackingOverlay.postInvalidate();
 
-            runOnUiThread(
-                new Runnable() {
-                  @Override
-                  public void run() {
-                    showFrameInfo(previewWidth + "x" + previewHeight);
-                    showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                    showInference(lastProcessingTimeMs + "ms");
-                  }
-                });
+    if (isDebug()) {
+      LOGGER.i("Pipeline: %s", pipeline.getStats());
+      LOGGER.i("Detectors: %s", detector.getStatString());
+    }
+    final long processingTimeMs = frame.processingTimeMs;
+    runOnUiThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            showFrameInfo(previewWidth + "x" + previewHeight);
+            showCropInfo(preprocessor.getInputWidth() + "x" + preprocessor.getInputHeight());
+            showInference(processingTimeMs + "ms");
           }
         });
+    return true;
   }
 
   @Override
@@ -249,8 +335,10 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     runInBackground(
         () -> {
           try {
+            // The pool swaps its interpreters one at a time while the others keep detecting.
             detector.setUseNNAPI(isChecked);
-          } catch (UnsupportedOperationException e) {
+          } catch (RuntimeException e) {
+            // Unsupported, or an interpreter could not be created, which leaves the old options.
             LOGGER.e(e, "Failed to set \"Use NNAPI\".");
             runOnUiThread(
                 () -> {
@@ -262,6 +350,34 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   @Override
   protected void setNumThreads(final int numThreads) {
-    runInBackground(() -> detector.setNumThreads(numThreads));
+    runInBackground(
+        () -> {
+          try {
+            // Sets the threads of every interpreter of the pool.
+            detector.setNumThreads(numThreads);
+          } catch (RuntimeException e) {
+            // An interpreter could not be created, which leaves the old options.
+            LOGGER.e(e, "Failed to set the number of threads.");
+            runOnUiThread(
+                () -> {
+                  Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+                });
+          }
+        });
+  }
+
+  /** Frame of the pipeline, with buffers that are reused from frame to frame. */
+  private static class DetectionFrame extends FramePipeline.Frame {
+    final YuvFrame yuvFrame = new YuvFrame();
+    final ByteBuffer input;
+    long timestamp;
+    long startTime;
+    // Detections of the frame, reused from frame to frame.
+    final DetectionBatch detections = new DetectionBatch();
+    long processingTimeMs;
+
+    DetectionFrame(final ByteBuffer input) {
+      this.input = input;
+    }
   }
 }
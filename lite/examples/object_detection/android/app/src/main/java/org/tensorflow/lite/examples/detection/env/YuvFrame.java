@@ -0,0 +1,71 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import org.tensorflow.lite.examples.detection.tflite.YuvPreprocessor;
+
+/**
+ * Copy of a YUV420 camera frame, so that the camera can reuse its buffers while the frame is
+ * processed. The planes are reused from frame to frame.
+ */
+public final class YuvFrame {
+  private final byte[][] planes = new byte[3][];
+  private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+  // Whether the frame is a single NV21 array, as delivered by the legacy camera API.
+  private boolean isNv21;
+
+  /** Copies a frame with separate planes, as delivered by the Camera2 API. */
+  public void copyPlanes(
+      final byte[][] yuvBytes,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    for (int i = 0; i < planes.length; ++i) {
+      planes[i] = copy(yuvBytes[i], planes[i]);
+    }
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+    isNv21 = false;
+  }
+
+  /** Copies an NV21 frame, as delivered by the legacy camera API. */
+  public void copyNv21(final byte[] bytes) {
+    planes[0] = copy(bytes, planes[0]);
+    isNv21 = true;
+  }
+
+  /** Converts the frame into a model input. */
+  public void convert(final YuvPreprocessor preprocessor, final ByteBuffer input) {
+    if (isNv21) {
+      preprocessor.convertNv21(planes[0], input);
+    } else {
+      preprocessor.convert(
+          planes[0], planes[1], planes[2], yRowStride, uvRowStride, uvPixelStride, input);
+    }
+  }
+
+  private static byte[] copy(final byte[] source, byte[] destination) {
+    if (destination == null || destination.length != source.length) {
+      destination = new byte[source.length];
+    }
+    System.arraycopy(source, 0, destination, 0, source.length);
+    return destination;
+  }
+}
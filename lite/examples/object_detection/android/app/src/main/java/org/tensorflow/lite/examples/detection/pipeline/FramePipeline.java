@@ -0,0 +1,401 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs camera frames through convert, infer and track stages, each on its own thread, so that the
+ * stages of consecutive frames overlap.
+ *
+ * <p>Frames live in a ring of preallocated slots that the camera thread claims with {@link
+ * #acquire}, fills and hands over with {@link #submit}. Stages are connected by {@link SpscQueue}s.
+ * The convert and infer stages only process the latest frame of their queue and drop older ones,
+ * so a slow stage makes the pipeline skip frames rather than lag behind the camera. The track stage
+ * processes every inferred frame, in order. Slots return to the ring once they are tracked or
+ * dropped.
+ *
+ * <p>The infer stage may also be asynchronous, handing frames to other threads such as the ones of
+ * a pool of detectors, which complete them in order. It then has up to a given number of frames in
+ * flight, and takes the latest waiting frame whenever one of them completes.
+ *
+ * @param <F> Type of the frame slots, which hold the buffers the stages reuse.
+ */
+public final class FramePipeline<F extends FramePipeline.Frame> {
+  public static final int CONVERT = 0;
+  public static final int INFER = 1;
+  public static final int TRACK = 2;
+  private static final int NUM_STAGES = 3;
+  private static final String[] STAGE_NAMES = {"convert", "inference", "tracking"};
+  // Weight of the newest sample in moving averages.
+  private static final double AVERAGE_WEIGHT = 0.1;
+
+  /** Processing of frames by a stage, on the thread of the stage. */
+  public interface Stage<F> {
+    /** Returns whether the frame continues to the next stage, rather than being dropped. */
+    boolean process(F frame);
+  }
+
+  /**
+   * Infer stage that hands frames to other threads, which complete them with {@link
+   * FramePipeline#complete}.
+   */
+  public interface AsyncStage<F> {
+    void dispatch(F frame);
+  }
+
+  /** Base class of frame slots. */
+  public static class Frame {
+    final AtomicBoolean inUse = new AtomicBoolean();
+    long sequence;
+    long submitNanos;
+    long dispatchNanos;
+
+    /** Returns the number of frames submitted before this one. */
+    public long getSequence() {
+      return sequence;
+    }
+  }
+
+  private final List<F> frames;
+  // The infer stage is null when it is asynchronous.
+  private final List<Stage<F>> stages = new ArrayList<>(NUM_STAGES);
+  private final AsyncStage<F> asyncInfer;
+  private final int maxInferencesInFlight;
+  private final AtomicInteger inferencesInFlight = new AtomicInteger();
+  // Queue into every stage.
+  private final List<SpscQueue<F>> queues = new ArrayList<>(NUM_STAGES);
+  private final Thread[] threads = new Thread[NUM_STAGES];
+  private volatile boolean running = false;
+
+  // Only used by the camera thread.
+  private int nextFrame = 0;
+  private long numSubmitted = 0;
+
+  // Metrics, which are guarded by statsLock, except for the ones of the camera thread. Frames are
+  // handed over between threads without locks.
+  private final Object statsLock = new Object();
+  private volatile long captureDropCount = 0;
+  private final long[] dropCounts = new long[NUM_STAGES];
+  private final long[] processedCounts = new long[NUM_STAGES];
+  private final double[] averageLatencyNanos = new double[NUM_STAGES];
+  private double averageEndToEndNanos = 0;
+  private double averageIntervalNanos = 0;
+  private long lastTrackedNanos = 0;
+
+  /** @param frames Preallocated frame slots. Their number bounds the frames in flight. */
+  public FramePipeline(List<F> frames, Stage<F> convert, Stage<F> infer, Stage<F> track) {
+    this(frames, convert, infer, null, 1, track);
+  }
+
+  /**
+   * @param frames Preallocated frame slots. Their number bounds the frames in flight, so it should
+   *     exceed {@code maxInferencesInFlight}.
+   * @param maxInferencesInFlight Number of dispatched frames that may wait for completion.
+   */
+  public FramePipeline(
+      List<F> frames,
+      Stage<F> convert,
+      AsyncStage<F> infer,
+      int maxInferencesInFlight,
+      Stage<F> track) {
+    this(frames, convert, null, infer, maxInferencesInFlight, track);
+  }
+
+  private FramePipeline(
+      List<F> frames,
+      Stage<F> convert,
+      Stage<F> infer,
+      AsyncStage<F> asyncInfer,
+      int maxInferencesInFlight,
+      Stage<F> track) {
+    if (frames.isEmpty()) {
+      throw new IllegalArgumentException("The pipeline needs at least one frame.");
+    }
+    if (maxInferencesInFlight <= 0) {
+      throw new IllegalArgumentException(
+          "At least one inference must be in flight: " + maxInferencesInFlight);
+    }
+    this.frames = new ArrayList<>(frames);
+    this.asyncInfer = asyncInfer;
+    this.maxInferencesInFlight = maxInferencesInFlight;
+    stages.add(convert);
+    stages.add(infer);
+    stages.add(track);
+    for (int stage = 0; stage < NUM_STAGES; stage++) {
+      queues.add(new SpscQueue<F>(frames.size()));
+    }
+  }
+
+  /** Starts the stage threads, if they are not running yet. */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    for (int stage = 0; stage < NUM_STAGES; stage++) {
+      final int index = stage;
+      threads[stage] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  if (index == INFER && asyncInfer != null) {
+                    runDispatch();
+                  } else {
+                    runStage(index);
+                  }
+                }
+              },
+              STAGE_NAMES[stage]);
+    }
+    // Publishes the threads to the camera thread, which checks running before waking them up.
+    running = true;
+    for (Thread thread : threads) {
+      thread.start();
+    }
+  }
+
+  /** Stops the stage threads, waiting for their current frames, and frees the queued frames. */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    for (Thread thread : threads) {
+      LockSupport.unpark(thread);
+    }
+    boolean interrupted = false;
+    for (int stage = 0; stage < NUM_STAGES; stage++) {
+      while (threads[stage].isAlive()) {
+        try {
+          threads[stage].join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      threads[stage] = null;
+    }
+    for (SpscQueue<F> queue : queues) {
+      F frame;
+      while ((frame = queue.poll()) != null) {
+        release(frame);
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Claims a free frame slot, from the camera thread.
+   *
+   * @return null if all slots are in flight, in which case the camera frame should be dropped.
+   */
+  public F acquire() {
+    for (int i = 0; i < frames.size(); i++) {
+      F frame = frames.get(nextFrame);
+      nextFrame = (nextFrame + 1) % frames.size();
+      if (frame.inUse.compareAndSet(false, true)) {
+        return frame;
+      }
+    }
+    captureDropCount++;
+    return null;
+  }
+
+  /** Hands a filled frame slot from {@link #acquire} over to the convert stage. */
+  public void submit(F frame) {
+    frame.sequence = numSubmitted++;
+    frame.submitNanos = System.nanoTime();
+    if (!running || !queues.get(CONVERT).offer(frame)) {
+      release(frame);
+      captureDropCount++;
+      return;
+    }
+    LockSupport.unpark(threads[CONVERT]);
+  }
+
+  /**
+   * Completes a frame of the asynchronous infer stage, handing it over to the track stage. Frames
+   * must be completed one at a time, in the order they were dispatched.
+   *
+   * @param keep Whether the frame continues to the track stage, rather than being dropped.
+   */
+  public void complete(F frame, boolean keep) {
+    final long endNanos = System.nanoTime();
+    boolean handedOver = false;
+    synchronized (statsLock) {
+      record(INFER, frame, frame.dispatchNanos, endNanos, keep);
+      // The lock also orders the offers of consecutive completing threads, which the track queue
+      // sees as a single producer.
+      if (keep && running) {
+        handedOver = queues.get(TRACK).offer(frame);
+      }
+    }
+    if (!handedOver) {
+      release(frame);
+    }
+    inferencesInFlight.decrementAndGet();
+    LockSupport.unpark(threads[INFER]);
+    if (handedOver) {
+      LockSupport.unpark(threads[TRACK]);
+    }
+  }
+
+  /** Returns a snapshot of the metrics of the pipeline. */
+  public Stats getStats() {
+    Stats stats = new Stats();
+    stats.captureDropCount = captureDropCount;
+    synchronized (statsLock) {
+      for (int stage = 0; stage < NUM_STAGES; stage++) {
+        stats.dropCounts[stage] = dropCounts[stage];
+        stats.processedCounts[stage] = processedCounts[stage];
+        stats.averageLatencyMs[stage] = averageLatencyNanos[stage] / 1e6;
+      }
+      stats.averageEndToEndMs = averageEndToEndNanos / 1e6;
+      stats.framesPerSecond = averageIntervalNanos > 0 ? 1e9 / averageIntervalNanos : 0;
+    }
+    return stats;
+  }
+
+  private void runStage(int stage) {
+    final SpscQueue<F> queue = queues.get(stage);
+    final Stage<F> processor = stages.get(stage);
+    while (running) {
+      F frame = stage == TRACK ? queue.poll() : pollLatest(stage, queue);
+      if (frame == null) {
+        LockSupport.park(this);
+        continue;
+      }
+
+      long startNanos = System.nanoTime();
+      boolean keep = processor.process(frame);
+      long endNanos = System.nanoTime();
+      synchronized (statsLock) {
+        record(stage, frame, startNanos, endNanos, keep);
+      }
+
+      if (keep && stage != TRACK) {
+        // Queues hold every frame, so they are never full.
+        queues.get(stage + 1).offer(frame);
+        LockSupport.unpark(threads[stage + 1]);
+      } else {
+        release(frame);
+      }
+    }
+  }
+
+  // Runs the asynchronous infer stage, which dispatches the latest frame whenever fewer than the
+  // maximum number of frames are in flight.
+  private void runDispatch() {
+    final SpscQueue<F> queue = queues.get(INFER);
+    while (running) {
+      F frame =
+          inferencesInFlight.get() < maxInferencesInFlight ? pollLatest(INFER, queue) : null;
+      if (frame == null) {
+        LockSupport.park(this);
+        continue;
+      }
+      inferencesInFlight.incrementAndGet();
+      frame.dispatchNanos = System.nanoTime();
+      asyncInfer.dispatch(frame);
+    }
+  }
+
+  // Called with the stats lock held.
+  private void record(int stage, F frame, long startNanos, long endNanos, boolean keep) {
+    processedCounts[stage]++;
+    averageLatencyNanos[stage] = average(averageLatencyNanos[stage], endNanos - startNanos);
+    if (!keep) {
+      dropCounts[stage]++;
+    } else if (stage == TRACK) {
+      averageEndToEndNanos = average(averageEndToEndNanos, endNanos - frame.submitNanos);
+      if (lastTrackedNanos != 0) {
+        averageIntervalNanos = average(averageIntervalNanos, endNanos - lastTrackedNanos);
+      }
+      lastTrackedNanos = endNanos;
+    }
+  }
+
+  // Polls the latest frame of the queue, dropping the older ones.
+  private F pollLatest(int stage, SpscQueue<F> queue) {
+    F latest = queue.poll();
+    if (latest == null) {
+      return null;
+    }
+    F newer;
+    while ((newer = queue.poll()) != null) {
+      release(latest);
+      synchronized (statsLock) {
+        dropCounts[stage]++;
+      }
+      latest = newer;
+    }
+    return latest;
+  }
+
+  private void release(F frame) {
+    frame.inUse.set(false);
+  }
+
+  private static double average(double average, long sample) {
+    return average == 0 ? sample : average + AVERAGE_WEIGHT * (sample - average);
+  }
+
+  /** Metrics of the pipeline, with latencies and frame rate averaged over recent frames. */
+  public static final class Stats {
+    /** Camera frames dropped because all frame slots were in flight. */
+    public long captureDropCount;
+    /** Frames dropped by every stage, either superseded by newer ones or rejected. */
+    public final long[] dropCounts = new long[NUM_STAGES];
+    /** Frames processed by every stage. */
+    public final long[] processedCounts = new long[NUM_STAGES];
+    /** Processing time of every stage, from dispatch to completion for an asynchronous one. */
+    public final double[] averageLatencyMs = new double[NUM_STAGES];
+    /** Time from submitting a frame until it is tracked. */
+    public double averageEndToEndMs;
+    /** Rate of tracked frames. */
+    public double framesPerSecond;
+
+    @Override
+    public String toString() {
+      StringBuilder builder =
+          new StringBuilder(
+              String.format(
+                  Locale.US,
+                  "%.1f fps, end to end %.1f ms, capture drops %d",
+                  framesPerSecond,
+                  averageEndToEndMs,
+                  captureDropCount));
+      for (int stage = 0; stage < NUM_STAGES; stage++) {
+        builder.append(
+            String.format(
+                Locale.US,
+                ", %s %.1f ms (%d frames, %d drops)",
+                STAGE_NAMES[stage],
+                averageLatencyMs[stage],
+                processedCounts[stage],
+                dropCounts[stage]));
+      }
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * <p>Each side only writes its own index, with ordered stores that publish the elements, and keeps
+ * a cached copy of the other side's index, so that it rarely reads memory the other side writes.
+ */
+public final class SpscQueue<E> {
+  private final Object[] elements;
+  private final int mask;
+
+  // Index of the next element to poll, only written by the consumer.
+  private final AtomicLong head = new AtomicLong();
+  // Index of the next element to offer, only written by the producer.
+  private final AtomicLong tail = new AtomicLong();
+  // Last head seen by the producer.
+  private long cachedHead;
+  // Last tail seen by the consumer.
+  private long cachedTail;
+
+  /** @param capacity Minimum number of elements the queue holds, rounded up to a power of two. */
+  public SpscQueue(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    elements = new Object[size];
+    mask = size - 1;
+  }
+
+  /** Adds an element, from the producer thread. Returns false if the queue is full. */
+  public boolean offer(E element) {
+    final long currentTail = tail.get();
+    if (currentTail - cachedHead >= elements.length) {
+      cachedHead = head.get();
+      if (currentTail - cachedHead >= elements.length) {
+        return false;
+      }
+    }
+    elements[(int) currentTail & mask] = element;
+    tail.lazySet(currentTail + 1);
+    return true;
+  }
+
+  /** Removes the oldest element, from the consumer thread. Returns null if the queue is empty. */
+  @SuppressWarnings("unchecked")
+  public E poll() {
+    final long currentHead = head.get();
+    if (currentHead >= cachedTail) {
+      cachedTail = tail.get();
+      if (currentHead >= cachedTail) {
+        return null;
+      }
+    }
+    final int index = (int) currentHead & mask;
+    final E element = (E) elements[index];
+    elements[index] = null;
+    head.lazySet(currentHead + 1);
+    return element;
+  }
+
+  /** Returns the number of elements, which may already be outdated when it is read. */
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  public int capacity() {
+    return elements.length;
+  }
+}
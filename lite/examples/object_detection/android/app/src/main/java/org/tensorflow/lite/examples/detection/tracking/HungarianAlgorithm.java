@@ -0,0 +1,131 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Minimum cost assignment of the rows of a cost matrix to its columns, by the Hungarian algorithm
+ * with potentials, in O(n^2 m) time for n rows and m columns.
+ *
+ * <p>Rectangular matrices assign every row or every column, whichever is fewer. Work arrays are
+ * kept from call to call, so solving matrices of the same size again does not allocate.
+ */
+final class HungarianAlgorithm {
+  // Work arrays of the smaller and larger dimensions, indexed from 1 as index 0 is a sentinel.
+  private double[] rowPotentials = new double[0];
+  private double[] columnPotentials = new double[0];
+  private double[] minSlacks = new double[0];
+  private int[] columnRows = new int[0];
+  private int[] previousColumns = new int[0];
+  private boolean[] visited = new boolean[0];
+
+  /**
+   * Assigns the rows to the columns with the minimum total cost.
+   *
+   * @param cost Costs of assigning every row to every column, in row-major order.
+   * @param assignment Receives the column assigned to every row, or -1 for rows left unassigned
+   *     because there are more rows than columns.
+   */
+  void solve(float[] cost, int numRows, int numColumns, int[] assignment) {
+    Arrays.fill(assignment, 0, numRows, -1);
+    if (numRows == 0 || numColumns == 0) {
+      return;
+    }
+    // The algorithm assigns every one of n rows to m >= n columns, so transposes tall matrices.
+    final boolean transposed = numRows > numColumns;
+    final int n = transposed ? numColumns : numRows;
+    final int m = transposed ? numRows : numColumns;
+    ensureCapacity(n, m);
+    Arrays.fill(rowPotentials, 0, n + 1, 0);
+    Arrays.fill(columnPotentials, 0, m + 1, 0);
+    Arrays.fill(columnRows, 0, m + 1, 0);
+
+    for (int row = 1; row <= n; row++) {
+      // Grows a tree of alternating paths from the row until it reaches a free column.
+      columnRows[0] = row;
+      int column = 0;
+      Arrays.fill(minSlacks, 0, m + 1, Double.POSITIVE_INFINITY);
+      Arrays.fill(visited, 0, m + 1, false);
+      do {
+        visited[column] = true;
+        final int currentRow = columnRows[column];
+        double delta = Double.POSITIVE_INFINITY;
+        int nextColumn = 0;
+        for (int j = 1; j <= m; j++) {
+          if (visited[j]) {
+            continue;
+          }
+          final double slack =
+              cost(cost, numColumns, transposed, currentRow - 1, j - 1)
+                  - rowPotentials[currentRow]
+                  - columnPotentials[j];
+          if (slack < minSlacks[j]) {
+            minSlacks[j] = slack;
+            previousColumns[j] = column;
+          }
+          if (minSlacks[j] < delta) {
+            delta = minSlacks[j];
+            nextColumn = j;
+          }
+        }
+        for (int j = 0; j <= m; j++) {
+          if (visited[j]) {
+            rowPotentials[columnRows[j]] += delta;
+            columnPotentials[j] -= delta;
+          } else {
+            minSlacks[j] -= delta;
+          }
+        }
+        column = nextColumn;
+      } while (columnRows[column] != 0);
+
+      // Flips the path from the free column back to the row.
+      do {
+        final int previous = previousColumns[column];
+        columnRows[column] = columnRows[previous];
+        column = previous;
+      } while (column != 0);
+    }
+
+    for (int j = 1; j <= m; j++) {
+      if (columnRows[j] != 0) {
+        if (transposed) {
+          assignment[j - 1] = columnRows[j] - 1;
+        } else {
+          assignment[columnRows[j] - 1] = j - 1;
+        }
+      }
+    }
+  }
+
+  private static float cost(float[] cost, int numColumns, boolean transposed, int i, int j) {
+    return transposed ? cost[j * numColumns + i] : cost[i * numColumns + j];
+  }
+
+  private void ensureCapacity(int n, int m) {
+    if (rowPotentials.length < n + 1) {
+      rowPotentials = new double[n + 1];
+    }
+    if (columnPotentials.length < m + 1) {
+      columnPotentials = new double[m + 1];
+      minSlacks = new double[m + 1];
+      columnRows = new int[m + 1];
+      previousColumns = new int[m + 1];
+      visited = new boolean[m + 1];
+    }
+  }
+}
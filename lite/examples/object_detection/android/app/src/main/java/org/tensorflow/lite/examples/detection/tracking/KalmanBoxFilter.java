@@ -0,0 +1,126 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Constant velocity Kalman filter of a box, whose state is the center, width and height of the box
+ * and their velocities.
+ *
+ * <p>With independent noise on every coordinate, the filter splits into one filter of position and
+ * velocity per coordinate, which is what this class runs. Noise is relative to the size of the
+ * box, so that near and far objects are filtered alike.
+ */
+final class KalmanBoxFilter {
+  private static final int CENTER_X = 0;
+  private static final int CENTER_Y = 1;
+  private static final int WIDTH = 2;
+  private static final int HEIGHT = 3;
+  private static final int NUM_COORDINATES = 4;
+  // Standard deviations of the noise, relative to the size of the box. Velocities are per unit of
+  // time.
+  private static final double POSITION_STD = 1.0 / 20;
+  private static final double VELOCITY_STD = 1.0 / 160;
+  private static final double MEASUREMENT_STD = 1.0 / 20;
+  // Initial uncertainty, as multiples of the standard deviations above.
+  private static final double INITIAL_POSITION_FACTOR = 2;
+  private static final double INITIAL_VELOCITY_FACTOR = 10;
+
+  private final double[] positions = new double[NUM_COORDINATES];
+  private final double[] velocities = new double[NUM_COORDINATES];
+  // Covariance of the position and velocity of every coordinate.
+  private final double[] positionVariances = new double[NUM_COORDINATES];
+  private final double[] covariances = new double[NUM_COORDINATES];
+  private final double[] velocityVariances = new double[NUM_COORDINATES];
+  private final double[] measurement = new double[NUM_COORDINATES];
+
+  /** Starts the filter at the given box, at rest. */
+  void reset(float left, float top, float right, float bottom) {
+    setMeasurement(positions, left, top, right, bottom);
+    for (int i = 0; i < NUM_COORDINATES; i++) {
+      final double size = size(i);
+      velocities[i] = 0;
+      positionVariances[i] = square(INITIAL_POSITION_FACTOR * POSITION_STD * size);
+      covariances[i] = 0;
+      velocityVariances[i] = square(INITIAL_VELOCITY_FACTOR * VELOCITY_STD * size);
+    }
+  }
+
+  /** Moves the state forward by the given time, growing its uncertainty. */
+  void predict(double dt) {
+    if (dt <= 0) {
+      return;
+    }
+    for (int i = 0; i < NUM_COORDINATES; i++) {
+      final double size = size(i);
+      positions[i] += velocities[i] * dt;
+      positionVariances[i] +=
+          2 * dt * covariances[i]
+              + dt * dt * velocityVariances[i]
+              + dt * square(POSITION_STD * size);
+      covariances[i] += dt * velocityVariances[i];
+      velocityVariances[i] += dt * square(VELOCITY_STD * size);
+    }
+  }
+
+  /** Corrects the state with a measured box. */
+  void correct(float left, float top, float right, float bottom) {
+    setMeasurement(measurement, left, top, right, bottom);
+    for (int i = 0; i < NUM_COORDINATES; i++) {
+      final double innovationVariance = positionVariances[i] + square(MEASUREMENT_STD * size(i));
+      final double positionGain = positionVariances[i] / innovationVariance;
+      final double velocityGain = covariances[i] / innovationVariance;
+      final double innovation = measurement[i] - positions[i];
+      positions[i] += positionGain * innovation;
+      velocities[i] += velocityGain * innovation;
+      velocityVariances[i] -= velocityGain * covariances[i];
+      positionVariances[i] *= 1 - positionGain;
+      covariances[i] *= 1 - positionGain;
+    }
+  }
+
+  /**
+   * Writes the box that the state predicts after the given time, as left, top, right and bottom,
+   * without changing the state.
+   */
+  void getBox(double dt, float[] box) {
+    final double centerX = positions[CENTER_X] + velocities[CENTER_X] * dt;
+    final double centerY = positions[CENTER_Y] + velocities[CENTER_Y] * dt;
+    final double width = Math.max(0, positions[WIDTH] + velocities[WIDTH] * dt);
+    final double height = Math.max(0, positions[HEIGHT] + velocities[HEIGHT] * dt);
+    box[0] = (float) (centerX - width / 2);
+    box[1] = (float) (centerY - height / 2);
+    box[2] = (float) (centerX + width / 2);
+    box[3] = (float) (centerY + height / 2);
+  }
+
+  // Size that the noise of a coordinate is relative to: the width along x and the height along y.
+  private double size(int coordinate) {
+    final int sizeCoordinate = coordinate == CENTER_X || coordinate == WIDTH ? WIDTH : HEIGHT;
+    return Math.max(1, positions[sizeCoordinate]);
+  }
+
+  private static void setMeasurement(
+      double[] measurement, float left, float top, float right, float bottom) {
+    measurement[CENTER_X] = (left + right) / 2.0;
+    measurement[CENTER_Y] = (top + bottom) / 2.0;
+    measurement[WIDTH] = right - left;
+    measurement[HEIGHT] = bottom - top;
+  }
+
+  private static double square(double value) {
+    return value * value;
+  }
+}
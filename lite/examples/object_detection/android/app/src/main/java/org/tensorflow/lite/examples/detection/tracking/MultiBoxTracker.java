@@ -35,7 +35,10 @@ import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
 import org.tensorflow.lite.examples.detection.tflite.Detector.Recognition;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
+/**
+ * Draws the objects of an {@link ObjectTracker}, which matches existing objects to new detections
+ * and predicts their boxes on the frames in between. Every object keeps its color while tracked.
+ */
 public class MultiBoxTracker {
   private static final float TEXT_SIZE_DIP = 18;
   private static final float MIN_SIZE = 16.0f;
@@ -59,7 +62,7 @@ public class MultiBoxTracker {
   final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
   private final Logger logger = new Logger();
   private final Queue<Integer> availableColors = new LinkedList<Integer>();
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
+  private final ObjectTracker objectTracker = new ObjectTracker();
   private final Paint boxPaint = new Paint();
   private final float textSizePx;
   private final BorderedText borderedText;
@@ -67,6 +70,10 @@ public class MultiBoxTracker {
   private int frameWidth;
   private int frameHeight;
   private int sensorOrientation;
+  // Time of the latest camera frame, which the boxes are predicted at.
+  private long frameTimestamp;
+  // Location of the detection being processed, reused across detections.
+  private final RectF detectionFrameRect = new RectF();
 
   public MultiBoxTracker(final Context context) {
     for (final int color : COLORS) {
@@ -113,7 +120,16 @@ public class MultiBoxTracker {
 
   public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
     logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(results);
+    processResults(results, timestamp);
+  }
+
+  /**
+   * Predicts the boxes of the tracked objects at the given camera frame, which may be newer than
+   * the detected frames, or not detected at all.
+   */
+  public synchronized void predict(final long timestamp) {
+    frameTimestamp = timestamp;
+    objectTracker.predict(timestamp);
   }
 
   private Matrix getFrameToCanvasMatrix() {
@@ -134,19 +150,22 @@ public class MultiBoxTracker {
             (int) (multiplier * (rotated ? frameWidth : frameHeight)),
             sensorOrientation,
             false);
-    for (final TrackedRecognition recognition : trackedObjects) {
-      final RectF trackedPos = new RectF(recognition.location);
+    final List<ObjectTracker.Track> tracks = objectTracker.getTracks();
+    for (int i = 0; i < tracks.size() && i < COLORS.length; i++) {
+      final ObjectTracker.Track track = tracks.get(i);
+      final RectF trackedPos =
+          new RectF(track.getLeft(), track.getTop(), track.getRight(), track.getBottom());
 
       getFrameToCanvasMatrix().mapRect(trackedPos);
-      boxPaint.setColor(recognition.color);
+      boxPaint.setColor(COLORS[track.getId() % COLORS.length]);
 
       float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
       canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
 
       final String labelString =
-          !TextUtils.isEmpty(recognition.title)
-              ? String.format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
-              : String.format("%.2f", (100 * recognition.detectionConfidence));
+          !TextUtils.isEmpty(track.getTitle())
+              ? String.format("%s %.2f", track.getTitle(), (100 * track.getScore()))
+              : String.format("%.2f", (100 * track.getScore()));
       //            borderedText.drawText(canvas, trackedPos.left + cornerSize, trackedPos.top,
       // labelString);
       borderedText.drawText(
@@ -154,23 +173,20 @@ public class MultiBoxTracker {
     }
   }
 
-  private void processResults(final List<Recognition> results) {
-    final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
-
+  private void processResults(final List<Recognition> results, final long timestamp) {
     screenRects.clear();
     final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
 
     for (final Recognition result : results) {
-      if (result.getLocation() == null) {
+      if (!result.getLocation(detectionFrameRect)) {
         continue;
       }
-      final RectF detectionFrameRect = new RectF(result.getLocation());
 
       final RectF detectionScreenRect = new RectF();
       rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
 
       logger.v(
-          "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+          "Result! Frame: " + detectionFrameRect + " mapped to screen:" + detectionScreenRect);
 
       screenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
 
@@ -179,33 +195,18 @@ public class MultiBoxTracker {
         continue;
       }
 
-      rectsToTrack.add(new Pair<Float, Recognition>(result.getConfidence(), result));
-    }
-
-    trackedObjects.clear();
-    if (rectsToTrack.isEmpty()) {
-      logger.v("Nothing to track, aborting.");
-      return;
+      objectTracker.addDetection(
+          detectionFrameRect.left,
+          detectionFrameRect.top,
+          detectionFrameRect.right,
+          detectionFrameRect.bottom,
+          result.getTitle(),
+          result.getConfidence());
     }
 
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
-      final TrackedRecognition trackedRecognition = new TrackedRecognition();
-      trackedRecognition.detectionConfidence = potential.first;
-      trackedRecognition.location = new RectF(potential.second.getLocation());
-      trackedRecognition.title = potential.second.getTitle();
-      trackedRecognition.color = COLORS[trackedObjects.size()];
-      trackedObjects.add(trackedRecognition);
-
-      if (trackedObjects.size() >= COLORS.length) {
-        break;
-      }
-    }
-  }
-
-  private static class TrackedRecognition {
-    RectF location;
-    float detectionConfidence;
-    int color;
-    String title;
+    objectTracker.update(timestamp);
+    // Detections lag behind the camera, so the boxes move on to the latest frame.
+    objectTracker.predict(Math.max(timestamp, frameTimestamp));
+    logger.v("Tracking %d objects.", objectTracker.getTracks().size());
   }
 }
@@ -0,0 +1,332 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tracks objects across frames, giving every object a stable ID.
+ *
+ * <p>Every track runs a constant velocity Kalman filter of its box. The detections of a frame are
+ * matched to the tracks predicted at the time of the frame, minimizing the total cost of 1 - IoU
+ * with the Hungarian algorithm, and only between detections and tracks of the same title.
+ *
+ * <p>Tracks follow a hysteresis: a new track is only reported once it has been matched in a number
+ * of consecutive detected frames, and a reported track survives a number of detected frames
+ * without a match, moving with its velocity meanwhile. Frames that are not detected only predict
+ * the boxes with {@link #predict}, so detection can run on every few frames only.
+ *
+ * <p>Times are in any unit, such as frame numbers, as long as it is the same for every call.
+ * Velocities are per unit of time. This class is not thread-safe.
+ */
+public final class ObjectTracker {
+  private static final float DEFAULT_MIN_IOU = 0.3f;
+  private static final int DEFAULT_MIN_HITS = 2;
+  private static final int DEFAULT_MAX_MISSES = 3;
+  // Cost of a detection and a track that may not be matched, above any IoU cost.
+  private static final float UNMATCHABLE_COST = 2;
+
+  /** Object followed by the tracker. */
+  public static final class Track {
+    private int id;
+    private String title;
+    private float score;
+    private int hitCount;
+    private int missCount;
+    private boolean confirmed;
+    private final KalmanBoxFilter filter = new KalmanBoxFilter();
+    // Time of the filter state.
+    private long filterTimestamp;
+    // Box at the time of the last update or prediction.
+    private final float[] location = new float[4];
+
+    /** Returns the ID of the object, which is unique among the tracks of a tracker. */
+    public int getId() {
+      return id;
+    }
+
+    /** Returns the title of the latest detection of the object. */
+    public String getTitle() {
+      return title;
+    }
+
+    /** Returns the score of the latest detection of the object. */
+    public float getScore() {
+      return score;
+    }
+
+    /** Returns the number of consecutive detected frames in which the object was not found. */
+    public int getMissCount() {
+      return missCount;
+    }
+
+    public float getLeft() {
+      return location[0];
+    }
+
+    public float getTop() {
+      return location[1];
+    }
+
+    public float getRight() {
+      return location[2];
+    }
+
+    public float getBottom() {
+      return location[3];
+    }
+  }
+
+  private final float minIou;
+  private final int minHits;
+  private final int maxMisses;
+
+  private final List<Track> tracks = new ArrayList<>();
+  private final List<Track> confirmedTracks = new ArrayList<>();
+  private final List<Track> confirmedView = Collections.unmodifiableList(confirmedTracks);
+  private final ArrayDeque<Track> freeTracks = new ArrayDeque<>();
+  private int nextId = 0;
+
+  // Detections of the next update, which only grow, and the work arrays of the association.
+  private int numDetections = 0;
+  private float[] detectionLocations = new float[0];
+  private float[] detectionScores = new float[0];
+  private String[] detectionTitles = new String[0];
+  private boolean[] detectionMatched = new boolean[0];
+  private float[] costs = new float[0];
+  private int[] assignment = new int[0];
+  private final HungarianAlgorithm hungarian = new HungarianAlgorithm();
+
+  public ObjectTracker() {
+    this(DEFAULT_MIN_IOU, DEFAULT_MIN_HITS, DEFAULT_MAX_MISSES);
+  }
+
+  /**
+   * @param minIou Minimum IoU of a detection and the predicted box of a track to match them.
+   * @param minHits Number of consecutive detected frames in which a new track must be matched
+   *     before it is reported.
+   * @param maxMisses Number of consecutive detected frames in which a reported track may not be
+   *     matched before it is removed.
+   */
+  public ObjectTracker(float minIou, int minHits, int maxMisses) {
+    if (minIou <= 0 || minIou > 1) {
+      throw new IllegalArgumentException("The minimum IoU must be in (0, 1]: " + minIou);
+    }
+    if (minHits < 1 || maxMisses < 0) {
+      throw new IllegalArgumentException(
+          "Invalid hysteresis: minHits " + minHits + ", maxMisses " + maxMisses);
+    }
+    this.minIou = minIou;
+    this.minHits = minHits;
+    this.maxMisses = maxMisses;
+  }
+
+  /** Adds a detection to the next {@link #update}. */
+  public void addDetection(
+      float left, float top, float right, float bottom, String title, float score) {
+    if (numDetections == detectionScores.length) {
+      growDetections(Math.max(1, numDetections * 2));
+    }
+    final int offset = numDetections * 4;
+    detectionLocations[offset] = left;
+    detectionLocations[offset + 1] = top;
+    detectionLocations[offset + 2] = right;
+    detectionLocations[offset + 3] = bottom;
+    detectionScores[numDetections] = score;
+    detectionTitles[numDetections] = title;
+    numDetections++;
+  }
+
+  /**
+   * Updates the tracks with the detections added since the last update, which were detected in
+   * the frame of the given time. Updates must come in the order of their frames.
+   */
+  public void update(long timestamp) {
+    final int numTracks = tracks.size();
+    for (int i = 0; i < numTracks; i++) {
+      final Track track = tracks.get(i);
+      track.filter.predict(timestamp - track.filterTimestamp);
+      track.filterTimestamp = Math.max(track.filterTimestamp, timestamp);
+      track.filter.getBox(0, track.location);
+    }
+
+    associate(numTracks);
+
+    for (int i = numTracks - 1; i >= 0; i--) {
+      final Track track = tracks.get(i);
+      final int detection = assignment[i];
+      if (detection >= 0) {
+        final int offset = detection * 4;
+        track.filter.correct(
+            detectionLocations[offset],
+            detectionLocations[offset + 1],
+            detectionLocations[offset + 2],
+            detectionLocations[offset + 3]);
+        track.filter.getBox(0, track.location);
+        track.title = detectionTitles[detection];
+        track.score = detectionScores[detection];
+        track.hitCount++;
+        track.missCount = 0;
+        track.confirmed |= track.hitCount >= minHits;
+      } else {
+        track.hitCount = 0;
+        track.missCount++;
+        // New tracks die on their first miss.
+        if (!track.confirmed || track.missCount > maxMisses) {
+          tracks.remove(i);
+          freeTracks.add(track);
+        }
+      }
+    }
+
+    for (int i = 0; i < numDetections; i++) {
+      if (!detectionMatched[i]) {
+        startTrack(i, timestamp);
+      }
+    }
+
+    Arrays.fill(detectionTitles, 0, numDetections, null);
+    numDetections = 0;
+    confirmedTracks.clear();
+    for (int i = 0; i < tracks.size(); i++) {
+      if (tracks.get(i).confirmed) {
+        confirmedTracks.add(tracks.get(i));
+      }
+    }
+  }
+
+  /**
+   * Predicts the boxes of the tracks at the given time, such as for a frame that is not detected.
+   * Predictions do not change the filters, so they may run ahead of the updates.
+   */
+  public void predict(long timestamp) {
+    for (int i = 0; i < tracks.size(); i++) {
+      final Track track = tracks.get(i);
+      track.filter.getBox(Math.max(0, timestamp - track.filterTimestamp), track.location);
+    }
+  }
+
+  /**
+   * Returns the reported tracks, in the order they were started. The list and the tracks are
+   * updated in place.
+   */
+  public List<Track> getTracks() {
+    return confirmedView;
+  }
+
+  /** Removes every track. */
+  public void clear() {
+    freeTracks.addAll(tracks);
+    tracks.clear();
+    confirmedTracks.clear();
+    Arrays.fill(detectionTitles, 0, numDetections, null);
+    numDetections = 0;
+  }
+
+  // Assigns the detections to the tracks, leaving the assignment of every track, or -1, in
+  // assignment, and marking the matched detections.
+  private void associate(int numTracks) {
+    if (assignment.length < numTracks) {
+      assignment = new int[Math.max(numTracks, assignment.length * 2)];
+    }
+    Arrays.fill(detectionMatched, 0, numDetections, false);
+    Arrays.fill(assignment, 0, numTracks, -1);
+    if (numTracks == 0 || numDetections == 0) {
+      return;
+    }
+    if (costs.length < numTracks * numDetections) {
+      costs = new float[numTracks * numDetections];
+    }
+    for (int i = 0; i < numTracks; i++) {
+      final Track track = tracks.get(i);
+      for (int j = 0; j < numDetections; j++) {
+        final float iou =
+            Objects.equals(track.title, detectionTitles[j]) ? iou(track.location, j) : 0;
+        costs[i * numDetections + j] = iou >= minIou ? 1 - iou : UNMATCHABLE_COST;
+      }
+    }
+    hungarian.solve(costs, numTracks, numDetections, assignment);
+    for (int i = 0; i < numTracks; i++) {
+      final int detection = assignment[i];
+      if (detection < 0) {
+        continue;
+      }
+      // The optimal assignment may still pair up tracks and detections that do not overlap.
+      if (costs[i * numDetections + detection] >= UNMATCHABLE_COST) {
+        assignment[i] = -1;
+      } else {
+        detectionMatched[detection] = true;
+      }
+    }
+  }
+
+  private void startTrack(int detection, long timestamp) {
+    final Track track = freeTracks.isEmpty() ? new Track() : freeTracks.poll();
+    final int offset = detection * 4;
+    track.id = nextId++;
+    track.title = detectionTitles[detection];
+    track.score = detectionScores[detection];
+    track.hitCount = 1;
+    track.missCount = 0;
+    track.confirmed = minHits <= 1;
+    track.filterTimestamp = timestamp;
+    track.filter.reset(
+        detectionLocations[offset],
+        detectionLocations[offset + 1],
+        detectionLocations[offset + 2],
+        detectionLocations[offset + 3]);
+    track.filter.getBox(0, track.location);
+    tracks.add(track);
+  }
+
+  // IoU of a box and the box of a detection.
+  private float iou(float[] box, int detection) {
+    final int offset = detection * 4;
+    final float left = Math.max(box[0], detectionLocations[offset]);
+    final float top = Math.max(box[1], detectionLocations[offset + 1]);
+    final float right = Math.min(box[2], detectionLocations[offset + 2]);
+    final float bottom = Math.min(box[3], detectionLocations[offset + 3]);
+    if (right <= left || bottom <= top) {
+      return 0;
+    }
+    final float intersection = (right - left) * (bottom - top);
+    final float union =
+        area(box[0], box[1], box[2], box[3])
+            + area(
+                detectionLocations[offset],
+                detectionLocations[offset + 1],
+                detectionLocations[offset + 2],
+                detectionLocations[offset + 3])
+            - intersection;
+    return union > 0 ? intersection / union : 0;
+  }
+
+  private static float area(float left, float top, float right, float bottom) {
+    return Math.max(0, right - left) * Math.max(0, bottom - top);
+  }
+
+  private void growDetections(int capacity) {
+    detectionLocations = Arrays.copyOf(detectionLocations, capacity * 4);
+    detectionScores = Arrays.copyOf(detectionScores, capacity);
+    detectionTitles = Arrays.copyOf(detectionTitles, capacity);
+    detectionMatched = Arrays.copyOf(detectionMatched, capacity);
+  }
+}
@@ -0,0 +1,261 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link SpscQueue} and {@link FramePipeline}. */
+@RunWith(JUnit4.class)
+public final class FramePipelineTest {
+  private static final int NUM_FRAMES = 4;
+  private static final long TIMEOUT_MS = 10000;
+
+  private FramePipeline<TestFrame> pipeline;
+  // Only written by the track stage.
+  private final List<Long> trackedSequences = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    if (pipeline != null) {
+      pipeline.stop();
+    }
+  }
+
+  @Test
+  public void queueShouldRoundCapacityAndRejectWhenFull() {
+    SpscQueue<Integer> queue = new SpscQueue<>(3);
+    assertEquals(4, queue.capacity());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(queue.offer(i));
+    }
+    assertFalse(queue.offer(4));
+    assertEquals(Integer.valueOf(0), queue.poll());
+    assertTrue(queue.offer(4));
+    for (int i = 1; i <= 4; i++) {
+      assertEquals(Integer.valueOf(i), queue.poll());
+    }
+    assertNull(queue.poll());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void queueShouldKeepOrderAcrossThreads() throws Exception {
+    final SpscQueue<Integer> queue = new SpscQueue<>(16);
+    final int count = 100000;
+    Thread producer =
+        new Thread(
+            () -> {
+              for (int i = 0; i < count; i++) {
+                while (!queue.offer(i)) {
+                  Thread.yield();
+                }
+              }
+            });
+    producer.start();
+    for (int expected = 0; expected < count; ) {
+      Integer value = queue.poll();
+      if (value == null) {
+        Thread.yield();
+        continue;
+      }
+      assertEquals(expected++, value.intValue());
+    }
+    producer.join();
+  }
+
+  @Test
+  public void pipelineShouldTrackFramesInOrder() throws Exception {
+    pipeline = newPipeline(null);
+    pipeline.start();
+    int numAttempts = 0;
+    int numSubmitted = 0;
+    while (numSubmitted < 50) {
+      numAttempts++;
+      TestFrame frame = pipeline.acquire();
+      if (frame == null) {
+        Thread.yield();
+        continue;
+      }
+      frame.value = numSubmitted++;
+      pipeline.submit(frame);
+    }
+    FramePipeline.Stats stats = awaitIdle(numAttempts);
+
+    assertIncreasing();
+    assertEquals(numSubmitted - 1, (long) trackedSequences.get(trackedSequences.size() - 1));
+    assertEquals(trackedSequences.size(), stats.processedCounts[FramePipeline.TRACK]);
+    // Every frame is back in the ring.
+    for (int i = 0; i < NUM_FRAMES; i++) {
+      assertNotNull(pipeline.acquire());
+    }
+    assertNull(pipeline.acquire());
+  }
+
+  @Test
+  public void pipelineShouldDropStaleFramesWhenInferenceIsSlow() throws Exception {
+    CountDownLatch inferenceBlocked = new CountDownLatch(1);
+    pipeline = newPipeline(inferenceBlocked);
+    pipeline.start();
+    int numAttempts = 20;
+    for (int i = 0; i < numAttempts; i++) {
+      TestFrame frame = pipeline.acquire();
+      if (frame != null) {
+        pipeline.submit(frame);
+      }
+      // Let the convert stage catch up, so that frames pile up in front of inference.
+      Thread.sleep(5);
+    }
+    inferenceBlocked.countDown();
+    FramePipeline.Stats stats = awaitIdle(numAttempts);
+
+    assertIncreasing();
+    assertTrue(stats.captureDropCount > 0);
+    assertTrue(stats.dropCounts[FramePipeline.INFER] > 0);
+    assertTrue(trackedSequences.size() < numAttempts);
+  }
+
+  @Test
+  public void asyncInferStageShouldKeepFramesInFlightAndTrackInOrder() throws Exception {
+    final ExecutorService inference = Executors.newSingleThreadExecutor();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    pipeline =
+        new FramePipeline<>(
+            newFrames(),
+            frame -> {
+              frame.converted = frame.value * 2;
+              return true;
+            },
+            frame -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              inference.execute(
+                  () -> {
+                    try {
+                      Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    pipeline.complete(frame, frame.converted == frame.value * 2);
+                  });
+            },
+            /* maxInferencesInFlight= */ 2,
+            frame -> {
+              trackedSequences.add(frame.getSequence());
+              return true;
+            });
+    pipeline.start();
+    int numAttempts = 0;
+    int numSubmitted = 0;
+    while (numSubmitted < 50) {
+      numAttempts++;
+      TestFrame frame = pipeline.acquire();
+      if (frame == null) {
+        Thread.yield();
+        continue;
+      }
+      frame.value = numSubmitted++;
+      pipeline.submit(frame);
+    }
+    FramePipeline.Stats stats = awaitIdle(numAttempts);
+    inference.shutdown();
+
+    assertIncreasing();
+    assertEquals(2, maxInFlight.get());
+    assertEquals(0, stats.dropCounts[FramePipeline.TRACK]);
+    for (int i = 0; i < NUM_FRAMES; i++) {
+      assertNotNull(pipeline.acquire());
+    }
+  }
+
+  private static List<TestFrame> newFrames() {
+    List<TestFrame> frames = new ArrayList<>();
+    for (int i = 0; i < NUM_FRAMES; i++) {
+      frames.add(new TestFrame());
+    }
+    return frames;
+  }
+
+  private FramePipeline<TestFrame> newPipeline(final CountDownLatch inferenceBlocked) {
+    return new FramePipeline<>(
+        newFrames(),
+        frame -> {
+          frame.converted = frame.value * 2;
+          return true;
+        },
+        frame -> {
+          if (inferenceBlocked != null) {
+            try {
+              inferenceBlocked.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+          return frame.converted == frame.value * 2;
+        },
+        frame -> {
+          trackedSequences.add(frame.getSequence());
+          return true;
+        });
+  }
+
+  // Waits until every attempt to submit a frame is either tracked or dropped.
+  private FramePipeline.Stats awaitIdle(int numAttempts) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+    while (System.nanoTime() < deadline) {
+      FramePipeline.Stats stats = pipeline.getStats();
+      long numDone =
+          stats.captureDropCount
+              + stats.dropCounts[FramePipeline.CONVERT]
+              + stats.dropCounts[FramePipeline.INFER]
+              + stats.dropCounts[FramePipeline.TRACK]
+              + stats.processedCounts[FramePipeline.TRACK];
+      if (numDone == numAttempts) {
+        pipeline.stop();
+        return stats;
+      }
+      Thread.sleep(1);
+    }
+    throw new AssertionError("Pipeline did not finish: " + pipeline.getStats());
+  }
+
+  private void assertIncreasing() {
+    for (int i = 1; i < trackedSequences.size(); i++) {
+      assertTrue(trackedSequences.get(i) > trackedSequences.get(i - 1));
+    }
+  }
+
+  private static class TestFrame extends FramePipeline.Frame {
+    int value;
+    int converted;
+  }
+}
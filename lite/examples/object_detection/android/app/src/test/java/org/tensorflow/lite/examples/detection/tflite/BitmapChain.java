@@ -0,0 +1,150 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+
+/**
+ * The chain that {@link YuvPreprocessor} replaces, for a random camera frame: converting the frame
+ * to ARGB, copying it into a Bitmap, drawing that into the cropped Bitmap and reading its pixels
+ * into the model input one channel at a time. The Bitmap steps are emulated with arrays, so that
+ * the chain runs on the JVM.
+ */
+final class BitmapChain {
+  static final int FRAME_WIDTH = 640;
+  static final int FRAME_HEIGHT = 480;
+  private static final int INPUT_SIZE = 300;
+  private static final int ROTATION = 90;
+  private static final float IMAGE_MEAN = 127.5f;
+  private static final float IMAGE_STD = 127.5f;
+
+  final byte[] yData = new byte[FRAME_WIDTH * FRAME_HEIGHT];
+  final byte[] uData = new byte[FRAME_WIDTH * FRAME_HEIGHT / 2];
+  final byte[] vData = new byte[FRAME_WIDTH * FRAME_HEIGHT / 2];
+  final byte[] nv21Data = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+
+  // Emulated bitmaps.
+  private final int[] rgbBytes = new int[FRAME_WIDTH * FRAME_HEIGHT];
+  private final int[] rgbFrameBitmap = new int[FRAME_WIDTH * FRAME_HEIGHT];
+  private final int[] croppedBitmap = new int[INPUT_SIZE * INPUT_SIZE];
+  private final int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
+  private final double[] cropToFrame = new double[6];
+
+  BitmapChain() {
+    // Camera2 frames with interleaved chroma, so U and V planes have a pixel stride of 2.
+    Random random = new Random(42);
+    random.nextBytes(yData);
+    random.nextBytes(uData);
+    random.nextBytes(vData);
+    System.arraycopy(yData, 0, nv21Data, 0, yData.length);
+    for (int i = yData.length, uv = 0; i < nv21Data.length; i += 2, uv += 2) {
+      nv21Data[i] = vData[uv];
+      nv21Data[i + 1] = uData[uv];
+    }
+    invert(transformationMatrix(ROTATION), cropToFrame);
+  }
+
+  /** Returns the preprocessor of the same frames and inputs as the chain. */
+  static YuvPreprocessor newPreprocessor(boolean isQuantized) {
+    return new YuvPreprocessor(
+        FRAME_WIDTH,
+        FRAME_HEIGHT,
+        INPUT_SIZE,
+        INPUT_SIZE,
+        ROTATION,
+        /* maintainAspectRatio= */ false,
+        isQuantized,
+        IMAGE_MEAN,
+        IMAGE_STD);
+  }
+
+  /** Converts the frame into the model input. */
+  void run(boolean isQuantized, ByteBuffer imgData) {
+    ImageUtils.convertYUV420ToARGB8888(
+        yData, uData, vData, FRAME_WIDTH, FRAME_HEIGHT, FRAME_WIDTH, FRAME_WIDTH, 2, rgbBytes);
+    // rgbFrameBitmap.setPixels
+    System.arraycopy(rgbBytes, 0, rgbFrameBitmap, 0, rgbBytes.length);
+    // Canvas.drawBitmap without filtering, which samples the frame at input pixel centers.
+    for (int y = 0, i = 0; y < INPUT_SIZE; y++) {
+      for (int x = 0; x < INPUT_SIZE; x++, i++) {
+        double centerX = x + 0.5;
+        double centerY = y + 0.5;
+        int frameX =
+            (int) Math.floor(cropToFrame[0] * centerX + cropToFrame[1] * centerY + cropToFrame[2]);
+        int frameY =
+            (int) Math.floor(cropToFrame[3] * centerX + cropToFrame[4] * centerY + cropToFrame[5]);
+        croppedBitmap[i] = rgbFrameBitmap[frameY * FRAME_WIDTH + frameX];
+      }
+    }
+    // croppedBitmap.getPixels
+    System.arraycopy(croppedBitmap, 0, intValues, 0, intValues.length);
+
+    imgData.rewind();
+    for (int pixelValue : intValues) {
+      if (isQuantized) {
+        imgData.put((byte) ((pixelValue >> 16) & 0xFF));
+        imgData.put((byte) ((pixelValue >> 8) & 0xFF));
+        imgData.put((byte) (pixelValue & 0xFF));
+      } else {
+        imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+        imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+        imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+      }
+    }
+  }
+
+  // Affine matrix {a, b, c, d, e, f} of ImageUtils.getTransformationMatrix, for rotations by
+  // multiples of 90 degrees.
+  private static double[] transformationMatrix(int rotation) {
+    double cos = Math.rint(Math.cos(Math.toRadians(rotation)));
+    double sin = Math.rint(Math.sin(Math.toRadians(rotation)));
+    boolean transpose = (Math.abs(rotation) + 90) % 180 == 0;
+    double scaleX = INPUT_SIZE / (double) (transpose ? FRAME_HEIGHT : FRAME_WIDTH);
+    double scaleY = INPUT_SIZE / (double) (transpose ? FRAME_WIDTH : FRAME_HEIGHT);
+    // Translate the frame center to the origin, rotate, scale and translate to the input center.
+    double tx = -FRAME_WIDTH / 2.0;
+    double ty = -FRAME_HEIGHT / 2.0;
+    return new double[] {
+      scaleX * cos,
+      -scaleX * sin,
+      scaleX * (cos * tx - sin * ty) + INPUT_SIZE / 2.0,
+      scaleY * sin,
+      scaleY * cos,
+      scaleY * (sin * tx + cos * ty) + INPUT_SIZE / 2.0
+    };
+  }
+
+  private static void invert(double[] m, double[] inverse) {
+    double det = m[0] * m[4] - m[1] * m[3];
+    inverse[0] = m[4] / det;
+    inverse[1] = -m[1] / det;
+    inverse[3] = -m[3] / det;
+    inverse[4] = m[0] / det;
+    inverse[2] = -(inverse[0] * m[2] + inverse[1] * m[5]);
+    inverse[5] = -(inverse[3] * m[2] + inverse[4] * m[5]);
+  }
+
+  static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.capacity()];
+    ByteBuffer copy = buffer.duplicate().order(ByteOrder.nativeOrder());
+    copy.rewind();
+    copy.get(bytes);
+    return bytes;
+  }
+}
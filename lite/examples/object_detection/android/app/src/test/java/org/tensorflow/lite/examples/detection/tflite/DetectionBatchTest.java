@@ -0,0 +1,96 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.RectF;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tensorflow.lite.examples.detection.tflite.Detector.Recognition;
+
+/** Tests of {@link DetectionBatch}. */
+@RunWith(JUnit4.class)
+public final class DetectionBatchTest {
+
+  @Test
+  public void refillingShouldReuseRecognitions() {
+    DetectionBatch batch = new DetectionBatch(2);
+    batch.add(0, 1, 2, 3, 4, 5, "cat", 0.9f);
+    batch.add(1, 5, 6, 7, 8, 2, "dog", 0.8f);
+    List<Recognition> recognitions = batch.getRecognitions();
+    Recognition first = recognitions.get(0);
+
+    batch.clear();
+    batch.add(3, 10, 20, 30, 40, 7, "bird", 0.7f);
+
+    assertSame(recognitions, batch.getRecognitions());
+    assertEquals(1, recognitions.size());
+    assertSame(first, recognitions.get(0));
+    assertEquals("3", first.getId());
+    assertEquals("bird", first.getTitle());
+    assertEquals(0.7f, first.getConfidence(), 0.0f);
+    assertEquals(7, batch.getClassIndex(0));
+    RectF location = new RectF();
+    batch.getLocation(0, location);
+    assertEquals(10, location.left, 0.0f);
+    assertEquals(20, location.top, 0.0f);
+    assertEquals(30, location.right, 0.0f);
+    assertEquals(40, location.bottom, 0.0f);
+  }
+
+  @Test
+  public void addingShouldGrowBeyondCapacity() {
+    DetectionBatch batch = new DetectionBatch(1);
+    for (int i = 0; i < 5; i++) {
+      batch.add(i, i, i, i + 1, i + 1, i, "object", i / 10.0f);
+    }
+
+    assertEquals(5, batch.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(String.valueOf(i), batch.getRecognitions().get(i).getId());
+      assertEquals(i / 10.0f, batch.getScore(i), 0.0f);
+    }
+  }
+
+  @Test
+  public void copiesShouldOutliveRefills() {
+    DetectionBatch batch = new DetectionBatch();
+    batch.add(4, 1, 2, 3, 4, 0, "cat", 0.9f);
+    List<Recognition> copies = batch.copyRecognitions();
+
+    batch.clear();
+    batch.add(5, 1, 2, 3, 4, 1, "dog", 0.6f);
+
+    assertEquals(1, copies.size());
+    assertNotSame(batch.getRecognitions().get(0), copies.get(0));
+    assertEquals("4", copies.get(0).getId());
+    assertEquals("cat", copies.get(0).getTitle());
+    assertEquals(0.9f, copies.get(0).getConfidence(), 0.0f);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void clearedDetectionsShouldNotBeAccessible() {
+    DetectionBatch batch = new DetectionBatch();
+    batch.add(0, 1, 2, 3, 4, 0, "cat", 0.9f);
+    batch.clear();
+    batch.getScore(0);
+  }
+}
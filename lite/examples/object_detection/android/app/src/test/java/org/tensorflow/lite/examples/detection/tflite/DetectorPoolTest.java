@@ -0,0 +1,419 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.graphics.Bitmap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests of {@link DetectorPool}, with members that take the time their inputs ask for. They run
+ * under Robolectric, since the pool logs through {@link android.util.Log}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class DetectorPoolTest {
+  private static final long TIMEOUT_MS = 10000;
+  private static final DetectorPool.MemberOptions OPTIONS =
+      new DetectorPool.MemberOptions(1, /* useXnnpack= */ true, /* useNNAPI= */ false);
+
+  private final List<FakeDetector> created = Collections.synchronizedList(new ArrayList<>());
+  private final List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+  private final DetectorPool.Callback<Integer> recordingCallback =
+      (tag, results) -> {
+        assertEquals(String.valueOf(tag), results.get(0).getId());
+        delivered.add(tag);
+      };
+  private volatile long creationDelayMs = 0;
+  // Attempts to create members that fail, counting from 0.
+  private final Set<Integer> failingCreations = Collections.synchronizedSet(new HashSet<>());
+  private final AtomicInteger numCreations = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private DetectorPool pool;
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void resultsShouldBeDeliveredInSubmissionOrder() throws Exception {
+    pool = newPool(3, DetectorPool.Dispatch.ROUND_ROBIN);
+    Random random = new Random(42);
+    int count = 60;
+    for (int i = 0; i < count; i++) {
+      pool.submit(input(i, random.nextInt(4)), i, recordingCallback);
+    }
+    awaitDelivered(count);
+
+    assertInOrder(count);
+    for (FakeDetector member : created) {
+      assertEquals(count / 3, member.processedCount.get());
+    }
+  }
+
+  @Test
+  public void leastLoadedShouldAvoidBusyMembers() throws Exception {
+    pool = newPool(2, DetectorPool.Dispatch.LEAST_LOADED);
+    FakeDetector busy = created.get(0);
+    FakeDetector idle = created.get(1);
+    busy.gate = release;
+    pool.submit(input(0, 0), 0, recordingCallback);
+    awaitTrue(() -> busy.runningCount.get() == 1);
+
+    int count = 6;
+    for (int i = 1; i < count; i++) {
+      pool.submit(input(i, 0), i, recordingCallback);
+      awaitTrue(() -> pool.getPendingCount() == 1);
+    }
+    // Results wait behind the first input.
+    assertTrue(delivered.isEmpty());
+    release.countDown();
+    awaitDelivered(count);
+
+    assertInOrder(count);
+    assertEquals(1, busy.processedCount.get());
+    assertEquals(0, pool.getPendingCount());
+    assertEquals(count - 1, idle.processedCount.get());
+  }
+
+  @Test
+  public void reconfigurationShouldSwapMembersWhileDetecting() throws Exception {
+    pool = newPool(2, DetectorPool.Dispatch.ROUND_ROBIN);
+    List<FakeDetector> original = new ArrayList<>(created);
+    AtomicBoolean submitting = new AtomicBoolean(true);
+    AtomicInteger numSubmitted = new AtomicInteger();
+    Thread producer =
+        new Thread(
+            () -> {
+              while (submitting.get()) {
+                int i = numSubmitted.getAndIncrement();
+                pool.submit(input(i, 1), i, recordingCallback);
+                try {
+                  Thread.sleep(1);
+                } catch (InterruptedException e) {
+                  return;
+                }
+              }
+            });
+    producer.start();
+    awaitTrue(() -> delivered.size() > 10);
+
+    creationDelayMs = 50;
+    int deliveredBefore = delivered.size();
+    pool.setNumThreads(3);
+    int deliveredDuring = delivered.size() - deliveredBefore;
+    awaitTrue(
+        () -> created.get(2).processedCount.get() > 0 && created.get(3).processedCount.get() > 0);
+    submitting.set(false);
+    producer.join();
+    awaitDelivered(numSubmitted.get());
+
+    // Results kept flowing while the replacements were created.
+    assertTrue(deliveredDuring > 10);
+    assertInOrder(numSubmitted.get());
+    assertEquals(3, pool.getMemberOptions().numThreads);
+    assertEquals(4, created.size());
+    for (FakeDetector member : original) {
+      assertTrue(member.closed.get());
+    }
+    for (FakeDetector member : created.subList(2, 4)) {
+      assertEquals(3, member.options.numThreads);
+      assertFalse(member.closed.get());
+    }
+    for (FakeDetector member : created) {
+      assertFalse(member.usedAfterClose.get());
+    }
+  }
+
+  @Test
+  public void failedReconfigurationShouldPutMembersBack() throws Exception {
+    pool = newPool(3, DetectorPool.Dispatch.ROUND_ROBIN);
+    // The replacement of the second member cannot be created.
+    failingCreations.add(4);
+
+    try {
+      pool.setNumThreads(3);
+      fail();
+    } catch (RuntimeException expected) {
+      // The factory failed.
+    }
+
+    assertEquals(1, pool.getMemberOptions().numThreads);
+    assertTrue(pool.getStatString(), pool.getStatString().startsWith("3 x 1 threads, XNNPACK,"));
+    // The first member was replaced, and then put back with the previous options.
+    assertEquals(5, created.size());
+    assertTrue(created.get(0).closed.get());
+    assertEquals(3, created.get(3).options.numThreads);
+    assertTrue(created.get(3).closed.get());
+    assertEquals(1, created.get(4).options.numThreads);
+    assertFalse(created.get(4).closed.get());
+    // Every member keeps detecting.
+    for (int i = 0; i < 6; i++) {
+      pool.submit(input(i, 0), i, recordingCallback);
+    }
+    awaitDelivered(6);
+    assertInOrder(6);
+    for (FakeDetector member : Arrays.asList(created.get(4), created.get(1), created.get(2))) {
+      assertEquals(2, member.processedCount.get());
+    }
+  }
+
+  @Test
+  public void membersThatCannotBePutBackShouldKeepTheirOptions() throws Exception {
+    pool = newPool(2, DetectorPool.Dispatch.ROUND_ROBIN);
+    // Neither the replacement of the second member nor the restored first member can be created.
+    failingCreations.addAll(Arrays.asList(3, 4));
+
+    try {
+      pool.setNumThreads(3);
+      fail();
+    } catch (RuntimeException expected) {
+      // The factory failed.
+    }
+
+    assertEquals(1, pool.getMemberOptions().numThreads);
+    assertTrue(
+        pool.getStatString(),
+        pool.getStatString().startsWith("3 threads, XNNPACK | 1 threads, XNNPACK,"));
+    assertFalse(created.get(2).closed.get());
+  }
+
+  @Test
+  public void recognizeImageShouldWaitForResultsAndCloseShouldCloseMembers() throws Exception {
+    pool = newPool(2, DetectorPool.Dispatch.ROUND_ROBIN);
+    assertEquals("7", pool.recognizeImage(input(7, 0)).get(0).getId());
+    pool.close();
+
+    for (FakeDetector member : created) {
+      assertTrue(member.closed.get());
+    }
+    try {
+      pool.submit(input(8, 0), 8, recordingCallback);
+      fail();
+    } catch (IllegalStateException expected) {
+      // The pool is closed.
+    }
+  }
+
+  @Test
+  public void batchSubmissionsShouldDeliverRecognitionsOfTheBatch() throws Exception {
+    pool = newPool(2, DetectorPool.Dispatch.ROUND_ROBIN);
+    DetectionBatch[] batches = {new DetectionBatch(), new DetectionBatch()};
+    List<List<Detector.Recognition>> results = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 2; i++) {
+      pool.submit(
+          input(i, 1),
+          /* minimumConfidence= */ 0.5f,
+          batches[i],
+          i,
+          (tag, recognitions) -> {
+            delivered.add(tag);
+            results.add(recognitions);
+          });
+    }
+    awaitDelivered(2);
+
+    assertInOrder(2);
+    for (int i = 0; i < 2; i++) {
+      assertTrue(results.get(i) == batches[i].getRecognitions());
+      assertEquals(1, batches[i].size());
+      assertEquals(String.valueOf(i), batches[i].getRecognitions().get(0).getId());
+    }
+  }
+
+  @Test
+  public void errorsInDetectionShouldDeliverEmptyResults() throws Exception {
+    pool = newPool(2, DetectorPool.Dispatch.ROUND_ROBIN);
+    created.get(0).failingValue = 2;
+    List<Boolean> empty = Collections.synchronizedList(new ArrayList<>());
+    int count = 6;
+    for (int i = 0; i < count; i++) {
+      pool.submit(
+          input(i, 0),
+          i,
+          (tag, results) -> {
+            delivered.add(tag);
+            empty.add(results.isEmpty());
+          });
+    }
+    awaitDelivered(count);
+
+    assertInOrder(count);
+    for (int i = 0; i < count; i++) {
+      assertEquals(i == 2, empty.get(i));
+    }
+    // The member survives the error.
+    assertEquals(count / 2 - 1, created.get(0).processedCount.get());
+  }
+
+  private DetectorPool newPool(int size, DetectorPool.Dispatch dispatch) throws Exception {
+    return new DetectorPool(
+        options -> {
+          if (failingCreations.contains(numCreations.getAndIncrement())) {
+            throw new IOException("Cannot create a member.");
+          }
+          try {
+            Thread.sleep(creationDelayMs);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          FakeDetector detector = new FakeDetector(options);
+          created.add(detector);
+          return detector;
+        },
+        size,
+        OPTIONS,
+        dispatch);
+  }
+
+  // Input whose results have the value as ID, after the given delay.
+  private static ByteBuffer input(int value, int delayMs) {
+    ByteBuffer input = ByteBuffer.allocate(8);
+    input.putInt(0, value);
+    input.putInt(4, delayMs);
+    return input;
+  }
+
+  private void awaitDelivered(int count) throws InterruptedException {
+    awaitTrue(() -> delivered.size() == count);
+  }
+
+  private void assertInOrder(int count) {
+    assertEquals(count, delivered.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(i, (int) delivered.get(i));
+    }
+  }
+
+  private interface Condition {
+    boolean holds();
+  }
+
+  private static void awaitTrue(Condition condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+    while (!condition.holds()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Timed out");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  private static final class FakeDetector implements Detector {
+    final DetectorPool.MemberOptions options;
+    final AtomicInteger runningCount = new AtomicInteger();
+    final AtomicInteger processedCount = new AtomicInteger();
+    final AtomicBoolean closed = new AtomicBoolean();
+    final AtomicBoolean usedAfterClose = new AtomicBoolean();
+    // Detections wait for this latch, if any.
+    volatile CountDownLatch gate;
+    // Input value whose detection throws an error, if any.
+    volatile int failingValue = -1;
+
+    FakeDetector(DetectorPool.MemberOptions options) {
+      this.options = options;
+    }
+
+    @Override
+    public List<Recognition> recognizeImage(Bitmap bitmap) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Recognition> recognizeImage(ByteBuffer input) {
+      if (closed.get()) {
+        usedAfterClose.set(true);
+      }
+      if (input.getInt(0) == failingValue) {
+        throw new OutOfMemoryError("Fake failure.");
+      }
+      runningCount.incrementAndGet();
+      try {
+        CountDownLatch currentGate = gate;
+        if (currentGate != null) {
+          currentGate.await();
+        }
+        Thread.sleep(input.getInt(4));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      runningCount.decrementAndGet();
+      processedCount.incrementAndGet();
+      return Collections.singletonList(
+          new Recognition(String.valueOf(input.getInt(0)), "object", 1.0f, null));
+    }
+
+    // Adds the input value, and a detection below the minimum confidence.
+    @Override
+    public void detect(ByteBuffer input, float minimumConfidence, DetectionBatch batch) {
+      List<Recognition> results = recognizeImage(input);
+      batch.clear();
+      for (float score : new float[] {minimumConfidence / 2, 1.0f}) {
+        if (score >= minimumConfidence) {
+          batch.add(input.getInt(0), 0, 0, 1, 1, 0, results.get(0).getTitle(), score);
+        }
+      }
+    }
+
+    @Override
+    public YuvPreprocessor createPreprocessor(
+        int frameWidth, int frameHeight, int rotation, boolean maintainAspectRatio) {
+      return null;
+    }
+
+    @Override
+    public void enableStatLogging(boolean debug) {}
+
+    @Override
+    public String getStatString() {
+      return "";
+    }
+
+    @Override
+    public void close() {
+      closed.set(true);
+    }
+
+    @Override
+    public void setNumThreads(int numThreads) {}
+
+    @Override
+    public void setUseNNAPI(boolean isChecked) {}
+  }
+}
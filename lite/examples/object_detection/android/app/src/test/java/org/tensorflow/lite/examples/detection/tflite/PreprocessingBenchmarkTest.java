@@ -0,0 +1,82 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares the speed of {@link YuvPreprocessor} with the {@link BitmapChain} it replaces. Results
+ * are logged as milliseconds per frame. {@link YuvPreprocessorTest} checks that both give the same
+ * input, so this only runs when the ignore is removed.
+ */
+@Ignore("Benchmark, run manually.")
+@RunWith(RobolectricTestRunner.class)
+public final class PreprocessingBenchmarkTest {
+  private static final String TAG = "PreprocessingBenchmark";
+  private static final int WARMUP_ROUNDS = 50;
+  private static final int MEASURED_ROUNDS = 200;
+
+  private final BitmapChain chain = new BitmapChain();
+
+  @Test
+  public void preprocessingBenchmark() {
+    for (boolean isQuantized : new boolean[] {true, false}) {
+      YuvPreprocessor preprocessor = BitmapChain.newPreprocessor(isQuantized);
+      ByteBuffer imgData = preprocessor.allocateInput();
+
+      long chainNanos = 0;
+      for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+        long startNanos = System.nanoTime();
+        chain.run(isQuantized, imgData);
+        if (round >= WARMUP_ROUNDS) {
+          chainNanos += System.nanoTime() - startNanos;
+        }
+      }
+
+      long fusedNanos = 0;
+      for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+        long startNanos = System.nanoTime();
+        preprocessor.convert(
+            chain.yData,
+            chain.uData,
+            chain.vData,
+            BitmapChain.FRAME_WIDTH,
+            BitmapChain.FRAME_WIDTH,
+            2,
+            imgData);
+        if (round >= WARMUP_ROUNDS) {
+          fusedNanos += System.nanoTime() - startNanos;
+        }
+      }
+
+      Log.i(
+          TAG,
+          String.format(
+              Locale.US,
+              "%s input: bitmap chain %.2f ms/frame, fused %.2f ms/frame, %.1fx",
+              isQuantized ? "Quantized" : "Float",
+              chainNanos / 1e6 / MEASURED_ROUNDS,
+              fusedNanos / 1e6 / MEASURED_ROUNDS,
+              (double) chainNanos / fusedNanos));
+    }
+  }
+}
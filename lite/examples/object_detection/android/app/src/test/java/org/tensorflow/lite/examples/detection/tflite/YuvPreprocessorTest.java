@@ -0,0 +1,51 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests of {@link YuvPreprocessor}, against the {@link BitmapChain} it replaces. */
+@RunWith(RobolectricTestRunner.class)
+public final class YuvPreprocessorTest {
+  private final BitmapChain chain = new BitmapChain();
+
+  @Test
+  public void fusedInputShouldMatchBitmapChain() {
+    for (boolean isQuantized : new boolean[] {true, false}) {
+      YuvPreprocessor preprocessor = BitmapChain.newPreprocessor(isQuantized);
+      ByteBuffer expected = preprocessor.allocateInput();
+      ByteBuffer actual = preprocessor.allocateInput();
+      chain.run(isQuantized, expected);
+      preprocessor.convert(
+          chain.yData,
+          chain.uData,
+          chain.vData,
+          BitmapChain.FRAME_WIDTH,
+          BitmapChain.FRAME_WIDTH,
+          2,
+          actual);
+      assertArrayEquals(BitmapChain.toArray(expected), BitmapChain.toArray(actual));
+
+      preprocessor.convertNv21(chain.nv21Data, actual);
+      assertArrayEquals(BitmapChain.toArray(expected), BitmapChain.toArray(actual));
+    }
+  }
+}
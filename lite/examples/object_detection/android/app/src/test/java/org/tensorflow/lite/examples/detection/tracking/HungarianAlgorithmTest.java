@@ -0,0 +1,129 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link HungarianAlgorithm}, against exhaustive search on small matrices. */
+@RunWith(JUnit4.class)
+public final class HungarianAlgorithmTest {
+  private final HungarianAlgorithm hungarian = new HungarianAlgorithm();
+
+  @Test
+  public void shouldFindOptimumWhereGreedyMatchingFails() {
+    // Greedily taking the cheapest pair, row 0 to column 0, leaves row 1 the expensive column.
+    float[] cost = {
+      0.1f, 0.2f,
+      0.3f, 0.9f
+    };
+    int[] assignment = new int[2];
+
+    hungarian.solve(cost, 2, 2, assignment);
+
+    assertArrayEquals(new int[] {1, 0}, assignment);
+  }
+
+  @Test
+  public void shouldLeaveExtraRowsUnassigned() {
+    float[] cost = {
+      0.5f, 0.1f,
+      0.2f, 0.9f,
+      0.3f, 0.05f
+    };
+    int[] assignment = new int[3];
+
+    hungarian.solve(cost, 3, 2, assignment);
+
+    assertArrayEquals(new int[] {-1, 0, 1}, assignment);
+  }
+
+  @Test
+  public void shouldMatchExhaustiveSearchOnRandomMatrices() {
+    Random random = new Random(7);
+    for (int trial = 0; trial < 200; trial++) {
+      int numRows = 1 + random.nextInt(5);
+      int numColumns = 1 + random.nextInt(5);
+      float[] cost = new float[numRows * numColumns];
+      for (int i = 0; i < cost.length; i++) {
+        cost[i] = random.nextInt(10) / 10.0f;
+      }
+      int[] assignment = new int[numRows];
+
+      hungarian.solve(cost, numRows, numColumns, assignment);
+
+      int numAssigned = 0;
+      boolean[] used = new boolean[numColumns];
+      for (int column : assignment) {
+        if (column >= 0) {
+          assertFalse(used[column]);
+          used[column] = true;
+          numAssigned++;
+        }
+      }
+      assertEquals(Math.min(numRows, numColumns), numAssigned);
+      assertEquals(
+          minimumCost(cost, numRows, numColumns, 0, new boolean[numColumns]),
+          totalCost(cost, numColumns, assignment),
+          1e-4f);
+    }
+  }
+
+  private static float totalCost(float[] cost, int numColumns, int[] assignment) {
+    float total = 0;
+    for (int row = 0; row < assignment.length; row++) {
+      if (assignment[row] >= 0) {
+        total += cost[row * numColumns + assignment[row]];
+      }
+    }
+    return total;
+  }
+
+  // Minimum cost of assigning min(rows, columns) pairs, from the given row on.
+  private static float minimumCost(
+      float[] cost, int numRows, int numColumns, int row, boolean[] used) {
+    if (row == numRows) {
+      return 0;
+    }
+    int numFree = 0;
+    for (boolean columnUsed : used) {
+      numFree += columnUsed ? 0 : 1;
+    }
+    float best = Float.POSITIVE_INFINITY;
+    // A row may only stay unassigned if the remaining rows outnumber the free columns.
+    if (numRows - row > numFree) {
+      best = minimumCost(cost, numRows, numColumns, row + 1, used);
+    }
+    for (int column = 0; column < numColumns; column++) {
+      if (!used[column]) {
+        used[column] = true;
+        best =
+            Math.min(
+                best,
+                cost[row * numColumns + column]
+                    + minimumCost(cost, numRows, numColumns, row + 1, used));
+        used[column] = false;
+      }
+    }
+    return best;
+  }
+}
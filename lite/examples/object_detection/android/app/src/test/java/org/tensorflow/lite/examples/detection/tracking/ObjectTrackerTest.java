@@ -0,0 +1,177 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tensorflow.lite.examples.detection.tracking.ObjectTracker.Track;
+
+/** Tests of {@link ObjectTracker}, with boxes moving at constant speeds. */
+@RunWith(JUnit4.class)
+public final class ObjectTrackerTest {
+  private static final float SIZE = 40;
+
+  private final ObjectTracker tracker =
+      new ObjectTracker(/* minIou= */ 0.3f, /* minHits= */ 2, /* maxMisses= */ 2);
+
+  @Test
+  public void tracksShouldKeepTheirIdsWhileObjectsMove() {
+    for (long t = 0; t < 20; t++) {
+      detect("cat", 100 + 5 * t, 100);
+      detect("dog", 300, 100 + 4 * t);
+      tracker.update(t);
+    }
+
+    List<Track> tracks = tracker.getTracks();
+    assertEquals(2, tracks.size());
+    assertEquals(0, tracks.get(0).getId());
+    assertEquals("cat", tracks.get(0).getTitle());
+    assertEquals(1, tracks.get(1).getId());
+    assertEquals("dog", tracks.get(1).getTitle());
+  }
+
+  @Test
+  public void newTracksShouldOnlyBeReportedOnceMatchedInConsecutiveFrames() {
+    detect("cat", 100, 100);
+    tracker.update(0);
+    assertTrue(tracker.getTracks().isEmpty());
+
+    // A single missed frame drops the new track, so the next detection starts over.
+    tracker.update(1);
+    detect("cat", 100, 100);
+    tracker.update(2);
+    assertTrue(tracker.getTracks().isEmpty());
+
+    detect("cat", 100, 100);
+    tracker.update(3);
+    assertEquals(1, tracker.getTracks().size());
+    assertEquals(1, tracker.getTracks().get(0).getId());
+  }
+
+  @Test
+  public void missedTracksShouldMoveOnUntilTheyAreRemoved() {
+    for (long t = 0; t < 10; t++) {
+      detect("cat", 100 + 10 * t, 100);
+      tracker.update(t);
+    }
+    Track track = tracker.getTracks().get(0);
+
+    tracker.update(10);
+    assertEquals(1, track.getMissCount());
+    assertCenter(track, 200, 100, 5);
+    tracker.update(11);
+    assertEquals(2, track.getMissCount());
+    assertEquals(1, tracker.getTracks().size());
+    assertCenter(track, 210, 100, 5);
+
+    // Found again where it moved to.
+    detect("cat", 220, 100);
+    tracker.update(12);
+    assertEquals(0, track.getMissCount());
+    assertEquals(0, track.getId());
+
+    for (long t = 13; t <= 15; t++) {
+      tracker.update(t);
+    }
+    assertTrue(tracker.getTracks().isEmpty());
+  }
+
+  @Test
+  public void boxesShouldBePredictedOnFramesThatAreNotDetected() {
+    // Detection runs on every third frame.
+    for (long t = 0; t < 30; t += 3) {
+      detect("cat", 100 + 4 * t, 200 - 2 * t);
+      tracker.update(t);
+      for (long skipped = t + 1; skipped < t + 3; skipped++) {
+        tracker.predict(skipped);
+        // Once the filter has picked up the velocity.
+        if (t >= 9) {
+          assertCenter(tracker.getTracks().get(0), 100 + 4 * skipped, 200 - 2 * skipped, 1);
+        }
+      }
+    }
+
+    // The predictions did not change the filters.
+    detect("cat", 100 + 4 * 30, 200 - 2 * 30);
+    tracker.update(30);
+    assertEquals(1, tracker.getTracks().size());
+    assertCenter(tracker.getTracks().get(0), 220, 140, 2);
+  }
+
+  @Test
+  public void crossingObjectsShouldKeepTheirIds() {
+    // Boxes of different titles may overlap, so only boxes of the same title are matched.
+    for (long t = 0; t < 20; t++) {
+      detect("cat", 100 + 10 * t, 100);
+      detect("dog", 290 - 10 * t, 100);
+      tracker.update(t);
+    }
+
+    List<Track> tracks = tracker.getTracks();
+    assertEquals(2, tracks.size());
+    assertEquals("cat", tracks.get(0).getTitle());
+    assertCenter(tracks.get(0), 290, 100, 5);
+    assertEquals("dog", tracks.get(1).getTitle());
+    assertCenter(tracks.get(1), 100, 100, 5);
+  }
+
+  @Test
+  public void neighboringObjectsShouldKeepTheirIds() {
+    // Two objects of the same title side by side, each tracked at its own box.
+    for (long t = 0; t < 5; t++) {
+      detect("cat", 100, 100);
+      detect("cat", 125, 100);
+      tracker.update(t);
+    }
+    int leftId = tracker.getTracks().get(0).getId();
+    int rightId = tracker.getTracks().get(1).getId();
+    assertNotEquals(leftId, rightId);
+
+    detect("cat", 128, 100);
+    detect("cat", 103, 100);
+    tracker.update(5);
+
+    List<Track> tracks = tracker.getTracks();
+    assertEquals(2, tracks.size());
+    assertCenter(tracks.get(0), 103, 100, 2);
+    assertEquals(leftId, tracks.get(0).getId());
+    assertCenter(tracks.get(1), 128, 100, 2);
+    assertEquals(rightId, tracks.get(1).getId());
+  }
+
+  private void detect(String title, float centerX, float centerY) {
+    tracker.addDetection(
+        centerX - SIZE / 2,
+        centerY - SIZE / 2,
+        centerX + SIZE / 2,
+        centerY + SIZE / 2,
+        title,
+        /* score= */ 0.9f);
+  }
+
+  private static void assertCenter(Track track, float centerX, float centerY, float tolerance) {
+    assertEquals(SIZE, track.getRight() - track.getLeft(), tolerance);
+    assertEquals(SIZE, track.getBottom() - track.getTop(), tolerance);
+    assertEquals(centerX, (track.getLeft() + track.getRight()) / 2, tolerance);
+    assertEquals(centerY, (track.getTop() + track.getBottom()) / 2, tolerance);
+  }
+}
@@ -0,0 +1,223 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.lite.examples.detection.tflite.Detector.Recognition;
+
+/**
+ * Reusable detections of one input, filled by {@link Detector#detect}.
+ *
+ * <p>Detections are kept in primitive arrays, along with a recycled {@link Recognition} per
+ * detection for consumers of the Recognition API. Storage only grows, so once a batch has held the
+ * most detections a model outputs, filling it again does not allocate. Its contents, including the
+ * recognitions, are only valid until the batch is filled again.
+ */
+public final class DetectionBatch {
+  private static final int INITIAL_CAPACITY = 10;
+
+  private int size = 0;
+  // Left, top, right and bottom of every detection.
+  private float[] locations;
+  private float[] scores;
+  private int[] classes;
+  private String[] titles;
+  // Recycled recognitions, their locations and IDs.
+  private Recognition[] recognitions;
+  private RectF[] rects;
+  private String[] ids = new String[0];
+  private final List<Recognition> recognitionList =
+      new AbstractList<Recognition>() {
+        @Override
+        public Recognition get(int index) {
+          return recognitions[checkIndex(index)];
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+
+  public DetectionBatch() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public DetectionBatch(int capacity) {
+    locations = new float[capacity * 4];
+    scores = new float[capacity];
+    classes = new int[capacity];
+    titles = new String[capacity];
+    recognitions = new Recognition[capacity];
+    rects = new RectF[capacity];
+    for (int i = 0; i < capacity; i++) {
+      rects[i] = new RectF();
+      recognitions[i] = new Recognition(null, null, null, rects[i]);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public float getScore(int index) {
+    return scores[checkIndex(index)];
+  }
+
+  /** Returns the index of the class in the labels of the model, or -1 if it is unknown. */
+  public int getClassIndex(int index) {
+    return classes[checkIndex(index)];
+  }
+
+  public String getTitle(int index) {
+    return titles[checkIndex(index)];
+  }
+
+  /** Copies the location of a detection into the given rectangle. */
+  public void getLocation(int index, RectF location) {
+    final int offset = checkIndex(index) * 4;
+    location.left = locations[offset];
+    location.top = locations[offset + 1];
+    location.right = locations[offset + 2];
+    location.bottom = locations[offset + 3];
+  }
+
+  /**
+   * Returns the detections as a list of recycled recognitions, which this batch updates in place.
+   */
+  public List<Recognition> getRecognitions() {
+    return recognitionList;
+  }
+
+  /** Returns new recognitions of the detections, which stay valid when the batch is refilled. */
+  public List<Recognition> copyRecognitions() {
+    final List<Recognition> copies = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      copies.add(
+          new Recognition(recognitions[i].getId(), titles[i], scores[i], new RectF(rects[i])));
+    }
+    return copies;
+  }
+
+  /** Transforms the locations in place, such as from input to frame coordinates. */
+  public void mapLocations(Matrix transform) {
+    for (int i = 0; i < size; i++) {
+      final RectF rect = rects[i];
+      transform.mapRect(rect);
+      setLocation(i, rect.left, rect.top, rect.right, rect.bottom);
+    }
+  }
+
+  /** Removes every detection, keeping the storage. */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Appends a detection, growing the storage if needed.
+   *
+   * @param id Index of the detection in the outputs of the model, used as ID of its recognition.
+   */
+  public void add(
+      int id,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      int classIndex,
+      String title,
+      float score) {
+    if (size == scores.length) {
+      grow(Math.max(1, size * 2));
+    }
+    final int index = size++;
+    scores[index] = score;
+    classes[index] = classIndex;
+    titles[index] = title;
+    setLocation(index, left, top, right, bottom);
+    recognitions[index].set(idString(id), title, score, rects[index]);
+  }
+
+  /** Ensures that the given number of detections can be added without allocating. */
+  public void ensureCapacity(int capacity) {
+    if (capacity > scores.length) {
+      grow(capacity);
+    }
+  }
+
+  private void setLocation(int index, float left, float top, float right, float bottom) {
+    final int offset = index * 4;
+    locations[offset] = left;
+    locations[offset + 1] = top;
+    locations[offset + 2] = right;
+    locations[offset + 3] = bottom;
+    final RectF rect = rects[index];
+    rect.left = left;
+    rect.top = top;
+    rect.right = right;
+    rect.bottom = bottom;
+  }
+
+  // IDs are cached, as the same indexes come back from frame to frame.
+  private String idString(int id) {
+    if (id >= ids.length) {
+      final String[] grown = new String[Math.max(id + 1, ids.length * 2)];
+      System.arraycopy(ids, 0, grown, 0, ids.length);
+      ids = grown;
+    }
+    if (ids[id] == null) {
+      ids[id] = String.valueOf(id);
+    }
+    return ids[id];
+  }
+
+  private void grow(int capacity) {
+    final int oldCapacity = scores.length;
+    final float[] grownLocations = new float[capacity * 4];
+    System.arraycopy(locations, 0, grownLocations, 0, locations.length);
+    locations = grownLocations;
+    final float[] grownScores = new float[capacity];
+    System.arraycopy(scores, 0, grownScores, 0, oldCapacity);
+    scores = grownScores;
+    final int[] grownClasses = new int[capacity];
+    System.arraycopy(classes, 0, grownClasses, 0, oldCapacity);
+    classes = grownClasses;
+    final String[] grownTitles = new String[capacity];
+    System.arraycopy(titles, 0, grownTitles, 0, oldCapacity);
+    titles = grownTitles;
+    final Recognition[] grownRecognitions = new Recognition[capacity];
+    System.arraycopy(recognitions, 0, grownRecognitions, 0, oldCapacity);
+    recognitions = grownRecognitions;
+    final RectF[] grownRects = new RectF[capacity];
+    System.arraycopy(rects, 0, grownRects, 0, oldCapacity);
+    rects = grownRects;
+    for (int i = oldCapacity; i < capacity; i++) {
+      rects[i] = new RectF();
+      recognitions[i] = new Recognition(null, null, null, rects[i]);
+    }
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+    }
+    return index;
+  }
+}
@@ -17,12 +17,34 @@ package org.tensorflow.lite.examples.detection.tflite;
 
 import android.graphics.Bitmap;
 import android.graphics.RectF;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /** Generic interface for interacting with different recognition engines. */
 public interface Detector {
   List<Recognition> recognizeImage(Bitmap bitmap);
 
+  /**
+   * Detects objects in an input written by a preprocessor from {@link #createPreprocessor}.
+   * Locations are in input coordinates, like the ones of the cropped bitmaps.
+   */
+  List<Recognition> recognizeImage(ByteBuffer input);
+
+  /**
+   * Detects objects in an input like {@link #recognizeImage(ByteBuffer)}, and replaces the contents
+   * of the batch with the detections of at least the given confidence, reusing its storage.
+   */
+  void detect(ByteBuffer input, float minimumConfidence, DetectionBatch batch);
+
+  /**
+   * Creates a preprocessor that converts camera frames straight into the input of this detector.
+   *
+   * @param rotation Amount of rotation to apply to the frames, in degrees.
+   * @param maintainAspectRatio If true, crops the frames rather than stretching them.
+   */
+  YuvPreprocessor createPreprocessor(
+      int frameWidth, int frameHeight, int rotation, boolean maintainAspectRatio);
+
   void enableStatLogging(final boolean debug);
 
   String getStatString();
@@ -33,21 +55,27 @@ public interface Detector {
 
   void setUseNNAPI(boolean isChecked);
 
-  /** An immutable result returned by a Detector describing what was recognized. */
+  /**
+   * A result returned by a Detector describing what was recognized. The recognitions of a {@link
+   * DetectionBatch} are reused by the next detection into the batch.
+   */
   public class Recognition {
     /**
      * A unique identifier for what has been recognized. Specific to the class, not the instance of
      * the object.
      */
-    private final String id;
+    private String id;
 
     /** Display name for the recognition. */
-    private final String title;
+    private String title;
 
     /**
      * A sortable score for how good the recognition is relative to others. Higher should be better.
+     * Stored unboxed, so that recognitions are reused without allocating.
      */
-    private final Float confidence;
+    private float confidence;
+
+    private boolean hasConfidence;
 
     /** Optional location within the source image for the location of the recognized object. */
     private RectF location;
@@ -56,7 +84,17 @@ public interface Detector {
         final String id, final String title, final Float confidence, final RectF location) {
       this.id = id;
       this.title = title;
+      this.hasConfidence = confidence != null;
+      this.confidence = hasConfidence ? confidence : 0.0f;
+      this.location = location;
+    }
+
+    /** Reuses this recognition for another result. */
+    void set(final String id, final String title, final float confidence, final RectF location) {
+      this.id = id;
+      this.title = title;
       this.confidence = confidence;
+      this.hasConfidence = true;
       this.location = location;
     }
 
@@ -68,14 +106,29 @@ public interface Detector {
       return title;
     }
 
-    public Float getConfidence() {
+    /** Returns the confidence of the recognition, or 0 if it has none. */
+    public float getConfidence() {
       return confidence;
     }
 
+    /** Returns a copy of the location. Use {@link #getLocation(RectF)} to avoid allocating. */
     public RectF getLocation() {
       return new RectF(location);
     }
 
+    /**
+     * Copies the location into a rectangle.
+     *
+     * @return false, leaving the rectangle unchanged, if the recognition has no location.
+     */
+    public boolean getLocation(RectF out) {
+      if (location == null) {
+        return false;
+      }
+      out.set(location);
+      return true;
+    }
+
     public void setLocation(RectF location) {
       this.location = location;
     }
@@ -91,7 +144,7 @@ public interface Detector {
         resultString += title + " ";
       }
 
-      if (confidence != null) {
+      if (hasConfidence) {
         resultString += String.format("(%.1f%%) ", confidence * 100.0f);
       }
 
@@ -0,0 +1,693 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Detector that runs consecutive inputs on a pool of member detectors, each with its own
+ * interpreter and buffers, so that several frames are detected at once rather than one frame with
+ * more interpreter threads.
+ *
+ * <p>Every member has a worker thread that detects one input at a time. Inputs are dispatched to
+ * the members in turn or to the member with the fewest pending inputs, and their results are
+ * delivered in the order the inputs were submitted, whichever member finishes first.
+ *
+ * <p>Reconfiguring the pool replaces one member at a time: the replacement is created while the old
+ * member keeps detecting, and swapped in between two of its inputs, so detection never stops. If a
+ * replacement cannot be created, the members already replaced are put back with their previous
+ * options.
+ */
+public final class DetectorPool implements Detector {
+  private static final String TAG = "DetectorPool";
+  // Weight of the newest sample in moving averages.
+  private static final double AVERAGE_WEIGHT = 0.1;
+
+  /** How inputs are assigned to members. */
+  public enum Dispatch {
+    /** Members take turns, which suits members of equal speed. */
+    ROUND_ROBIN,
+    /** The member with the fewest pending inputs, which adapts to members that slow down. */
+    LEAST_LOADED
+  }
+
+  /** Interpreter options of the members. */
+  public static final class MemberOptions {
+    public final int numThreads;
+    public final boolean useXnnpack;
+    public final boolean useNNAPI;
+
+    public MemberOptions(int numThreads, boolean useXnnpack, boolean useNNAPI) {
+      this.numThreads = numThreads;
+      this.useXnnpack = useXnnpack;
+      this.useNNAPI = useNNAPI;
+    }
+
+    public MemberOptions withNumThreads(int numThreads) {
+      return new MemberOptions(numThreads, useXnnpack, useNNAPI);
+    }
+
+    public MemberOptions withXnnpack(boolean useXnnpack) {
+      return new MemberOptions(numThreads, useXnnpack, useNNAPI);
+    }
+
+    public MemberOptions withNNAPI(boolean useNNAPI) {
+      return new MemberOptions(numThreads, useXnnpack, useNNAPI);
+    }
+  }
+
+  /** Creates members, each with its own interpreter and buffers. */
+  public interface Factory {
+    Detector create(MemberOptions options) throws IOException;
+  }
+
+  /**
+   * Receives the results of inputs, one at a time and in the order they were submitted, on a worker
+   * thread of the pool. It must not wait for other inputs of the pool.
+   */
+  public interface Callback<T> {
+    void onResults(T tag, List<Recognition> results);
+  }
+
+  private final Factory factory;
+  private final Dispatch dispatch;
+  private final Member[] members;
+
+  // Guards the queues of the members, the free tasks and the dispatch state.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ArrayDeque<Task> freeTasks = new ArrayDeque<>();
+  private long numSubmitted = 0;
+  private int nextMember = 0;
+  private boolean closed = false;
+
+  // Serializes reconfigurations, which write the options.
+  private final Object reconfigureLock = new Object();
+  // Options of the last reconfiguration of every member.
+  private volatile MemberOptions options;
+
+  // Guards the delivery of results and its metrics. Finished tasks wait in a ring, indexed by
+  // sequence, until the tasks submitted before them are delivered.
+  private final Object deliveryLock = new Object();
+  private Task[] finished = new Task[16];
+  private long nextDelivery = 0;
+  // Whether a thread is running callbacks.
+  private boolean delivering = false;
+  private double averageLatencyNanos = 0;
+  private double averageIntervalNanos = 0;
+  private long lastDeliveryNanos = 0;
+
+  /**
+   * Creates the members and starts their worker threads.
+   *
+   * @param factory Creates the members, now and whenever the pool is reconfigured.
+   * @param size Number of members.
+   * @param options Interpreter options of the members.
+   * @param dispatch How inputs are assigned to members.
+   */
+  public DetectorPool(Factory factory, int size, MemberOptions options, Dispatch dispatch)
+      throws IOException {
+    if (size <= 0) {
+      throw new IllegalArgumentException("The pool needs at least one member: " + size);
+    }
+    this.factory = factory;
+    this.dispatch = dispatch;
+    this.options = options;
+    members = new Member[size];
+    try {
+      for (int i = 0; i < size; i++) {
+        members[i] = new Member(i, factory.create(options), options);
+      }
+    } catch (IOException | RuntimeException e) {
+      for (Member member : members) {
+        if (member != null) {
+          member.detector.close();
+        }
+      }
+      throw e;
+    }
+    for (Member member : members) {
+      member.thread.start();
+    }
+  }
+
+  /** Returns the number of members, which is the number of inputs detected at once. */
+  public int size() {
+    return members.length;
+  }
+
+  /** Returns the options of the last reconfiguration that every member went through. */
+  public MemberOptions getMemberOptions() {
+    return options;
+  }
+
+  /** Returns the number of inputs that are submitted but not detected yet. */
+  public int getPendingCount() {
+    lock.lock();
+    try {
+      int count = 0;
+      for (Member member : members) {
+        count += member.load;
+      }
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Queues an input for detection, without waiting for its results. The input must not be modified
+   * until its results are delivered.
+   *
+   * @param tag Passed to the callback along with the results, to identify the input.
+   */
+  public <T> void submit(ByteBuffer input, T tag, Callback<? super T> callback) {
+    enqueue(input, null, 0.0f, null, tag, callback);
+  }
+
+  /**
+   * Queues an input for detection into the batch, like {@link #detect}, without waiting for its
+   * results. The results passed to the callback are the recognitions of the batch.
+   */
+  public <T> void submit(
+      ByteBuffer input,
+      float minimumConfidence,
+      DetectionBatch batch,
+      T tag,
+      Callback<? super T> callback) {
+    enqueue(input, null, minimumConfidence, batch, tag, callback);
+  }
+
+  /** Detects the bitmap on a member, after the inputs submitted before it. */
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    final PendingResult result = new PendingResult();
+    enqueue(null, bitmap, 0.0f, null, null, result);
+    return result.await();
+  }
+
+  /** Detects the input on a member, after the inputs submitted before it. */
+  @Override
+  public List<Recognition> recognizeImage(final ByteBuffer input) {
+    final PendingResult result = new PendingResult();
+    enqueue(input, null, 0.0f, null, null, result);
+    return result.await();
+  }
+
+  /** Detects the input into the batch on a member, after the inputs submitted before it. */
+  @Override
+  public void detect(
+      final ByteBuffer input, final float minimumConfidence, final DetectionBatch batch) {
+    final PendingResult result = new PendingResult();
+    enqueue(input, null, minimumConfidence, batch, null, result);
+    result.await();
+  }
+
+  @Override
+  public YuvPreprocessor createPreprocessor(
+      int frameWidth, int frameHeight, int rotation, boolean maintainAspectRatio) {
+    lock.lock();
+    try {
+      // Members only differ by their interpreter options, which preprocessors do not depend on.
+      return members[0].detector.createPreprocessor(
+          frameWidth, frameHeight, rotation, maintainAspectRatio);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void enableStatLogging(final boolean logStats) {}
+
+  /** Returns the configuration, throughput and latency of the pool, and the inputs per member. */
+  @Override
+  public String getStatString() {
+    final StringBuilder builder = new StringBuilder();
+    lock.lock();
+    try {
+      final MemberOptions first = members[0].options;
+      boolean uniform = true;
+      for (Member member : members) {
+        uniform &= member.options == first;
+      }
+      if (uniform) {
+        builder.append(members.length).append(" x ").append(describe(first));
+      } else {
+        // Only left after a reconfiguration that could not put members back.
+        for (Member member : members) {
+          builder.append(member.index == 0 ? "" : " | ").append(describe(member.options));
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    builder.append(", ").append(dispatch);
+    synchronized (deliveryLock) {
+      builder.append(
+          String.format(
+              Locale.US,
+              ": %.1f frames/s, %.1f ms/frame",
+              averageIntervalNanos > 0 ? 1e9 / averageIntervalNanos : 0,
+              averageLatencyNanos / 1e6));
+    }
+    builder.append(", frames per member");
+    lock.lock();
+    try {
+      for (Member member : members) {
+        builder.append(' ').append(member.processedCount);
+      }
+    } finally {
+      lock.unlock();
+    }
+    return builder.toString();
+  }
+
+  /** Detects the inputs already submitted, then closes the members. */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      for (Member member : members) {
+        member.workAvailable.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+    boolean interrupted = false;
+    for (Member member : members) {
+      while (member.thread.isAlive()) {
+        try {
+          member.thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void setNumThreads(int numThreads) {
+    synchronized (reconfigureLock) {
+      reconfigure(options.withNumThreads(numThreads));
+    }
+  }
+
+  @Override
+  public void setUseNNAPI(boolean isChecked) {
+    synchronized (reconfigureLock) {
+      reconfigure(options.withNNAPI(isChecked));
+    }
+  }
+
+  public void setUseXnnpack(boolean isChecked) {
+    synchronized (reconfigureLock) {
+      reconfigure(options.withXnnpack(isChecked));
+    }
+  }
+
+  /**
+   * Replaces the members with ones of the given options, one member at a time, on the calling
+   * thread. Each replacement is swapped in once its member finishes its current input, so that at
+   * most one extra interpreter exists at a time.
+   *
+   * @throws RuntimeException if a replacement cannot be created. The members replaced before it are
+   *     put back with their previous options, and the pool keeps detecting.
+   */
+  public void reconfigure(MemberOptions newOptions) {
+    synchronized (reconfigureLock) {
+      final MemberOptions oldOptions = options;
+      for (int i = 0; i < members.length; i++) {
+        final Detector replacement;
+        try {
+          replacement = create(newOptions);
+        } catch (RuntimeException e) {
+          restore(i, oldOptions);
+          throw e;
+        }
+        if (!swap(members[i], replacement, newOptions)) {
+          return;
+        }
+      }
+      options = newOptions;
+    }
+  }
+
+  private Detector create(MemberOptions memberOptions) {
+    try {
+      return factory.create(memberOptions);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to create a detector.", e);
+    }
+  }
+
+  // Puts the first members back with the given options, after a failed reconfiguration. Members
+  // that cannot be put back keep their new options.
+  private void restore(int numMembers, MemberOptions memberOptions) {
+    for (int i = 0; i < numMembers; i++) {
+      final Detector replacement;
+      try {
+        replacement = create(memberOptions);
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Failed to restore member " + i, e);
+        continue;
+      }
+      if (!swap(members[i], replacement, memberOptions)) {
+        return;
+      }
+    }
+  }
+
+  // Swaps the replacement in once the member finishes its current input. Returns false, closing
+  // the replacement, if the pool is closed.
+  private boolean swap(Member member, Detector replacement, MemberOptions replacementOptions) {
+    lock.lock();
+    try {
+      if (!closed) {
+        member.replacement = replacement;
+        member.workAvailable.signal();
+        while (member.replacement != null) {
+          member.swapped.awaitUninterruptibly();
+        }
+        member.options = replacementOptions;
+        return true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    replacement.close();
+    return false;
+  }
+
+  private void enqueue(
+      ByteBuffer input,
+      Bitmap bitmap,
+      float minimumConfidence,
+      DetectionBatch batch,
+      Object tag,
+      Callback<?> callback) {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("The detector pool is closed.");
+      }
+      Task task = freeTasks.poll();
+      if (task == null) {
+        task = new Task();
+      }
+      task.sequence = numSubmitted++;
+      task.submitNanos = System.nanoTime();
+      task.input = input;
+      task.bitmap = bitmap;
+      task.minimumConfidence = minimumConfidence;
+      task.batch = batch;
+      task.tag = tag;
+      task.callback = callback;
+      final Member member = chooseMember();
+      member.tasks.add(task);
+      member.load++;
+      member.workAvailable.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Called with the lock held.
+  private Member chooseMember() {
+    Member chosen = members[nextMember];
+    if (dispatch == Dispatch.LEAST_LOADED) {
+      // Scans from the next member in turn, so that idle members take turns too.
+      for (int i = 1; i < members.length; i++) {
+        final Member member = members[(nextMember + i) % members.length];
+        if (member.load < chosen.load) {
+          chosen = member;
+        }
+      }
+    }
+    nextMember = (chosen.index + 1) % members.length;
+    return chosen;
+  }
+
+  // Delivers the results of the task once every task submitted before it is delivered, along with
+  // the finished tasks submitted after it. One thread delivers at a time, so callbacks run in
+  // order, but without the delivery lock held, so a slow callback does not block other members.
+  @SuppressWarnings("unchecked")
+  private void deliver(Task task) {
+    Task next;
+    synchronized (deliveryLock) {
+      if (task.sequence - nextDelivery >= finished.length) {
+        growFinished(task.sequence);
+      }
+      finished[(int) task.sequence & (finished.length - 1)] = task;
+      if (delivering) {
+        // The delivering thread picks the task up once the tasks before it are delivered.
+        return;
+      }
+      next = takeNext();
+      if (next == null) {
+        return;
+      }
+      delivering = true;
+    }
+    try {
+      while (next != null) {
+        try {
+          ((Callback<Object>) next.callback).onResults(next.tag, next.results);
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Failed to deliver the results of input " + next.sequence, e);
+        }
+        recycle(next);
+        synchronized (deliveryLock) {
+          next = takeNext();
+          if (next == null) {
+            delivering = false;
+          }
+        }
+      }
+    } finally {
+      if (next != null) {
+        synchronized (deliveryLock) {
+          delivering = false;
+        }
+      }
+    }
+  }
+
+  // Called with the delivery lock held. Takes the next task to deliver out of the ring, or returns
+  // null if it is not finished yet.
+  private Task takeNext() {
+    // The ring only holds sequences from nextDelivery on, so a task in its slot is the next one.
+    final int slot = (int) nextDelivery & (finished.length - 1);
+    final Task next = finished[slot];
+    if (next == null) {
+      return null;
+    }
+    finished[slot] = null;
+    nextDelivery++;
+    final long nowNanos = System.nanoTime();
+    averageLatencyNanos = average(averageLatencyNanos, nowNanos - next.submitNanos);
+    if (lastDeliveryNanos != 0) {
+      averageIntervalNanos = average(averageIntervalNanos, nowNanos - lastDeliveryNanos);
+    }
+    lastDeliveryNanos = nowNanos;
+    return next;
+  }
+
+  // Called with the delivery lock held.
+  private void growFinished(long sequence) {
+    int length = finished.length;
+    while (sequence - nextDelivery >= length) {
+      length <<= 1;
+    }
+    final Task[] grown = new Task[length];
+    for (Task task : finished) {
+      if (task != null) {
+        grown[(int) task.sequence & (length - 1)] = task;
+      }
+    }
+    finished = grown;
+  }
+
+  private void recycle(Task task) {
+    task.input = null;
+    task.bitmap = null;
+    task.batch = null;
+    task.tag = null;
+    task.callback = null;
+    task.results = null;
+    lock.lock();
+    try {
+      freeTasks.add(task);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static String describe(MemberOptions memberOptions) {
+    return String.format(
+        Locale.US,
+        "%d threads%s%s",
+        memberOptions.numThreads,
+        memberOptions.useXnnpack ? ", XNNPACK" : "",
+        memberOptions.useNNAPI ? ", NNAPI" : "");
+  }
+
+  private static double average(double average, long sample) {
+    return average == 0 ? sample : average + AVERAGE_WEIGHT * (sample - average);
+  }
+
+  /** Member detector and the worker thread that runs its inputs. */
+  private final class Member implements Runnable {
+    final int index;
+    final Thread thread;
+    final Condition workAvailable = lock.newCondition();
+    final Condition swapped = lock.newCondition();
+
+    // Guarded by the lock.
+    final ArrayDeque<Task> tasks = new ArrayDeque<>();
+    // Queued and running inputs.
+    int load = 0;
+    long processedCount = 0;
+    Detector replacement;
+    // Options of the detector, or of the replacement once it is swapped in.
+    MemberOptions options;
+    // Only written by the worker thread, with the lock held.
+    Detector detector;
+
+    Member(int index, Detector detector, MemberOptions options) {
+      this.index = index;
+      this.detector = detector;
+      this.options = options;
+      thread = new Thread(this, "detector-" + index);
+      // A pool that is never closed must not keep the process alive.
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        final Task task;
+        Detector retired = null;
+        lock.lock();
+        try {
+          while (tasks.isEmpty() && replacement == null && !closed) {
+            workAvailable.awaitUninterruptibly();
+          }
+          if (replacement != null) {
+            retired = detector;
+            detector = replacement;
+            replacement = null;
+            swapped.signalAll();
+          }
+          task = tasks.poll();
+        } finally {
+          lock.unlock();
+        }
+        // The worker is between inputs, so the retired detector is no longer in use.
+        if (retired != null) {
+          retired.close();
+        }
+        if (task == null) {
+          if (retired == null) {
+            // Closed, and every queued input is detected.
+            break;
+          }
+          continue;
+        }
+
+        try {
+          if (task.batch != null) {
+            detector.detect(task.input, task.minimumConfidence, task.batch);
+            task.results = task.batch.getRecognitions();
+          } else if (task.bitmap != null) {
+            task.results = detector.recognizeImage(task.bitmap);
+          } else {
+            task.results = detector.recognizeImage(task.input);
+          }
+        } catch (Throwable t) {
+          // Errors are caught too, since a worker that dies without delivering its input would
+          // hold back the results of every later input.
+          Log.e(TAG, "Detection failed on member " + index, t);
+          if (task.batch != null) {
+            task.batch.clear();
+          }
+          task.results = Collections.emptyList();
+        }
+        lock.lock();
+        try {
+          load--;
+          processedCount++;
+        } finally {
+          lock.unlock();
+        }
+        deliver(task);
+      }
+      detector.close();
+    }
+  }
+
+  // Input in flight, recycled once its results are delivered.
+  private static final class Task {
+    long sequence;
+    long submitNanos;
+    ByteBuffer input;
+    Bitmap bitmap;
+    float minimumConfidence;
+    DetectionBatch batch;
+    Object tag;
+    Callback<?> callback;
+    List<Recognition> results;
+  }
+
+  // Results of a call that waits for them.
+  private static final class PendingResult implements Callback<Object> {
+    private List<Recognition> results;
+    private boolean done = false;
+
+    @Override
+    public synchronized void onResults(Object tag, List<Recognition> results) {
+      this.results = results;
+      done = true;
+      notifyAll();
+    }
+
+    synchronized List<Recognition> await() {
+      boolean interrupted = false;
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return results;
+    }
+  }
+}
@@ -21,7 +21,6 @@ import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.RectF;
 import android.os.Trace;
 import android.util.Log;
 import java.io.BufferedReader;
@@ -84,6 +83,12 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
 
   private ByteBuffer imgData;
 
+  // Inputs and outputs of the interpreter, which are reused from call to call.
+  private final Object[] inputArray = new Object[1];
+  private final Map<Integer, Object> outputMap = new HashMap<>();
+  // Detections of the calls that return recognitions.
+  private final DetectionBatch detections = new DetectionBatch(NUM_DETECTIONS);
+
   private MappedByteBuffer tfLiteModel;
   private Interpreter.Options tfLiteOptions;
   private Interpreter tfLite;
@@ -116,6 +121,34 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
       final int inputSize,
       final boolean isQuantized)
       throws IOException {
+    return create(
+        context,
+        modelFilename,
+        labelFilename,
+        inputSize,
+        isQuantized,
+        new DetectorPool.MemberOptions(
+            NUM_THREADS, /* useXnnpack= */ true, /* useNNAPI= */ false));
+  }
+
+  /**
+   * Initializes a native TensorFlow session with the given interpreter options, such as the ones of
+   * the members of a {@link DetectorPool}.
+   *
+   * @param modelFilename The model file path relative to the assets folder
+   * @param labelFilename The label file path relative to the assets folder
+   * @param inputSize The size of image input
+   * @param isQuantized Boolean representing model is quantized or not
+   * @param memberOptions Thread count and delegates of the interpreter
+   */
+  public static Detector create(
+      final Context context,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final DetectorPool.MemberOptions memberOptions)
+      throws IOException {
     final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
 
     MappedByteBuffer modelFile = loadModelFile(context.getAssets(), modelFilename);
@@ -135,8 +168,9 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
 
     try {
       Interpreter.Options options = new Interpreter.Options();
-      options.setNumThreads(NUM_THREADS);
-      options.setUseXNNPACK(true);
+      options.setNumThreads(memberOptions.numThreads);
+      options.setUseXNNPACK(memberOptions.useXnnpack);
+      options.setUseNNAPI(memberOptions.useNNAPI);
       d.tfLite = new Interpreter(modelFile, options);
       d.tfLiteModel = modelFile;
       d.tfLiteOptions = options;
@@ -160,6 +194,10 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
     d.outputClasses = new float[1][NUM_DETECTIONS];
     d.outputScores = new float[1][NUM_DETECTIONS];
     d.numDetections = new float[1];
+    d.outputMap.put(0, d.outputLocations);
+    d.outputMap.put(1, d.outputClasses);
+    d.outputMap.put(2, d.outputScores);
+    d.outputMap.put(3, d.numDetections);
     return d;
   }
 
@@ -191,26 +229,62 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
     }
     Trace.endSection(); // preprocessBitmap
 
+    runInference(imgData);
+    decode(Float.NEGATIVE_INFINITY, detections);
+    Trace.endSection(); // "recognizeImage"
+    return detections.copyRecognitions();
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final ByteBuffer input) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("recognizeImage");
+    runInference(input);
+    decode(Float.NEGATIVE_INFINITY, detections);
+    Trace.endSection(); // "recognizeImage"
+    return detections.copyRecognitions();
+  }
+
+  /** Runs the model and decodes its outputs without allocating. */
+  @Override
+  public void detect(
+      final ByteBuffer input, final float minimumConfidence, final DetectionBatch batch) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("detect");
+    runInference(input);
+    decode(minimumConfidence, batch);
+    Trace.endSection(); // "detect"
+  }
+
+  @Override
+  public YuvPreprocessor createPreprocessor(
+      int frameWidth, int frameHeight, int rotation, boolean maintainAspectRatio) {
+    return new YuvPreprocessor(
+        frameWidth,
+        frameHeight,
+        inputSize,
+        inputSize,
+        rotation,
+        maintainAspectRatio,
+        isModelQuantized,
+        IMAGE_MEAN,
+        IMAGE_STD);
+  }
+
+  private void runInference(final ByteBuffer input) {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
-    outputLocations = new float[1][NUM_DETECTIONS][4];
-    outputClasses = new float[1][NUM_DETECTIONS];
-    outputScores = new float[1][NUM_DETECTIONS];
-    numDetections = new float[1];
-
-    Object[] inputArray = {imgData};
-    Map<Integer, Object> outputMap = new HashMap<>();
-    outputMap.put(0, outputLocations);
-    outputMap.put(1, outputClasses);
-    outputMap.put(2, outputScores);
-    outputMap.put(3, numDetections);
+    inputArray[0] = input;
     Trace.endSection();
 
     // Run the inference call.
     Trace.beginSection("run");
     tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
     Trace.endSection();
+  }
 
+  /** Decodes the outputs of the last run into the batch, skipping less confident detections. */
+  private void decode(final float minimumConfidence, final DetectionBatch batch) {
     // Show the best detections.
     // after scaling them back to the input size.
     // You need to use the number of detections from the output and not the NUM_DETECTONS variable
@@ -223,21 +297,25 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
             NUM_DETECTIONS,
             (int) numDetections[0]); // cast from float to integer, use min for safety
 
-    final ArrayList<Recognition> recognitions = new ArrayList<>(numDetectionsOutput);
+    batch.clear();
+    batch.ensureCapacity(numDetectionsOutput);
     for (int i = 0; i < numDetectionsOutput; ++i) {
-      final RectF detection =
-          new RectF(
-              outputLocations[0][i][1] * inputSize,
-              outputLocations[0][i][0] * inputSize,
-              outputLocations[0][i][3] * inputSize,
-              outputLocations[0][i][2] * inputSize);
-
-      recognitions.add(
-          new Recognition(
-              "" + i, labels.get((int) outputClasses[0][i]), outputScores[0][i], detection));
+      final float score = outputScores[0][i];
+      if (score < minimumConfidence) {
+        continue;
+      }
+      final int classIndex = (int) outputClasses[0][i];
+      final float[] location = outputLocations[0][i];
+      batch.add(
+          i,
+          location[1] * inputSize,
+          location[0] * inputSize,
+          location[3] * inputSize,
+          location[2] * inputSize,
+          classIndex,
+          labels.get(classIndex),
+          score);
     }
-    Trace.endSection(); // "recognizeImage"
-    return recognitions;
   }
 
   @Override
@@ -17,13 +17,17 @@ package org.tensorflow.lite.examples.detection.tflite;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.os.Trace;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.util.ArrayList;
 import java.util.List;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.support.common.FileUtil;
 import org.tensorflow.lite.support.image.TensorImage;
+import org.tensorflow.lite.support.label.Category;
+import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 import org.tensorflow.lite.task.vision.detector.Detection;
 import org.tensorflow.lite.task.vision.detector.ObjectDetector;
 import org.tensorflow.lite.task.vision.detector.ObjectDetector.ObjectDetectorOptions;
@@ -51,8 +55,23 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
   /** Only return this many results. */
   private static final int NUM_DETECTIONS = 10;
 
+  private static final String NNAPI_UNSUPPORTED_MESSAGE =
+      "Manipulating the hardware accelerators is not allowed in the Task"
+          + " library currently. Only CPU is allowed.";
+
   private final MappedByteBuffer modelBuffer;
 
+  /** Size of the images made by preprocessors, which the ObjectDetector still normalizes. */
+  private final int inputSize;
+
+  /** Reused wrappers of preprocessed inputs. */
+  private final TensorBuffer inputBuffer;
+
+  private final TensorImage inputImage = new TensorImage(DataType.UINT8);
+
+  /** Detections of the calls that return recognitions. */
+  private final DetectionBatch detections = new DetectionBatch(NUM_DETECTIONS);
+
   /** An instance of the driver class to run model inference with Tensorflow Lite. */
   private ObjectDetector objectDetector;
 
@@ -62,8 +81,8 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
   /**
    * Initializes a native TensorFlow session for classifying images.
    *
-   * <p>{@code labelFilename}, {@code inputSize}, and {@code isQuantized}, are NOT required, but to
-   * keep consistency with the implementation using the TFLite Interpreter Java API. See <a
+   * <p>{@code labelFilename} and {@code isQuantized} are NOT required, but to keep consistency
+   * with the implementation using the TFLite Interpreter Java API. See <a
    * href="https://github.com/tensorflow/examples/blob/master/lite/examples/object_detection/android/lib_interpreter/src/main/java/org/tensorflow/lite/examples/detection/tflite/TFLiteObjectDetectionAPIModel.java">lib_interpreter</a>.
    *
    * @param modelFilename The model file path relative to the assets folder
@@ -78,12 +97,45 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
       final int inputSize,
       final boolean isQuantized)
       throws IOException {
-    return new TFLiteObjectDetectionAPIModel(context, modelFilename);
+    return new TFLiteObjectDetectionAPIModel(
+        context, modelFilename, inputSize, ObjectDetectorOptions.builder());
   }
 
-  private TFLiteObjectDetectionAPIModel(Context context, String modelFilename) throws IOException {
+  /**
+   * Initializes a native TensorFlow session with the given thread count, such as the one of the
+   * members of a {@link DetectorPool}. The Task library picks its own CPU kernels, so {@code
+   * useXnnpack} is ignored, and it does not support NNAPI.
+   *
+   * @param memberOptions Thread count and delegates of the ObjectDetector
+   */
+  public static Detector create(
+      final Context context,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final DetectorPool.MemberOptions memberOptions)
+      throws IOException {
+    if (memberOptions.useNNAPI) {
+      throw new UnsupportedOperationException(NNAPI_UNSUPPORTED_MESSAGE);
+    }
+    return new TFLiteObjectDetectionAPIModel(
+        context,
+        modelFilename,
+        inputSize,
+        ObjectDetectorOptions.builder().setNumThreads(memberOptions.numThreads));
+  }
+
+  private TFLiteObjectDetectionAPIModel(
+      Context context,
+      String modelFilename,
+      int inputSize,
+      ObjectDetectorOptions.Builder optionsBuilder)
+      throws IOException {
     modelBuffer = FileUtil.loadMappedFile(context, modelFilename);
-    optionsBuilder = ObjectDetectorOptions.builder().setMaxResults(NUM_DETECTIONS);
+    this.inputSize = inputSize;
+    inputBuffer = TensorBuffer.createFixedSize(new int[] {inputSize, inputSize, 3}, DataType.UINT8);
+    this.optionsBuilder = optionsBuilder.setMaxResults(NUM_DETECTIONS);
     objectDetector = ObjectDetector.createFromBufferAndOptions(modelBuffer, optionsBuilder.build());
   }
 
@@ -92,23 +144,80 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
     List<Detection> results = objectDetector.detect(TensorImage.fromBitmap(bitmap));
+    fill(results, Float.NEGATIVE_INFINITY, detections);
+    Trace.endSection(); // "recognizeImage"
+    return detections.copyRecognitions();
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final ByteBuffer input) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("recognizeImage");
+    inputBuffer.loadBuffer(input);
+    inputImage.load(inputBuffer);
+    List<Detection> results = objectDetector.detect(inputImage);
+    fill(results, Float.NEGATIVE_INFINITY, detections);
+    Trace.endSection(); // "recognizeImage"
+    return detections.copyRecognitions();
+  }
 
-    // Converts a list of {@link Detection} objects into a list of {@link Recognition} objects
-    // to match the interface of other inference method, such as using the <a
+  /**
+   * Fills the batch without allocating on this side. The ObjectDetector still allocates its
+   * results.
+   */
+  @Override
+  public void detect(
+      final ByteBuffer input, final float minimumConfidence, final DetectionBatch batch) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("detect");
+    inputBuffer.loadBuffer(input);
+    inputImage.load(inputBuffer);
+    fill(objectDetector.detect(inputImage), minimumConfidence, batch);
+    Trace.endSection(); // "detect"
+  }
+
+  /**
+   * Creates a preprocessor of RGB images of the model input size. The ObjectDetector normalizes
+   * them as the model expects, so they are always made of bytes.
+   */
+  @Override
+  public YuvPreprocessor createPreprocessor(
+      int frameWidth, int frameHeight, int rotation, boolean maintainAspectRatio) {
+    return new YuvPreprocessor(
+        frameWidth,
+        frameHeight,
+        inputSize,
+        inputSize,
+        rotation,
+        maintainAspectRatio,
+        /* isQuantized= */ true,
+        /* mean= */ 0.0f,
+        /* std= */ 1.0f);
+  }
+
+  private static void fill(List<Detection> results, float minimumConfidence, DetectionBatch batch) {
+    // Converts a list of {@link Detection} objects into detections of the batch to match the
+    // interface of other inference method, such as using the <a
     // href="https://github.com/tensorflow/examples/tree/master/lite/examples/object_detection/android/lib_interpreter">TFLite
-    // Java API.</a>.
-    final ArrayList<Recognition> recognitions = new ArrayList<>();
-    int cnt = 0;
-    for (Detection detection : results) {
-      recognitions.add(
-          new Recognition(
-              "" + cnt++,
-              detection.getCategories().get(0).getLabel(),
-              detection.getCategories().get(0).getScore(),
-              detection.getBoundingBox()));
+    // Java API.</a>. The categories do not have the index of their label, so it is -1.
+    batch.clear();
+    for (int i = 0; i < results.size(); i++) {
+      final Detection detection = results.get(i);
+      final Category category = detection.getCategories().get(0);
+      if (category.getScore() < minimumConfidence) {
+        continue;
+      }
+      final RectF box = detection.getBoundingBox();
+      batch.add(
+          i,
+          box.left,
+          box.top,
+          box.right,
+          box.bottom,
+          /* classIndex= */ -1,
+          category.getLabel(),
+          category.getScore());
     }
-    Trace.endSection(); // "recognizeImage"
-    return recognitions;
   }
 
   @Override
@@ -136,9 +245,7 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
 
   @Override
   public void setUseNNAPI(boolean isChecked) {
-    throw new UnsupportedOperationException(
-        "Manipulating the hardware accelerators is not allowed in the Task"
-            + " library currently. Only CPU is allowed.");
+    throw new UnsupportedOperationException(NNAPI_UNSUPPORTED_MESSAGE);
   }
 
   private void recreateDetector() {
@@ -0,0 +1,244 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converts YUV420 camera frames straight into the input of a detection model.
+ *
+ * <p>Cropping, rotation, resizing, color conversion and normalization are done in a single pass
+ * over the model input, instead of converting the whole frame to ARGB, copying it into a Bitmap,
+ * drawing that into the cropped Bitmap and reading its pixels back. The frame pixel of every input
+ * pixel is looked up in index tables, which are only computed again when the plane layout changes.
+ *
+ * <p>Frames are transformed like {@code ImageUtils.getTransformationMatrix} and sampled like {@code
+ * Canvas.drawBitmap} without filtering, and colors are converted like {@code ImageUtils}, so the
+ * input is the same as the one made from the cropped Bitmap. Input pixels that fall outside of the
+ * frame are black.
+ */
+public final class YuvPreprocessor {
+  // Index of input pixels that fall outside of the frame.
+  private static final int OUTSIDE = -1;
+  // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
+  // are normalized to eight bits.
+  private static final int MAX_CHANNEL_VALUE = 262143;
+
+  private final int frameWidth;
+  private final int frameHeight;
+  private final int inputWidth;
+  private final int inputHeight;
+  private final int rotation;
+  private final boolean maintainAspectRatio;
+  private final boolean isQuantized;
+
+  // Normalized value of every channel value, for float models.
+  private final float[] normalizedValues = new float[256];
+  // Input pixels, RGB interleaved, before they are copied into the input buffer at once.
+  private final byte[] quantizedPixels;
+  private final float[] floatPixels;
+
+  // Index tables of the plane layout they were computed for, per input pixel.
+  private int[] yIndices;
+  private int[] uvIndices;
+  private int yRowStride = -1;
+  private int uvRowStride = -1;
+  private int uvPixelStride = -1;
+
+  /**
+   * @param frameWidth Width of the camera frames.
+   * @param frameHeight Height of the camera frames.
+   * @param inputWidth Width of the model input.
+   * @param inputHeight Height of the model input.
+   * @param rotation Amount of rotation to apply to the frames, in degrees.
+   * @param maintainAspectRatio If true, scales both axes alike and crops the frames if necessary.
+   * @param isQuantized Whether the input holds bytes rather than normalized floats.
+   * @param mean Mean subtracted from channel values of float inputs.
+   * @param std Standard deviation that channel values of float inputs are divided by.
+   */
+  public YuvPreprocessor(
+      int frameWidth,
+      int frameHeight,
+      int inputWidth,
+      int inputHeight,
+      int rotation,
+      boolean maintainAspectRatio,
+      boolean isQuantized,
+      float mean,
+      float std) {
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+    this.inputWidth = inputWidth;
+    this.inputHeight = inputHeight;
+    this.rotation = rotation;
+    this.maintainAspectRatio = maintainAspectRatio;
+    this.isQuantized = isQuantized;
+    for (int value = 0; value < normalizedValues.length; value++) {
+      normalizedValues[value] = (value - mean) / std;
+    }
+    int inputLength = inputWidth * inputHeight * 3;
+    quantizedPixels = isQuantized ? new byte[inputLength] : null;
+    floatPixels = isQuantized ? null : new float[inputLength];
+  }
+
+  public int getInputWidth() {
+    return inputWidth;
+  }
+
+  public int getInputHeight() {
+    return inputHeight;
+  }
+
+  /** Allocates a buffer that can hold the model input. */
+  public ByteBuffer allocateInput() {
+    int numBytesPerChannel = isQuantized ? 1 : 4;
+    return ByteBuffer.allocateDirect(inputWidth * inputHeight * 3 * numBytesPerChannel)
+        .order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Converts a frame with separate planes, as delivered by the Camera2 API.
+   *
+   * @param input Buffer from {@link #allocateInput}, which is rewound afterwards.
+   */
+  public void convert(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      ByteBuffer input) {
+    updateIndexTables(yRowStride, uvRowStride, uvPixelStride);
+    convert(yData, uData, 0, vData, 0, input);
+  }
+
+  /**
+   * Converts an NV21 frame, as delivered by the legacy camera API.
+   *
+   * @param input Buffer from {@link #allocateInput}, which is rewound afterwards.
+   */
+  public void convertNv21(byte[] data, ByteBuffer input) {
+    // Interleaved V and U samples follow the luminance plane.
+    updateIndexTables(frameWidth, frameWidth, 2);
+    int frameSize = frameWidth * frameHeight;
+    convert(data, data, frameSize + 1, data, frameSize, input);
+  }
+
+  private void convert(
+      byte[] yData, byte[] uData, int uOffset, byte[] vData, int vOffset, ByteBuffer input) {
+    final int[] yIndices = this.yIndices;
+    final int[] uvIndices = this.uvIndices;
+    for (int i = 0, p = 0; i < yIndices.length; i++, p += 3) {
+      int r = 0;
+      int g = 0;
+      int b = 0;
+      int yIndex = yIndices[i];
+      if (yIndex != OUTSIDE) {
+        int y = (0xff & yData[yIndex]) - 16;
+        int u = (0xff & uData[uvIndices[i] + uOffset]) - 128;
+        int v = (0xff & vData[uvIndices[i] + vOffset]) - 128;
+        int y1192 = 1192 * (y < 0 ? 0 : y);
+        r = clamp(y1192 + 1634 * v) >> 10;
+        g = clamp(y1192 - 833 * v - 400 * u) >> 10;
+        b = clamp(y1192 + 2066 * u) >> 10;
+      }
+      if (isQuantized) {
+        quantizedPixels[p] = (byte) r;
+        quantizedPixels[p + 1] = (byte) g;
+        quantizedPixels[p + 2] = (byte) b;
+      } else {
+        floatPixels[p] = normalizedValues[r];
+        floatPixels[p + 1] = normalizedValues[g];
+        floatPixels[p + 2] = normalizedValues[b];
+      }
+    }
+
+    input.rewind();
+    if (isQuantized) {
+      input.put(quantizedPixels);
+    } else {
+      input.asFloatBuffer().put(floatPixels);
+    }
+    input.rewind();
+  }
+
+  private static int clamp(int value) {
+    return value > MAX_CHANNEL_VALUE ? MAX_CHANNEL_VALUE : (value < 0 ? 0 : value);
+  }
+
+  private void updateIndexTables(int yRowStride, int uvRowStride, int uvPixelStride) {
+    if (yIndices != null
+        && yRowStride == this.yRowStride
+        && uvRowStride == this.uvRowStride
+        && uvPixelStride == this.uvPixelStride) {
+      return;
+    }
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+    yIndices = new int[inputWidth * inputHeight];
+    uvIndices = new int[inputWidth * inputHeight];
+
+    // Inverse of the transformation from the frame into the input.
+    final boolean transpose = (Math.abs(rotation) + 90) % 180 == 0;
+    final int inWidth = transpose ? frameHeight : frameWidth;
+    final int inHeight = transpose ? frameWidth : frameHeight;
+    float scaleX = inputWidth / (float) inWidth;
+    float scaleY = inputHeight / (float) inHeight;
+    if (maintainAspectRatio) {
+      scaleX = scaleY = Math.max(scaleX, scaleY);
+    }
+    double radians = Math.toRadians(rotation);
+    double cos = Math.cos(radians);
+    double sin = Math.sin(radians);
+    if (rotation % 90 == 0) {
+      // Avoid rounding errors that would shift whole rows or columns.
+      cos = Math.rint(cos);
+      sin = Math.rint(sin);
+    }
+
+    for (int inputY = 0, i = 0; inputY < inputHeight; inputY++) {
+      for (int inputX = 0; inputX < inputWidth; inputX++, i++) {
+        // Pixels are sampled at their centers.
+        double x = inputX + 0.5;
+        double y = inputY + 0.5;
+        if (rotation != 0) {
+          x -= inputWidth / 2.0;
+          y -= inputHeight / 2.0;
+        }
+        x /= scaleX;
+        y /= scaleY;
+        if (rotation != 0) {
+          double rotatedX = x * cos + y * sin;
+          double rotatedY = y * cos - x * sin;
+          x = rotatedX + frameWidth / 2.0;
+          y = rotatedY + frameHeight / 2.0;
+        }
+        int frameX = (int) Math.floor(x);
+        int frameY = (int) Math.floor(y);
+        if (frameX < 0 || frameX >= frameWidth || frameY < 0 || frameY >= frameHeight) {
+          yIndices[i] = OUTSIDE;
+          uvIndices[i] = OUTSIDE;
+        } else {
+          yIndices[i] = frameY * yRowStride + frameX;
+          uvIndices[i] = (frameY >> 1) * uvRowStride + (frameX >> 1) * uvPixelStride;
+        }
+      }
+    }
+  }
+}
@@ -32,6 +32,10 @@ public final class Config {
   private static final int DEFAULT_OUTPUT_IDS_INDEX = 0;
   private static final int DEFAULT_OUTPUT_SCORES_INDEX = 1;
   private static final int DEFAULT_FAVORITE_LIST_SIZE = 100;
+  private static final int DEFAULT_RETRIEVAL_SIZE = 200;
+  private static final int DEFAULT_RETRIEVAL_PROBES = 0;
+  private static final float DEFAULT_MODEL_SCORE_WEIGHT = 1.0f;
+  private static final int DEFAULT_RESULT_CACHE_SIZE = 64;
 
   public static final String FEATURE_MOVIE = "movieFeature";
   public static final String FEATURE_GENRE = "genreFeature";
@@ -74,6 +78,32 @@ public final class Config {
   /** The number of favorite movies for users to choose from. */
   public int favoriteListSize = DEFAULT_FAVORITE_LIST_SIZE;
 
+  /**
+   * Path to the item embeddings. Retrieve candidates from them if it is not null, which is opt-in.
+   * The embeddings are usually the weights of the label embedding layer of the trained model, one
+   * row per movie id, written by {@code ArrayEmbeddingStore.write}.
+   */
+  public String itemEmbeddings = null;
+  /** Number of candidates retrieved from the item embeddings. */
+  public int retrievalSize = DEFAULT_RETRIEVAL_SIZE;
+  /**
+   * Number of embedding index lists searched for candidates, or 0 for about the square root of the
+   * number of lists. More lists trade latency for recall: search time grows linearly with them, and
+   * while embeddings that cluster well keep their recall with the default, embeddings without
+   * clusters need about half of the lists for a recall around 0.95.
+   */
+  public int retrievalProbes = DEFAULT_RETRIEVAL_PROBES;
+  /**
+   * Weight of the model in the score of retrieved candidates. The model score goes from 1 for the
+   * first output of the model down to 0 for candidates the model does not output.
+   */
+  public float modelScoreWeight = DEFAULT_MODEL_SCORE_WEIGHT;
+
+  /** Number of model outputs cached by their inputs, zero to disable the cache. */
+  public int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+  /** Whether the cached model outputs are saved across app restarts. */
+  public boolean persistResultCache = false;
+
   public Config() {}
 
   public boolean validate() {
@@ -110,4 +140,8 @@ public final class Config {
   public boolean useGenres() {
     return genreList != null;
   }
+
+  public boolean useRetrieval() {
+    return itemEmbeddings != null;
+  }
 }
@@ -24,9 +24,9 @@ import android.widget.Toast;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 import org.tensorflow.lite.examples.recommendation.RecommendationClient.Result;
 import org.tensorflow.lite.examples.recommendation.data.FileUtil;
+import org.tensorflow.lite.examples.recommendation.data.MovieCatalog;
 import org.tensorflow.lite.examples.recommendation.data.MovieItem;
 
 /** The main activity to provide interactions with users. */
@@ -38,8 +38,8 @@ public class MainActivity extends AppCompatActivity
 
   private Config config;
   private RecommendationClient client;
-  private final List<MovieItem> allMovies = new ArrayList<>();
-  private final List<MovieItem> selectedMovies = new ArrayList<>();
+  private MovieCatalog allMovies = MovieCatalog.EMPTY;
+  private RecommendationSession session;
 
   private Handler handler;
   private MovieFragment movieFragment;
@@ -60,13 +60,13 @@ public class MainActivity extends AppCompatActivity
 
     // Load movies list.
     try {
-      allMovies.clear();
-      allMovies.addAll(FileUtil.loadMovieList(getAssets(), config.movieList));
+      allMovies = FileUtil.loadMovieCatalog(this, config.movieList);
     } catch (IOException ex) {
       Log.e(TAG, String.format("Error occurs when loading movies %s: %s.", config.movieList, ex));
     }
 
     client = new RecommendationClient(this, config);
+    session = client.newSession();
     handler = new Handler();
     movieFragment =
         (MovieFragment) getSupportFragmentManager().findFragmentById(R.id.movie_fragment);
@@ -75,15 +75,13 @@ public class MainActivity extends AppCompatActivity
             getSupportFragmentManager().findFragmentById(R.id.recommendation_fragment);
   }
 
-  @SuppressWarnings("AndroidJdkLibsChecker")
   @Override
   protected void onStart() {
     super.onStart();
     Log.v(TAG, "onStart");
 
     // Add favorite movies to the fragment.
-    List<MovieItem> favoriteMovies =
-        allMovies.stream().limit(config.favoriteListSize).collect(Collectors.toList());
+    List<MovieItem> favoriteMovies = allMovies.getFirst(config.favoriteListSize);
     movieFragment.setMovies(favoriteMovies);
 
     handler.post(
@@ -102,13 +100,13 @@ public class MainActivity extends AppCompatActivity
         });
   }
 
-  /** Sends selected movie list and get recommendations. */
-  private void recommend(final List<MovieItem> movies) {
+  /** Sends selected movies and get recommendations. */
+  private void recommend() {
     handler.post(
         () -> {
           // Run inference with TF Lite.
           Log.d(TAG, "Run inference with TFLite model.");
-          List<Result> recommendations = client.recommend(movies);
+          List<Result> recommendations = client.recommend(session);
 
           // Show result on screen
           showResult(recommendations);
@@ -124,24 +122,22 @@ public class MainActivity extends AppCompatActivity
   @Override
   public void onItemSelectionChange(MovieItem item) {
     if (item.selected) {
-      if (!selectedMovies.contains(item)) {
-        selectedMovies.add(item);
-      }
+      session.add(item);
     } else {
-      selectedMovies.remove(item);
+      session.remove(item);
     }
 
-    if (!selectedMovies.isEmpty()) {
+    if (!session.isEmpty()) {
       // Log selected movies.
       StringBuilder sb = new StringBuilder();
       sb.append("Select movies in the following order:\n");
-      for (MovieItem movie : selectedMovies) {
+      for (MovieItem movie : session.getSelectedMovies()) {
         sb.append(String.format("  movie: %s\n", movie));
       }
       Log.d(TAG, sb.toString());
 
       // Recommend based on selected movies.
-      recommend(selectedMovies);
+      recommend();
     } else {
       // Clear result list.
       showResult(new ArrayList<Result>());
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Least recently used cache of model outputs, keyed by the model inputs.
+ *
+ * <p>The key is an order-aware 64-bit hash of the id and genre inputs, and entries keep a copy of
+ * the inputs, so that hash collisions are told apart. Outputs are copied in and out of caller
+ * arrays, so hits allocate nothing. All entries belong to a fingerprint of the model and config:
+ * they are dropped when it changes, and a saved cache is only loaded back for the same fingerprint.
+ * Entries of a saved cache must also have the lengths of the inputs and outputs of the model.
+ */
+public final class RecommendationCache {
+  private static final int MAGIC = 0x43524543; // "CREC"
+  private static final int VERSION = 1;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final int maxEntries;
+  private final int[] inputLengths;
+  private final int outputLength;
+  private final LinkedHashMap<Long, Entry> entries;
+  private long fingerprint = 0;
+
+  private int hitCount = 0;
+  private int missCount = 0;
+  private int evictionCount = 0;
+
+  /**
+   * @param maxEntries number of entries kept, zero to disable the cache.
+   * @param inputLengths length of every model input.
+   * @param outputLength length of the model outputs.
+   */
+  public RecommendationCache(int maxEntries, int[] inputLengths, int outputLength) {
+    this.maxEntries = maxEntries;
+    this.inputLengths = inputLengths.clone();
+    this.outputLength = outputLength;
+    this.entries =
+        new LinkedHashMap<Long, Entry>(16, 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            if (size() > RecommendationCache.this.maxEntries) {
+              evictionCount++;
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /** Fingerprint of the model and the config values that change its outputs or their use. */
+  public static long fingerprint(Config config, long modelKey) {
+    long hash = FNV_OFFSET_BASIS;
+    hash = mix(hash, config.model.hashCode());
+    hash = mix(hash, modelKey);
+    for (Config.Feature feature : config.inputs) {
+      hash = mix(hash, Objects.hashCode(feature.name));
+      hash = mix(hash, feature.index);
+      hash = mix(hash, feature.inputLength);
+    }
+    hash = mix(hash, config.topK);
+    hash = mix(hash, config.outputLength);
+    hash = mix(hash, config.outputIdsIndex);
+    return mix(hash, config.outputScoresIndex);
+  }
+
+  /** Drops all entries if they were made with another fingerprint. */
+  public synchronized void validate(long fingerprint) {
+    if (this.fingerprint != fingerprint) {
+      entries.clear();
+      this.fingerprint = fingerprint;
+    }
+  }
+
+  /**
+   * Copies the cached outputs of the inputs into the output arrays.
+   *
+   * @return false on a miss, in which case the output arrays are left unchanged.
+   */
+  public synchronized boolean get(Object[] inputs, int[] outputIds, float[] outputScores) {
+    Entry entry = maxEntries > 0 ? entries.get(hash(inputs)) : null;
+    if (entry == null || !entry.matches(inputs)) {
+      missCount++;
+      return false;
+    }
+    hitCount++;
+    System.arraycopy(entry.outputIds, 0, outputIds, 0, outputIds.length);
+    System.arraycopy(entry.outputScores, 0, outputScores, 0, outputScores.length);
+    return true;
+  }
+
+  /** Caches copies of inputs and their outputs. */
+  public synchronized void put(Object[] inputs, int[] outputIds, float[] outputScores) {
+    if (maxEntries <= 0) {
+      return;
+    }
+    int[][] inputsCopy = new int[inputs.length][];
+    for (int i = 0; i < inputs.length; i++) {
+      inputsCopy[i] = ((int[]) inputs[i]).clone();
+    }
+    entries.put(hash(inputs), new Entry(inputsCopy, outputIds.clone(), outputScores.clone()));
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized Stats getStats() {
+    return new Stats(hitCount, missCount, evictionCount, entries.size());
+  }
+
+  /** Writes the entries, least recently used first, replacing the file atomically. */
+  public synchronized void save(File file) throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fingerprint);
+      out.writeInt(entries.size());
+      for (Entry entry : entries.values()) {
+        out.writeInt(entry.inputs.length);
+        for (int[] input : entry.inputs) {
+          writeInts(out, input);
+        }
+        writeInts(out, entry.outputIds);
+        out.writeInt(entry.outputScores.length);
+        for (float score : entry.outputScores) {
+          out.writeFloat(score);
+        }
+      }
+      out.flush();
+      fileOut.getFD().sync();
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Cannot write recommendation cache " + file);
+    }
+  }
+
+  /**
+   * Adds the entries of a saved cache, if it was saved with the current fingerprint.
+   *
+   * @return number of entries loaded.
+   * @throws IOException if the file cannot be read, is not a valid cache, or has entries of other
+   *     lengths than the model inputs and outputs.
+   */
+  public synchronized int load(File file) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a recommendation cache: " + file);
+      }
+      if (in.readLong() != fingerprint) {
+        return 0;
+      }
+      int numEntries = in.readInt();
+      int numLoaded = 0;
+      for (int i = 0; i < numEntries; i++) {
+        // Lengths are checked before anything is allocated from them.
+        checkLength(in.readInt(), inputLengths.length, file);
+        int[][] inputs = new int[inputLengths.length][];
+        for (int j = 0; j < inputs.length; j++) {
+          inputs[j] = readInts(in, inputLengths[j], file);
+        }
+        int[] outputIds = readInts(in, outputLength, file);
+        checkLength(in.readInt(), outputLength, file);
+        float[] outputScores = new float[outputLength];
+        for (int j = 0; j < outputScores.length; j++) {
+          outputScores[j] = in.readFloat();
+        }
+        if (maxEntries > 0) {
+          entries.put(hash(inputs), new Entry(inputs, outputIds, outputScores));
+          numLoaded++;
+        }
+      }
+      return numLoaded;
+    } catch (RuntimeException ex) {
+      // Truncated or otherwise corrupted cache.
+      throw new IOException("Invalid recommendation cache: " + file, ex);
+    }
+  }
+
+  // FNV-1a over the lengths and values of all inputs, so that the order of both matters.
+  static long hash(Object[] inputs) {
+    long hash = FNV_OFFSET_BASIS;
+    for (Object input : inputs) {
+      int[] values = (int[]) input;
+      hash = mix(hash, values.length);
+      for (int value : values) {
+        hash = mix(hash, value);
+      }
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, long value) {
+    return (hash ^ value) * FNV_PRIME;
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(DataInputStream in, int length, File file) throws IOException {
+    checkLength(in.readInt(), length, file);
+    int[] values = new int[length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+
+  private static void checkLength(int length, int expectedLength, File file) throws IOException {
+    if (length != expectedLength) {
+      throw new IOException(
+          String.format(
+              Locale.US,
+              "Recommendation cache %s has length %d instead of %d.",
+              file,
+              length,
+              expectedLength));
+    }
+  }
+
+  /** Counters of the cache. */
+  public static final class Stats {
+    public final int hitCount;
+    public final int missCount;
+    public final int evictionCount;
+    public final int size;
+
+    Stats(int hitCount, int missCount, int evictionCount, int size) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.size = size;
+    }
+
+    /** Fraction of lookups that hit, zero before the first lookup. */
+    public float getHitRate() {
+      int numLookups = hitCount + missCount;
+      return numLookups > 0 ? (float) hitCount / numLookups : 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "hits: %d, misses: %d, hit rate: %.2f, evictions: %d, size: %d",
+          hitCount,
+          missCount,
+          getHitRate(),
+          evictionCount,
+          size);
+    }
+  }
+
+  private static final class Entry {
+    final int[][] inputs;
+    final int[] outputIds;
+    final float[] outputScores;
+
+    Entry(int[][] inputs, int[] outputIds, float[] outputScores) {
+      this.inputs = inputs;
+      this.outputIds = outputIds;
+      this.outputScores = outputScores;
+    }
+
+    boolean matches(Object[] otherInputs) {
+      if (otherInputs.length != inputs.length) {
+        return false;
+      }
+      for (int i = 0; i < inputs.length; i++) {
+        if (!Arrays.equals(inputs[i], (int[]) otherInputs[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
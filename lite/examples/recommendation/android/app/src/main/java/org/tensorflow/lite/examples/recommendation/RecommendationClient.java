@@ -19,11 +19,10 @@ package org.tensorflow.lite.examples.recommendation;
 import android.content.Context;
 import android.util.Log;
 import androidx.annotation.WorkerThread;
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -31,18 +30,46 @@ import java.util.Map;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.examples.recommendation.Config.Feature;
 import org.tensorflow.lite.examples.recommendation.data.FileUtil;
+import org.tensorflow.lite.examples.recommendation.data.MovieCatalog;
 import org.tensorflow.lite.examples.recommendation.data.MovieItem;
+import org.tensorflow.lite.examples.recommendation.retrieval.IvfIndex;
+import org.tensorflow.lite.examples.recommendation.retrieval.TopK;
 
 /** Interface to load TfLite model and provide recommendations. */
 public class RecommendationClient {
   private static final String TAG = "RecommendationClient";
+  private static final String RESULT_CACHE_NAME = "recommendation_results.cache";
 
   private final Context context;
   private final Config config;
+  // Input features sorted by index, which is the order of the model inputs.
+  private final List<Feature> sortedFeatures;
   private Interpreter tflite;
+  // Handles of the model, candidates and genres, which are shared through the registry.
+  private final List<ModelRegistry.Handle<?>> modelHandles = new ArrayList<>();
+  // Output tensors, which are reused by every run.
+  private final int[] outputIds;
+  private final float[] confidences;
+  private final Map<Integer, Object> outputs = new HashMap<>();
+  // Model outputs by model inputs, so that selections seen before skip inference.
+  private final RecommendationCache resultCache;
+  private long modelKey = 0;
 
-  final Map<Integer, MovieItem> candidates = new HashMap<>();
-  final Map<String, Integer> genres = new HashMap<>();
+  MovieCatalog candidates = MovieCatalog.EMPTY;
+  Map<String, Integer> genres = Collections.emptyMap();
+  // Index of the item embeddings, null unless the config uses retrieval.
+  IvfIndex embeddingIndex = null;
+
+  // Retrieval query, candidates and their blended scores, which are reused by every run.
+  private final int[] retrievedIds;
+  private final float[] retrievedScores;
+  private final int[] blendedIds;
+  private final float[] blendedScores;
+  private final int[] topIndices;
+  private final float[] topScores;
+  // Rank of every model output id not blended yet, by id.
+  private final Map<Integer, Integer> outputRanks = new HashMap<>();
+  private float[] query = new float[0];
 
   /** An immutable result returned by a RecommendationClient. */
   public static class Result {
@@ -75,24 +102,93 @@ public class RecommendationClient {
     if (!config.validate()) {
       Log.e(TAG, "Config is not valid.");
     }
+
+    // Sort features.
+    List<Feature> sortedFeatures = new ArrayList<>(config.inputs);
+    Collections.sort(sortedFeatures, (Feature a, Feature b) -> Integer.compare(a.index, b.index));
+    int[] inputLengths = new int[sortedFeatures.size()];
+    int numInputs = 0;
+    for (Feature feature : sortedFeatures) {
+      if (!Config.FEATURE_MOVIE.equals(feature.name)
+          && !Config.FEATURE_GENRE.equals(feature.name)) {
+        Log.e(TAG, String.format("Invalid feature: %s", feature.name));
+      } else {
+        inputLengths[numInputs++] = feature.inputLength;
+      }
+    }
+    this.sortedFeatures = Collections.unmodifiableList(sortedFeatures);
+
+    outputIds = new int[config.outputLength];
+    confidences = new float[config.outputLength];
+    outputs.put(config.outputIdsIndex, outputIds);
+    outputs.put(config.outputScoresIndex, confidences);
+
+    int retrievalSize = config.useRetrieval() ? config.retrievalSize : 0;
+    retrievedIds = new int[retrievalSize];
+    retrievedScores = new float[retrievalSize];
+    blendedIds = new int[retrievalSize + config.outputLength];
+    blendedScores = new float[retrievalSize + config.outputLength];
+    topIndices = new int[config.topK];
+    topScores = new float[config.topK];
+    resultCache =
+        new RecommendationCache(
+            config.resultCacheSize, Arrays.copyOf(inputLengths, numInputs), config.outputLength);
+  }
+
+  /** Creates an empty selection of movies to recommend from. */
+  public RecommendationSession newSession() {
+    return new RecommendationSession(config, sortedFeatures);
   }
 
-  /** Load the TF Lite model and dictionary. */
+  /**
+   * Load the TF Lite model and dictionary. They are kept warm by the {@link ModelRegistry} after
+   * {@link #unload}, so loading them again is cheap.
+   */
   @WorkerThread
-  public void load() {
-    loadModel();
-    loadCandidateList();
+  public synchronized void load() {
+    unload();
+    ModelRegistry registry = ModelRegistry.getInstance(context);
+    loadModel(registry);
+    loadCandidateList(registry);
     if (config.useGenres()) {
-      loadGenreList();
+      loadGenreList(registry);
+    }
+    if (config.useRetrieval()) {
+      loadEmbeddingIndex(registry);
+    }
+    if (config.persistResultCache) {
+      loadResultCache();
+    }
+    Log.v(TAG, "Registry " + registry.getStats());
+  }
+
+  /** Load the model outputs cached by a previous run of the app. */
+  @WorkerThread
+  private void loadResultCache() {
+    try {
+      // Outputs of another version of the model must not be used. The model is an asset, so it
+      // only changes with the app, which the source key tells without reading the model.
+      modelKey = FileUtil.computeSourceKey(context, config.model);
+      resultCache.validate(RecommendationCache.fingerprint(config, modelKey));
+      File cacheFile = new File(context.getCacheDir(), RESULT_CACHE_NAME);
+      if (cacheFile.exists()) {
+        int numLoaded = resultCache.load(cacheFile);
+        Log.v(TAG, String.format("Loaded %d cached results.", numLoaded));
+      }
+    } catch (IOException ex) {
+      Log.w(TAG, "Cannot load result cache.", ex);
     }
   }
 
   /** Load TF Lite model. */
   @WorkerThread
-  private synchronized void loadModel() {
+  private void loadModel(ModelRegistry registry) {
     try {
-      ByteBuffer buffer = FileUtil.loadModelFile(this.context.getAssets(), config.model);
-      tflite = new Interpreter(buffer);
+      tflite =
+          acquire(
+              registry,
+              config.model,
+              () -> new Interpreter(FileUtil.loadModelFile(context.getAssets(), config.model)));
       Log.v(TAG, "TFLite model loaded.");
     } catch (IOException ex) {
       Log.e(TAG, ex.getMessage());
@@ -101,126 +197,111 @@ public class RecommendationClient {
 
   /** Load recommendation candidate list. */
   @WorkerThread
-  private synchronized void loadCandidateList() {
+  private void loadCandidateList(ModelRegistry registry) {
     try {
-      Collection<MovieItem> collection =
-          FileUtil.loadMovieList(this.context.getAssets(), config.movieList);
-      candidates.clear();
-      for (MovieItem item : collection) {
-        Log.d(TAG, String.format("Load candidate: %s", item));
-        candidates.put(item.id, item);
-      }
+      candidates = acquire(registry, config.movieList, this::readCandidateList);
       Log.v(TAG, "Candidate list loaded.");
     } catch (IOException ex) {
       Log.e(TAG, ex.getMessage());
     }
   }
 
+  private MovieCatalog readCandidateList() throws IOException {
+    MovieCatalog catalog = FileUtil.loadMovieCatalog(context, config.movieList);
+    Log.d(TAG, String.format("Load %d candidates.", catalog.size()));
+    return catalog;
+  }
+
   /** Load movie genre list. */
   @WorkerThread
-  private synchronized void loadGenreList() {
+  private void loadGenreList(ModelRegistry registry) {
     try {
-      List<String> genreList = FileUtil.loadGenreList(this.context.getAssets(), config.genreList);
-      genres.clear();
-      for (String genre : genreList) {
-        Log.d(TAG, String.format("Load genre: \"%s\"", genre));
-        genres.put(genre, genres.size());
-      }
-      Log.v(TAG, "Candidate list loaded.");
+      genres = acquire(registry, config.genreList, this::readGenreList);
+      Log.v(TAG, "Genre list loaded.");
     } catch (IOException ex) {
       Log.e(TAG, ex.getMessage());
     }
   }
 
-  /** Free up resources as the client is no longer needed. */
-  @WorkerThread
-  public synchronized void unload() {
-    tflite.close();
-    candidates.clear();
+  private Map<String, Integer> readGenreList() throws IOException {
+    List<String> genreList = FileUtil.loadGenreList(this.context.getAssets(), config.genreList);
+    Map<String, Integer> genres = new HashMap<>();
+    for (String genre : genreList) {
+      Log.d(TAG, String.format("Load genre: \"%s\"", genre));
+      genres.put(genre, genres.size());
+    }
+    return Collections.unmodifiableMap(genres);
   }
 
-  int[] preprocessIds(List<MovieItem> selectedMovies, int length) {
-    int[] inputIds = new int[length];
-    Arrays.fill(inputIds, config.pad); // Fill inputIds with the default.
-    int i = 0;
-    for (MovieItem item : selectedMovies) {
-      if (i >= inputIds.length) {
-        break;
+  /** Load item embeddings for retrieval. */
+  @WorkerThread
+  private void loadEmbeddingIndex(ModelRegistry registry) {
+    try {
+      embeddingIndex =
+          acquire(
+              registry,
+              config.itemEmbeddings,
+              () -> FileUtil.loadEmbeddingIndex(context, config.itemEmbeddings));
+      if (query.length != embeddingIndex.getDimension()) {
+        query = new float[embeddingIndex.getDimension()];
       }
-      inputIds[i] = item.id;
-      ++i;
+      Log.v(TAG, String.format("Embedding index of %d items loaded.", embeddingIndex.size()));
+    } catch (IOException ex) {
+      Log.e(TAG, ex.getMessage());
     }
-    return inputIds;
   }
 
-  int[] preprocessGenres(List<MovieItem> selectedMovies, int length) {
-    // Fill inputGenres.
-    int[] inputGenres = new int[length];
-    Arrays.fill(inputGenres, config.unknownGenre); // Fill inputGenres with the default.
-    int i = 0;
-    for (MovieItem item : selectedMovies) {
-      if (i >= inputGenres.length) {
-        break;
-      }
-      for (String genre : item.genres) {
-        if (i >= inputGenres.length) {
-          break;
-        }
-        inputGenres[i] = genres.containsKey(genre) ? genres.get(genre) : config.unknownGenre;
-        ++i;
-      }
-    }
-    return inputGenres;
+  private <T> T acquire(ModelRegistry registry, String key, ModelRegistry.Loader<T> loader)
+      throws IOException {
+    ModelRegistry.Handle<T> handle = registry.acquire(key, loader);
+    modelHandles.add(handle);
+    return handle.get();
   }
 
-  /** Given a list of selected items, preprocess to get tflite input. */
+  /**
+   * Free up resources as the client is no longer needed. They stay warm in the {@link
+   * ModelRegistry} for a while.
+   */
   @WorkerThread
-  synchronized Object[] preprocess(List<MovieItem> selectedMovies) {
-    List<Object> inputs = new ArrayList<>();
-
-    // Sort features.
-    List<Feature> sortedFeatures = new ArrayList<>(config.inputs);
-    Collections.sort(sortedFeatures, (Feature a, Feature b) -> Integer.compare(a.index, b.index));
-
-    for (Feature feature : sortedFeatures) {
-      if (Config.FEATURE_MOVIE.equals(feature.name)) {
-        inputs.add(preprocessIds(selectedMovies, feature.inputLength));
-      } else if (Config.FEATURE_GENRE.equals(feature.name)) {
-        inputs.add(preprocessGenres(selectedMovies, feature.inputLength));
-      } else {
-        Log.e(TAG, String.format("Invalid feature: %s", feature.name));
+  public synchronized void unload() {
+    if (config.persistResultCache && resultCache.getStats().size > 0) {
+      try {
+        resultCache.save(new File(context.getCacheDir(), RESULT_CACHE_NAME));
+      } catch (IOException ex) {
+        Log.w(TAG, "Cannot save result cache.", ex);
       }
     }
-    return inputs.toArray();
+    for (ModelRegistry.Handle<?> handle : modelHandles) {
+      handle.close();
+    }
+    modelHandles.clear();
+    tflite = null;
+    candidates = MovieCatalog.EMPTY;
+    embeddingIndex = null;
+    genres = Collections.emptyMap();
   }
 
   /** Postprocess to gets results from tflite inference. */
   @WorkerThread
   synchronized List<Result> postprocess(
-      int[] outputIds, float[] confidences, List<MovieItem> selectedMovies) {
-    final ArrayList<Result> results = new ArrayList<>();
+      int[] outputIds, float[] confidences, RecommendationSession session) {
+    final ArrayList<Result> results = new ArrayList<>(config.topK);
 
     // Add recommendation results. Filter null or contained items.
-    for (int i = 0; i < outputIds.length; i++) {
-      if (results.size() >= config.topK) {
-        Log.v(TAG, String.format("Selected top K: %d. Ignore the rest.", config.topK));
-        break;
-      }
-
+    int numSkipped = 0;
+    for (int i = 0; i < outputIds.length && results.size() < config.topK; i++) {
       int id = outputIds[i];
-      MovieItem item = candidates.get(id);
-      if (item == null) {
-        Log.v(TAG, String.format("Inference output[%d]. Id: %s is null", i, id));
-        continue;
-      }
-      if (selectedMovies.contains(item)) {
-        Log.v(TAG, String.format("Inference output[%d]. Id: %s is contained", i, id));
+      MovieItem item = candidates.getById(id);
+      if (item == null || session.isSelected(id)) {
+        numSkipped++;
         continue;
       }
-      Result result = new Result(id, item, confidences[i]);
-      results.add(result);
-      Log.v(TAG, String.format("Inference output[%d]. Result: %s", i, result));
+      results.add(new Result(id, item, confidences[i]));
     }
+    Log.v(
+        TAG,
+        String.format(
+            "Selected %d results, skipped %d unknown or selected.", results.size(), numSkipped));
 
     return results;
   }
@@ -228,17 +309,112 @@ public class RecommendationClient {
   /** Given a list of selected items, and returns the recommendation results. */
   @WorkerThread
   public synchronized List<Result> recommend(List<MovieItem> selectedMovies) {
-    Object[] inputs = preprocess(selectedMovies);
+    RecommendationSession session = newSession();
+    for (MovieItem item : selectedMovies) {
+      session.add(item);
+    }
+    return recommend(session);
+  }
 
-    // Run inference.
-    int[] outputIds = new int[config.outputLength];
-    float[] confidences = new float[config.outputLength];
-    Map<Integer, Object> outputs = new HashMap<>();
-    outputs.put(config.outputIdsIndex, outputIds);
-    outputs.put(config.outputScoresIndex, confidences);
-    tflite.runForMultipleInputsOutputs(inputs, outputs);
+  /** Given a session of selected items, and returns the recommendation results. */
+  @WorkerThread
+  public synchronized List<Result> recommend(RecommendationSession session) {
+    Object[] inputs = session.getInputs(genres);
+
+    // Run inference, unless the outputs of the inputs are cached.
+    resultCache.validate(RecommendationCache.fingerprint(config, modelKey));
+    if (!resultCache.get(inputs, outputIds, confidences)) {
+      // The interpreter may be shared with other clients.
+      synchronized (tflite) {
+        tflite.runForMultipleInputsOutputs(inputs, outputs);
+      }
+      resultCache.put(inputs, outputIds, confidences);
+    }
+    Log.v(TAG, "Result cache " + resultCache.getStats());
+
+    if (embeddingIndex != null && buildQuery(session)) {
+      return retrieveAndRank(session);
+    }
+    return postprocess(outputIds, confidences, session);
+  }
+
+  // Sets the retrieval query to the mean embedding of the selected movies, if any has one.
+  private boolean buildQuery(RecommendationSession session) {
+    Arrays.fill(query, 0);
+    int numEmbedded = 0;
+    for (MovieItem item : session.getSelectedMovies()) {
+      if (embeddingIndex.addEmbedding(item.id, query)) {
+        numEmbedded++;
+      }
+    }
+    for (int d = 0; d < query.length; d++) {
+      query[d] /= Math.max(numEmbedded, 1);
+    }
+    return numEmbedded > 0;
+  }
+
+  /**
+   * Retrieves the candidates closest to the query from the embedding index, adds the outputs of
+   * the model, and ranks them all by retrieval score plus weighted model score.
+   */
+  private List<Result> retrieveAndRank(RecommendationSession session) {
+    int numRetrieved =
+        embeddingIndex.search(
+            query,
+            config.retrievalProbes,
+            id -> !session.isSelected(id) && candidates.contains(id),
+            retrievedIds,
+            retrievedScores);
+
+    // Ids repeated in the outputs keep their first rank.
+    outputRanks.clear();
+    for (int i = outputIds.length - 1; i >= 0; i--) {
+      outputRanks.put(outputIds[i], i);
+    }
+    int numBlended = 0;
+    for (int i = 0; i < numRetrieved; i++) {
+      blendedIds[numBlended] = retrievedIds[i];
+      blendedScores[numBlended++] =
+          retrievedScores[i]
+              + config.modelScoreWeight * modelScore(outputRanks.remove(retrievedIds[i]));
+    }
+    for (int i = 0; i < outputIds.length; i++) {
+      int id = outputIds[i];
+      // Removing the rank blends every id once, after the retrieved ones.
+      Integer rank = outputRanks.remove(id);
+      if (rank == null || !candidates.contains(id) || session.isSelected(id)) {
+        continue;
+      }
+      float retrievalScore = embeddingIndex.score(id, query);
+      blendedIds[numBlended] = id;
+      blendedScores[numBlended++] =
+          (Float.isNaN(retrievalScore) ? 0 : retrievalScore)
+              + config.modelScoreWeight * modelScore(rank);
+    }
+
+    int numResults = TopK.select(blendedScores, numBlended, config.topK, topIndices, topScores);
+    final ArrayList<Result> results = new ArrayList<>(numResults);
+    for (int i = 0; i < numResults; i++) {
+      int id = blendedIds[topIndices[i]];
+      results.add(new Result(id, candidates.getById(id), topScores[i]));
+    }
+    Log.v(
+        TAG,
+        String.format(
+            "Ranked %d retrieved and %d model candidates.",
+            numRetrieved, numBlended - numRetrieved));
+    return results;
+  }
+
+  // Score of the model output rank, from 1 for the first output down to 0 for ids the model did
+  // not output.
+  private float modelScore(Integer rank) {
+    return rank == null ? 0 : 1 - (float) rank / outputIds.length;
+  }
 
-    return postprocess(outputIds, confidences, selectedMovies);
+  /** Returns the counters of the cache of model outputs. */
+  public RecommendationCache.Stats getResultCacheStats() {
+    return resultCache.getStats();
   }
 
   Interpreter getTflite() {
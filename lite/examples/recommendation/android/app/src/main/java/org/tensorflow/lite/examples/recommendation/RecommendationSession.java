@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.tensorflow.lite.examples.recommendation.Config.Feature;
+import org.tensorflow.lite.examples.recommendation.data.MovieItem;
+
+/**
+ * Movies selected by the user, kept as the model inputs of a {@link RecommendationClient}.
+ *
+ * <p>The id and genre inputs are updated in place as movies are added, and rewritten in place when
+ * movies are removed, so that recommending again after a click neither rebuilds nor sorts anything.
+ * Selected ids are also kept in a bitset, which filters them out of the recommendations.
+ *
+ * <p>A session is not thread-safe: it must not be changed while the client recommends from it.
+ */
+public final class RecommendationSession {
+  private final Config config;
+  private final List<MovieItem> selectedMovies = new ArrayList<>();
+  // Inputs of the model in the order of the feature indices. Either array may be missing.
+  private final Object[] inputs;
+  private final int[] inputIds;
+  private final int[] inputGenres;
+  private int numInputGenres = 0;
+  // Genre vocabulary the genre input was written with.
+  private Map<String, Integer> genres = Collections.emptyMap();
+  private long[] selectedBits = new long[0];
+
+  RecommendationSession(Config config, List<Feature> sortedFeatures) {
+    this.config = config;
+    List<Object> inputs = new ArrayList<>();
+    int[] inputIds = null;
+    int[] inputGenres = null;
+    for (Feature feature : sortedFeatures) {
+      if (Config.FEATURE_MOVIE.equals(feature.name)) {
+        inputIds = new int[feature.inputLength];
+        inputs.add(inputIds);
+      } else if (Config.FEATURE_GENRE.equals(feature.name)) {
+        inputGenres = new int[feature.inputLength];
+        inputs.add(inputGenres);
+      }
+    }
+    this.inputs = inputs.toArray();
+    this.inputIds = inputIds;
+    this.inputGenres = inputGenres;
+    rewriteInputs();
+  }
+
+  /**
+   * Adds a movie to the end of the selection.
+   *
+   * @return false if it was already selected.
+   */
+  public boolean add(MovieItem item) {
+    if (isSelected(item.id)) {
+      return false;
+    }
+    setSelected(item.id, true);
+    selectedMovies.add(item);
+    appendInputs(item, selectedMovies.size() - 1);
+    return true;
+  }
+
+  /**
+   * Removes a movie from the selection.
+   *
+   * @return false if it was not selected.
+   */
+  public boolean remove(MovieItem item) {
+    if (!isSelected(item.id)) {
+      return false;
+    }
+    setSelected(item.id, false);
+    for (int i = 0; i < selectedMovies.size(); i++) {
+      if (selectedMovies.get(i).id == item.id) {
+        selectedMovies.remove(i);
+        break;
+      }
+    }
+    rewriteInputs();
+    return true;
+  }
+
+  public void clear() {
+    selectedMovies.clear();
+    Arrays.fill(selectedBits, 0);
+    rewriteInputs();
+  }
+
+  public boolean isEmpty() {
+    return selectedMovies.isEmpty();
+  }
+
+  /** Returns the selected movies, in selection order. */
+  public List<MovieItem> getSelectedMovies() {
+    return Collections.unmodifiableList(selectedMovies);
+  }
+
+  public boolean isSelected(int id) {
+    int word = id >>> 6;
+    return id >= 0 && word < selectedBits.length && (selectedBits[word] & (1L << id)) != 0;
+  }
+
+  /** Returns the inputs of the model, with genres mapped through the given vocabulary. */
+  Object[] getInputs(Map<String, Integer> genres) {
+    if (this.genres != genres) {
+      // The vocabulary was loaded after movies were added.
+      this.genres = genres;
+      rewriteInputs();
+    }
+    return inputs;
+  }
+
+  private void setSelected(int id, boolean selected) {
+    if (id < 0) {
+      return;
+    }
+    int word = id >>> 6;
+    if (word >= selectedBits.length) {
+      selectedBits = Arrays.copyOf(selectedBits, Math.max(word + 1, selectedBits.length * 2));
+    }
+    if (selected) {
+      selectedBits[word] |= 1L << id;
+    } else {
+      selectedBits[word] &= ~(1L << id);
+    }
+  }
+
+  private void rewriteInputs() {
+    if (inputIds != null) {
+      Arrays.fill(inputIds, config.pad); // Fill inputIds with the default.
+    }
+    if (inputGenres != null) {
+      Arrays.fill(inputGenres, config.unknownGenre); // Fill inputGenres with the default.
+    }
+    numInputGenres = 0;
+    for (int i = 0; i < selectedMovies.size(); i++) {
+      appendInputs(selectedMovies.get(i), i);
+    }
+  }
+
+  // Writes the id and the genres of the movie at the given position of the selection.
+  private void appendInputs(MovieItem item, int position) {
+    if (inputIds != null && position < inputIds.length) {
+      inputIds[position] = item.id;
+    }
+    if (inputGenres != null) {
+      for (int i = 0; i < item.genres.size() && numInputGenres < inputGenres.length; i++) {
+        Integer genre = genres.get(item.genres.get(i));
+        inputGenres[numInputGenres++] = genre != null ? genre : config.unknownGenre;
+      }
+    }
+  }
+}
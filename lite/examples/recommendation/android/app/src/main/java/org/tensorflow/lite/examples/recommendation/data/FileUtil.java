@@ -19,25 +19,38 @@ package org.tensorflow.lite.examples.recommendation.data;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.os.Build;
+import android.util.Log;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
 import org.tensorflow.lite.examples.recommendation.Config;
+import org.tensorflow.lite.examples.recommendation.retrieval.ArrayEmbeddingStore;
+import org.tensorflow.lite.examples.recommendation.retrieval.EmbeddingStore;
+import org.tensorflow.lite.examples.recommendation.retrieval.IvfIndex;
 
 /** FileUtil class to load data from asset files. */
 public class FileUtil {
+  private static final String TAG = "FileUtil";
 
   private FileUtil() {}
 
@@ -53,13 +66,113 @@ public class FileUtil {
     }
   }
 
-  /** Load candidates from asset file. */
-  public static Collection<MovieItem> loadMovieList(
-      AssetManager assetManager, String candidateListPath) throws IOException {
-    String content = loadFileContent(assetManager, candidateListPath);
-    Gson gson = new Gson();
-    Type type = new TypeToken<Collection<MovieItem>>() {}.getType();
-    return gson.fromJson(content, type);
+  /**
+   * Load candidates from asset file through a {@link MovieCatalog} in the cache directory. The
+   * catalog is converted from the JSON movie list on the first load, and memory mapped as long as
+   * the app, and so the movie list, does not change.
+   */
+  public static MovieCatalog loadMovieCatalog(Context context, String candidateListPath)
+      throws IOException {
+    AssetManager assetManager = context.getAssets();
+    long sourceKey = computeSourceKey(context, candidateListPath);
+    File catalogFile =
+        new File(context.getCacheDir(), new File(candidateListPath).getName() + ".catalog");
+    if (catalogFile.exists()) {
+      try {
+        MovieCatalog catalog = MovieCatalog.read(catalogFile, sourceKey);
+        if (catalog != null) {
+          return catalog;
+        }
+      } catch (IOException ex) {
+        Log.w(TAG, "Ignoring movie catalog.", ex);
+      }
+    }
+
+    MovieCatalog catalog;
+    try (InputStream ins = assetManager.open(candidateListPath);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ins, UTF_8))) {
+      catalog = MovieCatalog.convert(reader, sourceKey);
+    }
+    try {
+      catalog.write(catalogFile);
+    } catch (IOException ex) {
+      Log.w(TAG, "Cannot write movie catalog.", ex);
+    }
+    return catalog;
+  }
+
+  /**
+   * Load item embeddings from asset file through an {@link IvfIndex} in the cache directory. The
+   * index is built on the first load, which takes a while for large catalogs, and read from the
+   * cache as long as the app, and so the embedding file, does not change.
+   *
+   * @throws IOException if the embedding file cannot be read or holds no embeddings.
+   */
+  public static IvfIndex loadEmbeddingIndex(Context context, String embeddingsPath)
+      throws IOException {
+    long sourceKey = computeSourceKey(context, embeddingsPath);
+    File indexFile =
+        new File(context.getCacheDir(), new File(embeddingsPath).getName() + ".index");
+    if (indexFile.exists()) {
+      try {
+        IvfIndex index = IvfIndex.read(indexFile, sourceKey);
+        if (index != null) {
+          return index;
+        }
+      } catch (IOException ex) {
+        Log.w(TAG, "Ignoring embedding index.", ex);
+      }
+    }
+
+    EmbeddingStore store;
+    try (InputStream ins = new BufferedInputStream(context.getAssets().open(embeddingsPath))) {
+      store = ArrayEmbeddingStore.read(ins);
+    }
+    if (store.size() == 0) {
+      throw new IOException("No item embeddings in " + embeddingsPath);
+    }
+    int numLists = (int) Math.ceil(Math.sqrt(store.size()));
+    IvfIndex index = IvfIndex.build(store, numLists, sourceKey, new Random(sourceKey));
+    try {
+      index.write(indexFile);
+    } catch (IOException ex) {
+      Log.w(TAG, "Cannot write embedding index.", ex);
+    }
+    return index;
+  }
+
+  /**
+   * Computes a key of an asset file for the files derived from it, which changes whenever the asset
+   * may have changed. Assets only change when the app is installed again, so the key combines the
+   * version code and the install time of the app with the size of the asset. Unlike a checksum, it
+   * does not read the asset.
+   */
+  public static long computeSourceKey(Context context, String path) throws IOException {
+    PackageInfo packageInfo;
+    try {
+      packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+    } catch (PackageManager.NameNotFoundException ex) {
+      throw new IOException("Cannot find the package of the app.", ex);
+    }
+    long assetSize;
+    try (InputStream ins = context.getAssets().open(path)) {
+      // Asset streams know the size of the whole asset.
+      assetSize = ins.available();
+    }
+    CRC32 key = new CRC32();
+    ByteBuffer keyBytes = ByteBuffer.allocate(3 * 8);
+    keyBytes.putLong(getVersionCode(packageInfo));
+    keyBytes.putLong(packageInfo.lastUpdateTime);
+    keyBytes.putLong(assetSize);
+    key.update(keyBytes.array());
+    return key.getValue();
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long getVersionCode(PackageInfo packageInfo) {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+        ? packageInfo.getLongVersionCode()
+        : packageInfo.versionCode;
   }
 
   public static List<String> loadGenreList(AssetManager assetManager, String genreListPath)
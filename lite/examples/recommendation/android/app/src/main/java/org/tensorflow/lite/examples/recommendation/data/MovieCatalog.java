@@ -0,0 +1,365 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Movie list in a columnar binary format, which is memory mapped instead of parsing the JSON movie
+ * list on every launch.
+ *
+ * <p>The catalog is little-endian and holds a header (magic, version, key of the source JSON
+ * file, number of movies, number of genres), the offsets of the genre names, the id and count
+ * columns, the offsets of the genre lists and of the titles of every movie, the genre lists as one
+ * byte genre index per genre, and the UTF-8 pools of genre names and titles. Genres are kept as
+ * ordered lists rather than sets, because the genre input of the model follows their order.
+ *
+ * <p>Columns are read straight from the mapping. {@link MovieItem}s are only created when they are
+ * first asked for, and then kept. Movies are looked up by id with a binary search over the sorted
+ * ids, so memory use does not depend on how large the ids are.
+ */
+public final class MovieCatalog {
+  private static final int MAGIC = 0x5441434d; // "MCAT"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 24;
+  private static final int MAX_GENRES = 256;
+
+  /** A catalog without movies. */
+  public static final MovieCatalog EMPTY = emptyCatalog();
+
+  private final ByteBuffer buffer;
+  private final int numMovies;
+  private final int numGenres;
+  private final int genreOffsetsStart;
+  private final int idsStart;
+  private final int countsStart;
+  private final int genreListOffsetsStart;
+  private final int titleOffsetsStart;
+  private final int genreListsStart;
+  private final int genrePoolStart;
+  private final int titlePoolStart;
+
+  private final String[] genreNames;
+  // Ids of all movies in increasing order, and the row of every one of them.
+  private final int[] sortedIds;
+  private final int[] sortedRows;
+  // Movies created so far, by row.
+  private final MovieItem[] items;
+
+  private MovieCatalog(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    try {
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+        throw new IOException("Not a movie catalog.");
+      }
+      numMovies = buffer.getInt(16);
+      numGenres = buffer.getInt(20);
+      if (numMovies < 0 || numGenres < 0 || numGenres > MAX_GENRES) {
+        throw new IOException("Invalid movie catalog.");
+      }
+      // Every movie takes at least 16 bytes of columns, which also keeps the offsets below from
+      // overflowing.
+      if (numMovies > (buffer.limit() - HEADER_SIZE) / 16) {
+        throw new IOException("Truncated movie catalog.");
+      }
+      genreOffsetsStart = HEADER_SIZE;
+      idsStart = genreOffsetsStart + 4 * (numGenres + 1);
+      countsStart = idsStart + 4 * numMovies;
+      genreListOffsetsStart = countsStart + 4 * numMovies;
+      titleOffsetsStart = genreListOffsetsStart + 4 * (numMovies + 1);
+      genreListsStart = titleOffsetsStart + 4 * (numMovies + 1);
+      genrePoolStart = genreListsStart + buffer.getInt(genreListOffsetsStart + 4 * numMovies);
+      titlePoolStart = genrePoolStart + buffer.getInt(genreOffsetsStart + 4 * numGenres);
+      if (titlePoolStart + buffer.getInt(titleOffsetsStart + 4 * numMovies) > buffer.limit()) {
+        throw new IOException("Truncated movie catalog.");
+      }
+
+      genreNames = new String[numGenres];
+      for (int genre = 0; genre < numGenres; genre++) {
+        genreNames[genre] =
+            decode(
+                genrePoolStart,
+                buffer.getInt(genreOffsetsStart + 4 * genre),
+                buffer.getInt(genreOffsetsStart + 4 * (genre + 1)));
+      }
+      // Sorts (id, row) pairs packed into longs, so that the rows follow their ids.
+      long[] idRows = new long[numMovies];
+      for (int row = 0; row < numMovies; row++) {
+        idRows[row] = ((long) getId(row) << 32) | row;
+      }
+      Arrays.sort(idRows);
+      sortedIds = new int[numMovies];
+      sortedRows = new int[numMovies];
+      for (int i = 0; i < numMovies; i++) {
+        sortedIds[i] = (int) (idRows[i] >> 32);
+        sortedRows[i] = (int) idRows[i];
+        if (i > 0 && sortedIds[i] == sortedIds[i - 1]) {
+          throw new IOException("Duplicate movie id " + sortedIds[i] + " in the movie catalog.");
+        }
+      }
+    } catch (IndexOutOfBoundsException ex) {
+      throw new IOException("Truncated movie catalog.", ex);
+    }
+    items = new MovieItem[numMovies];
+  }
+
+  /**
+   * Converts a JSON movie list, an array of objects with id, title, genres and count, into a
+   * catalog in memory. The JSON is streamed, so it is never held as a whole.
+   *
+   * @throws IOException if the JSON cannot be read, or a movie has no id or the same id as another
+   *     movie.
+   */
+  public static MovieCatalog convert(Reader json, long sourceKey) throws IOException {
+    int[] ids = new int[1024];
+    int[] counts = new int[1024];
+    int[] genreListOffsets = new int[1025];
+    int[] titleOffsets = new int[1025];
+    ByteArrayOutputStream genreLists = new ByteArrayOutputStream();
+    ByteArrayOutputStream titlePool = new ByteArrayOutputStream();
+    Map<String, Integer> genreIndices = new HashMap<>();
+    List<String> genres = new ArrayList<>();
+
+    int numMovies = 0;
+    JsonReader reader = new JsonReader(json);
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (numMovies == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * numMovies);
+        counts = Arrays.copyOf(counts, 2 * numMovies);
+        genreListOffsets = Arrays.copyOf(genreListOffsets, 2 * numMovies + 1);
+        titleOffsets = Arrays.copyOf(titleOffsets, 2 * numMovies + 1);
+      }
+      boolean hasId = false;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("id")) {
+          ids[numMovies] = reader.nextInt();
+          hasId = true;
+        } else if (name.equals("count")) {
+          counts[numMovies] = reader.nextInt();
+        } else if (name.equals("title")) {
+          byte[] title = reader.nextString().getBytes(UTF_8);
+          titlePool.write(title, 0, title.length);
+        } else if (name.equals("genres")) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            String genre = reader.nextString();
+            Integer genreIdx = genreIndices.get(genre);
+            if (genreIdx == null) {
+              if (genres.size() == MAX_GENRES) {
+                throw new IOException("Too many genres in the movie list.");
+              }
+              genreIdx = genres.size();
+              genreIndices.put(genre, genreIdx);
+              genres.add(genre);
+            }
+            genreLists.write(genreIdx);
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      if (!hasId) {
+        throw new IOException("Movie " + numMovies + " of the movie list has no id.");
+      }
+      numMovies++;
+      genreListOffsets[numMovies] = genreLists.size();
+      titleOffsets[numMovies] = titlePool.size();
+    }
+    reader.endArray();
+
+    byte[][] genreNames = new byte[genres.size()][];
+    int genrePoolSize = 0;
+    for (int genre = 0; genre < genreNames.length; genre++) {
+      genreNames[genre] = genres.get(genre).getBytes(UTF_8);
+      genrePoolSize += genreNames[genre].length;
+    }
+    int size =
+        HEADER_SIZE
+            + 4 * (genreNames.length + 1)
+            + 4 * numMovies * 2
+            + 4 * (numMovies + 1) * 2
+            + genreLists.size()
+            + genrePoolSize
+            + titlePool.size();
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putLong(sourceKey);
+    buffer.putInt(numMovies).putInt(genreNames.length);
+    int offset = 0;
+    for (byte[] genreName : genreNames) {
+      buffer.putInt(offset);
+      offset += genreName.length;
+    }
+    buffer.putInt(offset);
+    buffer.asIntBuffer().put(ids, 0, numMovies);
+    buffer.position(buffer.position() + 4 * numMovies);
+    buffer.asIntBuffer().put(counts, 0, numMovies);
+    buffer.position(buffer.position() + 4 * numMovies);
+    buffer.asIntBuffer().put(genreListOffsets, 0, numMovies + 1);
+    buffer.position(buffer.position() + 4 * (numMovies + 1));
+    buffer.asIntBuffer().put(titleOffsets, 0, numMovies + 1);
+    buffer.position(buffer.position() + 4 * (numMovies + 1));
+    buffer.put(genreLists.toByteArray());
+    for (byte[] genreName : genreNames) {
+      buffer.put(genreName);
+    }
+    buffer.put(titlePool.toByteArray());
+    buffer.flip();
+    return new MovieCatalog(buffer);
+  }
+
+  /**
+   * Memory maps a catalog file.
+   *
+   * @param sourceKey key of the JSON movie list the catalog must be made from.
+   * @return the catalog, or null if it was made from a different movie list.
+   * @throws IOException if the file cannot be read or is not a valid catalog.
+   */
+  public static MovieCatalog read(File file, long sourceKey) throws IOException {
+    ByteBuffer buffer;
+    try (FileInputStream in = new FileInputStream(file)) {
+      FileChannel channel = in.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.limit() < HEADER_SIZE) {
+      throw new IOException("Truncated movie catalog.");
+    }
+    if (buffer.getLong(8) != sourceKey) {
+      return null;
+    }
+    return new MovieCatalog(buffer);
+  }
+
+  /** Writes the catalog to a file, replacing it atomically. */
+  public void write(File file) throws IOException {
+    ByteBuffer content = buffer.duplicate();
+    content.clear();
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+      FileChannel channel = out.getChannel();
+      while (content.hasRemaining()) {
+        channel.write(content);
+      }
+      out.getFD().sync();
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Cannot write movie catalog " + file);
+    }
+  }
+
+  public long getSourceKey() {
+    return buffer.getLong(8);
+  }
+
+  /** Number of movies. */
+  public int size() {
+    return numMovies;
+  }
+
+  public int getId(int row) {
+    return buffer.getInt(idsStart + 4 * row);
+  }
+
+  public int getCount(int row) {
+    return buffer.getInt(countsStart + 4 * row);
+  }
+
+  public String getTitle(int row) {
+    return decode(
+        titlePoolStart,
+        buffer.getInt(titleOffsetsStart + 4 * row),
+        buffer.getInt(titleOffsetsStart + 4 * (row + 1)));
+  }
+
+  /** Returns the genres of a movie, in the order of the movie list. */
+  public List<String> getGenres(int row) {
+    int start = buffer.getInt(genreListOffsetsStart + 4 * row);
+    int end = buffer.getInt(genreListOffsetsStart + 4 * (row + 1));
+    String[] genres = new String[end - start];
+    for (int i = 0; i < genres.length; i++) {
+      genres[i] = genreNames[buffer.get(genreListsStart + start + i) & 0xff];
+    }
+    return Collections.unmodifiableList(Arrays.asList(genres));
+  }
+
+  /** Returns the movie of a row, which is created on first use. */
+  public synchronized MovieItem get(int row) {
+    if (items[row] == null) {
+      items[row] = new MovieItem(getId(row), getTitle(row), getGenres(row), getCount(row));
+    }
+    return items[row];
+  }
+
+  public boolean contains(int id) {
+    return Arrays.binarySearch(sortedIds, id) >= 0;
+  }
+
+  /** Returns the movie with an id, or null if there is none. */
+  public MovieItem getById(int id) {
+    int index = Arrays.binarySearch(sortedIds, id);
+    return index >= 0 ? get(sortedRows[index]) : null;
+  }
+
+  /** Returns the first movies of the catalog. */
+  public List<MovieItem> getFirst(int numMovies) {
+    List<MovieItem> movies = new ArrayList<>();
+    for (int row = 0; row < numMovies && row < this.numMovies; row++) {
+      movies.add(get(row));
+    }
+    return movies;
+  }
+
+  private String decode(int poolStart, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(poolStart + start + i);
+    }
+    return new String(bytes, UTF_8);
+  }
+
+  private static MovieCatalog emptyCatalog() {
+    try {
+      return convert(new StringReader("[]"), 0);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.retrieval;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Item embeddings held in arrays.
+ *
+ * <p>The binary embedding file is little-endian and holds a header (magic, version, number of
+ * items, dimension), the item ids, and the embeddings of all items one after the other. It is read
+ * in chunks, so it is never held in memory twice.
+ */
+public final class ArrayEmbeddingStore implements EmbeddingStore {
+  private static final int MAGIC = 0x53424d45; // "EMBS"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private final int[] ids;
+  private final float[] vectors;
+  private final int dimension;
+
+  /**
+   * @param ids item id of every row.
+   * @param vectors embeddings of all rows one after the other.
+   */
+  public ArrayEmbeddingStore(int[] ids, float[] vectors, int dimension) {
+    if (dimension <= 0 || vectors.length != ids.length * dimension) {
+      throw new IllegalArgumentException("Embeddings do not match ids and dimension.");
+    }
+    this.ids = ids;
+    this.vectors = vectors;
+    this.dimension = dimension;
+  }
+
+  /** Reads an embedding file. */
+  public static ArrayEmbeddingStore read(InputStream ins) throws IOException {
+    ReadableByteChannel channel = Channels.newChannel(ins);
+    ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    chunk.limit(HEADER_SIZE);
+    readFully(channel, chunk);
+    chunk.flip();
+    if (chunk.getInt() != MAGIC || chunk.getInt() != VERSION) {
+      throw new IOException("Not an embedding file.");
+    }
+    int numItems = chunk.getInt();
+    int dimension = chunk.getInt();
+    if (numItems < 0 || dimension <= 0 || (long) numItems * dimension > Integer.MAX_VALUE) {
+      throw new IOException("Invalid embedding file.");
+    }
+
+    int[] ids = new int[numItems];
+    for (int index = 0; index < ids.length; ) {
+      chunk.clear();
+      chunk.limit(4 * Math.min(ids.length - index, CHUNK_SIZE / 4));
+      readFully(channel, chunk);
+      chunk.flip();
+      int count = chunk.remaining() / 4;
+      chunk.asIntBuffer().get(ids, index, count);
+      index += count;
+    }
+    float[] vectors = new float[numItems * dimension];
+    for (int index = 0; index < vectors.length; ) {
+      chunk.clear();
+      chunk.limit(4 * Math.min(vectors.length - index, CHUNK_SIZE / 4));
+      readFully(channel, chunk);
+      chunk.flip();
+      int count = chunk.remaining() / 4;
+      chunk.asFloatBuffer().get(vectors, index, count);
+      index += count;
+    }
+    return new ArrayEmbeddingStore(ids, vectors, dimension);
+  }
+
+  /** Writes the embeddings in the format {@link #read} expects. */
+  public void write(OutputStream out) throws IOException {
+    WritableByteChannel channel = Channels.newChannel(out);
+    ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    chunk.putInt(MAGIC).putInt(VERSION).putInt(ids.length).putInt(dimension);
+    for (int id : ids) {
+      if (!chunk.hasRemaining()) {
+        writeChunk(channel, chunk);
+      }
+      chunk.putInt(id);
+    }
+    for (float value : vectors) {
+      if (!chunk.hasRemaining()) {
+        writeChunk(channel, chunk);
+      }
+      chunk.putFloat(value);
+    }
+    writeChunk(channel, chunk);
+  }
+
+  @Override
+  public int size() {
+    return ids.length;
+  }
+
+  @Override
+  public int getDimension() {
+    return dimension;
+  }
+
+  @Override
+  public int getId(int row) {
+    return ids[row];
+  }
+
+  @Override
+  public void getEmbedding(int row, float[] out, int offset) {
+    System.arraycopy(vectors, row * dimension, out, offset, dimension);
+  }
+
+  private static void readFully(ReadableByteChannel channel, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Truncated embedding file.");
+      }
+    }
+  }
+
+  private static void writeChunk(WritableByteChannel channel, ByteBuffer chunk)
+      throws IOException {
+    chunk.flip();
+    while (chunk.hasRemaining()) {
+      channel.write(chunk);
+    }
+    chunk.clear();
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.retrieval;
+
+/** Source of item embeddings, which all have the same dimension. */
+public interface EmbeddingStore {
+  /** Number of items. */
+  int size();
+
+  int getDimension();
+
+  /** Returns the item id of a row. */
+  int getId(int row);
+
+  /** Copies the embedding of a row into out, starting at the given offset. */
+  void getEmbedding(int row, float[] out, int offset);
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.retrieval;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate maximum inner product search over item embeddings, with an inverted file index.
+ *
+ * <p>Embeddings are clustered by k-means into lists, and stored list by list in one float array.
+ * A search ranks the lists by the dot product of the query with their centroids, and scans only the
+ * best of them, so its cost is bounded by the number of probed lists rather than the number of
+ * items. Dot products are unrolled over independent accumulators, which the JIT can vectorize.
+ *
+ * <p>How many lists must be probed for a given recall depends on how well the embeddings cluster:
+ * well clustered embeddings are found in a few lists, while embeddings without clusters need about
+ * half of the lists for a recall around 0.95. By default a search probes about the square root of
+ * the number of lists, which favors latency over recall.
+ *
+ * <p>Items are looked up by id with a binary search over the sorted ids, so memory use does not
+ * depend on how large the ids are.
+ *
+ * <p>Building the index is slow for large catalogs, so it can be written to a file that is memory
+ * mapped and copied in bulk when read. The file is little-endian and holds a header (magic,
+ * version, key of the source embeddings, dimension, number of items, number of lists), the
+ * centroids, the start of every list, and the ids and embeddings of all items in list order.
+ */
+public final class IvfIndex {
+  private static final int MAGIC = 0x46565649; // "IVFV"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 28;
+  private static final int KMEANS_ITERATIONS = 8;
+  private static final int KMEANS_SAMPLES_PER_LIST = 64;
+  private static final int MIN_DEFAULT_PROBES = 4;
+
+  /** Decides which items a search may return. */
+  public interface IdFilter {
+    boolean accept(int id);
+  }
+
+  private final long sourceKey;
+  private final int dimension;
+  private final int numLists;
+  private final float[] centroids;
+  private final int[] listStarts;
+  // Ids and embeddings of all items, list after list.
+  private final int[] ids;
+  private final float[] vectors;
+  // Ids of all items in increasing order, and the slot of every one of them.
+  private final int[] sortedIds;
+  private final int[] sortedSlots;
+
+  // Scratch space of searches, guarded by this.
+  private final float[] listScores;
+  private final int[] probedLists;
+  private final float[] probedScores;
+
+  private IvfIndex(
+      long sourceKey,
+      int dimension,
+      float[] centroids,
+      int[] listStarts,
+      int[] ids,
+      float[] vectors) {
+    this.sourceKey = sourceKey;
+    this.dimension = dimension;
+    this.numLists = listStarts.length - 1;
+    this.centroids = centroids;
+    this.listStarts = listStarts;
+    this.ids = ids;
+    this.vectors = vectors;
+
+    // Sorts (id, slot) pairs packed into longs, so that the slots follow their ids.
+    long[] idSlots = new long[ids.length];
+    for (int slot = 0; slot < ids.length; slot++) {
+      idSlots[slot] = ((long) ids[slot] << 32) | slot;
+    }
+    Arrays.sort(idSlots);
+    sortedIds = new int[ids.length];
+    sortedSlots = new int[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      sortedIds[i] = (int) (idSlots[i] >> 32);
+      sortedSlots[i] = (int) idSlots[i];
+    }
+    listScores = new float[numLists];
+    probedLists = new int[numLists];
+    probedScores = new float[numLists];
+  }
+
+  /**
+   * Clusters the embeddings of a store into an index.
+   *
+   * @param numLists number of lists, usually around the square root of the number of items.
+   * @param sourceKey key of the embedding file, which is kept with the index.
+   * @throws IllegalArgumentException if the store is empty.
+   */
+  public static IvfIndex build(
+      EmbeddingStore store, int numLists, long sourceKey, Random random) {
+    int numItems = store.size();
+    if (numItems == 0) {
+      throw new IllegalArgumentException("Cannot index an empty embedding store.");
+    }
+    int dimension = store.getDimension();
+    numLists = Math.max(1, Math.min(numLists, numItems));
+
+    // Run k-means on a sample, and then assign every item to its closest centroid.
+    int numSamples = Math.min(numItems, numLists * KMEANS_SAMPLES_PER_LIST);
+    int[] sampleRows = sampleRows(numItems, numSamples, random);
+    float[] samples = new float[numSamples * dimension];
+    for (int i = 0; i < numSamples; i++) {
+      store.getEmbedding(sampleRows[i], samples, i * dimension);
+    }
+    float[] centroids = Arrays.copyOf(samples, numLists * dimension);
+    int[] sampleLists = new int[numSamples];
+    int[] listSizes = new int[numLists];
+    for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+      float[] halfNorms = halfSquaredNorms(centroids, numLists, dimension);
+      for (int i = 0; i < numSamples; i++) {
+        sampleLists[i] = closestCentroid(samples, i * dimension, centroids, halfNorms, dimension);
+      }
+      Arrays.fill(centroids, 0);
+      Arrays.fill(listSizes, 0);
+      for (int i = 0; i < numSamples; i++) {
+        int list = sampleLists[i];
+        for (int d = 0; d < dimension; d++) {
+          centroids[list * dimension + d] += samples[i * dimension + d];
+        }
+        listSizes[list]++;
+      }
+      for (int list = 0; list < numLists; list++) {
+        if (listSizes[list] == 0) {
+          // Restart empty lists from a random sample.
+          int offset = random.nextInt(numSamples) * dimension;
+          System.arraycopy(samples, offset, centroids, list * dimension, dimension);
+          continue;
+        }
+        for (int d = 0; d < dimension; d++) {
+          centroids[list * dimension + d] /= listSizes[list];
+        }
+      }
+    }
+
+    float[] halfNorms = halfSquaredNorms(centroids, numLists, dimension);
+    float[] embedding = new float[dimension];
+    int[] itemLists = new int[numItems];
+    Arrays.fill(listSizes, 0);
+    for (int row = 0; row < numItems; row++) {
+      store.getEmbedding(row, embedding, 0);
+      itemLists[row] = closestCentroid(embedding, 0, centroids, halfNorms, dimension);
+      listSizes[itemLists[row]]++;
+    }
+    int[] listStarts = new int[numLists + 1];
+    for (int list = 0; list < numLists; list++) {
+      listStarts[list + 1] = listStarts[list] + listSizes[list];
+    }
+    int[] nextSlots = Arrays.copyOf(listStarts, numLists);
+    int[] ids = new int[numItems];
+    float[] vectors = new float[numItems * dimension];
+    for (int row = 0; row < numItems; row++) {
+      int slot = nextSlots[itemLists[row]]++;
+      ids[slot] = store.getId(row);
+      store.getEmbedding(row, vectors, slot * dimension);
+    }
+    return new IvfIndex(sourceKey, dimension, centroids, listStarts, ids, vectors);
+  }
+
+  /**
+   * Reads an index file.
+   *
+   * @param sourceKey key of the embedding file the index must be built from.
+   * @return the index, or null if it was built from a different embedding file.
+   * @throws IOException if the file cannot be read or is not a valid index.
+   */
+  public static IvfIndex read(File file, long sourceKey) throws IOException {
+    ByteBuffer buffer;
+    try (FileInputStream in = new FileInputStream(file)) {
+      FileChannel channel = in.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Not an embedding index: " + file);
+      }
+      if (buffer.getLong() != sourceKey) {
+        return null;
+      }
+      int dimension = buffer.getInt();
+      int numItems = buffer.getInt();
+      int numLists = buffer.getInt();
+      if (dimension <= 0 || numItems < 0 || numLists <= 0) {
+        throw new IOException("Invalid embedding index: " + file);
+      }
+      // Check the counts against the file size before allocating anything from them. The counts
+      // are compared with the remaining number of words, since their byte sizes can overflow.
+      long numWords = buffer.remaining() / 4;
+      long numInts = (long) numLists + 1 + numItems;
+      if (numInts > numWords || (long) numLists + numItems > (numWords - numInts) / dimension) {
+        throw new IOException("Truncated embedding index: " + file);
+      }
+      float[] centroids = new float[numLists * dimension];
+      int[] listStarts = new int[numLists + 1];
+      int[] ids = new int[numItems];
+      float[] vectors = new float[numItems * dimension];
+      buffer.asFloatBuffer().get(centroids);
+      buffer.position(buffer.position() + 4 * centroids.length);
+      buffer.asIntBuffer().get(listStarts);
+      buffer.position(buffer.position() + 4 * listStarts.length);
+      buffer.asIntBuffer().get(ids);
+      buffer.position(buffer.position() + 4 * ids.length);
+      buffer.asFloatBuffer().get(vectors);
+      if (listStarts[0] != 0 || listStarts[numLists] != numItems) {
+        throw new IOException("Invalid embedding index: " + file);
+      }
+      for (int list = 0; list < numLists; list++) {
+        if (listStarts[list] > listStarts[list + 1]) {
+          throw new IOException("Invalid embedding index: " + file);
+        }
+      }
+      return new IvfIndex(sourceKey, dimension, centroids, listStarts, ids, vectors);
+    } catch (RuntimeException ex) {
+      // Truncated or otherwise corrupted index.
+      throw new IOException("Invalid embedding index: " + file, ex);
+    }
+  }
+
+  /** Writes the index to a file, replacing it atomically. */
+  public void write(File file) throws IOException {
+    int size =
+        HEADER_SIZE + 4 * (centroids.length + listStarts.length + ids.length + vectors.length);
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putLong(sourceKey);
+    buffer.putInt(dimension).putInt(ids.length).putInt(numLists);
+    buffer.asFloatBuffer().put(centroids);
+    buffer.position(buffer.position() + 4 * centroids.length);
+    buffer.asIntBuffer().put(listStarts);
+    buffer.position(buffer.position() + 4 * listStarts.length);
+    buffer.asIntBuffer().put(ids);
+    buffer.position(buffer.position() + 4 * ids.length);
+    buffer.asFloatBuffer().put(vectors);
+    buffer.clear();
+
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+      FileChannel channel = out.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      out.getFD().sync();
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Cannot write embedding index " + file);
+    }
+  }
+
+  /** Number of items. */
+  public int size() {
+    return ids.length;
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public int getNumLists() {
+    return numLists;
+  }
+
+  /** Number of lists probed by default, about the square root of the number of lists. */
+  public int getDefaultNumProbes() {
+    int numProbes = (int) Math.ceil(Math.sqrt(numLists));
+    return Math.min(numLists, Math.max(MIN_DEFAULT_PROBES, numProbes));
+  }
+
+  /**
+   * Adds the embedding of an item to a vector.
+   *
+   * @return false if the item is not in the index.
+   */
+  public boolean addEmbedding(int id, float[] sum) {
+    int slot = slotOf(id);
+    if (slot < 0) {
+      return false;
+    }
+    int offset = slot * dimension;
+    for (int d = 0; d < dimension; d++) {
+      sum[d] += vectors[offset + d];
+    }
+    return true;
+  }
+
+  /** Returns the dot product of the query with the embedding of an item, or NaN if it is absent. */
+  public float score(int id, float[] query) {
+    int slot = slotOf(id);
+    return slot >= 0 ? dot(query, 0, vectors, slot * dimension, dimension) : Float.NaN;
+  }
+
+  // Slot of an item, or -1 if it is not in the index.
+  private int slotOf(int id) {
+    int index = Arrays.binarySearch(sortedIds, id);
+    return index >= 0 ? sortedSlots[index] : -1;
+  }
+
+  /**
+   * Finds the items with the largest dot products with the query, in the given number of lists
+   * closest to it.
+   *
+   * @param numProbes number of lists to scan, or 0 for {@link #getDefaultNumProbes}.
+   * @param filter items to consider, or null for all items.
+   * @param outIds receives the ids of the best items, best first. Its length is the number of items
+   *     to find.
+   * @param outScores receives the dot products of the best items.
+   * @return number of items found.
+   */
+  public synchronized int search(
+      float[] query, int numProbes, IdFilter filter, int[] outIds, float[] outScores) {
+    int k = Math.min(outIds.length, outScores.length);
+    if (k == 0) {
+      return 0;
+    }
+    if (numProbes <= 0) {
+      numProbes = getDefaultNumProbes();
+    }
+    numProbes = Math.min(numProbes, numLists);
+    for (int list = 0; list < numLists; list++) {
+      listScores[list] = dot(query, 0, centroids, list * dimension, dimension);
+    }
+    int numProbed = TopK.select(listScores, numLists, numProbes, probedLists, probedScores);
+
+    // Keep a min-heap of the best items in outIds and outScores, and sort it at the end.
+    int count = 0;
+    for (int p = 0; p < numProbed; p++) {
+      int list = probedLists[p];
+      for (int slot = listStarts[list]; slot < listStarts[list + 1]; slot++) {
+        float score = dot(query, 0, vectors, slot * dimension, dimension);
+        if (count == k && !(score > outScores[0])) {
+          continue;
+        }
+        int id = ids[slot];
+        if (filter != null && !filter.accept(id)) {
+          continue;
+        }
+        if (count < k) {
+          TopK.push(outScores, outIds, count++, score, id);
+        } else {
+          TopK.replaceMin(outScores, outIds, count, score, id);
+        }
+      }
+    }
+    TopK.sortDescending(outScores, outIds, count);
+    return count;
+  }
+
+  /** Dot product of two vectors stored in arrays at the given offsets. */
+  static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+    // Independent accumulators let the loop be pipelined and vectorized.
+    float sum0 = 0;
+    float sum1 = 0;
+    float sum2 = 0;
+    float sum3 = 0;
+    int i = 0;
+    for (; i + 3 < length; i += 4) {
+      sum0 += a[aOffset + i] * b[bOffset + i];
+      sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+      sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+      sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+    }
+    for (; i < length; i++) {
+      sum0 += a[aOffset + i] * b[bOffset + i];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  // Half squared norms of the centroids, for closestCentroid.
+  private static float[] halfSquaredNorms(float[] centroids, int numLists, int dimension) {
+    float[] halfNorms = new float[numLists];
+    for (int list = 0; list < numLists; list++) {
+      int offset = list * dimension;
+      halfNorms[list] = dot(centroids, offset, centroids, offset, dimension) / 2;
+    }
+    return halfNorms;
+  }
+
+  // Closest centroid in euclidean distance, which minimizes |c|^2 / 2 - x.c.
+  private static int closestCentroid(
+      float[] vectors, int offset, float[] centroids, float[] halfNorms, int dimension) {
+    int best = 0;
+    float bestDistance = Float.POSITIVE_INFINITY;
+    for (int list = 0; list < halfNorms.length; list++) {
+      float distance =
+          halfNorms[list] - dot(vectors, offset, centroids, list * dimension, dimension);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = list;
+      }
+    }
+    return best;
+  }
+
+  // Distinct random rows, by a partial Fisher-Yates shuffle.
+  private static int[] sampleRows(int numItems, int numSamples, Random random) {
+    int[] rows = new int[numItems];
+    for (int row = 0; row < numItems; row++) {
+      rows[row] = row;
+    }
+    for (int i = 0; i < numSamples; i++) {
+      int j = i + random.nextInt(numItems - i);
+      int tmp = rows[i];
+      rows[i] = rows[j];
+      rows[j] = tmp;
+    }
+    return Arrays.copyOf(rows, numSamples);
+  }
+}
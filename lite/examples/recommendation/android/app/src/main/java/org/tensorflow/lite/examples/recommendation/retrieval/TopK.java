@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.retrieval;
+
+/**
+ * Top-K selection with a bounded min-heap kept in parallel score and id arrays, so that selecting
+ * from many candidates allocates nothing.
+ */
+public final class TopK {
+  private TopK() {}
+
+  /**
+   * Selects the k largest scores.
+   *
+   * @param outIndices receives the indices of the best scores, best first.
+   * @param outScores receives the best scores.
+   * @return number of scores selected, which is k unless there are fewer scores.
+   */
+  public static int select(
+      float[] scores, int numScores, int k, int[] outIndices, float[] outScores) {
+    k = Math.min(k, Math.min(outIndices.length, outScores.length));
+    int count = 0;
+    for (int index = 0; index < numScores && k > 0; index++) {
+      float score = scores[index];
+      if (count < k) {
+        push(outScores, outIndices, count++, score, index);
+      } else if (score > outScores[0]) {
+        replaceMin(outScores, outIndices, count, score, index);
+      }
+    }
+    sortDescending(outScores, outIndices, count);
+    return count;
+  }
+
+  /** Adds an entry to a heap of the given size. */
+  public static void push(float[] heapScores, int[] heapIds, int size, float score, int id) {
+    int pos = size;
+    while (pos > 0) {
+      int parent = (pos - 1) / 2;
+      if (!(score < heapScores[parent])) {
+        break;
+      }
+      heapScores[pos] = heapScores[parent];
+      heapIds[pos] = heapIds[parent];
+      pos = parent;
+    }
+    heapScores[pos] = score;
+    heapIds[pos] = id;
+  }
+
+  /** Replaces the smallest entry of a heap of the given size. */
+  public static void replaceMin(float[] heapScores, int[] heapIds, int size, float score, int id) {
+    siftDown(heapScores, heapIds, size, 0, score, id);
+  }
+
+  /** Turns a heap of the given size into arrays sorted by descending score. */
+  public static void sortDescending(float[] heapScores, int[] heapIds, int size) {
+    for (int end = size - 1; end > 0; end--) {
+      float score = heapScores[end];
+      int id = heapIds[end];
+      heapScores[end] = heapScores[0];
+      heapIds[end] = heapIds[0];
+      siftDown(heapScores, heapIds, end, 0, score, id);
+    }
+  }
+
+  private static void siftDown(
+      float[] heapScores, int[] heapIds, int size, int pos, float score, int id) {
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && heapScores[child + 1] < heapScores[child]) {
+        child++;
+      }
+      if (!(heapScores[child] < score)) {
+        break;
+      }
+      heapScores[pos] = heapScores[child];
+      heapIds[pos] = heapIds[child];
+      pos = child;
+    }
+    heapScores[pos] = score;
+    heapIds[pos] = id;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link RecommendationCache}, with a single input of three ids. */
+@RunWith(JUnit4.class)
+public final class RecommendationCacheTest {
+  private static final int[] INPUT_LENGTHS = {3};
+  private static final int OUTPUT_LENGTH = 2;
+  private static final long FINGERPRINT = 7;
+
+  private final RecommendationCache cache =
+      new RecommendationCache(/* maxEntries= */ 2, INPUT_LENGTHS, OUTPUT_LENGTH);
+  private final int[] outputIds = new int[OUTPUT_LENGTH];
+  private final float[] outputScores = new float[OUTPUT_LENGTH];
+  private File cacheFile;
+
+  @Before
+  public void setUp() throws IOException {
+    cache.validate(FINGERPRINT);
+    cacheFile = File.createTempFile("recommendation", ".cache");
+  }
+
+  @After
+  public void tearDown() {
+    cacheFile.delete();
+  }
+
+  @Test
+  public void cacheShouldCountHitsMissesAndEvictions() {
+    assertThat(cache.get(inputs(1, 2, 3), outputIds, outputScores)).isFalse();
+    put(cache, inputs(1, 2, 3), 10);
+    put(cache, inputs(4, 5, 6), 40);
+
+    assertThat(cache.get(inputs(1, 2, 3), outputIds, outputScores)).isTrue();
+    assertThat(outputIds).isEqualTo(new int[] {10, 11});
+    assertThat(outputScores).isEqualTo(new float[] {0.5f, 0.25f});
+
+    // The least recently used entry is evicted.
+    put(cache, inputs(7, 8, 9), 70);
+    assertThat(cache.get(inputs(4, 5, 6), outputIds, outputScores)).isFalse();
+    assertThat(cache.get(inputs(7, 8, 9), outputIds, outputScores)).isTrue();
+    assertThat(cache.get(inputs(1, 2, 3), outputIds, outputScores)).isTrue();
+
+    RecommendationCache.Stats stats = cache.getStats();
+    assertThat(stats.hitCount).isEqualTo(3);
+    assertThat(stats.missCount).isEqualTo(2);
+    assertThat(stats.evictionCount).isEqualTo(1);
+    assertThat(stats.size).isEqualTo(2);
+    assertThat(stats.getHitRate()).isEqualTo(0.6f);
+  }
+
+  @Test
+  public void outputsShouldBeCopied() {
+    int[] inputIds = {1, 2, 3};
+    put(cache, new Object[] {inputIds}, 10);
+    // Changing the arrays given to the cache changes neither the key nor the outputs.
+    inputIds[0] = 4;
+
+    assertThat(cache.get(inputs(1, 2, 3), outputIds, outputScores)).isTrue();
+    outputIds[0] = 0;
+    assertThat(cache.get(inputs(1, 2, 3), outputIds, outputScores)).isTrue();
+    assertThat(outputIds).isEqualTo(new int[] {10, 11});
+  }
+
+  @Test
+  public void hashCollisionsShouldMiss() {
+    // Found by solving for a collision of the FNV-1a steps.
+    Object[] inputs = inputs(0, 1961775894, 0);
+    Object[] collidingInputs = inputs(1, 185707140, 2147294423);
+    assertThat(RecommendationCache.hash(collidingInputs))
+        .isEqualTo(RecommendationCache.hash(inputs));
+
+    put(cache, inputs, 10);
+
+    assertThat(cache.get(collidingInputs, outputIds, outputScores)).isFalse();
+    assertThat(cache.get(inputs, outputIds, outputScores)).isTrue();
+  }
+
+  @Test
+  public void otherFingerprintShouldDropEntries() {
+    put(cache, inputs(1, 2, 3), 10);
+
+    cache.validate(FINGERPRINT);
+    assertThat(cache.get(inputs(1, 2, 3), outputIds, outputScores)).isTrue();
+    cache.validate(FINGERPRINT + 1);
+    assertThat(cache.get(inputs(1, 2, 3), outputIds, outputScores)).isFalse();
+    assertThat(cache.getStats().size).isEqualTo(0);
+  }
+
+  @Test
+  public void fingerprintShouldChangeWithModelAndConfig() {
+    Config config = new Config();
+    long fingerprint = RecommendationCache.fingerprint(config, /* modelKey= */ 1);
+
+    assertThat(RecommendationCache.fingerprint(config, 1)).isEqualTo(fingerprint);
+    assertThat(RecommendationCache.fingerprint(config, 2)).isNotEqualTo(fingerprint);
+    config.outputLength++;
+    assertThat(RecommendationCache.fingerprint(config, 1)).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void savedCacheShouldLoadBack() throws IOException {
+    put(cache, inputs(1, 2, 3), 10);
+    put(cache, inputs(4, 5, 6), 40);
+    cache.save(cacheFile);
+
+    RecommendationCache loaded = newCache(FINGERPRINT);
+
+    assertThat(loaded.load(cacheFile)).isEqualTo(2);
+    assertThat(loaded.get(inputs(4, 5, 6), outputIds, outputScores)).isTrue();
+    assertThat(outputIds).isEqualTo(new int[] {40, 41});
+    assertThat(loaded.get(inputs(1, 2, 3), outputIds, outputScores)).isTrue();
+    assertThat(outputIds).isEqualTo(new int[] {10, 11});
+  }
+
+  @Test
+  public void cacheOfAnotherFingerprintShouldNotLoad() throws IOException {
+    put(cache, inputs(1, 2, 3), 10);
+    cache.save(cacheFile);
+
+    RecommendationCache loaded = newCache(FINGERPRINT + 1);
+
+    assertThat(loaded.load(cacheFile)).isEqualTo(0);
+    assertThat(loaded.getStats().size).isEqualTo(0);
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedCacheShouldNotLoad() throws IOException {
+    put(cache, inputs(1, 2, 3), 10);
+    cache.save(cacheFile);
+    try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+      file.setLength(file.length() - 2);
+    }
+
+    newCache(FINGERPRINT).load(cacheFile);
+  }
+
+  @Test(expected = IOException.class)
+  public void entriesOfOtherLengthsShouldNotLoad() throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(cacheFile))) {
+      out.writeInt(0x43524543);
+      out.writeInt(1);
+      out.writeLong(FINGERPRINT);
+      out.writeInt(/* numEntries= */ 1);
+      out.writeInt(/* numInputs= */ 1);
+      // A corrupted length, which must not be allocated.
+      out.writeInt(Integer.MAX_VALUE);
+    }
+
+    newCache(FINGERPRINT).load(cacheFile);
+  }
+
+  private static RecommendationCache newCache(long fingerprint) {
+    RecommendationCache cache =
+        new RecommendationCache(/* maxEntries= */ 2, INPUT_LENGTHS, OUTPUT_LENGTH);
+    cache.validate(fingerprint);
+    return cache;
+  }
+
+  // Caches outputs that are derived from the given id.
+  private static void put(RecommendationCache cache, Object[] inputs, int id) {
+    cache.put(inputs, new int[] {id, id + 1}, new float[] {0.5f, 0.25f});
+  }
+
+  private static Object[] inputs(int... ids) {
+    return new Object[] {ids};
+  }
+}
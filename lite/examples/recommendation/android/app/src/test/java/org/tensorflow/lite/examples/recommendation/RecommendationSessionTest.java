@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tensorflow.lite.examples.recommendation.Config.Feature;
+import org.tensorflow.lite.examples.recommendation.data.MovieItem;
+
+/** Tests of {@link RecommendationSession}, checking the model inputs it keeps in place. */
+@RunWith(JUnit4.class)
+public final class RecommendationSessionTest {
+  private static final int PAD = -1;
+  private static final int UNKNOWN_GENRE = 99;
+
+  private static final MovieItem TOY_STORY =
+      new MovieItem(1, "Toy Story", Arrays.asList("Animation", "Comedy"), 10);
+  private static final MovieItem HEAT = new MovieItem(6, "Heat", Arrays.asList("Action"), 10);
+  private static final MovieItem ALIEN =
+      new MovieItem(200, "Alien", Arrays.asList("Horror", "Sci-Fi"), 10);
+
+  private final Config config = newConfig();
+  private final Map<String, Integer> genres = newGenres();
+  private final RecommendationSession session =
+      new RecommendationSession(
+          config,
+          features(feature(Config.FEATURE_MOVIE, 0, 3), feature(Config.FEATURE_GENRE, 1, 4)));
+
+  @Test
+  public void newSessionShouldHavePaddedInputs() {
+    Object[] inputs = session.getInputs(genres);
+
+    assertThat(session.isEmpty()).isTrue();
+    assertThat(inputs.length).isEqualTo(2);
+    assertThat(inputs[0]).isEqualTo(new int[] {PAD, PAD, PAD});
+    assertThat(inputs[1]).isEqualTo(unknownGenres(4));
+  }
+
+  @Test
+  public void addedMoviesShouldBeWrittenToInputsInOrder() {
+    session.getInputs(genres);
+    assertThat(session.add(TOY_STORY)).isTrue();
+    assertThat(session.add(ALIEN)).isTrue();
+    assertThat(session.add(TOY_STORY)).isFalse();
+
+    Object[] inputs = session.getInputs(genres);
+
+    assertThat(session.getSelectedMovies()).containsExactly(TOY_STORY, ALIEN).inOrder();
+    assertThat(inputs[0]).isEqualTo(new int[] {1, 200, PAD});
+    // Genres missing from the vocabulary are mapped to the unknown genre.
+    assertThat(inputs[1]).isEqualTo(new int[] {1, 2, 3, UNKNOWN_GENRE});
+  }
+
+  @Test
+  public void removedMoviesShouldBeRemovedFromInputs() {
+    session.add(TOY_STORY);
+    session.add(HEAT);
+    session.add(ALIEN);
+    // Genres are cut at the input length.
+    assertThat(session.getInputs(genres)[1]).isEqualTo(new int[] {1, 2, 4, 3});
+
+    assertThat(session.remove(HEAT)).isTrue();
+    assertThat(session.remove(HEAT)).isFalse();
+    Object[] inputs = session.getInputs(genres);
+
+    assertThat(session.isSelected(HEAT.id)).isFalse();
+    assertThat(session.isSelected(ALIEN.id)).isTrue();
+    assertThat(inputs[0]).isEqualTo(new int[] {1, 200, PAD});
+    assertThat(inputs[1]).isEqualTo(new int[] {1, 2, 3, UNKNOWN_GENRE});
+  }
+
+  @Test
+  public void inputsShouldBeRewrittenWhenGenresAreLoadedLater() {
+    session.add(HEAT);
+    Object[] inputs = session.getInputs(Collections.emptyMap());
+    assertThat(inputs[1]).isEqualTo(unknownGenres(4));
+
+    inputs = session.getInputs(genres);
+
+    assertThat(inputs[1]).isEqualTo(new int[] {4, UNKNOWN_GENRE, UNKNOWN_GENRE, UNKNOWN_GENRE});
+  }
+
+  @Test
+  public void clearShouldResetSelectionAndInputs() {
+    session.add(TOY_STORY);
+    session.add(ALIEN);
+
+    session.clear();
+    Object[] inputs = session.getInputs(genres);
+
+    assertThat(session.isEmpty()).isTrue();
+    assertThat(session.isSelected(TOY_STORY.id)).isFalse();
+    assertThat(session.isSelected(ALIEN.id)).isFalse();
+    assertThat(inputs[0]).isEqualTo(new int[] {PAD, PAD, PAD});
+  }
+
+  @Test
+  public void sessionShouldOnlyKeepInputsOfItsFeatures() {
+    RecommendationSession idsOnly =
+        new RecommendationSession(config, features(feature(Config.FEATURE_MOVIE, 0, 2)));
+    idsOnly.add(HEAT);
+
+    Object[] inputs = idsOnly.getInputs(genres);
+
+    assertThat(inputs.length).isEqualTo(1);
+    assertThat(inputs[0]).isEqualTo(new int[] {6, PAD});
+  }
+
+  private static Config newConfig() {
+    Config config = new Config();
+    config.pad = PAD;
+    config.unknownGenre = UNKNOWN_GENRE;
+    return config;
+  }
+
+  private static Map<String, Integer> newGenres() {
+    Map<String, Integer> genres = new HashMap<>();
+    genres.put("Animation", 1);
+    genres.put("Comedy", 2);
+    genres.put("Horror", 3);
+    genres.put("Action", 4);
+    return genres;
+  }
+
+  private static int[] unknownGenres(int length) {
+    int[] genres = new int[length];
+    Arrays.fill(genres, UNKNOWN_GENRE);
+    return genres;
+  }
+
+  private static Feature feature(String name, int index, int inputLength) {
+    Feature feature = new Feature();
+    feature.name = name;
+    feature.index = index;
+    feature.inputLength = inputLength;
+    return feature;
+  }
+
+  private static List<Feature> features(Feature... features) {
+    return Arrays.asList(features);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link MovieCatalog}, converted from JSON and memory mapped back from a file. */
+@RunWith(JUnit4.class)
+public final class MovieCatalogTest {
+  private static final long SOURCE_KEY = 0x1234abcdL;
+  private static final String MOVIES =
+      "[{\"id\": 3, \"title\": \"Toy Story (1995)\", \"genres\": [\"Animation\", \"Comedy\"],"
+          + " \"count\": 2077},"
+          + " {\"id\": 10, \"title\": \"Am\u00e9lie (2001)\","
+          + " \"genres\": [\"Comedy\", \"Romance\"], \"count\": 1000},"
+          + " {\"id\": 7, \"title\": \"Heat (1995)\", \"genres\": [], \"count\": 5}]";
+
+  private File catalogFile;
+
+  @Before
+  public void setUp() throws IOException {
+    catalogFile = File.createTempFile("movies", ".catalog");
+  }
+
+  @After
+  public void tearDown() {
+    catalogFile.delete();
+  }
+
+  @Test
+  public void convertedCatalogShouldReadBackFromFile() throws IOException {
+    MovieCatalog.convert(new StringReader(MOVIES), SOURCE_KEY).write(catalogFile);
+
+    MovieCatalog catalog = MovieCatalog.read(catalogFile, SOURCE_KEY);
+
+    assertThat(catalog).isNotNull();
+    assertThat(catalog.getSourceKey()).isEqualTo(SOURCE_KEY);
+    assertThat(catalog.size()).isEqualTo(3);
+    assertThat(catalog.getId(1)).isEqualTo(10);
+    assertThat(catalog.getTitle(1)).isEqualTo("Am\u00e9lie (2001)");
+    assertThat(catalog.getCount(1)).isEqualTo(1000);
+    assertThat(catalog.getGenres(0)).containsExactly("Animation", "Comedy").inOrder();
+    assertThat(catalog.getGenres(2)).isEmpty();
+
+    MovieItem movie = catalog.getById(7);
+    assertThat(movie.id).isEqualTo(7);
+    assertThat(movie.title).isEqualTo("Heat (1995)");
+    assertThat(movie.count).isEqualTo(5);
+    assertThat(catalog.getById(7)).isSameInstanceAs(movie);
+    assertThat(catalog.contains(3)).isTrue();
+    assertThat(catalog.contains(4)).isFalse();
+    assertThat(catalog.getById(4)).isNull();
+    assertThat(catalog.getById(100)).isNull();
+    assertThat(catalog.getFirst(2)).hasSize(2);
+  }
+
+  @Test
+  public void catalogOfAnotherSourceShouldNotBeRead() throws IOException {
+    MovieCatalog.convert(new StringReader(MOVIES), SOURCE_KEY).write(catalogFile);
+
+    assertThat(MovieCatalog.read(catalogFile, SOURCE_KEY + 1)).isNull();
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedCatalogShouldNotBeRead() throws IOException {
+    MovieCatalog.convert(new StringReader(MOVIES), SOURCE_KEY).write(catalogFile);
+    try (RandomAccessFile file = new RandomAccessFile(catalogFile, "rw")) {
+      file.setLength(file.length() - 8);
+    }
+
+    MovieCatalog.read(catalogFile, SOURCE_KEY);
+  }
+
+  @Test
+  public void catalogShouldFindLargeIds() throws IOException {
+    MovieCatalog catalog =
+        MovieCatalog.convert(
+            new StringReader(
+                "[{\"id\": 2147483647, \"title\": \"Last\", \"genres\": [], \"count\": 1},"
+                    + " {\"id\": -5, \"title\": \"First\", \"genres\": [], \"count\": 2}]"),
+            SOURCE_KEY);
+
+    assertThat(catalog.getById(Integer.MAX_VALUE).title).isEqualTo("Last");
+    assertThat(catalog.getById(-5).title).isEqualTo("First");
+    assertThat(catalog.contains(0)).isFalse();
+  }
+
+  @Test(expected = IOException.class)
+  public void movieWithoutIdShouldNotBeConverted() throws IOException {
+    MovieCatalog.convert(
+        new StringReader("[{\"title\": \"Heat (1995)\", \"genres\": [], \"count\": 5}]"),
+        SOURCE_KEY);
+  }
+
+  @Test(expected = IOException.class)
+  public void duplicateIdsShouldNotBeConverted() throws IOException {
+    MovieCatalog.convert(
+        new StringReader(
+            "[{\"id\": 3, \"title\": \"A\", \"genres\": [], \"count\": 1},"
+                + " {\"id\": 3, \"title\": \"B\", \"genres\": [], \"count\": 2}]"),
+        SOURCE_KEY);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.retrieval;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link ArrayEmbeddingStore}, written and read back from bytes. */
+@RunWith(JUnit4.class)
+public final class ArrayEmbeddingStoreTest {
+  private static final int DIMENSION = 3;
+
+  @Test
+  public void writtenEmbeddingsShouldReadBack() throws IOException {
+    // Enough embeddings to span several chunks.
+    int numItems = 10000;
+    int[] ids = new int[numItems];
+    float[] vectors = new float[numItems * DIMENSION];
+    for (int row = 0; row < numItems; row++) {
+      ids[row] = numItems - row;
+      for (int d = 0; d < DIMENSION; d++) {
+        vectors[row * DIMENSION + d] = row + d / 10f;
+      }
+    }
+
+    ArrayEmbeddingStore store = readBack(new ArrayEmbeddingStore(ids, vectors, DIMENSION));
+
+    assertThat(store.size()).isEqualTo(numItems);
+    assertThat(store.getDimension()).isEqualTo(DIMENSION);
+    assertThat(store.getId(1)).isEqualTo(numItems - 1);
+    float[] embedding = new float[DIMENSION + 1];
+    store.getEmbedding(numItems - 1, embedding, 1);
+    assertThat(embedding).isEqualTo(new float[] {0, 9999f, 9999.1f, 9999.2f});
+  }
+
+  @Test
+  public void emptyStoreShouldReadBack() throws IOException {
+    ArrayEmbeddingStore store =
+        readBack(new ArrayEmbeddingStore(new int[0], new float[0], DIMENSION));
+
+    assertThat(store.size()).isEqualTo(0);
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedFileShouldNotBeRead() throws IOException {
+    byte[] bytes = write(new ArrayEmbeddingStore(new int[] {1, 2}, new float[6], DIMENSION));
+
+    ArrayEmbeddingStore.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 4)));
+  }
+
+  @Test(expected = IOException.class)
+  public void otherFileShouldNotBeRead() throws IOException {
+    ArrayEmbeddingStore.read(new ByteArrayInputStream(new byte[64]));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void embeddingsShouldMatchIds() {
+    new ArrayEmbeddingStore(new int[] {1, 2}, new float[5], DIMENSION);
+  }
+
+  private static ArrayEmbeddingStore readBack(ArrayEmbeddingStore store) throws IOException {
+    return ArrayEmbeddingStore.read(new ByteArrayInputStream(write(store)));
+  }
+
+  private static byte[] write(ArrayEmbeddingStore store) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    store.write(out);
+    return out.toByteArray();
+  }
+}
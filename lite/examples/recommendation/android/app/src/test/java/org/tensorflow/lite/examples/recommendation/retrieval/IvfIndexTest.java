@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.retrieval;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link IvfIndex}, against brute force search with {@link TopK}. */
+@RunWith(JUnit4.class)
+public final class IvfIndexTest {
+  private static final int NUM_ITEMS = 4000;
+  private static final int DIMENSION = 16;
+  private static final int NUM_LISTS = 64;
+  private static final int K = 50;
+  private static final int NUM_QUERIES = 50;
+  private static final long SOURCE_KEY = 42;
+
+  private final Random random = new Random(7);
+  private File indexFile;
+
+  @Before
+  public void setUp() throws IOException {
+    indexFile = File.createTempFile("embeddings", ".index");
+  }
+
+  @After
+  public void tearDown() {
+    indexFile.delete();
+  }
+
+  @Test
+  public void halfOfTheListsShouldRecallEmbeddingsWithoutClusters() {
+    ArrayEmbeddingStore store = randomStore(/* numClusters= */ 0);
+    IvfIndex index = IvfIndex.build(store, NUM_LISTS, SOURCE_KEY, random);
+
+    assertThat(recall(store, index, NUM_LISTS / 2)).isAtLeast(0.9);
+    assertThat(recall(store, index, NUM_LISTS)).isAtLeast(0.999);
+  }
+
+  @Test
+  public void defaultProbesShouldRecallClusteredEmbeddings() {
+    ArrayEmbeddingStore store = randomStore(/* numClusters= */ 20);
+    IvfIndex index = IvfIndex.build(store, NUM_LISTS, SOURCE_KEY, random);
+
+    assertThat(index.getDefaultNumProbes()).isEqualTo(8);
+    assertThat(recall(store, index, /* numProbes= */ 0)).isAtLeast(0.99);
+  }
+
+  @Test
+  public void searchShouldSkipFilteredItems() {
+    ArrayEmbeddingStore store = randomStore(/* numClusters= */ 0);
+    IvfIndex index = IvfIndex.build(store, NUM_LISTS, SOURCE_KEY, random);
+    int[] ids = new int[K];
+    float[] scores = new float[K];
+
+    int count = index.search(randomQuery(), NUM_LISTS, id -> id % 2 == 0, ids, scores);
+
+    assertThat(count).isEqualTo(K);
+    for (int i = 0; i < count; i++) {
+      assertThat(ids[i] % 2).isEqualTo(0);
+      if (i > 0) {
+        assertThat(scores[i]).isAtMost(scores[i - 1]);
+      }
+    }
+  }
+
+  @Test
+  public void itemsShouldBeScoredByTheirEmbeddings() {
+    ArrayEmbeddingStore store = randomStore(/* numClusters= */ 0);
+    IvfIndex index = IvfIndex.build(store, NUM_LISTS, SOURCE_KEY, random);
+    float[] query = randomQuery();
+    float[] embedding = new float[DIMENSION];
+    store.getEmbedding(/* row= */ 10, embedding, 0);
+
+    float[] sum = new float[DIMENSION];
+    assertThat(index.addEmbedding(store.getId(10), sum)).isTrue();
+    assertThat(sum).isEqualTo(embedding);
+    assertThat(index.score(store.getId(10), query))
+        .isEqualTo(IvfIndex.dot(query, 0, embedding, 0, DIMENSION));
+    assertThat(index.addEmbedding(/* id= */ 1, sum)).isFalse();
+    assertThat(Float.isNaN(index.score(/* id= */ 1, query))).isTrue();
+  }
+
+  @Test
+  public void writtenIndexShouldSearchTheSame() throws IOException {
+    ArrayEmbeddingStore store = randomStore(/* numClusters= */ 0);
+    IvfIndex index = IvfIndex.build(store, NUM_LISTS, SOURCE_KEY, random);
+    index.write(indexFile);
+
+    IvfIndex readIndex = IvfIndex.read(indexFile, SOURCE_KEY);
+
+    assertThat(readIndex.size()).isEqualTo(NUM_ITEMS);
+    assertThat(readIndex.getNumLists()).isEqualTo(NUM_LISTS);
+    float[] query = randomQuery();
+    int[] ids = new int[K];
+    int[] readIds = new int[K];
+    index.search(query, 8, null, ids, new float[K]);
+    readIndex.search(query, 8, null, readIds, new float[K]);
+    assertThat(readIds).isEqualTo(ids);
+  }
+
+  @Test
+  public void indexOfAnotherSourceShouldNotBeRead() throws IOException {
+    IvfIndex.build(randomStore(/* numClusters= */ 0), NUM_LISTS, SOURCE_KEY, random)
+        .write(indexFile);
+
+    assertThat(IvfIndex.read(indexFile, SOURCE_KEY + 1)).isNull();
+  }
+
+  @Test
+  public void itemsWithLargeIdsShouldBeFound() {
+    float[] vectors = new float[2 * DIMENSION];
+    vectors[0] = 1;
+    vectors[DIMENSION] = 2;
+    IvfIndex index =
+        IvfIndex.build(
+            new ArrayEmbeddingStore(new int[] {Integer.MAX_VALUE, -3}, vectors, DIMENSION),
+            NUM_LISTS,
+            SOURCE_KEY,
+            random);
+
+    float[] sum = new float[DIMENSION];
+    assertThat(index.addEmbedding(Integer.MAX_VALUE, sum)).isTrue();
+    assertThat(index.addEmbedding(-3, sum)).isTrue();
+    assertThat(sum[0]).isEqualTo(3f);
+    assertThat(index.addEmbedding(0, sum)).isFalse();
+  }
+
+  @Test(expected = IOException.class)
+  public void indexWithCountsBeyondTheFileShouldNotBeRead() throws IOException {
+    IvfIndex.build(randomStore(/* numClusters= */ 0), NUM_LISTS, SOURCE_KEY, random)
+        .write(indexFile);
+    try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+      // Number of items.
+      file.seek(20);
+      file.write(littleEndian(Integer.MAX_VALUE));
+    }
+
+    IvfIndex.read(indexFile, SOURCE_KEY);
+  }
+
+  @Test(expected = IOException.class)
+  public void indexWithOverflowingSizeShouldNotBeRead() throws IOException {
+    IvfIndex.build(randomStore(/* numClusters= */ 0), NUM_LISTS, SOURCE_KEY, random)
+        .write(indexFile);
+    try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+      // Dimension, number of items and number of lists, whose byte size overflows a long, so the
+      // index would allocate gigabytes if the size passed the check.
+      file.seek(16);
+      file.write(littleEndian(1 << 30));
+      file.write(littleEndian(Integer.MAX_VALUE));
+      file.write(littleEndian(1));
+    }
+
+    IvfIndex.read(indexFile, SOURCE_KEY);
+  }
+
+  @Test(expected = IOException.class)
+  public void indexWithUnorderedListsShouldNotBeRead() throws IOException {
+    IvfIndex.build(randomStore(/* numClusters= */ 0), NUM_LISTS, SOURCE_KEY, random)
+        .write(indexFile);
+    try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+      // Start of the second list, after the header, the centroids and the start of the first list.
+      file.seek(28 + 4 * NUM_LISTS * DIMENSION + 4);
+      file.write(littleEndian(NUM_ITEMS + 1));
+    }
+
+    IvfIndex.read(indexFile, SOURCE_KEY);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyStoreShouldNotBeIndexed() {
+    IvfIndex.build(
+        new ArrayEmbeddingStore(new int[0], new float[0], DIMENSION),
+        NUM_LISTS,
+        SOURCE_KEY,
+        random);
+  }
+
+  // Mean share of the true top K, found by brute force, that the index finds for random queries.
+  private double recall(ArrayEmbeddingStore store, IvfIndex index, int numProbes) {
+    float[] embeddings = new float[NUM_ITEMS * DIMENSION];
+    for (int row = 0; row < NUM_ITEMS; row++) {
+      store.getEmbedding(row, embeddings, row * DIMENSION);
+    }
+    float[] allScores = new float[NUM_ITEMS];
+    int[] bestRows = new int[K];
+    int[] foundIds = new int[K];
+    float[] scores = new float[K];
+    int numFound = 0;
+    for (int q = 0; q < NUM_QUERIES; q++) {
+      // Queries are near items, like the mean embedding of the selected movies.
+      float[] query = new float[DIMENSION];
+      store.getEmbedding(random.nextInt(NUM_ITEMS), query, 0);
+      for (int row = 0; row < NUM_ITEMS; row++) {
+        allScores[row] = IvfIndex.dot(query, 0, embeddings, row * DIMENSION, DIMENSION);
+      }
+      TopK.select(allScores, NUM_ITEMS, K, bestRows, scores);
+      Set<Integer> bestIds = new HashSet<>();
+      for (int row : bestRows) {
+        bestIds.add(store.getId(row));
+      }
+
+      int count = index.search(query, numProbes, null, foundIds, scores);
+      for (int i = 0; i < count; i++) {
+        numFound += bestIds.contains(foundIds[i]) ? 1 : 0;
+      }
+    }
+    return numFound / (double) (NUM_QUERIES * K);
+  }
+
+  // Gaussian embeddings, around the given number of random centers or around 0 if there is none.
+  private ArrayEmbeddingStore randomStore(int numClusters) {
+    float[] centers = new float[Math.max(1, numClusters) * DIMENSION];
+    for (int i = 0; numClusters > 0 && i < centers.length; i++) {
+      centers[i] = (float) random.nextGaussian() * 2;
+    }
+    int[] ids = new int[NUM_ITEMS];
+    float[] vectors = new float[NUM_ITEMS * DIMENSION];
+    for (int row = 0; row < NUM_ITEMS; row++) {
+      // Sparse ids, to tell them apart from rows.
+      ids[row] = 2 * row + 100;
+      int center = random.nextInt(Math.max(1, numClusters));
+      for (int d = 0; d < DIMENSION; d++) {
+        vectors[row * DIMENSION + d] =
+            centers[center * DIMENSION + d] + (float) random.nextGaussian();
+      }
+    }
+    return new ArrayEmbeddingStore(ids, vectors, DIMENSION);
+  }
+
+  private static byte[] littleEndian(int value) {
+    return new byte[] {
+      (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)
+    };
+  }
+
+  private float[] randomQuery() {
+    float[] query = new float[DIMENSION];
+    for (int d = 0; d < DIMENSION; d++) {
+      query[d] = (float) random.nextGaussian();
+    }
+    return query;
+  }
+}
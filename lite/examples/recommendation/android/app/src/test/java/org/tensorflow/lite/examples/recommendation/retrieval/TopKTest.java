@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tensorflow.lite.examples.recommendation.retrieval;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link TopK}, against sorting. */
+@RunWith(JUnit4.class)
+public final class TopKTest {
+  @Test
+  public void selectShouldMatchSorting() {
+    Random random = new Random(3);
+    for (int trial = 0; trial < 100; trial++) {
+      int numScores = random.nextInt(200);
+      int k = 1 + random.nextInt(20);
+      float[] scores = new float[numScores];
+      for (int i = 0; i < numScores; i++) {
+        scores[i] = random.nextInt(50);
+      }
+      int[] indices = new int[k];
+      float[] bestScores = new float[k];
+
+      int count = TopK.select(scores, numScores, k, indices, bestScores);
+
+      float[] sorted = scores.clone();
+      Arrays.sort(sorted);
+      assertThat(count).isEqualTo(Math.min(k, numScores));
+      for (int i = 0; i < count; i++) {
+        assertThat(bestScores[i]).isEqualTo(sorted[numScores - 1 - i]);
+        assertThat(scores[indices[i]]).isEqualTo(bestScores[i]);
+      }
+    }
+  }
+
+  @Test
+  public void selectShouldOnlyConsiderTheGivenNumberOfScores() {
+    float[] scores = {1, 5, 3, 9, 7};
+    int[] indices = new int[3];
+    float[] bestScores = new float[3];
+
+    int count = TopK.select(scores, 3, 3, indices, bestScores);
+
+    assertThat(count).isEqualTo(3);
+    assertThat(indices).isEqualTo(new int[] {1, 2, 0});
+    assertThat(bestScores).isEqualTo(new float[] {5, 3, 1});
+  }
+}
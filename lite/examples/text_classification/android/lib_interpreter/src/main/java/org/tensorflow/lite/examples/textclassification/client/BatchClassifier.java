@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.textclassification.client;
+
+import android.os.Handler;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects texts submitted one by one into batches for {@link
+ * TextClassificationClient#classifyBatch}.
+ *
+ * <p>Pending texts are classified on the handler thread as soon as a batch is full, or once the
+ * oldest of them has waited for the max latency, so that a trickle of texts is not held back
+ * waiting for a full batch.
+ */
+public final class BatchClassifier {
+  /** Receives the classification results of a submitted text, on the handler thread. */
+  public interface Callback {
+    void onResults(String text, List<Result> results);
+  }
+
+  private final TextClassificationClient client;
+  private final Handler handler;
+  private final int maxBatchSize;
+  private final long maxLatencyMs;
+  private final Runnable flushRunnable = this::flush;
+
+  // Guarded by this.
+  private List<String> pendingTexts = new ArrayList<>();
+  private List<Callback> pendingCallbacks = new ArrayList<>();
+
+  /**
+   * @param handler handler of the thread that classifies the texts and calls the callbacks.
+   * @param maxBatchSize number of pending texts that are classified right away.
+   * @param maxLatencyMs longest time a text waits for a batch to fill up.
+   */
+  public BatchClassifier(
+      TextClassificationClient client, Handler handler, int maxBatchSize, long maxLatencyMs) {
+    if (maxBatchSize < 1 || maxLatencyMs < 0) {
+      throw new IllegalArgumentException("Invalid max batch size or max latency.");
+    }
+    this.client = client;
+    this.handler = handler;
+    this.maxBatchSize = maxBatchSize;
+    this.maxLatencyMs = maxLatencyMs;
+  }
+
+  /** Queues a text to be classified with the next batch. */
+  public synchronized void submit(String text, Callback callback) {
+    pendingTexts.add(text);
+    pendingCallbacks.add(callback);
+    if (pendingTexts.size() >= maxBatchSize) {
+      handler.removeCallbacks(flushRunnable);
+      handler.post(flushRunnable);
+    } else if (pendingTexts.size() == 1) {
+      handler.postDelayed(flushRunnable, maxLatencyMs);
+    }
+  }
+
+  /** Classifies all pending texts on the calling thread, and calls their callbacks. */
+  public void flush() {
+    List<String> texts;
+    List<Callback> callbacks;
+    synchronized (this) {
+      handler.removeCallbacks(flushRunnable);
+      if (pendingTexts.isEmpty()) {
+        return;
+      }
+      texts = pendingTexts;
+      callbacks = pendingCallbacks;
+      pendingTexts = new ArrayList<>();
+      pendingCallbacks = new ArrayList<>();
+    }
+
+    List<List<Result>> results = client.classifyBatch(texts);
+    for (int i = 0; i < texts.size(); i++) {
+      callbacks.get(i).onResults(texts.get(i), results.get(i));
+    }
+  }
+
+  /** Number of texts waiting to be classified. */
+  public synchronized int getPendingCount() {
+    return pendingTexts.size();
+  }
+}
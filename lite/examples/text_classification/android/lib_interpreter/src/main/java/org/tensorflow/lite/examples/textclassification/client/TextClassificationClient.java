@@ -17,10 +17,16 @@
 package org.tensorflow.lite.examples.textclassification.client;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.os.Build;
 import android.util.Log;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -34,7 +40,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.zip.CRC32;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.support.metadata.MetadataExtractor;
 
@@ -43,26 +49,37 @@ public class TextClassificationClient {
   private static final String TAG = "Interpreter";
 
   private static final int SENTENCE_LEN = 256; // The maximum length of an input sentence.
-  // Simple delimiter to split words.
-  private static final String SIMPLE_SPACE_OR_PUNCTUATION = " |\\,|\\.|\\!|\\?|\n";
   private static final String MODEL_PATH = "text_classification.tflite";
-  /*
-   * Reserved values in ImdbDataSet dic:
-   * dic["<PAD>"] = 0      used for padding
-   * dic["<START>"] = 1    mark for the start of a sentence
-   * dic["<UNKNOWN>"] = 2  mark for unknown words (OOV)
-   */
-  private static final String START = "<START>";
-  private static final String PAD = "<PAD>";
-  private static final String UNKNOWN = "<UNKNOWN>";
+  private static final int[] SINGLE_INPUT_SHAPE = {1, SENTENCE_LEN};
 
   /** Number of results to show in the UI. */
   private static final int MAX_RESULTS = 3;
 
+  /** Default maximum number of texts classified by one run of the interpreter. */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
+  private static final String DIC_KEY = MODEL_PATH + "#vocab.txt";
+  private static final String LABELS_KEY = MODEL_PATH + "#labels.txt";
+  private static final String DIC_SNAPSHOT_NAME = "text_classification_vocab.snapshot";
+  private static final VocabularySnapshot EMPTY_DIC =
+      VocabularySnapshot.build(Collections.emptyMap(), 0, 0);
+
   private final Context context;
-  private final Map<String, Integer> dic = new HashMap<>();
-  private final List<String> labels = new ArrayList<>();
+  private VocabularySnapshot dic = EMPTY_DIC;
+  private List<String> labels = Collections.emptyList();
+  private TextTokenizer tokenizer = new TextTokenizer(EMPTY_DIC);
   private Interpreter tflite;
+  // Input and output tensors and top results, which are reused by every run.
+  private final int[][] input = new int[1][SENTENCE_LEN];
+  private float[][] output = new float[1][0];
+  private final int[] topIndices = new int[MAX_RESULTS];
+  private final float[] topScores = new float[MAX_RESULTS];
+  // Input and output tensors of batched runs, which have one row per text of a full batch.
+  private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+  private int[][] batchInput = new int[0][];
+  private float[][] batchOutput = new float[0][];
+  // Handles of the model, dictionary and labels, which are shared through the registry.
+  private final List<ModelRegistry.Handle<?>> modelHandles = new ArrayList<>();
 
   public TextClassificationClient(Context context) {
     this.context = context;
@@ -73,70 +90,176 @@ public class TextClassificationClient {
     loadModel();
   }
 
-  /** Load TF Lite model. */
+  /**
+   * Load TF Lite model. The model, dictionary and labels are kept warm by the {@link
+   * ModelRegistry} after {@link #unload}, so loading them again is cheap.
+   */
   private synchronized void loadModel() {
+    unload();
     try {
+      ModelRegistry registry = ModelRegistry.getInstance(context);
+
       // Load the TF Lite model
-      ByteBuffer buffer = loadModelFile(this.context.getAssets(), MODEL_PATH);
-      tflite = new Interpreter(buffer);
+      tflite =
+          acquire(
+              registry, MODEL_PATH, () -> new Interpreter(loadModelFile(context.getAssets())));
       Log.v(TAG, "TFLite model loaded.");
 
-      // Use metadata extractor to extract the dictionary and label files.
-      MetadataExtractor metadataExtractor = new MetadataExtractor(buffer);
-
       // Extract and load the dictionary file.
-      InputStream dictionaryFile = metadataExtractor.getAssociatedFile("vocab.txt");
-      loadDictionaryFile(dictionaryFile);
+      dic = acquire(registry, DIC_KEY, this::loadDictionary);
+      tokenizer = new TextTokenizer(dic);
       Log.v(TAG, "Dictionary loaded.");
 
       // Extract and load the label file.
-      InputStream labelFile = metadataExtractor.getAssociatedFile("labels.txt");
-      loadLabelFile(labelFile);
-      Log.v(TAG, "Labels loaded.");
+      labels = acquire(registry, LABELS_KEY, () -> loadLabelFile(getAssociatedFile("labels.txt")));
+      output = new float[1][labels.size()];
+      batchOutput = new float[0][];
+      Log.v(TAG, "Labels loaded. Registry " + registry.getStats());
 
     } catch (IOException ex) {
       Log.e(TAG, "Error loading TF Lite model.\n", ex);
     }
   }
 
-  /** Free up resources as the client is no longer needed. */
+  private <T> T acquire(ModelRegistry registry, String key, ModelRegistry.Loader<T> loader)
+      throws IOException {
+    ModelRegistry.Handle<T> handle = registry.acquire(key, loader);
+    modelHandles.add(handle);
+    return handle.get();
+  }
+
+  /**
+   * Free up resources as the client is no longer needed. They stay warm in the {@link
+   * ModelRegistry} for a while.
+   */
   public synchronized void unload() {
-    tflite.close();
-    dic.clear();
-    labels.clear();
+    for (ModelRegistry.Handle<?> handle : modelHandles) {
+      handle.close();
+    }
+    modelHandles.clear();
+    tflite = null;
+    dic = EMPTY_DIC;
+    tokenizer = new TextTokenizer(EMPTY_DIC);
+    labels = Collections.emptyList();
+    output = new float[1][0];
+    batchOutput = new float[0][];
   }
 
   /** Classify an input string and returns the classification results. */
   public synchronized List<Result> classify(String text) {
-    // Pre-prosessing.
-    int[][] input = tokenizeInputText(text);
+    int numResults = classifyTopK(text, topIndices, topScores);
+    // Return the probability of the best classes.
+    return toResults(numResults);
+  }
 
-    // Run inference.
-    Log.v(TAG, "Classifying text with TF Lite...");
-    float[][] output = new float[1][labels.size()];
-    tflite.run(input, output);
+  /**
+   * Classify input strings and returns the classification results of each one, in the same order.
+   * Up to {@link #setMaxBatchSize max batch size} strings are classified by a single run of the
+   * interpreter, with its input resized to the number of strings.
+   */
+  public synchronized List<List<Result>> classifyBatch(List<String> texts) {
+    List<List<Result>> results = new ArrayList<>(texts.size());
+    for (int start = 0; start < texts.size(); start += maxBatchSize) {
+      int batchSize = Math.min(maxBatchSize, texts.size() - start);
+      if (batchInput.length != maxBatchSize || batchOutput.length != maxBatchSize) {
+        batchInput = new int[maxBatchSize][SENTENCE_LEN];
+        batchOutput = new float[maxBatchSize][labels.size()];
+      }
+      // A partial batch shares the rows of the full batch buffers.
+      int[][] inputRows =
+          batchSize == maxBatchSize ? batchInput : Arrays.copyOf(batchInput, batchSize);
+      float[][] outputRows =
+          batchSize == maxBatchSize ? batchOutput : Arrays.copyOf(batchOutput, batchSize);
 
-    // Find the best classifications.
-    PriorityQueue<Result> pq =
-        new PriorityQueue<>(
-            MAX_RESULTS, (lhs, rhs) -> Float.compare(rhs.getConfidence(), lhs.getConfidence()));
-    for (int i = 0; i < labels.size(); i++) {
-      pq.add(new Result("" + i, labels.get(i), output[0][i]));
+      // Pre-prosessing.
+      for (int i = 0; i < batchSize; i++) {
+        tokenizer.tokenize(texts.get(start + i), inputRows[i]);
+      }
+
+      // Run inference.
+      Log.v(TAG, "Classifying " + batchSize + " texts with TF Lite...");
+      // The interpreter may be shared with other clients, which may run other batch sizes.
+      synchronized (tflite) {
+        tflite.resizeInput(0, new int[] {batchSize, SENTENCE_LEN});
+        tflite.run(inputRows, outputRows);
+      }
+
+      // Find the best classifications of every text.
+      for (int i = 0; i < batchSize; i++) {
+        results.add(toResults(selectTopK(outputRows[i], topIndices, topScores)));
+      }
     }
-    final ArrayList<Result> results = new ArrayList<>();
-    while (!pq.isEmpty()) {
-      results.add(pq.poll());
+    return results;
+  }
+
+  /** Sets the maximum number of texts classified by one run of the interpreter. */
+  public synchronized void setMaxBatchSize(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Invalid max batch size: " + maxBatchSize);
     }
+    this.maxBatchSize = maxBatchSize;
+  }
 
-    Collections.sort(results);
-    // Return the probability of each class.
+  private List<Result> toResults(int numResults) {
+    final ArrayList<Result> results = new ArrayList<>(numResults);
+    for (int i = 0; i < numResults; i++) {
+      int labelIdx = topIndices[i];
+      results.add(new Result(String.valueOf(labelIdx), labels.get(labelIdx), topScores[i]));
+    }
     return results;
   }
 
+  /**
+   * Classify an input text without allocating, so that a stream of texts can be classified on a
+   * single thread without garbage collection pauses.
+   *
+   * @param labelIndices receives the indices of the best labels, best first. Its length is the
+   *     number of labels to return.
+   * @param scores receives the scores of the best labels, at least as long as labelIndices.
+   * @return number of labels written, which is less than requested if the model has fewer labels.
+   */
+  public synchronized int classifyTopK(CharSequence text, int[] labelIndices, float[] scores) {
+    // Pre-prosessing.
+    tokenizer.tokenize(text, input[0]);
+
+    // Run inference.
+    // The interpreter may be shared with other clients.
+    synchronized (tflite) {
+      tflite.resizeInput(0, SINGLE_INPUT_SHAPE);
+      tflite.run(input, output);
+    }
+
+    // Find the best classifications.
+    return selectTopK(output[0], labelIndices, scores);
+  }
+
+  /**
+   * Selects the largest scores by insertion into the sorted top arrays, which is cheaper than
+   * sorting or a heap for the few results that are shown. Ties keep the lower index first.
+   */
+  static int selectTopK(float[] allScores, int[] topIndices, float[] topScores) {
+    int k = Math.min(Math.min(topIndices.length, topScores.length), allScores.length);
+    int count = 0;
+    for (int index = 0; index < allScores.length && k > 0; index++) {
+      float score = allScores[index];
+      if (count == k && !(score > topScores[k - 1])) {
+        continue;
+      }
+      int pos = count < k ? count++ : k - 1;
+      while (pos > 0 && score > topScores[pos - 1]) {
+        topIndices[pos] = topIndices[pos - 1];
+        topScores[pos] = topScores[pos - 1];
+        pos--;
+      }
+      topIndices[pos] = index;
+      topScores[pos] = score;
+    }
+    return count;
+  }
+
   /** Load TF Lite model from assets. */
-  private static MappedByteBuffer loadModelFile(AssetManager assetManager, String modelPath)
-      throws IOException {
-    try (AssetFileDescriptor fileDescriptor = assetManager.openFd(modelPath);
+  private static MappedByteBuffer loadModelFile(AssetManager assetManager) throws IOException {
+    try (AssetFileDescriptor fileDescriptor = assetManager.openFd(MODEL_PATH);
         FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
       FileChannel fileChannel = inputStream.getChannel();
       long startOffset = fileDescriptor.getStartOffset();
@@ -145,17 +268,117 @@ public class TextClassificationClient {
     }
   }
 
-  /** Load dictionary from model file. */
-  private void loadLabelFile(InputStream ins) throws IOException {
+  /** Extract a file associated with the model from its metadata. */
+  private InputStream getAssociatedFile(String fileName) throws IOException {
+    return new MetadataExtractor(loadModelFile(context.getAssets())).getAssociatedFile(fileName);
+  }
+
+  /** Load labels from model file. */
+  private static List<String> loadLabelFile(InputStream ins) throws IOException {
+    List<String> labels = new ArrayList<>();
     BufferedReader reader = new BufferedReader(new InputStreamReader(ins));
     // Each line in the label file is a label.
     while (reader.ready()) {
       labels.add(reader.readLine());
     }
+    return Collections.unmodifiableList(labels);
   }
 
-  /** Load labels from model file. */
-  private void loadDictionaryFile(InputStream ins) throws IOException {
+  /**
+   * Load dictionary through a {@link VocabularySnapshot} in the cache directory. The snapshot is
+   * created on the first load, and memory mapped as long as the dictionary file does not change.
+   *
+   * <p>The snapshot is keyed by {@link #computeSourceKey}, which does not read the dictionary. Only
+   * when the key changes, the dictionary is read and its checksum decides whether the snapshot is
+   * still up to date.
+   */
+  private VocabularySnapshot loadDictionary() throws IOException {
+    long sourceKey = computeSourceKey();
+    File snapshotFile = new File(context.getCacheDir(), DIC_SNAPSHOT_NAME);
+    VocabularySnapshot cachedSnapshot = null;
+    if (snapshotFile.exists()) {
+      try {
+        cachedSnapshot = VocabularySnapshot.read(snapshotFile);
+        if (cachedSnapshot.getSourceKey() == sourceKey) {
+          Log.v(TAG, "Dictionary loaded from snapshot.");
+          return cachedSnapshot;
+        }
+      } catch (IOException ex) {
+        Log.w(TAG, "Ignoring dictionary snapshot.", ex);
+      }
+    }
+
+    byte[] dicBytes = readFully(getAssociatedFile("vocab.txt"));
+    CRC32 crc = new CRC32();
+    crc.update(dicBytes, 0, dicBytes.length);
+    long checksum = crc.getValue();
+    if (cachedSnapshot != null && cachedSnapshot.getSourceChecksum() == checksum) {
+      try {
+        VocabularySnapshot.writeSourceKey(snapshotFile, sourceKey);
+      } catch (IOException ex) {
+        Log.w(TAG, "Cannot update dictionary snapshot.", ex);
+      }
+      Log.v(TAG, "Dictionary loaded from snapshot.");
+      return cachedSnapshot;
+    }
+
+    VocabularySnapshot snapshot =
+        VocabularySnapshot.build(
+            loadDictionaryFile(new ByteArrayInputStream(dicBytes)), sourceKey, checksum);
+    try {
+      snapshot.write(snapshotFile);
+    } catch (IOException ex) {
+      Log.w(TAG, "Cannot write dictionary snapshot.", ex);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Computes a key of the model file, which holds the dictionary, that changes whenever the file
+   * may have changed. Assets only change when the app is installed again, so the key combines the
+   * version code and the install time of the app with the size of the model. Unlike a checksum, it
+   * does not read the model.
+   */
+  private long computeSourceKey() throws IOException {
+    PackageInfo packageInfo;
+    try {
+      packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+    } catch (PackageManager.NameNotFoundException ex) {
+      throw new IOException("Cannot find the package of the app.", ex);
+    }
+    long modelSize;
+    try (AssetFileDescriptor fileDescriptor = context.getAssets().openFd(MODEL_PATH)) {
+      modelSize = fileDescriptor.getLength();
+    }
+    CRC32 key = new CRC32();
+    ByteBuffer keyBytes = ByteBuffer.allocate(3 * 8);
+    keyBytes.putLong(getVersionCode(packageInfo));
+    keyBytes.putLong(packageInfo.lastUpdateTime);
+    keyBytes.putLong(modelSize);
+    key.update(keyBytes.array());
+    return key.getValue();
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long getVersionCode(PackageInfo packageInfo) {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+        ? packageInfo.getLongVersionCode()
+        : packageInfo.versionCode;
+  }
+
+  private static byte[] readFully(InputStream ins) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    int numRead;
+    while ((numRead = ins.read(chunk)) != -1) {
+      out.write(chunk, 0, numRead);
+    }
+    return out.toByteArray();
+  }
+
+  /** Load dictionary from model file. */
+  private static Map<String, Integer> loadDictionaryFile(InputStream ins) throws IOException {
+    Map<String, Integer> dic = new HashMap<>();
     BufferedReader reader = new BufferedReader(new InputStreamReader(ins));
     // Each line in the dictionary has two columns.
     // First column is a word, and the second is the index of this word.
@@ -166,32 +389,19 @@ public class TextClassificationClient {
       }
       dic.put(line.get(0), Integer.parseInt(line.get(1)));
     }
+    return dic;
   }
 
-  /** Pre-prosessing: tokenize and map the input words into a float array. */
-  int[][] tokenizeInputText(String text) {
-    int[] tmp = new int[SENTENCE_LEN];
-    List<String> array = Arrays.asList(text.split(SIMPLE_SPACE_OR_PUNCTUATION));
-
-    int index = 0;
-    // Prepend <START> if it is in vocabulary file.
-    if (dic.containsKey(START)) {
-      tmp[index++] = dic.get(START);
-    }
-
-    for (String word : array) {
-      if (index >= SENTENCE_LEN) {
-        break;
-      }
-      tmp[index++] = dic.containsKey(word) ? dic.get(word) : (int) dic.get(UNKNOWN);
-    }
-    // Padding and wrapping.
-    Arrays.fill(tmp, index, SENTENCE_LEN - 1, (int) dic.get(PAD));
-    int[][] ans = {tmp};
-    return ans;
+  /**
+   * Pre-prosessing: tokenize and map the input words into the input tensor, which is reused by
+   * the next run.
+   */
+  synchronized int[][] tokenizeInputText(String text) {
+    tokenizer.tokenize(text, input[0]);
+    return input;
   }
 
-  Map<String, Integer> getDic() {
+  VocabularySnapshot getDic() {
     return this.dic;
   }
 
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.textclassification.client;
+
+import java.util.Arrays;
+
+/**
+ * Splits text into words at spaces and basic punctuation, and writes their ids into a model input
+ * row, in a single scan over the chars that allocates nothing.
+ *
+ * <p>Words are split exactly like {@code text.split(" |\\,|\\.|\\!|\\?|\n")} would: runs of
+ * delimiters give empty words, which map to the unknown id, but trailing empty words are dropped.
+ */
+final class TextTokenizer {
+  /*
+   * Reserved values in ImdbDataSet dic:
+   * dic["<PAD>"] = 0      used for padding
+   * dic["<START>"] = 1    mark for the start of a sentence
+   * dic["<UNKNOWN>"] = 2  mark for unknown words (OOV)
+   */
+  private static final String START = "<START>";
+  private static final String PAD = "<PAD>";
+  private static final String UNKNOWN = "<UNKNOWN>";
+
+  private final VocabularySnapshot dic;
+  private final int startId;
+  private final int padId;
+  private final int unknownId;
+  private final int emptyWordId;
+
+  TextTokenizer(VocabularySnapshot dic) {
+    this.dic = dic;
+    this.startId = dic.getId(START);
+    this.padId = dic.getId(PAD);
+    this.unknownId = dic.getId(UNKNOWN);
+    int id = dic.getId("");
+    this.emptyWordId = id != VocabularySnapshot.NOT_FOUND ? id : unknownId;
+  }
+
+  /**
+   * Fills a model input row with the ids of the words of the text, prepended with the start id if
+   * the dictionary has one, truncated or padded to the length of the row.
+   *
+   * @return number of ids before the padding.
+   */
+  int tokenize(CharSequence text, int[] ids) {
+    int index = 0;
+    // Prepend <START> if it is in vocabulary file.
+    if (startId != VocabularySnapshot.NOT_FOUND && index < ids.length) {
+      ids[index++] = startId;
+    }
+
+    // Empty words are only written once a non-empty word follows them.
+    int numPendingEmptyWords = 0;
+    int length = text.length();
+    int wordStart = 0;
+    for (int pos = 0; pos <= length && index < ids.length; pos++) {
+      if (pos < length && !isDelimiter(text.charAt(pos))) {
+        continue;
+      }
+      if (pos > wordStart) {
+        while (numPendingEmptyWords > 0 && index < ids.length) {
+          ids[index++] = emptyWordId;
+          numPendingEmptyWords--;
+        }
+        if (index < ids.length) {
+          int id = dic.getId(text, wordStart, pos);
+          ids[index++] = id != VocabularySnapshot.NOT_FOUND ? id : unknownId;
+        }
+      } else if (pos < length) {
+        numPendingEmptyWords++;
+      } else if (length == 0) {
+        // An empty text is a single empty word.
+        ids[index++] = emptyWordId;
+      }
+      wordStart = pos + 1;
+    }
+
+    // Padding.
+    Arrays.fill(ids, index, ids.length, padId);
+    return index;
+  }
+
+  private static boolean isDelimiter(char ch) {
+    return ch == ' ' || ch == ',' || ch == '.' || ch == '!' || ch == '?' || ch == '\n';
+  }
+}
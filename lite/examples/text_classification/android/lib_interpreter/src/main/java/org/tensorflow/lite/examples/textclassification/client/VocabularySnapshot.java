@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.textclassification.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Word to id dictionary in a compact binary format, which can be memory mapped from a file instead
+ * of parsing the dictionary text on every load.
+ *
+ * <p>The snapshot is little-endian and holds a header (magic, version, key and checksum of the
+ * source dictionary file, number of words, hash table size), the offsets of all words in a UTF-8
+ * string pool sorted by word, the id of every word, an open-addressed hash table of word indices,
+ * and the pool. Lookups hash the chars of the word, and compare them with the UTF-8 bytes in the
+ * pool, so they never allocate.
+ */
+public final class VocabularySnapshot {
+  /** Returned by {@link #getId} for words that are not in the dictionary. */
+  public static final int NOT_FOUND = -1;
+
+  private static final int MAGIC = 0x54564f43; // "TVOC"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 32;
+  private static final int SOURCE_KEY_OFFSET = 8;
+  // Hash table slots hold a word index plus one, so that zero marks an empty slot.
+  private static final int EMPTY_SLOT = 0;
+
+  private final ByteBuffer buffer;
+  private final int numWords;
+  private final int tableMask;
+  private final int offsetsStart;
+  private final int idsStart;
+  private final int tableStart;
+  private final int poolStart;
+
+  private VocabularySnapshot(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a vocabulary snapshot.");
+    }
+    numWords = buffer.getInt(24);
+    int tableSize = buffer.getInt(28);
+    if (numWords < 0 || Integer.bitCount(tableSize) != 1 || tableSize <= numWords) {
+      throw new IOException("Invalid vocabulary snapshot.");
+    }
+    // Sizes are computed in long, so that a corrupt header cannot overflow them.
+    if (HEADER_SIZE + 4L * (2L * numWords + 1 + tableSize) > buffer.limit()) {
+      throw new IOException("Truncated vocabulary snapshot.");
+    }
+    tableMask = tableSize - 1;
+    offsetsStart = HEADER_SIZE;
+    idsStart = offsetsStart + 4 * (numWords + 1);
+    tableStart = idsStart + 4 * numWords;
+    poolStart = tableStart + 4 * tableSize;
+
+    // Words must follow each other in the pool, and table slots must hold word indices.
+    int poolSize = buffer.limit() - poolStart;
+    if (buffer.getInt(offsetsStart) != 0) {
+      throw new IOException("Invalid vocabulary snapshot.");
+    }
+    for (int wordIdx = 0; wordIdx < numWords; wordIdx++) {
+      int start = buffer.getInt(offsetsStart + 4 * wordIdx);
+      int end = buffer.getInt(offsetsStart + 4 * (wordIdx + 1));
+      if (end < start || end > poolSize) {
+        throw new IOException("Invalid vocabulary snapshot.");
+      }
+    }
+    for (int slot = 0; slot < tableSize; slot++) {
+      int entry = buffer.getInt(tableStart + 4 * slot);
+      if (entry < EMPTY_SLOT || entry > numWords) {
+        throw new IOException("Invalid vocabulary snapshot.");
+      }
+    }
+  }
+
+  /**
+   * Builds a snapshot of a dictionary in memory.
+   *
+   * @param sourceKey cheap key of the dictionary file, which changes whenever the file may have
+   *     changed.
+   * @param sourceChecksum checksum of the dictionary file.
+   */
+  public static VocabularySnapshot build(
+      Map<String, Integer> dic, long sourceKey, long sourceChecksum) {
+    List<String> words = new ArrayList<>(dic.keySet());
+    Collections.sort(words);
+    byte[][] wordBytes = new byte[words.size()][];
+    int poolSize = 0;
+    for (int index = 0; index < wordBytes.length; index++) {
+      wordBytes[index] = words.get(index).getBytes(UTF_8);
+      poolSize += wordBytes[index].length;
+    }
+    // Keep the load factor at most 1/2, so that probe sequences stay short.
+    int tableSize = Integer.highestOneBit(Math.max(1, words.size()) * 2) * 2;
+    int size = HEADER_SIZE + 4 * (words.size() + 1) + 4 * words.size() + 4 * tableSize + poolSize;
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putLong(sourceKey).putLong(sourceChecksum);
+    buffer.putInt(words.size()).putInt(tableSize);
+    int offset = 0;
+    for (byte[] bytes : wordBytes) {
+      buffer.putInt(offset);
+      offset += bytes.length;
+    }
+    buffer.putInt(offset);
+    for (String word : words) {
+      buffer.putInt(dic.get(word));
+    }
+    int tableStart = buffer.position();
+    for (int index = 0; index < words.size(); index++) {
+      String word = words.get(index);
+      int slot = hash(word, 0, word.length()) & (tableSize - 1);
+      while (buffer.getInt(tableStart + 4 * slot) != EMPTY_SLOT) {
+        slot = (slot + 1) & (tableSize - 1);
+      }
+      buffer.putInt(tableStart + 4 * slot, index + 1);
+    }
+    buffer.position(tableStart + 4 * tableSize);
+    for (byte[] bytes : wordBytes) {
+      buffer.put(bytes);
+    }
+    buffer.flip();
+    try {
+      return new VocabularySnapshot(buffer);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Memory maps a snapshot file. Callers check {@link #getSourceKey} and, if it differs, {@link
+   * #getSourceChecksum} to find out whether the snapshot is still up to date.
+   *
+   * @throws IOException if the file cannot be read or is not a valid snapshot.
+   */
+  public static VocabularySnapshot read(File file) throws IOException {
+    ByteBuffer buffer;
+    try (FileInputStream in = new FileInputStream(file)) {
+      FileChannel channel = in.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.limit() < HEADER_SIZE) {
+      throw new IOException("Truncated vocabulary snapshot.");
+    }
+    return new VocabularySnapshot(buffer);
+  }
+
+  /**
+   * Replaces the source key of a snapshot file in place, after its checksum showed that it is still
+   * up to date. A torn write only makes the key mismatch again, so it needs no atomic replace.
+   */
+  public static void writeSourceKey(File file, long sourceKey) throws IOException {
+    ByteBuffer key = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    key.putLong(sourceKey).flip();
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      FileChannel channel = out.getChannel();
+      while (key.hasRemaining()) {
+        channel.write(key, SOURCE_KEY_OFFSET + key.position());
+      }
+    }
+  }
+
+  /** Writes the snapshot to a file, replacing it atomically. */
+  public void write(File file) throws IOException {
+    ByteBuffer content = buffer.duplicate();
+    content.clear();
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+      FileChannel channel = out.getChannel();
+      while (content.hasRemaining()) {
+        channel.write(content);
+      }
+      out.getFD().sync();
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Cannot write vocabulary snapshot " + file);
+    }
+  }
+
+  public long getSourceKey() {
+    return buffer.getLong(SOURCE_KEY_OFFSET);
+  }
+
+  public long getSourceChecksum() {
+    return buffer.getLong(16);
+  }
+
+  /** Number of words in the dictionary. */
+  public int size() {
+    return numWords;
+  }
+
+  /** Returns the id of a word, or {@link #NOT_FOUND}. */
+  public int getId(CharSequence word) {
+    return getId(word, 0, word.length());
+  }
+
+  /** Returns the id of the word text[start, end), or {@link #NOT_FOUND}. */
+  public int getId(CharSequence text, int start, int end) {
+    int slot = hash(text, start, end) & tableMask;
+    // Probing stops after the whole table, in case a corrupt table has no empty slot.
+    for (int probe = 0; probe <= tableMask; probe++) {
+      int entry = buffer.getInt(tableStart + 4 * slot);
+      if (entry == EMPTY_SLOT) {
+        return NOT_FOUND;
+      }
+      int wordIdx = entry - 1;
+      if (wordEquals(wordIdx, text, start, end)) {
+        return buffer.getInt(idsStart + 4 * wordIdx);
+      }
+      slot = (slot + 1) & tableMask;
+    }
+    return NOT_FOUND;
+  }
+
+  // FNV-1a over the UTF-16 chars of the word.
+  private static int hash(CharSequence text, int start, int end) {
+    int hash = 0x811c9dc5;
+    for (int index = start; index < end; index++) {
+      hash ^= text.charAt(index);
+      hash *= 0x01000193;
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  // Compares the UTF-8 bytes of a word in the pool with chars, decoding the bytes on the fly.
+  private boolean wordEquals(int wordIdx, CharSequence text, int start, int end) {
+    int pos = poolStart + buffer.getInt(offsetsStart + 4 * wordIdx);
+    int poolEnd = poolStart + buffer.getInt(offsetsStart + 4 * (wordIdx + 1));
+    int index = start;
+    while (pos < poolEnd) {
+      int b = buffer.get(pos) & 0xff;
+      int codePoint;
+      if (b < 0x80) {
+        codePoint = b;
+        pos += 1;
+      } else if (b < 0xe0) {
+        codePoint = ((b & 0x1f) << 6) | (buffer.get(pos + 1) & 0x3f);
+        pos += 2;
+      } else if (b < 0xf0) {
+        codePoint =
+            ((b & 0x0f) << 12) | ((buffer.get(pos + 1) & 0x3f) << 6) | (buffer.get(pos + 2) & 0x3f);
+        pos += 3;
+      } else {
+        codePoint =
+            ((b & 0x07) << 18)
+                | ((buffer.get(pos + 1) & 0x3f) << 12)
+                | ((buffer.get(pos + 2) & 0x3f) << 6)
+                | (buffer.get(pos + 3) & 0x3f);
+        pos += 4;
+      }
+
+      if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        if (index >= end || text.charAt(index) != codePoint) {
+          return false;
+        }
+        index++;
+      } else {
+        if (index + 1 >= end
+            || text.charAt(index) != Character.highSurrogate(codePoint)
+            || text.charAt(index + 1) != Character.lowSurrogate(codePoint)) {
+          return false;
+        }
+        index += 2;
+      }
+    }
+    return index == end;
+  }
+}
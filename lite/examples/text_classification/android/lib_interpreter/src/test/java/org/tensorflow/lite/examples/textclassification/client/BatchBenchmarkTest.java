@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.textclassification.client;
+
+import static org.junit.Assert.assertEquals;
+
+import android.util.Log;
+import androidx.test.core.app.ApplicationProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares classifying texts one by one with {@link TextClassificationClient#classifyBatch} at
+ * several batch sizes. Results are logged as texts per second.
+ *
+ * <p>It takes a while and checks nothing but that batches give the same top results, which
+ * {@link UnitTest#classifyBatchTest} already covers, so it only runs when the ignore is removed.
+ */
+@Ignore("Benchmark, run manually.")
+@RunWith(RobolectricTestRunner.class)
+public final class BatchBenchmarkTest {
+  private static final String TAG = "BatchBenchmark";
+  private static final String[] WORDS = {
+    "this", "film", "is", "an", "interesting", "boring", "story", "and", "the", "actors", "were",
+    "great", "bad", "not", "very", "much", "worse", "liked", "it", "too"
+  };
+  private static final int NUM_TEXTS = 512;
+  private static final int WORDS_PER_TEXT = 40;
+  private static final int[] BATCH_SIZES = {1, 8, 32, 128};
+  private static final int WARMUP_ROUNDS = 2;
+  private static final int MEASURED_ROUNDS = 5;
+
+  private TextClassificationClient client;
+  private final List<String> texts = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    client = new TextClassificationClient(ApplicationProvider.getApplicationContext());
+    client.load();
+
+    Random random = new Random(42);
+    for (int i = 0; i < NUM_TEXTS; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int word = 0; word < WORDS_PER_TEXT; word++) {
+        text.append(WORDS[random.nextInt(WORDS.length)]).append(word % 10 == 9 ? ". " : " ");
+      }
+      texts.add(text.toString());
+    }
+  }
+
+  @Test
+  public void batchBenchmark() {
+    List<String> expected = new ArrayList<>();
+    for (String text : texts) {
+      expected.add(client.classify(text).get(0).getTitle());
+    }
+
+    long singleNanos = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+      long startNanos = System.nanoTime();
+      for (String text : texts) {
+        client.classify(text);
+      }
+      if (round >= WARMUP_ROUNDS) {
+        singleNanos += System.nanoTime() - startNanos;
+      }
+    }
+    Log.i(
+        TAG,
+        String.format(
+            Locale.US, "One by one: %.0f texts/s", textsPerSecond(singleNanos, MEASURED_ROUNDS)));
+
+    for (int batchSize : BATCH_SIZES) {
+      client.setMaxBatchSize(batchSize);
+      List<List<Result>> results = client.classifyBatch(texts);
+      for (int i = 0; i < texts.size(); i++) {
+        assertEquals(expected.get(i), results.get(i).get(0).getTitle());
+      }
+
+      long batchNanos = 0;
+      for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+        long startNanos = System.nanoTime();
+        client.classifyBatch(texts);
+        if (round >= WARMUP_ROUNDS) {
+          batchNanos += System.nanoTime() - startNanos;
+        }
+      }
+      Log.i(
+          TAG,
+          String.format(
+              Locale.US,
+              "Batches of %d: %.0f texts/s",
+              batchSize,
+              textsPerSecond(batchNanos, MEASURED_ROUNDS)));
+    }
+  }
+
+  private double textsPerSecond(long nanos, int numRounds) {
+    return (double) texts.size() * numRounds * 1e9 / nanos;
+  }
+}
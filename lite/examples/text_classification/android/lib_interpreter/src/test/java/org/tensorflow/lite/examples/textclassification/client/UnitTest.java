@@ -19,15 +19,28 @@ package org.tensorflow.lite.examples.textclassification.client;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import android.os.Handler;
+import android.os.Looper;
 import androidx.test.core.app.ApplicationProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+import org.tensorflow.lite.Interpreter;
 
 /** Tests of {@link TextClassificationClient} */
 @RunWith(RobolectricTestRunner.class)
@@ -45,12 +58,90 @@ public final class UnitTest {
     assertNotNull(client.getTflite());
   }
 
+  @Test
+  public void reloadModelTest() {
+    Interpreter tflite = client.getTflite();
+    client.unload();
+    client.load();
+    // The model is kept warm by the registry.
+    assertSame(tflite, client.getTflite());
+  }
+
   @Test
   public void loadDictinaryTest() {
-    assertEquals(0, (int) client.getDic().get("<PAD>"));
-    assertEquals(1, (int) client.getDic().get("<START>"));
-    assertEquals(2, (int) client.getDic().get("<UNKNOWN>"));
-    assertEquals(3, (int) client.getDic().get("the"));
+    assertEquals(0, client.getDic().getId("<PAD>"));
+    assertEquals(1, client.getDic().getId("<START>"));
+    assertEquals(2, client.getDic().getId("<UNKNOWN>"));
+    assertEquals(3, client.getDic().getId("the"));
+  }
+
+  @Test
+  public void vocabularySnapshotTest() throws IOException {
+    Map<String, Integer> dic = new HashMap<>();
+    dic.put("<PAD>", 0);
+    dic.put("the", 3);
+    dic.put("caf\u00e9", 7);
+    dic.put("\ud83d\ude00", 9);
+    File file = File.createTempFile("vocab", ".snapshot");
+    try {
+      VocabularySnapshot.build(dic, /* sourceKey= */ 7, /* sourceChecksum= */ 42).write(file);
+      VocabularySnapshot snapshot = VocabularySnapshot.read(file);
+      assertEquals(7, snapshot.getSourceKey());
+      assertEquals(42, snapshot.getSourceChecksum());
+      assertEquals(4, snapshot.size());
+      assertEquals(0, snapshot.getId("<PAD>"));
+      assertEquals(7, snapshot.getId("caf\u00e9"));
+      assertEquals(9, snapshot.getId("\ud83d\ude00"));
+      assertEquals(3, snapshot.getId("at the end", 3, 6));
+      assertEquals(VocabularySnapshot.NOT_FOUND, snapshot.getId("th"));
+      assertEquals(VocabularySnapshot.NOT_FOUND, snapshot.getId("cafe"));
+      // The key is replaced in place, keeping the contents.
+      VocabularySnapshot.writeSourceKey(file, /* sourceKey= */ 8);
+      VocabularySnapshot updated = VocabularySnapshot.read(file);
+      assertEquals(8, updated.getSourceKey());
+      assertEquals(42, updated.getSourceChecksum());
+      assertEquals(7, updated.getId("caf\u00e9"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void corruptVocabularySnapshotTest() throws IOException {
+    Map<String, Integer> dic = new HashMap<>();
+    dic.put("the", 3);
+    File file = File.createTempFile("vocab", ".snapshot");
+    try {
+      // Word and table counts whose sizes overflow an int.
+      VocabularySnapshot.build(dic, /* sourceKey= */ 7, /* sourceChecksum= */ 42).write(file);
+      writeInt(file, /* offset= */ 24, 1 << 29);
+      writeInt(file, /* offset= */ 28, 1 << 30);
+      assertThrows(IOException.class, () -> VocabularySnapshot.read(file));
+
+      // A word ending beyond the pool.
+      VocabularySnapshot.build(dic, /* sourceKey= */ 7, /* sourceChecksum= */ 42).write(file);
+      writeInt(file, /* offset= */ 36, 1000);
+      assertThrows(IOException.class, () -> VocabularySnapshot.read(file));
+
+      // A table without empty slots, after the header, 2 word offsets and 1 id.
+      VocabularySnapshot.build(dic, /* sourceKey= */ 7, /* sourceChecksum= */ 42).write(file);
+      for (int slot = 0; slot < 4; slot++) {
+        writeInt(file, /* offset= */ 44 + 4 * slot, 1);
+      }
+      VocabularySnapshot snapshot = VocabularySnapshot.read(file);
+      assertEquals(3, snapshot.getId("the"));
+      assertEquals(VocabularySnapshot.NOT_FOUND, snapshot.getId("cafe"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void writeInt(File file, int offset, int value) throws IOException {
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.seek(offset);
+      // Snapshots are little-endian.
+      out.writeInt(Integer.reverseBytes(value));
+    }
   }
 
   @Test
@@ -71,6 +162,59 @@ public final class UnitTest {
     assertArrayEquals(expectOutput, clientOutput);
   }
 
+  @Test
+  public void tokenizerShouldSplitLikeRegexTest() {
+    Map<String, Integer> words = new HashMap<>();
+    words.put("<PAD>", 0);
+    words.put("<START>", 1);
+    words.put("<UNKNOWN>", 2);
+    words.put("a", 3);
+    words.put("b", 4);
+    TextTokenizer tokenizer = new TextTokenizer(VocabularySnapshot.build(words, 0, 0));
+    int[] ids = new int[6];
+    for (String text : new String[] {"", ",", "a", ",a..b.", "a b!?\n", " c?a"}) {
+      int[] expected = new int[ids.length];
+      int index = 0;
+      expected[index++] = 1;
+      for (String word : text.split(" |\\,|\\.|\\!|\\?|\n")) {
+        expected[index++] = words.containsKey(word) ? words.get(word) : 2;
+      }
+      assertEquals(text, index, tokenizer.tokenize(text, ids));
+      assertArrayEquals(text, expected, ids);
+    }
+
+    // Long texts are truncated.
+    assertEquals(3, tokenizer.tokenize("a b a b", new int[3]));
+  }
+
+  @Test
+  public void selectTopKTest() {
+    float[] scores = {0.1f, 0.7f, 0.3f, 0.7f, 0.9f};
+    int[] topIndices = new int[3];
+    float[] topScores = new float[3];
+    assertEquals(3, TextClassificationClient.selectTopK(scores, topIndices, topScores));
+    // Ties keep the lower index first.
+    assertArrayEquals(new int[] {4, 1, 3}, topIndices);
+    assertArrayEquals(new float[] {0.9f, 0.7f, 0.7f}, topScores, 0);
+
+    assertEquals(
+        2, TextClassificationClient.selectTopK(new float[] {0.2f, 0.8f}, topIndices, topScores));
+    assertEquals(1, topIndices[0]);
+    assertEquals(0, topIndices[1]);
+  }
+
+  @Test
+  public void classifyTopKTest() {
+    int[] labelIndices = new int[1];
+    float[] scores = new float[1];
+    assertEquals(
+        1,
+        client.classifyTopK(
+            "This film cannot be worse. It is way too boring.", labelIndices, scores));
+    assertEquals(0, labelIndices[0]);
+    assertTrue(scores[0] > 0.6);
+  }
+
   @Test
   public void predictTest() {
     Result positiveText =
@@ -84,4 +228,49 @@ public final class UnitTest {
     assertEquals("Negative", negativeText.getTitle());
     assertTrue(negativeText.getConfidence() > 0.6);
   }
+
+  @Test
+  public void classifyBatchTest() {
+    List<String> texts =
+        Arrays.asList(
+            "This is an interesting film. My family and I all liked it very much.",
+            "This film cannot be worse. It is way too boring.",
+            "Boring.");
+    // The last text is classified by a partial batch.
+    client.setMaxBatchSize(2);
+    List<List<Result>> results = client.classifyBatch(texts);
+    assertEquals(texts.size(), results.size());
+    for (int i = 0; i < texts.size(); i++) {
+      Result expected = client.classify(texts.get(i)).get(0);
+      Result actual = results.get(i).get(0);
+      assertEquals(expected.getTitle(), actual.getTitle());
+      assertEquals(expected.getConfidence(), actual.getConfidence(), 1e-5f);
+    }
+  }
+
+  @Test
+  public void batchClassifierTest() {
+    BatchClassifier batchClassifier =
+        new BatchClassifier(
+            client,
+            new Handler(Looper.getMainLooper()),
+            /* maxBatchSize= */ 2,
+            /* maxLatencyMs= */ 100);
+    List<String> classified = new ArrayList<>();
+    BatchClassifier.Callback callback = (text, results) -> classified.add(text);
+
+    // A full batch is classified right away.
+    batchClassifier.submit("interesting", callback);
+    batchClassifier.submit("boring", callback);
+    ShadowLooper.idleMainLooper();
+    assertEquals(Arrays.asList("interesting", "boring"), classified);
+
+    // A partial batch waits for the max latency.
+    batchClassifier.submit("film", callback);
+    ShadowLooper.idleMainLooper();
+    assertEquals(1, batchClassifier.getPendingCount());
+    ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+    assertEquals(0, batchClassifier.getPendingCount());
+    assertEquals(Arrays.asList("interesting", "boring", "film"), classified);
+  }
 }
@@ -61,4 +61,17 @@ public class TextClassificationClient {
     Collections.sort(results);
     return results;
   }
+
+  /**
+   * Classify input strings and returns the classification results of each one, in the same order.
+   * The task library runs the model on one string at a time, so this only saves the per-call
+   * overhead, but it lets {@link BatchClassifier} work with either client.
+   */
+  public List<List<Result>> classifyBatch(List<String> texts) {
+    List<List<Result>> results = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      results.add(classify(text));
+    }
+    return results;
+  }
 }
@@ -20,11 +20,18 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import android.os.Handler;
+import android.os.Looper;
 import androidx.test.core.app.ApplicationProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
 
 /** Tests of {@link TextClassificationClient} */
 @RunWith(RobolectricTestRunner.class)
@@ -55,4 +62,42 @@ public final class UnitTest {
     assertEquals("Negative", negativeText.getTitle());
     assertTrue(negativeText.getConfidence() > 0.6);
   }
+
+  @Test
+  public void classifyBatchTest() {
+    List<String> texts =
+        Arrays.asList(
+            "This is an interesting film. My family and I all liked it very much.",
+            "This film cannot be worse. It is way too boring.");
+    List<List<Result>> results = client.classifyBatch(texts);
+    assertEquals(2, results.size());
+    assertEquals("Positive", results.get(0).get(0).getTitle());
+    assertEquals("Negative", results.get(1).get(0).getTitle());
+  }
+
+  @Test
+  public void batchClassifierTest() {
+    BatchClassifier batchClassifier =
+        new BatchClassifier(
+            client,
+            new Handler(Looper.getMainLooper()),
+            /* maxBatchSize= */ 2,
+            /* maxLatencyMs= */ 100);
+    List<String> classified = new ArrayList<>();
+    BatchClassifier.Callback callback = (text, results) -> classified.add(text);
+
+    // A full batch is classified right away.
+    batchClassifier.submit("interesting", callback);
+    batchClassifier.submit("boring", callback);
+    ShadowLooper.idleMainLooper();
+    assertEquals(Arrays.asList("interesting", "boring"), classified);
+
+    // A partial batch waits for the max latency.
+    batchClassifier.submit("film", callback);
+    ShadowLooper.idleMainLooper();
+    assertEquals(1, batchClassifier.getPendingCount());
+    ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+    assertEquals(0, batchClassifier.getPendingCount());
+    assertEquals(Arrays.asList("interesting", "boring", "film"), classified);
+  }
 }